@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -53,7 +54,6 @@ import com.mostc.pftt.scenario.FileSystemScenario;
 import com.mostc.pftt.scenario.FileSystemScenario.IFileChooser;
 import com.mostc.pftt.util.TimerUtil;
 import com.mostc.pftt.util.TimerUtil.ObjectRunnable;
-import com.mostc.pftt.util.TimerUtil.TimerThread;
 import com.mostc.pftt.util.TimerUtil.WaitableRunnable;
 import com.sun.jna.Pointer;
 import com.sun.jna.platform.win32.Kernel32;
@@ -103,6 +103,8 @@ public abstract class LocalHost extends AHost {
 	protected final CommonCommandManager ccm; // share some 'shelling out' code with SSHHost
 	protected final HashMap<Thread,Object> close_thread_set; // for LocalExecHandle#close
 	protected static final AtomicInteger active_proc_counter = new AtomicInteger();
+	/** @see #setReleaseProcessHandles */
+	protected static volatile boolean release_process_handles;
 	
 	public LocalHost() {
 		close_thread_set = new HashMap<Thread,Object>();
@@ -147,6 +149,19 @@ public abstract class LocalHost extends AHost {
 		return is_windows;
 	}
 	
+	/** if TRUE, runs the garbage collector after each process exits to encourage the JVM to free up its
+	 * Windows process handle sooner (Windows may have problems if too many are left open too long, but
+	 * forcing a GC for every process is slow when running lots of processes).
+	 * 
+	 * Default is FALSE.
+	 * 
+	 * @see -release_process_handles console option
+	 * @param release_process_handles
+	 */
+	public static void setReleaseProcessHandles(boolean release_process_handles) {
+		LocalHost.release_process_handles = release_process_handles;
+	}
+	
 	static {
 		if (DEV>0) {
 			new File(LocalHost.getInstance().getPfttDir()).mkdirs();
@@ -454,9 +469,10 @@ public abstract class LocalHost extends AHost {
 							tlock.notifyAll();
 						}
 						
-						// encourage JVM to free up the Windows process handle (may have problems if too many are left open too long)
 						process.set(null);
-						System.gc();
+						if (release_process_handles)
+							// encourage JVM to free up the Windows process handle (may have problems if too many are left open too long)
+							System.gc();
 					} // end public void run
 				});
 		} // end public void close
@@ -472,11 +488,9 @@ public abstract class LocalHost extends AHost {
 			// read process' output (block until #close or exit)
 			exec_copy_lines(output_sb, max_chars, stdout, charset);
 			// ignores STDERR
-			for(;;) {
-				if (!doIsRunning(p))
-					break;
-				Thread.sleep(50);
-			}
+			//
+			// block until exit (if process doesn't exit, the timeout task will #close it)
+			exit_code = p.waitFor();
 			// wait for process exit (shouldn't get here until exit or #close though)
 			/*for (int time = 50;wait.get();) {
 				try {
@@ -506,14 +520,6 @@ public abstract class LocalHost extends AHost {
 			}*/
 			//
 
-			// try to set exit code after execution
-			try {
-				exit_code = p.exitValue();
-			} catch (IllegalThreadStateException ex )
-			{
-				ConsoleManagerUtil.printStackTrace(LocalHost.class, ex);
-			}
-			
 			active_proc_counter.decrementAndGet();
 			
 			// free up process handle
@@ -523,9 +529,10 @@ public abstract class LocalHost extends AHost {
 				ensureClosedAfterRun(p);
 			}
 			
-			// encourage JVM to free up the Windows process handle (may have problems if too many are left open too long)
 			process.set(null);
-			System.gc();
+			if (release_process_handles)
+				// encourage JVM to free up the Windows process handle (may have problems if too many are left open too long)
+				System.gc();
 		} // end protected void run
 		
 		protected abstract void ensureClosedAfterRun(Process p);
@@ -580,22 +587,23 @@ public abstract class LocalHost extends AHost {
 
 		@Override
 		public void run(ConsoleManager cm, StringBuilder output_sb, Charset charset, int timeout_sec, @SuppressWarnings("rawtypes") TestPackRunnerThread thread, int thread_slow_sec, int suspend_seconds, int max_chars) throws IOException, InterruptedException {
-			TimerThread a = null, b = null;
 			if (thread!=null && thread_slow_sec>NO_TIMEOUT) {
 				// TODO get rid of thread_slow_sec feature - just use AbstractLocalTestPackRunner
 				//b = TimerUtil.waitSeconds(thread_slow_sec, new ThreadSlowTask(thread));
 			}
 			
+			// shared scheduler: doesn't need a timer thread for each process
+			ScheduledFuture<?> a = null;
 			if (timeout_sec>NO_TIMEOUT) {
-				a = TimerUtil.waitSeconds(timeout_sec, new ExitMonitorTask(cm, this));
+				a = TimerUtil.scheduleSeconds(timeout_sec, new ExitMonitorTask(cm, this));
 			}
-						
-			this.run(output_sb, max_chars, charset, suspend_seconds);
 			
-			if (a!=null)
-				a.close();
-			if (b!=null)
-				b.close();
+			try {
+				this.run(output_sb, max_chars, charset, suspend_seconds);
+			} finally {
+				if (a!=null)
+					a.cancel(false);
+			}
 		}
 
 		@Override
@@ -585,4 +585,24 @@ public abstract class PSCAgentServer implements ConsoleManager, ITestResultRecei
 		return null;
 	}
 	
+	@Override
+	public int getResultWriterThreadCount() {
+		return 1;
+	}
+	
+	@Override
+	public boolean isResultPackSegment() {
+		return false;
+	}
+	
+	@Override
+	public boolean isLinearExpectF() {
+		return false;
+	}
+	
+	@Override
+	public int getConcurrentScenarioSets() {
+		return 1;
+	}
+	
 } // end public abstract class PSCAgentServer
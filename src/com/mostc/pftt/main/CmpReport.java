@@ -12,7 +12,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
@@ -49,8 +51,11 @@ import com.mostc.pftt.results.AbstractTestResultRW;
 import com.mostc.pftt.results.ConsoleManager;
 import com.mostc.pftt.results.ConsoleManagerUtil;
 import com.mostc.pftt.results.LocalConsoleManager;
+import com.mostc.pftt.results.PerformanceComparison;
+import com.mostc.pftt.results.PerformanceResultReader;
 import com.mostc.pftt.results.PhpResultPack;
 import com.mostc.pftt.results.PhpResultPackReader;
+import com.mostc.pftt.results.TestNameIndex;
 import com.mostc.pftt.results.TextBuilder;
 import com.mostc.pftt.util.EMailUtil;
 import com.mostc.pftt.util.EMailUtil.ESMTPAuthMethod;
@@ -75,6 +80,15 @@ public class CmpReport {
 		
 		return file_name + ".html";
 	}
+	static String generateFileName(PerformanceComparison cmp) {
+		String file_name = "Perf_CMP_"
+				+cmp.getBaseBuildInfo().getBuildBranch()+"-"+cmp.getBaseBuildInfo().getVersionRevision()+"-"+cmp.getBaseBuildInfo().getBuildType()+"-"+cmp.getBaseBuildInfo().getCPUArch()+"-"+cmp.getBaseBuildInfo().getCompiler()+
+				"_v_"
+				+cmp.getTestBuildInfo().getBuildBranch()+"-"+cmp.getTestBuildInfo().getVersionRevision()+"-"+cmp.getTestBuildInfo().getBuildType()+"-"+cmp.getTestBuildInfo().getCPUArch()+"-"+cmp.getTestBuildInfo().getCompiler();
+		file_name = StringUtil.max(file_name, 100);
+		
+		return file_name + ".html";
+	}
 	static class PublishReport implements IRecvr {
 
 		@Override
@@ -140,6 +154,11 @@ public class CmpReport {
 				String html_str) throws IOException, SMTPException, Exception {
 			sendReport(generateFileName(base, test), html_str, test.getBuildInfo(), 0);
 		}
+		
+		@Override
+		public void recv(PerformanceComparison cmp, PerformanceTwoBuildMultiScenarioSetReportGen perf_report, String html_str) throws IOException, SMTPException, Exception {
+			sendReport(generateFileName(cmp), html_str, cmp.getTestBuildInfo(), 0);
+		}
 
 		@Override
 		public void start(PhpResultPack test_pack) throws Exception {
@@ -172,6 +191,15 @@ public class CmpReport {
 			fw.close();
 			Desktop.getDesktop().browse(html_file.toURI());
 		}
+		
+		@Override
+		public void recv(PerformanceComparison cmp, PerformanceTwoBuildMultiScenarioSetReportGen perf_report, String html_str) throws IOException {
+			File html_file = new File("c:\\php-sdk\\"+generateFileName(cmp));
+			FileWriter fw = new FileWriter(html_file);
+			fw.write(html_str);
+			fw.close();
+			Desktop.getDesktop().browse(html_file.toURI());
+		}
 
 		@Override
 		public void start(PhpResultPack test_pack) throws Exception {}
@@ -319,6 +347,17 @@ public class CmpReport {
 					null
 				);
 		}
+		
+		@Override
+		public void recv(PerformanceComparison cmp, PerformanceTwoBuildMultiScenarioSetReportGen perf_report, String html_str) throws IOException, SMTPException, Exception {
+			int regression_count = cmp.getRegressionCount();
+			sendMail(
+					!force && cmp.isTooMuchChange(),
+					"Performance Report "+createSubject(cmp.getTestBuildInfo())+(regression_count>0?" ("+regression_count+" regressions)":""),
+					html_str,
+					null
+				);
+		}
 
 		@Override
 		public void start(PhpResultPack test_pack) throws Exception {
@@ -475,10 +514,20 @@ public class CmpReport {
 			retryStore(folder, folder+"/"+file, new ByteArrayInputStream(html_str.getBytes()));
 		}
 		
+		@Override
+		public void recv(PerformanceComparison cmp, PerformanceTwoBuildMultiScenarioSetReportGen perf_report, String html_str) throws IOException {
+			final String folder = "/PFTT-Results/"+cmp.getTestBuildInfo().getBuildBranch()+"/"+cmp.getTestBuildInfo().getVersionRevision();
+			
+			final String file = generateFileName(cmp);
+			
+			retryStore(folder, folder+"/"+file, new ByteArrayInputStream(html_str.getBytes()));
+		}
+		
 	}
 	interface IRecvr {
 		void recv(AbstractPhptRW base, AbstractPhptRW test, PHPTMultiHostTwoBuildSingleScenarioSetReportGen phpt_report, String html_str) throws IOException, SMTPException, Exception;
 		void recv(AbstractPhpUnitRW base, AbstractPhpUnitRW test, PhpUnitMultiHostTwoBuildSingleScenarioSetReportGen php_unit_report, String html_str) throws IOException, SMTPException, Exception;
+		void recv(PerformanceComparison cmp, PerformanceTwoBuildMultiScenarioSetReportGen perf_report, String html_str) throws IOException, SMTPException, Exception;
 		void start(PhpResultPack test_pack) throws Exception;
 		void stop(PhpResultPack test_pack) throws Exception;
 	}
@@ -537,8 +586,8 @@ public class CmpReport {
 		// clean_hosts
 		clean_hosts(host, base_dir);
 		clean_hosts(host, test_dir);
-		PhpResultPackReader base_pack = PhpResultPackReader.open(cm, host, base_dir);
-		PhpResultPackReader test_pack = PhpResultPackReader.open(cm, host, test_dir);
+		PhpResultPackReader base_pack = PhpResultPackReader.open(cm, host, base_dir, true);
+		PhpResultPackReader test_pack = PhpResultPackReader.open(cm, host, test_dir, true);
 		
 		// TODO temp 
 		//
@@ -615,72 +664,243 @@ public class CmpReport {
 			//host.exec("start c:\\php-sdk\\test.html", AHost.FOUR_HOURS);
 		}
 	}
+	/** max number of generated reports waiting to be sent by the IRecvr (reports can be large) */
+	static final int MAX_QUEUED_REPORTS = 8;
+	
+	/** generates the HTML for 1 pair of Base and Test results. run by a report thread */
+	static abstract class ReportJob {
+		String html_str;
+		
+		abstract void generate(ConsoleManager cm, boolean abbreviated);
+		abstract void send(IRecvr recvr) throws IOException, SMTPException, Exception;
+	}
+	
+	static class PhptReportJob extends ReportJob {
+		final AbstractPhptRW base, test;
+		final PHPTMultiHostTwoBuildSingleScenarioSetReportGen phpt_report;
+		
+		PhptReportJob(String phpt_prefix, AbstractPhptRW base, AbstractPhptRW test, TestNameIndex index) {
+			this.base = base;
+			this.test = test;
+			phpt_report = new PHPTMultiHostTwoBuildSingleScenarioSetReportGen(phpt_prefix, base, test, index);
+		}
+		
+		@Override
+		void generate(ConsoleManager cm, boolean abbreviated) {
+			html_str = phpt_report.getHTMLString(cm, abbreviated);
+		}
+		
+		@Override
+		void send(IRecvr recvr) throws IOException, SMTPException, Exception {
+			recvr.recv(base, test, phpt_report, html_str);
+		}
+	}
+	
+	static class PhpUnitReportJob extends ReportJob {
+		final AbstractPhpUnitRW base, test;
+		final PhpUnitMultiHostTwoBuildSingleScenarioSetReportGen php_unit_report;
+		
+		PhpUnitReportJob(AbstractPhpUnitRW base, AbstractPhpUnitRW test, TestNameIndex index) {
+			this.base = base;
+			this.test = test;
+			php_unit_report = new PhpUnitMultiHostTwoBuildSingleScenarioSetReportGen(base, test, index);
+		}
+		
+		@Override
+		void generate(ConsoleManager cm, boolean abbreviated) {
+			html_str = php_unit_report.getHTMLString(cm, abbreviated);
+		}
+		
+		@Override
+		void send(IRecvr recvr) throws IOException, SMTPException, Exception {
+			recvr.recv(base, test, php_unit_report, html_str);
+		}
+	}
+	
 	static void report(String phpt_prefix, ConsoleManager cm, IRecvr recvr, PhpResultPack base_pack, PhpResultPack test_pack) {
+		report(phpt_prefix, cm, recvr, base_pack, test_pack, LocalHost.getInstance().getCPUCount());
+	}
+	
+	/** generates reports comparing each pair of matching scenario sets from the Base and Test result-packs
+	 * and gives them to the IRecvr.
+	 * 
+	 * Reports are generated by multiple threads. The IRecvr is only called from this thread (receivers
+	 * keep 1 SMTP or FTP connection) while the next reports are being generated.
+	 * 
+	 * @param phpt_prefix
+	 * @param cm
+	 * @param recvr
+	 * @param base_pack
+	 * @param test_pack
+	 * @param thread_count - number of threads to generate reports with
+	 */
+	static void report(String phpt_prefix, final ConsoleManager cm, IRecvr recvr, PhpResultPack base_pack, PhpResultPack test_pack, int thread_count) {
 		try {
 		recvr.start(test_pack);
 		
+		// 1 index for all scenario sets: each test name is interned once and each list of test names is turned into
+		// a BitSet once, then compared with BitSet operations
+		TestNameIndex index = new TestNameIndex();
+		
+		// match Base and Test results by scenario set (hash join) instead of comparing every Base to every Test
+		final LinkedBlockingQueue<ReportJob> jobs = new LinkedBlockingQueue<ReportJob>();
+		
 		// TODO turn off phpt or phpunit reports or turn off all but a specific test-pack
+		HashMap<String,LinkedList<AbstractPhpUnitRW>> php_unit_base_map = new HashMap<String,LinkedList<AbstractPhpUnitRW>>();
 		for ( AbstractPhpUnitRW base : base_pack.getPhpUnit() ) {
-			for ( AbstractPhpUnitRW test : test_pack.getPhpUnit() ) {
-				System.out.println("PhpUnit "+base.getScenarioSetNameWithVersionInfo()+" "+test.getScenarioSetNameWithVersionInfo());
-				//if (!base.getTestPackNameAndVersionString().contains("Wordpress"))
-					//continue;
+			// TODO mysql
+			String key = base.getScenarioSetNameWithVersionInfo().replace("MySQL-5.6_", "").replace("7.0.1", "7.0.2");
+			LinkedList<AbstractPhpUnitRW> list = php_unit_base_map.get(key);
+			if (list==null) {
+				list = new LinkedList<AbstractPhpUnitRW>();
+				php_unit_base_map.put(key, list);
+			}
+			list.add(base);
+		}
+		for ( AbstractPhpUnitRW test : test_pack.getPhpUnit() ) {
+			LinkedList<AbstractPhpUnitRW> list = php_unit_base_map.get(test.getScenarioSetNameWithVersionInfo().replace("MySQL-5.6_", ""));
+			if (list==null)
+				continue;
+			for ( AbstractPhpUnitRW base : list ) {
 				if (!eq(base.getTestPackNameAndVersionString(), test.getTestPackNameAndVersionString()))
 					continue;
-				// TODO mysql
-				if (!base.getScenarioSetNameWithVersionInfo().replace("MySQL-5.6_", "").replace("7.0.1", "7.0.2").equals(test.getScenarioSetNameWithVersionInfo().replace("MySQL-5.6_", "")))
-						/*
-						!(base.getScenarioSetNameWithVersionInfo().toLowerCase().contains("opcache")==test.getScenarioSetNameWithVersionInfo().toLowerCase().contains("opcache")
-						&&(
-								test.getScenarioSetNameWithVersionInfo().toLowerCase().contains("cli")||
-								test.getScenarioSetNameWithVersionInfo().toLowerCase().contains("builtin")||
-								test.getScenarioSetNameWithVersionInfo().toLowerCase().contains("apache")
-								) 
-						&&base.getScenarioSetNameWithVersionInfo().toLowerCase().contains("cli")==test.getScenarioSetNameWithVersionInfo().toLowerCase().contains("cli")
-						&&base.getScenarioSetNameWithVersionInfo().toLowerCase().contains("builtin")==test.getScenarioSetNameWithVersionInfo().toLowerCase().contains("builtin")
-						&&base.getScenarioSetNameWithVersionInfo().toLowerCase().contains("apache")==test.getScenarioSetNameWithVersionInfo().toLowerCase().contains("apache")
-						&&base.getScenarioSetNameWithVersionInfo().toLowerCase().contains("local")==test.getScenarioSetNameWithVersionInfo().toLowerCase().contains("local")
-						&&base.getScenarioSetNameWithVersionInfo().toLowerCase().contains("smb-dfs")==test.getScenarioSetNameWithVersionInfo().toLowerCase().contains("smb-dfs")
-					&&base.getScenarioSetNameWithVersionInfo().toLowerCase().contains("smb-dedup")==test.getScenarioSetNameWithVersionInfo().toLowerCase().contains("smb-dedup")
-					&&base.getScenarioSetNameWithVersionInfo().toLowerCase().contains("smb-basic")==test.getScenarioSetNameWithVersionInfo().toLowerCase().contains("smb-basic")
-						))*/
-					continue;
-				
-				PhpUnitMultiHostTwoBuildSingleScenarioSetReportGen php_unit_report = new PhpUnitMultiHostTwoBuildSingleScenarioSetReportGen(base, test);
-				
-				String html_str = php_unit_report.getHTMLString(cm, !(recvr instanceof Upload));
-				
-				recvr.recv(base, test, php_unit_report, html_str);
+				System.out.println("PhpUnit "+base.getScenarioSetNameWithVersionInfo()+" "+test.getScenarioSetNameWithVersionInfo());
 				
+				jobs.add(new PhpUnitReportJob(base, test, index));
 			}
 		}
-		//System.exit(0);
+		HashMap<String,LinkedList<AbstractPhptRW>> phpt_base_map = new HashMap<String,LinkedList<AbstractPhptRW>>();
 		for ( AbstractPhptRW base : base_pack.getPHPT() ) {
-			for ( AbstractPhptRW test : test_pack.getPHPT() ) {
+			if (base.getScenarioSetNameWithVersionInfo()==null)
+				continue;
+			String key = normalizeScenarioSetName(base.getScenarioSetNameWithVersionInfo());
+			LinkedList<AbstractPhptRW> list = phpt_base_map.get(key);
+			if (list==null) {
+				list = new LinkedList<AbstractPhptRW>();
+				phpt_base_map.put(key, list);
+			}
+			list.add(base);
+		}
+		for ( AbstractPhptRW test : test_pack.getPHPT() ) {
+			if (test.getScenarioSetNameWithVersionInfo()==null)
+				continue;
+			LinkedList<AbstractPhptRW> list = phpt_base_map.get(normalizeScenarioSetName(test.getScenarioSetNameWithVersionInfo()));
+			if (list==null) {
+				// no exact match: fallback to matching scenario set names that start with the other (slow)
+				list = new LinkedList<AbstractPhptRW>();
+				for ( LinkedList<AbstractPhptRW> other : phpt_base_map.values() ) {
+					for ( AbstractPhptRW base : other ) {
+						if (eq(base.getScenarioSetNameWithVersionInfo(), test.getScenarioSetNameWithVersionInfo()))
+							list.add(base);
+					}
+				}
+			}
+			for ( AbstractPhptRW base : list ) {
 				System.out.println("PHPT "+base.getScenarioSetNameWithVersionInfo()+" "+test.getScenarioSetNameWithVersionInfo()+" "+base+" "+test);
-				if (!eq(base.getScenarioSetNameWithVersionInfo(), test.getScenarioSetNameWithVersionInfo()))
-					continue;
 				
-				PHPTMultiHostTwoBuildSingleScenarioSetReportGen phpt_report = new PHPTMultiHostTwoBuildSingleScenarioSetReportGen(phpt_prefix, base, test);
-				String html_str = phpt_report.getHTMLString(cm, !(recvr instanceof Upload));
-
-				recvr.recv(base, test, phpt_report, html_str);
+				jobs.add(new PhptReportJob(phpt_prefix, base, test, index));
 			}
 		}
+		
+		final int job_count = jobs.size();
+		final boolean abbreviated = !(recvr instanceof Upload);
+		// bounded: if sending is slower than generating, don't keep too many reports in memory
+		final LinkedBlockingQueue<ReportJob> done = new LinkedBlockingQueue<ReportJob>(MAX_QUEUED_REPORTS);
+		thread_count = Math.max(1, Math.min(thread_count, job_count));
+		Thread[] threads = new Thread[thread_count];
+		for ( int i=0 ; i < thread_count ; i++ ) {
+			threads[i] = new Thread("Report"+i) {
+					@Override
+					public void run() {
+						ReportJob job;
+						while ((job = jobs.poll())!=null) {
+							try {
+								job.generate(cm, abbreviated);
+							} catch ( Throwable t ) {
+								ConsoleManagerUtil.printStackTrace(CmpReport.class, cm, t);
+								job.html_str = null;
+							}
+							try {
+								done.put(job);
+							} catch ( InterruptedException ex ) {
+								return;
+							}
+						}
+					}
+				};
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		try {
+			for ( int i=0 ; i < job_count ; i++ ) {
+				ReportJob job = done.take();
+				if (job.html_str==null)
+					continue;
+				try {
+					job.send(recvr);
+				} catch ( Exception ex ) {
+					// keep sending the other reports
+					ConsoleManagerUtil.printStackTrace(CmpReport.class, cm, ex);
+				}
+			}
+		} finally {
+			for ( Thread t : threads )
+				t.interrupt();
+		}
+		
+		reportPerformance(cm, recvr, base_pack, test_pack);
+		
 		recvr.stop(test_pack);
 		} catch ( Exception ex ) {
 			ConsoleManagerUtil.printStackTrace(CmpReport.class, cm, ex);
 		}
 	}
+	/** compares performance results (if both result-packs have any)
+	 * 
+	 * @param cm
+	 * @param recvr
+	 * @param base_pack
+	 * @param test_pack
+	 * @return number of significant regressions found
+	 * @throws Exception
+	 */
+	static int reportPerformance(ConsoleManager cm, IRecvr recvr, PhpResultPack base_pack, PhpResultPack test_pack) throws Exception {
+		Collection<PerformanceResultReader> test = test_pack.getPerformance(cm);
+		if (test.isEmpty())
+			return 0;
+		Collection<PerformanceResultReader> base = base_pack.getPerformance(cm);
+		if (base.isEmpty())
+			return 0;
+		PerformanceComparison cmp = new PerformanceComparison(base_pack.getBuildInfo(), test_pack.getBuildInfo(), base, test, new PerformanceComparison.IScenarioSetMatcher() {
+				@Override
+				public boolean matches(String base_scenario_set_name, String test_scenario_set_name) {
+					return eq(base_scenario_set_name, test_scenario_set_name);
+				}
+			});
+		if (cmp.isEmpty())
+			return 0;
+		
+		int regression_count = cmp.getRegressionCount();
+		System.out.println("Performance "+cmp.getRowCount()+" results compared, "+regression_count+" regressions");
+		
+		PerformanceTwoBuildMultiScenarioSetReportGen perf_report = new PerformanceTwoBuildMultiScenarioSetReportGen(cmp);
+		String html_str = perf_report.getHTMLString(cm, !(recvr instanceof Upload));
+		
+		recvr.recv(cmp, perf_report, html_str);
+		
+		return regression_count;
+	}
+	static String normalizeScenarioSetName(String name) {
+		name = name.replace("MySQL-5.6_", "");
+		name = name.replace("7.0.1", "7.0.2");
+		name = name.replace("-1.3.4", "");
+		return name;
+	}
 	static boolean eq(String base, String test) {
 		if (base==null||test==null)
 			return false;
-		base = base.replace("MySQL-5.6_", "");
-		base = base.replace("7.0.1", "7.0.2");
-		base = base.replace("-1.3.4", "");
-		test = test.replace("7.0.1", "7.0.2");
-		test = test.replace("MySQL-5.6_", "");
-		test = test.replace("-1.3.4", "");
+		base = normalizeScenarioSetName(base);
+		test = normalizeScenarioSetName(test);
 		return base.startsWith(test)||test.startsWith(base);
 	}
 }
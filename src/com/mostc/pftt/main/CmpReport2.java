@@ -5,13 +5,13 @@ import groovy.xml.MarkupBuilder;
 import java.awt.Desktop;
 import java.io.File;
 import java.io.FileWriter;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 
-import com.github.mattficken.io.ArrayUtil;
 import com.mostc.pftt.host.AHost;
 import com.mostc.pftt.host.LocalHost;
 import com.mostc.pftt.model.app.EPhpUnitTestStatus;
@@ -22,6 +22,7 @@ import com.mostc.pftt.results.AbstractPhptRW;
 import com.mostc.pftt.results.ConsoleManagerUtil;
 import com.mostc.pftt.results.LocalConsoleManager;
 import com.mostc.pftt.results.PhpResultPackReader;
+import com.mostc.pftt.results.TestNameIndex;
 import com.mostc.pftt.scenario.ScenarioSet;
 
 public class CmpReport2 {
@@ -29,6 +30,8 @@ public class CmpReport2 {
 	final LinkedList<String> phpt_test_packs, phpunit_test_packs;
 	final LinkedList<AHost> hosts;
 	final HashMap<String,LinkedList<ScenarioSet>> phpt_scenario_sets, phpunit_scenario_sets;
+	/** shared by all result-packs so their lists of test names can be compared as BitSets */
+	final TestNameIndex index;
 	
 	public CmpReport2() {
 		result_packs = new HashMap<PhpBuildInfo,PhpResultPackReader>();
@@ -37,6 +40,7 @@ public class CmpReport2 {
 		phpt_scenario_sets = new HashMap<String,LinkedList<ScenarioSet>>();
 		phpunit_scenario_sets = new HashMap<String,LinkedList<ScenarioSet>>();
 		hosts = new LinkedList<AHost>();
+		index = new TestNameIndex();
 	}
 	
 	void add(PhpResultPackReader result_pack) {
@@ -206,22 +210,21 @@ public class CmpReport2 {
 		return out;
 	}
 	List<String> getPhptTestNames(String test_pack_name_and_version, EPhptTestStatus status) {
-		LinkedList<String> out = new LinkedList<String>();
+		BitSet out = new BitSet();
 		for ( PhpResultPackReader result_pack : result_packs.values()) {
 			for ( AHost host : hosts ) {
 				for ( AbstractPhptRW r : result_pack.getPHPT(host, test_pack_name_and_version) )
-					ArrayUtil.copyNoDuplicates(r.getTestNames(status), out);
+					out.or(r.getTestNames(index, status));
 			}
 		}
-		Collections.sort(out);
-		return out;
+		return index.toSortedNames(out);
 	}
 	List<String> getPhptScenarioSets(PhpBuildInfo build_info, String test_pack_name_and_version, String test_name, EPhptTestStatus status) {
 		LinkedList<String> out = new LinkedList<String>();
 		String scenario_set_str;
 		for ( AHost host : hosts ) {
 			for ( AbstractPhptRW r : get(build_info).getPHPT(host, test_pack_name_and_version) ) {
-				if (r.isTestStatus(test_name, status)) {
+				if (r.isTestStatus(index, test_name, status)) {
 					scenario_set_str = r.getScenarioSetNameWithVersionInfo();
 					if (!out.contains(scenario_set_str))
 						out.add(scenario_set_str);
@@ -231,7 +234,7 @@ public class CmpReport2 {
 		return out;
 	}
 	List<String> getUniquePhpUnitTestNames(PhpBuildInfo build_info, String test_pack_name_and_version, ScenarioSet scenario_set, EPhpUnitTestStatus status) {
-		LinkedList<String> out = new LinkedList<String>();
+		BitSet out = new BitSet();
 		
 		for ( AHost host : hosts ) {
 			for ( PhpResultPackReader result_pack : result_packs.values()) {
@@ -242,32 +245,29 @@ public class CmpReport2 {
 						continue;
 					else if (!r.getTestPackNameAndVersionString().equals(test_pack_name_and_version))
 						continue;
-					List<String> n = r.getTestNames(status);
-					ArrayUtil.copyNoDuplicates(n, out);
+					out.or(r.getTestNames(index, status));
 				}
 			}
 		}
-		Collections.sort(out);
-		return out;
+		return index.toSortedNames(out);
 	}
 	List<String> getPhpUnitTestNames(String test_pack_name_and_version, EPhpUnitTestStatus status) {
-		LinkedList<String> out = new LinkedList<String>();
+		BitSet out = new BitSet();
 		for ( PhpResultPackReader result_pack : result_packs.values()) {
 			for ( AHost host : hosts ) {
 				for ( AbstractPhpUnitRW r : result_pack.getPhpUnit(host, test_pack_name_and_version) ) {
-					ArrayUtil.copyNoDuplicates(r.getTestNames(status), out);
+					out.or(r.getTestNames(index, status));
 				}
 			}
 		}
-		Collections.sort(out);
-		return out;
+		return index.toSortedNames(out);
 	}
 	List<String> getPhpUnitScenarioSets(PhpBuildInfo build_info, String test_pack_name_and_version, String test_name, EPhpUnitTestStatus status) {
 		LinkedList<String> out = new LinkedList<String>();
 		String scenario_set_str;
 		for ( AHost host : hosts ) {
 			for ( AbstractPhpUnitRW r : get(build_info).getPhpUnit(host, test_pack_name_and_version) ) {
-				if (r.isTestStatus(test_name, status)) {
+				if (r.isTestStatus(index, test_name, status)) {
 					scenario_set_str = r.getScenarioSetNameWithVersionInfo();
 					if (!out.contains(scenario_set_str))
 						out.add(scenario_set_str);
@@ -9,16 +9,30 @@ import com.mostc.pftt.results.AbstractReportGen;
 import com.mostc.pftt.results.ConsoleManager;
 import com.mostc.pftt.results.PhpResultPack;
 import com.mostc.pftt.results.PhptTestResult;
+import com.mostc.pftt.results.TestNameIndex;
 
 class PHPTMultiHostTwoBuildSingleScenarioSetReportGen extends AbstractReportGen {
 	protected AbstractPhptRW base_telem, test_telem;
 	protected int row;
 	protected final String phpt_prefix;
+	protected final TestNameIndex index;
 	
 	public PHPTMultiHostTwoBuildSingleScenarioSetReportGen(String phpt_prefix, AbstractPhptRW base_telem, AbstractPhptRW test_telem) {
+		this(phpt_prefix, base_telem, test_telem, new TestNameIndex());
+	}
+	
+	/**
+	 * 
+	 * @param phpt_prefix
+	 * @param base_telem
+	 * @param test_telem
+	 * @param index - share 1 index for all reports comparing the same result-packs
+	 */
+	public PHPTMultiHostTwoBuildSingleScenarioSetReportGen(String phpt_prefix, AbstractPhptRW base_telem, AbstractPhptRW test_telem, TestNameIndex index) {
 		this.phpt_prefix = phpt_prefix;
 		this.base_telem = base_telem;
 		this.test_telem = test_telem;
+		this.index = index;
 	}
 	
 	protected static String bav(EBuildBranch branch, String version) {
@@ -56,6 +70,9 @@ class PHPTMultiHostTwoBuildSingleScenarioSetReportGen extends AbstractReportGen
 				['Win 2008r2 SP0 x64', 'Win 2008r2 SP1 x64', 'Win 2012 SP0 x64', 'Win 2012r2', 'Win 7 SP0 x64', 'Win 7 SP0 x86', 'Win 7 SP1 x64', 'Win 7 SP1 x86', 'Win 8 SP0 x64']:
 				['Win 2008r2 SP0 x64', 'Win 2008r2 SP1 x64', 'Win 2012 SP0 x64', 'Win 2012r2', 'Win 2008 SP1 x64', 'Win 2008 SP1 x86', 'Win 2008 SP2 x64', 'Win 2008 SP2 x86', 'Win 7 SP0 x64', 'Win 7 SP0 x86', 'Win 7 SP1 x64', 'Win 7 SP1 x86', 'Win 8 SP0 x64', 'Win Vista SP2 x64', 'Win Vista SP2 x86']
 		*/
+		// compute once (not for each OS)
+		List<String> new_fail_names = index.toNames(TestNameIndex.andNot(test_telem.getTestNames(index, EPhptTestStatus.FAIL), base_telem.getTestNames(index, EPhptTestStatus.FAIL)))
+		
 		row=1
 html.html {
 	head {
@@ -309,7 +326,7 @@ html.html {
 				td(os_name)
 				td() {
 					if (!abbreviated || sw.getBuffer().length()<ABBREVIATED_MAX_LENGTH) {
-						for ( String test_name : PhptTestResult.listANotInB(test_telem.getTestNames(EPhptTestStatus.FAIL), base_telem.getTestNames(EPhptTestStatus.FAIL)) ) {
+						for ( String test_name : new_fail_names ) {
 							br(test_name)
 						}
 					}
@@ -0,0 +1,125 @@
+package com.mostc.pftt.main
+
+import groovy.xml.MarkupBuilder;
+
+import com.mostc.pftt.results.AbstractReportGen;
+import com.mostc.pftt.results.ConsoleManager;
+import com.mostc.pftt.results.PerformanceComparison;
+import com.mostc.pftt.results.PerformanceComparison.Delta;
+
+/** Performance (TPS and latency) of Base and Test builds for each scenario set, application and number
+ * of virtual clients. Replaces the AutoCAT Powershell report (@see PBCReportGen).
+ *
+ * @see PerformanceComparison
+ */
+
+class PerformanceTwoBuildMultiScenarioSetReportGen extends AbstractReportGen {
+	PerformanceComparison cmp;
+
+	public PerformanceTwoBuildMultiScenarioSetReportGen(PerformanceComparison cmp) {
+		this.cmp = cmp;
+	}
+
+	static String percent(double gain) {
+		return Double.isNaN(gain) ? '' : String.format('%+.2f%%', gain * 100d)
+	}
+
+	static String ci(Delta d) {
+		return d.hasConfidenceInterval() ? '['+percent(d.gain_low)+', '+percent(d.gain_high)+']' : 'n/a (1 run)'
+	}
+
+	static String num(double value) {
+		return String.format('%.1f', value)
+	}
+
+	@Override
+	void run(ConsoleManager cm, boolean abbreviated, BuilderSupport html) {
+		String base_build_branch_and_version = cmp.getBaseBuildInfo().toString();
+		String test_build_branch_and_version = cmp.getTestBuildInfo().toString();
+		int regression_count = cmp.getRegressionCount();
+
+		html.html {
+			head {
+				title(test_build_branch_and_version+" Performance")
+				style(type: 'text/css', '''
+   .data td { border:1px solid black; padding:0in 5.4pt 0in 5.4pt; }
+   .header { background-color:#A9CAED; }
+   .gainpos { background-color: #00A84C; }
+   .gainpossmall { background-color: #00D661; }
+   .gainneg { background-color: #FF2929; }
+   .gainnegsmall { background-color: #DA9694; }
+   .regression { font-weight: bold; color: #FF0000; }
+''')
+			}
+			body {
+				h1("PFTT Performance Report")
+
+				p {
+					b(base_build_branch_and_version+" (Base)")
+					span("with")
+					b(test_build_branch_and_version+" (Test)")
+				}
+				if (regression_count > 0) {
+					p(class: 'regression', "${regression_count} significant regression(s) found")
+				} else {
+					p("No significant regressions found")
+				}
+				p("Gain is the change of the mean of all runs. Changes within 3% are not highlighted. With 2+ runs of each build, changes are only highlighted if the 95% confidence interval does not include 0. With only 1 run, only changes over 7% are highlighted.")
+
+				cmp.getScenarioSets().each { scenario_set ->
+					p {
+						span(style: 'font-size:14.0pt;line-height:115%', scenario_set.scenario_set_name+" ("+scenario_set.host_name+")")
+					}
+
+					table(border: 0, cellspacing: 0, cellpadding: 0, class: 'data') {
+						tr(class: 'header') {
+							td('Application')
+							td('Virtual Clients')
+							td('Base TPS')
+							td('Test TPS')
+							td('Gain')
+							td('95% Confidence')
+							td('Base p99 ms')
+							td('Test p99 ms')
+							td('Gain')
+							td('Base Errors')
+							td('Test Errors')
+							td('Runs (Base/Test)')
+						}
+						scenario_set.rows.each { row ->
+							tr {
+								td(class: row.isRegression()?'regression':'', row.test_name)
+								td(row.virtual_clients)
+								td(num(row.tps.base_mean))
+								td(num(row.tps.test_mean))
+								td(class: row.tps.getGainClass().css_class, percent(row.tps.gain))
+								td(ci(row.tps))
+								td(num(row.p99_millis.base_mean))
+								td(num(row.p99_millis.test_mean))
+								td(class: row.p99_millis.getGainClass().css_class, percent(row.p99_millis.gain))
+								td(row.base_errors)
+								td(class: row.test_errors>row.base_errors?'gainneg':'', row.test_errors)
+								td(row.tps.base_count+"/"+row.tps.test_count)
+							}
+						}
+					} // end table
+				} // end scenario_sets
+
+				/* ----------------- begin footer ------------------ */
+				table {
+					tr {
+						td('Result-Pack')
+						td(colspan: 2) {
+							a(href:'http://40.123.43.193/PFTT-Results/'+cmp.getBaseBuildInfo().getBuildBranch()+'/'+cmp.getBaseBuildInfo().getVersionRevision(), 'Base') // TODO
+						}
+						td(colspan: 2) {
+							a(href:'http://40.123.43.193/PFTT-Results/'+cmp.getTestBuildInfo().getBuildBranch()+'/'+cmp.getTestBuildInfo().getVersionRevision(), 'Test') // TODO
+						}
+					}
+				}
+				/* ----------------- end footer ------------------ */
+			} // body
+		} // html
+	} // end void run
+
+} // end class PerformanceTwoBuildMultiScenarioSetReportGen
@@ -299,8 +299,8 @@ public class PfttAuto {
 		} 
 		if (base_pack!=null) {
 			final Mailer summary_mailer = new Mailer(false, false, new Address[]{AddressParser.parseAddress("qa-reports@lists.php.net")});
-			PhpResultPackReader base_packr = PhpResultPackReader.open(cm, host, base_pack.getResultPackPath());
-			PhpResultPackReader test_packr = PhpResultPackReader.open(cm, host, result_pack.getResultPackPath());
+			PhpResultPackReader base_packr = PhpResultPackReader.open(cm, host, base_pack.getResultPackPath(), true);
+			PhpResultPackReader test_packr = PhpResultPackReader.open(cm, host, result_pack.getResultPackPath(), true);
 			CmpReport.summary(summary_mailer, cm, base_packr, test_packr);
 		}
 		return ET.FINISHED_TESTING_NEWEST;
@@ -12,10 +12,14 @@ import java.io.InputStreamReader;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nullable;
+
 import org.apache.log4j.LogManager;
 import org.apache.log4j.varia.NullAppender;
 import org.codehaus.groovy.control.MultipleCompilationErrorsException;
@@ -40,10 +44,16 @@ import com.mostc.pftt.model.core.ESAPIType;
 import com.mostc.pftt.model.core.PhpBuild;
 import com.mostc.pftt.model.core.PhpDebugPack;
 import com.mostc.pftt.model.core.PhpIni;
+import com.mostc.pftt.model.core.PhptSkipIfCache;
 import com.mostc.pftt.model.core.PhptSourceTestPack;
 import com.mostc.pftt.model.core.PhptTestCase;
+import com.mostc.pftt.model.performance.ELoadModel;
+import com.mostc.pftt.model.performance.HttpLoadGenerator;
+import com.mostc.pftt.model.performance.PerformanceTest;
 import com.mostc.pftt.model.sapi.ApacheManager;
+import com.mostc.pftt.model.sapi.CliPhpWorkerPool;
 import com.mostc.pftt.model.sapi.WebServerInstance;
+import com.mostc.pftt.model.sapi.WebServerSparePool;
 import com.mostc.pftt.model.smoke.ESmokeTestStatus;
 import com.mostc.pftt.model.smoke.PhptTestCountsMatchSmokeTest;
 import com.mostc.pftt.model.smoke.RequiredExtensionsSmokeTest;
@@ -60,8 +70,11 @@ import com.mostc.pftt.results.PhpResultPackReader;
 import com.mostc.pftt.results.PhpResultPackWriter;
 import com.mostc.pftt.runner.AbstractLocalTestPackRunner;
 import com.mostc.pftt.runner.AbstractTestPackRunner.ETestPackRunnerState;
+import com.mostc.pftt.runner.HttpConnectionPool;
 import com.mostc.pftt.runner.LocalPhpUnitTestPackRunner;
 import com.mostc.pftt.runner.LocalPhptTestPackRunner;
+import com.mostc.pftt.runner.PerformanceTestRunner;
+import com.mostc.pftt.runner.TestThreadBudget;
 import com.mostc.pftt.scenario.FileSystemScenario;
 //import com.mostc.pftt.runner.LocalSimpleTestPackRunner;
 import com.mostc.pftt.scenario.INIScenario;
@@ -361,14 +374,15 @@ public class PfttMain {
 			.addRow("ui_all <build[,build2]>", "runs all UI tests against application")
 			.addRow("ui_list <build[,build2]> <file>", "runs UI tests listed in file against application")
 			.addRow("ui_named <build[,build2]> <test name>", "runs named UI tests against application")
+			.addRow("perf_all <build[,build2]>", "performance test of build using web server(s) from scenario sets (HelloWorld, Wordpress, Drupal, MediaWiki, Joomla)")
+			.addRow("perf_named <build[,build2]> <test name>", "runs named performance tests")
 		// TODO fs test
 			.addRow("run-test <build> <test-pack> <full test name,...>", "runs named tests using run-tests.php from test-pack")
 			.addRow("help", "")
 			.addRow("smoke <build>", "smoke test a build")
 			.addRow("info <build>", "returns phpinfo() for build (using build/php.ini if present, otherwise uses default INI)");
 		if (LocalHost.isLocalhostWindows()) {
-			table.addRow("perf <build>", "performance test of build")
-				.addRow("release_get <branch> <build-type> <revision>", "download a build and test-pack snapshot release")
+			table.addRow("release_get <branch> <build-type> <revision>", "download a build and test-pack snapshot release")
 				.addRow("release_get <build|test-pack URL>", "download a build or test-pack from any URL")
 				.addRow("release_list <optional branch> <optional build-type>", "list snapshot build and test-pack releases");
 		}
@@ -403,6 +417,7 @@ public class PfttMain {
 		System.out.println("   === Unattended Options ===");
 		table = new AlignedTable(2, 85)
 			.addRow("-no_result_file_for_pass_xskip_skip(-q)", "doesn't store all result data for PASS, SKIP or XSKIP tests")
+			.addRow("-result_pack_segment", "stores results in 1 compact indexed file per scenario set instead of 1 file per result (faster to copy and open)")
 			.addRow("-disable_debug_prompt", "disables asking you if you want to debug PHP crashes (for automation. default=enabled) (alias: -debug_none)")
 			.addRow("-auto", "changes default options for automated testing (-uac -disable_debug_prompt -phpt_not_in_place)");
 		if (LocalHost.isLocalhostWindows()) {
@@ -410,6 +425,12 @@ public class PfttMain {
 		}
 		System.out.println(table);
 		System.out.println();
+		System.out.println("   === Performance Options ===");
+		System.out.println(new AlignedTable(2, 85)
+			.addRow("-perf_clients <N,N2>", "numbers of virtual clients to run each performance test with (default=4,8,16,32)")
+			.addRow("-perf_runs <N>", "runs each performance test N times. the report can tell a real change from noise only with 2+ runs of both builds (default=1)")
+			.addRow("-perf_rps <N>", "sends N requests per second no matter how fast the web server responds (open load model). latency includes time requests waited to be sent. (default=each client sends next request as soon as it gets a response)"));
+		System.out.println();
 		System.out.println("   === Temporary Files ===");
 		System.out.println(new AlignedTable(2, 85)
 			.addRow("-phpt_not_in_place", "copies PHPTs to a temporary dir and runs PHPTs from there (default=disabled, test in-place)")
@@ -448,11 +469,15 @@ public class PfttMain {
 		System.out.println("   === SAPI Restarting ===");
 		System.out.println(new AlignedTable(2, 85)
 			.addRow("-restart_each_test_all", "restart web server between each test (slow, default=no)")
-			.addRow("-no_restart_all", "will not restart any web server unless it crashes (be careful, this will INVALIDATE FUNCTIONAL TESTING results because configuration won't be changed for tests)"));
+			.addRow("-no_restart_all", "will not restart any web server unless it crashes (be careful, this will INVALIDATE FUNCTIONAL TESTING results because configuration won't be changed for tests)")
+			.addRow("-web_spares <N>", "after a web server crashes, keeps N spare web servers (with the same INI and ENV) running in the background to replace the next one that crashes right away (default=1, 0=disable)"));
 		System.out.println();
 		System.out.println("   === Debugging ===");
 		System.out.println(new AlignedTable(2, 85)
 			.addRow("-ignore_output", "Ignores test output to speed up test running (to help repro concurrency crashes)")
+			.addRow("-linear_expectf", "matches EXPECTF sections in linear time (exact compare, falls back to regular expression for %r...%r) instead of with regular expression that may backtrack a lot on large outputs")
+			.addRow("-no_skipif_cache", "runs every SKIPIF section instead of reusing output of the same SKIPIF code run with the same build, INI and ENV (SKIPIFs that use files, network, etc... are always run)")
+			.addRow("-no_http_keepalive", "opens a new connection to the web server for every HTTP request instead of reusing keep-alive connections (to rule out connection reuse when debugging web server crashes)")
 			.addRow("-ini_actual_all", "includes INI for all tests (default=only for failures)... SLOW but helps verify")
 			.addRow("-suspend_seconds <seconds>", "suspends test process for <seconds> before running test so you can check the process first (1 minute timeout after resume)")
 			.addRow("-run_count <N>", "runs N number of tests. does not count early SKIP'd tests (whereas -max_test_read_count does)")
@@ -462,7 +487,11 @@ public class PfttMain {
 		System.out.println(new AlignedTable(2, 85)
 			.addRow("-no_thread_safety", "runs tests in any thread, regardless of thread-safety. This can increase load/stress, but may lead to false FAILS/ERRORs, especially in file or database tests.")
 			.addRow("-thread_count <N>", "sets number of threads to run tests in. running in multiple threads is usually a performance boost. by default, will run with multiple threads and automatically decide the best number of threads to use")
-			.addRow("-thread_count cpu", "sets number of threads == number of CPUs on (each) host"));
+			.addRow("-thread_count cpu", "sets number of threads == number of CPUs on (each) host")
+			.addRow("-result_writer_threads <N|cpu>", "sets number of threads to write results with. results for different scenario sets and test-packs are written in parallel (default=1)")
+			.addRow("-concurrent_scenario_sets <N|cpu>", "runs N scenario sets at the same time on each host. they share the same number of test threads, so threads left idle at the end of one scenario set run tests from the others (default=1)")
+			.addRow("-php_workers", "runs CLI tests in php processes forked from long-running php worker processes instead of starting a new php process for each test (needs pcntl, not on Windows). tests that need their own process (INI, ENV, STDIN, etc...) and tests that fail are run the normal way")
+			.addRow("-release_process_handles", "forces garbage collection after each process exits to free up Windows process handles sooner. only needed if Windows runs out of handles (slows down test running)"));
 		System.out.println();
 		System.out.println();
 	} // end protected static void help_all
@@ -679,7 +708,7 @@ public class PfttMain {
 		}
 	} // end public void appAll
 	
-	public void coreAll(PhpBuild build, PhptSourceTestPack test_pack, Config config, PhpResultPackWriter tmgr) throws FileNotFoundException, IOException, Exception {
+	public void coreAll(final PhpBuild build, final PhptSourceTestPack test_pack, final Config config, final PhpResultPackWriter tmgr) throws FileNotFoundException, IOException, Exception {
 		ensureLocalhostPrepared(build);
 		
 		List<AHost> hosts = config.getHosts();
@@ -687,44 +716,54 @@ public class PfttMain {
 			hosts = new ArrayList<AHost>(1);
 			hosts.add(this.host);
 		}
-		AtomicBoolean run_flag = new AtomicBoolean(true);
+		final List<AHost> storage_hosts = hosts;
+		final AtomicBoolean run_flag = new AtomicBoolean(true);
 		for ( int i=0 ; i < cm.getRunTestPack() ; i++ ) {
 			// TODO temp if (!smoke(build, config, tmgr))
 				//break;
-			for ( ScenarioSet scenario_set : getScenarioSets(config, EScenarioSetPermutationLayer.FUNCTIONAL_TEST_CORE) ) {
-				//
-				for ( AHost storage_host : hosts ) {
-					LocalPhptTestPackRunner test_pack_runner = new LocalPhptTestPackRunner(tmgr.getConsoleManager(), tmgr, scenario_set, build, storage_host, host, config);
-					cm.showGUI(test_pack_runner);
-					if (!cm.isNonInteractive())
-						interactive(run_flag, test_pack_runner);
-					
-					test_pack_runner.runAllTests(config, test_pack);
-				
-					tmgr.notifyPhptFinished(host, test_pack_runner.getScenarioSetSetup(), test_pack);
-					if (!run_flag.get())
-						return;
-				}
-				
-				//
-				{
-					PhptTestCountsMatchSmokeTest test = new PhptTestCountsMatchSmokeTest();
-					if (test.test(tmgr)==ESmokeTestStatus.FAIL) {
-						cm.println(EPrintType.CANT_CONTINUE, "Main", "Failed smoke test: "+test.getName());
+			// cleanup once, before any scenario set starts (scenario sets may run at the same time)
+			test_pack.cleanup(cm);
+			runScenarioSets(getScenarioSets(config, EScenarioSetPermutationLayer.FUNCTIONAL_TEST_CORE), !cm.isPhptNotInPlace(), new IScenarioSetTask() {
+					@Override
+					public boolean run(ScenarioSet scenario_set, TestThreadBudget thread_budget) throws Exception {
+						//
+						for ( AHost storage_host : storage_hosts ) {
+							LocalPhptTestPackRunner test_pack_runner = new LocalPhptTestPackRunner(tmgr.getConsoleManager(), tmgr, scenario_set, build, storage_host, host, config);
+							test_pack_runner.setThreadBudget(thread_budget);
+							test_pack_runner.setCleanupTestPack(false);
+							cm.showGUI(test_pack_runner);
+							if (!cm.isNonInteractive())
+								interactive(run_flag, test_pack_runner);
+							
+							test_pack_runner.runAllTests(config, test_pack);
+						
+							tmgr.notifyPhptFinished(host, test_pack_runner.getScenarioSetSetup(), test_pack);
+							if (!run_flag.get())
+								return false;
+						}
 						
-						tmgr.notifyFailedSmokeTest(test.getName(), "");
+						//
+						{
+							PhptTestCountsMatchSmokeTest test = new PhptTestCountsMatchSmokeTest();
+							if (test.test(tmgr)==ESmokeTestStatus.FAIL) {
+								cm.println(EPrintType.CANT_CONTINUE, "Main", "Failed smoke test: "+test.getName());
+								
+								tmgr.notifyFailedSmokeTest(test.getName(), "");
+							}
+						}
+						//
+						return true;
 					}
-				}
-				//
-				
-			} // end for
+				});
+			if (!run_flag.get())
+				return;
 			if (cm.getRunTestPack()>1) {
 				closeWriter(tmgr);
 			}
 		}
 	} // end public void coreAll
 	
-	public void coreList(PhpBuild build, PhptSourceTestPack test_pack, Config config, PhpResultPackWriter tmgr, List<String> names) throws FileNotFoundException, IOException, Exception {
+	public void coreList(final PhpBuild build, final PhptSourceTestPack test_pack, final Config config, final PhpResultPackWriter tmgr, final List<String> names) throws FileNotFoundException, IOException, Exception {
 		ensureLocalhostPrepared(build);
 		
 		cm.println(EPrintType.IN_PROGRESS, "Build", build.toString());
@@ -735,52 +774,124 @@ public class PfttMain {
 			hosts = new ArrayList<AHost>(1);
 			hosts.add(this.host);
 		}
-		AtomicBoolean run_flag = new AtomicBoolean(true);
+		final List<AHost> storage_hosts = hosts;
+		final AtomicBoolean run_flag = new AtomicBoolean(true);
 		for ( int i=0 ; i < cm.getRunTestPack() ; i++ ) {
-			for ( ScenarioSet scenario_set : getScenarioSets(config, EScenarioSetPermutationLayer.FUNCTIONAL_TEST_CORE) ) {
-				
-				if (!smoke(build, config, tmgr)) {
-					break;
-				}
-				
-				LinkedList<PhptTestCase> test_cases = new LinkedList<PhptTestCase>();
-				
-				cm.println(EPrintType.CLUE, getClass(), "Writing Result-Pack: "+tmgr.getResultPackPath());
-				test_pack.cleanup(cm);
-				cm.println(EPrintType.IN_PROGRESS, "PhptSourceTestPack", "enumerating test cases from test-pack...");
-				test_pack.read(config, test_cases, names, tmgr.getConsoleManager(), tmgr, build, true, SAPIScenario.getSAPIScenario(scenario_set)); // TODO true?
-				cm.println(EPrintType.IN_PROGRESS, "PhptSourceTestPack", "enumerated test cases.");
-				
-				for ( AHost storage_host : hosts ) {
-					LocalPhptTestPackRunner test_pack_runner = new LocalPhptTestPackRunner(tmgr.getConsoleManager(), tmgr, scenario_set, build, storage_host, host, config);
-					if (!cm.isNonInteractive())
-						interactive(run_flag, test_pack_runner);
-					cm.showGUI(test_pack_runner);
-					
-					test_pack_runner.runTestList(test_pack, test_cases);
-				
-					tmgr.notifyPhptFinished(host, test_pack_runner.getScenarioSetSetup(), test_pack);
-					if (!run_flag.get())
-						return;
-				}
-				
-				//
-				{
-					PhptTestCountsMatchSmokeTest test = new PhptTestCountsMatchSmokeTest();
-					if (test.test(tmgr)==ESmokeTestStatus.FAIL) {
-						cm.println(EPrintType.CANT_CONTINUE, "Main", "Failed smoke test: "+test.getName());
+			// cleanup once, before any scenario set starts (scenario sets may run at the same time)
+			test_pack.cleanup(cm);
+			runScenarioSets(getScenarioSets(config, EScenarioSetPermutationLayer.FUNCTIONAL_TEST_CORE), !cm.isPhptNotInPlace(), new IScenarioSetTask() {
+					@Override
+					public boolean run(ScenarioSet scenario_set, TestThreadBudget thread_budget) throws Exception {
+						if (!smoke(build, config, tmgr)) {
+							return false;
+						}
+						
+						LinkedList<PhptTestCase> test_cases = new LinkedList<PhptTestCase>();
+						
+						cm.println(EPrintType.CLUE, PfttMain.class, "Writing Result-Pack: "+tmgr.getResultPackPath());
+						cm.println(EPrintType.IN_PROGRESS, "PhptSourceTestPack", "enumerating test cases from test-pack...");
+						test_pack.read(config, test_cases, names, tmgr.getConsoleManager(), tmgr, build, true, SAPIScenario.getSAPIScenario(scenario_set)); // TODO true?
+						cm.println(EPrintType.IN_PROGRESS, "PhptSourceTestPack", "enumerated test cases.");
+						
+						for ( AHost storage_host : storage_hosts ) {
+							LocalPhptTestPackRunner test_pack_runner = new LocalPhptTestPackRunner(tmgr.getConsoleManager(), tmgr, scenario_set, build, storage_host, host, config);
+							test_pack_runner.setThreadBudget(thread_budget);
+							if (!cm.isNonInteractive())
+								interactive(run_flag, test_pack_runner);
+							cm.showGUI(test_pack_runner);
+							
+							test_pack_runner.runTestList(test_pack, test_cases);
+						
+							tmgr.notifyPhptFinished(host, test_pack_runner.getScenarioSetSetup(), test_pack);
+							if (!run_flag.get())
+								return false;
+						}
 						
-						tmgr.notifyFailedSmokeTest(test.getName(), "");
+						//
+						{
+							PhptTestCountsMatchSmokeTest test = new PhptTestCountsMatchSmokeTest();
+							if (test.test(tmgr)==ESmokeTestStatus.FAIL) {
+								cm.println(EPrintType.CANT_CONTINUE, "Main", "Failed smoke test: "+test.getName());
+								
+								tmgr.notifyFailedSmokeTest(test.getName(), "");
+							}
+						}
+						//
+						return true;
 					}
-				}
-				//
-				
-			} // end for (scenario_set)
+				});
+			if (!run_flag.get())
+				return;
 			if (cm.getRunTestPack()>1)
 				closeWriter(tmgr);
 		}
 	} // end public void coreList
 	
+	protected interface IScenarioSetTask {
+		/**
+		 * 
+		 * @param scenario_set
+		 * @param thread_budget - NULL unless scenario sets are run at the same time
+		 * @return FALSE to not run any more scenario sets
+		 * @throws Exception
+		 */
+		boolean run(ScenarioSet scenario_set, @Nullable TestThreadBudget thread_budget) throws Exception;
+	}
+	
+	/** runs the task for each scenario set, one after another (default) or several at the same time with
+	 * -concurrent_scenario_sets. Scenario sets run at the same time share a TestThreadBudget, so the threads
+	 * idle at the end of one scenario set are used to run the others, and the next scenario set starts as soon
+	 * as one finishes.
+	 * 
+	 * Scenario sets are always run one after another if they'd share the same test files (ex: PHPTs run in place,
+	 * without -phpt_not_in_place), since tests from 2 scenario sets would overwrite each other's files.
+	 * 
+	 * @see -concurrent_scenario_sets console option
+	 * @param scenario_sets
+	 * @param shares_test_files - TRUE if all scenario sets run tests from the same files
+	 * @param task
+	 * @throws Exception
+	 */
+	protected void runScenarioSets(List<ScenarioSet> scenario_sets, boolean shares_test_files, final IScenarioSetTask task) throws Exception {
+		int concurrent = Math.min(cm.getConcurrentScenarioSets(), scenario_sets.size());
+		if (concurrent > 1 && shares_test_files) {
+			cm.println(EPrintType.CLUE, getClass(), "Running scenario sets one after another. Use -phpt_not_in_place to run scenario sets at the same time");
+			concurrent = 1;
+		}
+		if (concurrent < 2) {
+			for ( ScenarioSet scenario_set : scenario_sets ) {
+				if (!task.run(scenario_set, null))
+					break;
+			}
+			return;
+		}
+		cm.println(EPrintType.IN_PROGRESS, getClass(), "Running "+concurrent+" scenario sets at the same time");
+		// same number of threads as 1 scenario set would be allowed to scale up to (@see AbstractLocalTestPackRunner#decideThreadCount)
+		final TestThreadBudget thread_budget = new TestThreadBudget(cm.getThreadCount()>0?cm.getThreadCount():host.getCPUCount()*2, concurrent);
+		final LinkedBlockingQueue<ScenarioSet> queue = new LinkedBlockingQueue<ScenarioSet>(scenario_sets);
+		final AtomicBoolean run_flag = new AtomicBoolean(true);
+		Thread[] threads = new Thread[concurrent];
+		for ( int i=0 ; i < concurrent ; i++ ) {
+			threads[i] = new Thread("ScenarioSet"+i) {
+					@Override
+					public void run() {
+						ScenarioSet scenario_set;
+						while (run_flag.get() && (scenario_set = queue.poll())!=null) {
+							try {
+								if (!task.run(scenario_set, thread_budget))
+									run_flag.set(false);
+							} catch ( Exception ex ) {
+								cm.addGlobalException(EPrintType.CANT_CONTINUE, PfttMain.class, "runScenarioSets", ex, "", scenario_set);
+							}
+						}
+					}
+				};
+			threads[i].start();
+		}
+		for ( Thread t : threads )
+			t.join();
+	} // end protected void runScenarioSets
+	
 	public enum ERevisionGetOption {
 		ALL,
 		BUILD_ONLY,
@@ -1354,6 +1465,13 @@ public class PfttMain {
 		
 		Config config = null;
 		String debugger_name = null;
+		int concurrent_scenario_sets = 1;
+		int[] perf_clients = HttpLoadGenerator.DEFAULT_VIRTUAL_CLIENTS;
+		double perf_rps = 0d;
+		int perf_runs = 1;
+		boolean linear_expectf = false;
+		boolean result_pack_segment = false;
+		int result_writer_threads = 1;
 		boolean is_uac = false, debug = false, randomize_order = false, no_result_file_for_pass_xskip_skip = false, pftt_debug = false, show_gui = false, overwrite = false, disable_debug_prompt = false, results_only = false, dont_cleanup_test_pack = false, phpt_not_in_place = false, thread_safety = true, skip_smoke_tests = false, pause = false, restart_each_test_all = false, no_restart_all = false, ignore_unknown_option = false, ini_actual_all = false, non_interactive = false, ignore_output = false;
 		long max_run_time_millis = 0;
 		int run_test_times_all = 1, run_test_pack = 1, delay_between_ms = 0, run_test_times_list_times = 1, run_group_times_all = 1, run_group_times_list_times = 1, max_test_read_count = 0, thread_count = 0, run_count = 0, suspend_seconds = 0;
@@ -1469,6 +1587,10 @@ public class PfttMain {
 				restart_each_test_all = true;
 			} else if (args[args_i].equals("-no_restart_all")) {
 				no_restart_all = true;
+			} else if (args[args_i].equals("-web_spares")) {
+				args_i++;
+				
+				WebServerSparePool.setSpareCount(Integer.parseInt(args[args_i]));
 			} else if (args[args_i].equals("-ini_actual_all")) {
 				ini_actual_all = true;
 			} else if (args[args_i].equals("-max_run_time_millis")) {
@@ -1564,6 +1686,49 @@ public class PfttMain {
 					System.err.println("PFTT: debug-pack not found: "+args[args_i]);
 					System.exit(-250);
 				}
+			} else if (args[args_i].equals("-result_writer_threads")) {
+				args_i++;
+				
+				if (args[args_i].equals("cpu")) {
+					result_writer_threads = p.host.getCPUCount();
+				} else {
+					result_writer_threads = Integer.parseInt(args[args_i]);
+				}
+			} else if (args[args_i].equals("-result_pack_segment")) {
+				result_pack_segment = true;
+			} else if (args[args_i].equals("-linear_expectf")) {
+				linear_expectf = true;
+			} else if (args[args_i].equals("-no_skipif_cache")) {
+				PhptSkipIfCache.setEnabled(false);
+			} else if (args[args_i].equals("-no_http_keepalive")) {
+				HttpConnectionPool.setEnabled(false);
+			} else if (args[args_i].equals("-php_workers")) {
+				CliPhpWorkerPool.setEnabled(true);
+			} else if (args[args_i].equals("-perf_clients")) {
+				args_i++;
+				
+				String[] parts = args[args_i].split(",");
+				perf_clients = new int[parts.length];
+				for ( int i=0 ; i < parts.length ; i++ )
+					perf_clients[i] = Integer.parseInt(parts[i].trim());
+			} else if (args[args_i].equals("-perf_runs")) {
+				args_i++;
+				
+				perf_runs = Integer.parseInt(args[args_i]);
+			} else if (args[args_i].equals("-perf_rps")) {
+				args_i++;
+				
+				perf_rps = Double.parseDouble(args[args_i]);
+			} else if (args[args_i].equals("-release_process_handles")) {
+				LocalHost.setReleaseProcessHandles(true);
+			} else if (args[args_i].equals("-concurrent_scenario_sets")) {
+				args_i++;
+				
+				if (args[args_i].equals("cpu")) {
+					concurrent_scenario_sets = p.host.getCPUCount();
+				} else {
+					concurrent_scenario_sets = Integer.parseInt(args[args_i]);
+				}
 			} else if (args[args_i].equals("-h")||args[args_i].equals("--h")||args[args_i].equals("-help")||args[args_i].equals("--help")) {
 				help(config);
 				System.exit(0);
@@ -1577,7 +1742,7 @@ public class PfttMain {
 					help_all();
 					System.exit(-255);
 					return;
-				} else if (StringUtil.containsAnyCS(args[args_i], new String[]{"run_test", "core_all", "core_named", "core_list", "app_all", "app_named", "app_list", "ui_all", "ui_list", "ui_named", "report", "release_get", "release_list", "list_config", "smoke", "info"})) {
+				} else if (StringUtil.containsAnyCS(args[args_i], new String[]{"run_test", "core_all", "core_named", "core_list", "app_all", "app_named", "app_list", "ui_all", "ui_list", "ui_named", "perf_all", "perf_named", "report", "release_get", "release_list", "list_config", "smoke", "info"})) {
 					if (args[args_i].endsWith("_"))
 						// for setup, lc
 						args[args_i] = args[args_i].substring(0, args[args_i].length()-1);
@@ -1615,7 +1780,7 @@ public class PfttMain {
 		cm = new LocalConsoleManager(source_pack, debug_pack, overwrite, debug, results_only, show_gui, disable_debug_prompt, dont_cleanup_test_pack, phpt_not_in_place, pftt_debug, no_result_file_for_pass_xskip_skip, randomize_order, run_test_times_all, run_test_pack, 
 				thread_safety, run_test_times_list_times, run_group_times_all, run_group_times_list_times, debug_list, run_test_times_list, run_group_times_list, skip_list,
 				skip_smoke_tests, max_test_read_count, thread_count, restart_each_test_all, no_restart_all, delay_between_ms,
-				run_count, suspend_seconds, ini_actual_all, max_run_time_millis, non_interactive, ignore_output, debugger_name);
+				run_count, suspend_seconds, ini_actual_all, max_run_time_millis, non_interactive, ignore_output, debugger_name, result_writer_threads, result_pack_segment, linear_expectf, concurrent_scenario_sets);
 		p.cm = cm;
 		int exit_code = 0;
 		
@@ -2275,6 +2440,54 @@ public class PfttMain {
 							} // end for (scenario_sets)
 						} // end for (test_packs)
 					} // end for (builds)
+				} else if (command.equals("perf_all")||command.equals("perfall")||command.equals("perf")||command.equals("pa")||
+						command.equals("perf_named")||command.equals("perfnamed")||command.equals("pn")) {
+					no_show_gui(show_gui, command);
+					
+					PhpBuild[] builds = newBuilds(cm, p.host, args[args_i+1]);
+					args_i += 2;
+					
+					List<PerformanceTest> tests = PerformanceTest.getAll();
+					if (command.equals("perf_named")||command.equals("perfnamed")||command.equals("pn")) {
+						// read name fragments from CLI arguments
+						List<String> test_names = new ArrayList<String>(args.length-args_i);
+						for ( ; args_i < args.length ; args_i++) {
+							for ( String name : args[args_i].split(","))
+								test_names.add(name);
+						}
+						String[] needles = test_names.toArray(new String[test_names.size()]);
+						Iterator<PerformanceTest> it = tests.iterator();
+						while (it.hasNext()) {
+							if (!StringUtil.containsAnyIC(it.next().getName(), needles))
+								it.remove();
+						}
+						if (tests.isEmpty()) {
+							System.err.println("User error: no performance tests match: "+test_names);
+							return;
+						}
+					}
+					ELoadModel model = perf_rps > 0d ? ELoadModel.OPEN : ELoadModel.CLOSED;
+					
+					for ( PhpBuild build : builds ) {
+						List<AHost> hosts = config.getHosts();
+						if (hosts.isEmpty())
+							hosts = ArrayUtil.toList((AHost)p.host);
+						
+						PhpResultPackWriter w = p.getWriter(build);
+						for ( ScenarioSet scenario_set : getScenarioSets(config, EScenarioSetPermutationLayer.PRODUCTION_OR_ALL_UP_TEST) ) {
+							for ( AHost host : hosts ) {
+								FileSystemScenario fs = FileSystemScenario.getFS(scenario_set, host);
+								
+								ScenarioSetSetup scenario_set_setup = ScenarioSetSetup.setupScenarioSet(cm, fs, host, build, scenario_set, EScenarioSetPermutationLayer.PRODUCTION_OR_ALL_UP_TEST);
+								if (scenario_set_setup==null)
+									continue;
+								
+								PerformanceTestRunner runner = new PerformanceTestRunner(cm, w, host, scenario_set_setup, build, model, perf_clients, perf_rps);
+								runner.setRunCount(perf_runs);
+								runner.runTests(tests);
+							} // end for (hosts)
+						} // end for (scenario_sets)
+					} // end for (builds)
 				} else {
 					no_show_gui(show_gui, command);
 					
@@ -10,14 +10,31 @@ import com.mostc.pftt.results.AbstractReportGen;
 import com.mostc.pftt.results.ConsoleManager;
 import com.mostc.pftt.results.PhpResultPack;
 import com.mostc.pftt.results.PhptTestResult;
+import com.mostc.pftt.results.TestNameIndex;
 
 class PhpUnitMultiHostTwoBuildSingleScenarioSetReportGen extends AbstractReportGen {
 	AbstractPhpUnitRW base_telem, test_telem;
 	int row;
+	final TestNameIndex index;
 
 	public PhpUnitMultiHostTwoBuildSingleScenarioSetReportGen(AbstractPhpUnitRW base_telem, AbstractPhpUnitRW test_telem) {
+		this(base_telem, test_telem, new TestNameIndex());
+	}
+	
+	/**
+	 * 
+	 * @param base_telem
+	 * @param test_telem
+	 * @param index - share 1 index for all reports comparing the same result-packs
+	 */
+	public PhpUnitMultiHostTwoBuildSingleScenarioSetReportGen(AbstractPhpUnitRW base_telem, AbstractPhpUnitRW test_telem, TestNameIndex index) {
 		this.base_telem = base_telem;
 		this.test_telem = test_telem;
+		this.index = index;
+	}
+	
+	protected List<String> listNew(EPhpUnitTestStatus status) {
+		return index.toNames(TestNameIndex.andNot(test_telem.getTestNames(index, status), base_telem.getTestNames(index, status)))
 	}
 	
 	@Override
@@ -39,6 +56,11 @@ class PhpUnitMultiHostTwoBuildSingleScenarioSetReportGen extends AbstractReportG
 		//def os_names = //['Win 2008r2', 'Win 2012', 'Win 2012r2']//['Win 2012']//PHP-CSS-01']//
 		//['RD00155D441262']
 		
+		// compute once (not for each OS)
+		List<String> new_crash_names = listNew(EPhpUnitTestStatus.CRASH)
+		List<String> new_error_names = listNew(EPhpUnitTestStatus.ERROR)
+		List<String> new_failure_names = listNew(EPhpUnitTestStatus.FAILURE)
+		
 		row = 1;
 		html.html {
 			head {
@@ -229,7 +251,7 @@ class PhpUnitMultiHostTwoBuildSingleScenarioSetReportGen extends AbstractReportG
 									)
 							td(valign: 'top', style: 'border:solid windowtext 1.0pt; background:#ECEEE1;padding:0in 5.4pt 0in 5.4pt') {
 								if (!abbreviated || sw.getBuffer().length()<ABBREVIATED_MAX_LENGTH) {
-									PhptTestResult.listANotInB(test_telem.getTestNames(EPhpUnitTestStatus.CRASH), base_telem.getTestNames(EPhpUnitTestStatus.CRASH)).each { test_name ->
+									new_crash_names.each { test_name ->
 										p(test_name)
 										String a = test_telem.getTestOutput(test_name);
 										if (a!=null) {
@@ -240,7 +262,7 @@ class PhpUnitMultiHostTwoBuildSingleScenarioSetReportGen extends AbstractReportG
 									}
 								}
 								if (!abbreviated || sw.getBuffer().length()<ABBREVIATED_MAX_LENGTH) {
-									PhptTestResult.listANotInB(test_telem.getTestNames(EPhpUnitTestStatus.ERROR), base_telem.getTestNames(EPhpUnitTestStatus.ERROR)).each { test_name ->
+									new_error_names.each { test_name ->
 										p(test_name)
 										String a = test_telem.getTestOutput(test_name);
 										if (a!=null) {
@@ -251,7 +273,7 @@ class PhpUnitMultiHostTwoBuildSingleScenarioSetReportGen extends AbstractReportG
 									}
 								}
 								if (!abbreviated || sw.getBuffer().length()<ABBREVIATED_MAX_LENGTH) {
-									PhptTestResult.listANotInB(test_telem.getTestNames(EPhpUnitTestStatus.FAILURE), base_telem.getTestNames(EPhpUnitTestStatus.FAILURE)).each { test_name ->
+									new_failure_names.each { test_name ->
 										p(test_name)
 										String a = test_telem.getTestOutput(test_name);
 										if (a!=null) {
@@ -0,0 +1,253 @@
+package com.mostc.pftt.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.mostc.pftt.host.LocalHost;
+import com.mostc.pftt.results.ConsoleManagerUtil;
+
+/** Stores what was parsed from each file of a test-pack so the file doesn't have to be parsed again
+ * the next time PFTT reads the same test-pack.
+ *
+ * There is one cache file for each kind of test-pack (PHPT, PhpUnit, etc...) and test-pack directory.
+ * Each file in the test-pack has its own entry, with the file's last modified time, size and SHA-1 hash.
+ * Entries are checked individually, so only files that changed since the last time are parsed again:
+ *  -if the modified time and size are the same, the entry is used
+ *  -if only the modified time changed (ex: test-pack was extracted again), the file is hashed and the entry is used if the hash is the same
+ *  -otherwise the entry is stale and the caller parses the file again (and #put's the new entry)
+ *
+ * What is stored for each file (the payload) is up to the caller (@see PhptTestCase#writeCache).
+ *
+ * The cache file is read the first time its used and written back when PFTT exits (only if any entries changed).
+ *
+ * Thread-safe.
+ */
+
+public final class TestPackParseCache {
+	protected static final String DIR_NAME = "test_pack";
+	protected static final int MAGIC = 0x50545043; // PTPC
+	/** change if the format of the cache file changes. callers have their own version for their payload */
+	protected static final int VERSION = 1;
+	private static final HashMap<String,TestPackParseCache> caches = new HashMap<String,TestPackParseCache>();
+	private static boolean hook_added;
+
+	protected final String kind, root_dir;
+	protected final int payload_version;
+	protected final File file;
+	protected final Map<String,Entry> entries;
+	protected volatile boolean dirty;
+
+	protected TestPackParseCache(String kind, int payload_version, String root_dir, File file) {
+		this.kind = kind;
+		this.payload_version = payload_version;
+		this.root_dir = root_dir;
+		this.file = file;
+		entries = new ConcurrentHashMap<String,Entry>(4096);
+	}
+
+	/** returns the cache for the test-pack (reading it from disk the first time)
+	 *
+	 * @param kind - kind of test-pack. each kind has its own payload
+	 * @param payload_version - change whenever what the caller stores in the payload changes or whenever
+	 * the parser changes what it produces from a file (all entries are then discarded)
+	 * @param root_dir - test-pack directory
+	 * @return
+	 */
+	public static TestPackParseCache open(String kind, int payload_version, String root_dir) {
+		root_dir = new File(root_dir).getAbsolutePath();
+		final String key = kind+"|"+root_dir;
+		synchronized(caches) {
+			TestPackParseCache cache = caches.get(key);
+			if (cache!=null)
+				return cache;
+			cache = new TestPackParseCache(kind, payload_version, root_dir, new File(new File(LocalHost.getInstance().getPfttCacheDir(), DIR_NAME), DigestUtils.shaHex(key)+".cache"));
+			if (cache.file.isFile()) {
+				try {
+					cache.read();
+				} catch ( Exception ex ) {
+					// stale or corrupt... will be replaced when PFTT exits
+					ConsoleManagerUtil.printStackTrace(TestPackParseCache.class, ex);
+					cache.entries.clear();
+					cache.dirty = true;
+				}
+			}
+			caches.put(key, cache);
+
+			if (!hook_added) {
+				hook_added = true;
+				Runtime.getRuntime().addShutdownHook(new Thread() {
+						@Override
+						public void run() {
+							saveAll();
+						}
+					});
+			}
+			return cache;
+		}
+	} // end public static TestPackParseCache open
+
+	public static void saveAll() {
+		TestPackParseCache[] a;
+		synchronized(caches) {
+			a = caches.values().toArray(new TestPackParseCache[caches.size()]);
+		}
+		for ( TestPackParseCache cache : a )
+			cache.save();
+	}
+
+	/** returns the payload stored for the file if the file hasn't changed since it was stored
+	 *
+	 * @param name - name of file relative to the test-pack
+	 * @param f - the file
+	 * @return NULL if not cached or file changed
+	 */
+	public DataInputStream get(String name, File f) {
+		Entry e = entries.get(name);
+		if (e==null)
+			return null;
+		final long size = f.length();
+		if (e.size!=size)
+			return null;
+		final long mtime = f.lastModified();
+		if (e.mtime!=mtime) {
+			// file touched (or copied or extracted again) but may not have changed
+			try {
+				if (!Arrays.equals(e.hash, hashFile(f)))
+					return null;
+			} catch ( IOException ex ) {
+				return null;
+			}
+			entries.put(name, new Entry(mtime, size, e.hash, e.payload));
+			dirty = true;
+		}
+		return new DataInputStream(new ByteArrayInputStream(e.payload));
+	}
+
+	/** stores payload for file
+	 *
+	 * @param name - name of file relative to the test-pack
+	 * @param f - the file (must be the same file the payload was parsed from)
+	 * @param payload
+	 */
+	public void put(String name, File f, byte[] payload) {
+		try {
+			entries.put(name, new Entry(f.lastModified(), f.length(), hashFile(f), payload));
+			dirty = true;
+		} catch ( IOException ex ) {
+			// won't be cached. will be parsed again next time
+			ConsoleManagerUtil.printStackTrace(TestPackParseCache.class, ex);
+		}
+	}
+
+	protected void read() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64*1024));
+		try {
+			if (in.readInt()!=MAGIC||in.readInt()!=VERSION||in.readInt()!=payload_version||!kind.equals(in.readUTF())||!root_dir.equals(in.readUTF())) {
+				// from a different version of PFTT... parse everything again
+				dirty = true;
+				return;
+			}
+			final int count = in.readInt();
+			for ( int i=0 ; i < count ; i++ ) {
+				String name = in.readUTF();
+				long mtime = in.readLong();
+				long size = in.readLong();
+				byte[] hash = new byte[in.readUnsignedByte()];
+				in.readFully(hash);
+				byte[] payload = new byte[in.readInt()];
+				in.readFully(payload);
+				entries.put(name, new Entry(mtime, size, hash, payload));
+			}
+		} catch ( EOFException ex ) {
+			// file truncated (PFTT killed while saving?). keep what was read
+			dirty = true;
+		} finally {
+			in.close();
+		}
+	} // end protected void read
+
+	public synchronized void save() {
+		if (!dirty)
+			return;
+		File tmp_file = new File(file.getPath()+".tmp");
+		try {
+			file.getParentFile().mkdirs();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp_file), 64*1024));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(payload_version);
+				out.writeUTF(kind);
+				out.writeUTF(root_dir);
+				// snapshot: entries may still be added by other threads
+				Map.Entry<?,?>[] a = entries.entrySet().toArray(new Map.Entry<?,?>[0]);
+				int count = 0;
+				for ( int i=0 ; i < a.length ; i++ ) {
+					// drop files deleted from the test-pack
+					if (new File(root_dir, (String)a[i].getKey()).exists())
+						count++;
+					else
+						a[i] = null;
+				}
+				out.writeInt(count);
+				for ( Map.Entry<?,?> me : a ) {
+					if (me==null)
+						continue;
+					Entry e = (Entry) me.getValue();
+					out.writeUTF((String) me.getKey());
+					out.writeLong(e.mtime);
+					out.writeLong(e.size);
+					out.writeByte(e.hash.length);
+					out.write(e.hash);
+					out.writeInt(e.payload.length);
+					out.write(e.payload);
+				}
+			} finally {
+				out.close();
+			}
+			// replace old cache only after new one is completely written
+			file.delete();
+			if (tmp_file.renameTo(file))
+				dirty = false;
+		} catch ( Exception ex ) {
+			ConsoleManagerUtil.printStackTrace(TestPackParseCache.class, ex);
+		}
+	} // end public synchronized void save
+
+	protected static byte[] hashFile(File f) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(f), 8192);
+		try {
+			return DigestUtils.sha(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	protected static class Entry {
+		protected final long mtime, size;
+		protected final byte[] hash, payload;
+
+		protected Entry(long mtime, long size, byte[] hash, byte[] payload) {
+			this.mtime = mtime;
+			this.size = size;
+			this.hash = hash;
+			this.payload = payload;
+		}
+	}
+
+} // end public final class TestPackParseCache
@@ -1,5 +1,9 @@
 package com.mostc.pftt.model.app;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -17,6 +21,7 @@ import com.mostc.pftt.host.AHost;
 import com.mostc.pftt.host.Host;
 import com.mostc.pftt.main.Config;
 import com.mostc.pftt.model.ApplicationSourceTestPack;
+import com.mostc.pftt.model.TestPackParseCache;
 import com.mostc.pftt.model.core.PhpBuild;
 import com.mostc.pftt.model.core.PhpIni;
 import com.mostc.pftt.model.core.PhpParser;
@@ -24,6 +29,7 @@ import com.mostc.pftt.model.core.PhpParser.ClassDefinition;
 import com.mostc.pftt.model.core.PhpParser.FunctionDefinition;
 import com.mostc.pftt.model.core.PhpParser.PhpScript;
 import com.mostc.pftt.results.ConsoleManager;
+import com.mostc.pftt.results.ConsoleManagerUtil;
 import com.mostc.pftt.results.ITestResultReceiver;
 import com.mostc.pftt.results.PhpResultPackWriter;
 import com.mostc.pftt.scenario.FileSystemScenario;
@@ -314,7 +320,15 @@ public abstract class PhpUnitSourceTestPack extends ApplicationSourceTestPack<Ph
 		
 	} // end protected void readDir
 	
+	/** change whenever #parseTestFile changes what it stores
+	 * 
+	 * @see TestPackParseCache
+	 */
+	protected static final int CACHE_VERSION = 1;
+	
 	/** reads PhpUnitTestCase(s) from given PHP file
+	 * 
+	 * The test methods found in the file are cached, so the file is only parsed again if it changes.
 	 * 
 	 * @param config 
 	 * @param max_read_count
@@ -325,8 +339,40 @@ public abstract class PhpUnitSourceTestPack extends ApplicationSourceTestPack<Ph
 	 * @param file
 	 */
 	protected void readTestFile(Config config, final int max_read_count, String rel_test_file_name, String abs_test_file_name, PhpUnitDist php_unit_dist, List<PhpUnitTestCase> test_cases, File file) {
+		// test methods found depend on #isFunctionATest, which may be overridden
+		TestPackParseCache cache = TestPackParseCache.open("phpunit:"+getClass().getName(), CACHE_VERSION, php_unit_dist.path.getAbsolutePath());
+		DataInputStream in = cache.get(rel_test_file_name, file);
+		if (in!=null) {
+			try {
+				addTestCases(config, max_read_count, rel_test_file_name, abs_test_file_name, php_unit_dist, test_cases, in);
+				return;
+			} catch ( IOException ex ) {
+				// corrupt entry: parse file again (and replace entry)
+				ConsoleManagerUtil.printStackTrace(PhpUnitSourceTestPack.class, ex);
+			}
+		}
+		byte[] payload;
+		try {
+			payload = parseTestFile(file);
+			addTestCases(config, max_read_count, rel_test_file_name, abs_test_file_name, php_unit_dist, test_cases, new DataInputStream(new ByteArrayInputStream(payload)));
+		} catch ( IOException ex ) {
+			// not expected (in memory)
+			ConsoleManagerUtil.printStackTrace(PhpUnitSourceTestPack.class, ex);
+			return;
+		}
+		cache.put(rel_test_file_name, file, payload);
+	} // end protected void readTestFile
+	
+	/** parses the PHP file and stores every test method found in it
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	protected byte[] parseTestFile(File file) throws IOException {
 		PhpScript script = PhpParser.parseScript(file);
-		String dataProviderMethodName, dependsMethodName;
+		ByteArrayOutputStream buf = new ByteArrayOutputStream(1024);
+		DataOutputStream out = new DataOutputStream(buf);
 		
 		for ( ClassDefinition clazz : script.getClasses() ) {
 			if (clazz.isAbstract()||clazz.isInterface())
@@ -336,42 +382,70 @@ public abstract class PhpUnitSourceTestPack extends ApplicationSourceTestPack<Ph
 				// search class for functions that start with 'test'
 				if (isFunctionATest(func.getName())) {
 					// this is a test case
-					//
+					out.writeBoolean(true);
+					// some PhpUnits use the namespace keyword and/or \\ in the class name (namespaces)
+					// InterpretedclassDef#getName will provide the absolute class name (including namespace)
+					// in such cases, so nothing special needs to be done here for them
+					out.writeUTF(clazz.getName());
+					// name of method within the class
+					out.writeUTF(func.getName());
+					out.writeInt(func.getArgumentCount());
 					//
 					// some tests use these annotations to provide the name of a function (in same class)
 					// to call to get the arguments for this test case method
 					//
 					// @see http://phpunit.de/manual/3.7/en/appendixes.annotations.html#appendixes.annotations.dataProvider
-					dataProviderMethodName = cleanFunctionName(func.getAnnotationValue("dataProvider"));
+					writeNullableUTF(out, cleanFunctionName(func.getAnnotationValue("dataProvider")));
 					// @see http://phpunit.de/manual/3.7/en/appendixes.annotations.html#appendixes.annotations.depends
-					dependsMethodName = cleanFunctionName(func.getAnnotationValue("depends"));
-					
-					boolean exception_expected = StringUtil.isNotEmpty(func.getAnnotationValue("expectedException"));
-					
-					PhpUnitTestCase test_case = new PhpUnitTestCase(
-							php_unit_dist,
-							abs_test_file_name,
-							rel_test_file_name,
-							// some PhpUnits use the namespace keyword and/or \\ in the class name (namespaces)
-							// InterpretedclassDef#getName will provide the absolute class name (including namespace)
-							// in such cases, so nothing special needs to be done here for them
-							clazz.getName(),
-							// name of method within the class
-							func.getName(),
-							func.getArgumentCount(),
-							dataProviderMethodName,
-							dependsMethodName,
-							exception_expected
-						);
-					config.processPhpUnit(test_case);
-					test_cases.add(test_case);
+					writeNullableUTF(out, cleanFunctionName(func.getAnnotationValue("depends")));
 					
-					if (max_read_count > 0 && test_cases.size() >= max_read_count)
-						return;
+					out.writeBoolean(StringUtil.isNotEmpty(func.getAnnotationValue("expectedException")));
 				}
 			}
 		}
-	} // end protected void readTestFile
+		out.writeBoolean(false); // end
+		out.close();
+		return buf.toByteArray();
+	} // end protected byte[] parseTestFile
+	
+	/** creates a PhpUnitTestCase for each test method stored by #parseTestFile */
+	protected void addTestCases(Config config, final int max_read_count, String rel_test_file_name, String abs_test_file_name, PhpUnitDist php_unit_dist, List<PhpUnitTestCase> test_cases, DataInputStream in) throws IOException {
+		while (in.readBoolean()) {
+			if (max_read_count > 0 && test_cases.size() >= max_read_count)
+				return;
+			
+			String class_name = in.readUTF();
+			String function_name = in.readUTF();
+			int arg_count = in.readInt();
+			String dataProviderMethodName = readNullableUTF(in);
+			String dependsMethodName = readNullableUTF(in);
+			boolean exception_expected = in.readBoolean();
+			
+			PhpUnitTestCase test_case = new PhpUnitTestCase(
+					php_unit_dist,
+					abs_test_file_name,
+					rel_test_file_name,
+					class_name,
+					function_name,
+					arg_count,
+					dataProviderMethodName,
+					dependsMethodName,
+					exception_expected
+				);
+			config.processPhpUnit(test_case);
+			test_cases.add(test_case);
+		}
+	} // end protected void addTestCases
+	
+	protected static void writeNullableUTF(DataOutputStream out, String str) throws IOException {
+		out.writeBoolean(str!=null);
+		if (str!=null)
+			out.writeUTF(str);
+	}
+	
+	protected static String readNullableUTF(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
 	
 	protected static String cleanFunctionName(String name) {
 		if (StringUtil.isEmpty(name))
@@ -0,0 +1,378 @@
+package com.mostc.pftt.model.core;
+
+/** Matches output against an EXPECTF section in linear time.
+ *
+ * The EXPECTF section is split into segments at each %a and %A. Each segment is compiled directly into a
+ * small NFA (no backtracking) which is simulated over the output. Since %a and %A match anything, it is enough
+ * to find where each segment first matches (after where the previous segment ended), so the output is scanned
+ * only once. Matching takes O(length of output * size of largest segment) in the worst case, instead of the
+ * exponential time the backtracking RE can take for large outputs with many %s or %a.
+ *
+ * Follows the same expression as #prepareExpectF produces:
+ *  -the section may match anywhere in the output
+ *  -each line of the section may be followed by anything (up to the end of that line)
+ *
+ * Supported: %s %S %a %A %w %i %d %x %f %c %e and %unicode|string% (and its variants)
+ *
+ * Not supported: %r...%r (embedded regular expressions). #compile returns NULL for those and the RE should
+ * be used instead.
+ *
+ * Unlike RE, characters are always compared exactly and %a and %A match any character (like run-tests.php).
+ *
+ * Immutable and thread-safe (#match allocates its own state).
+ *
+ * @see PhptTestCase#prepareExpectF
+ * @see PhptTestCase#getExpectFMatcher
+ * @see -linear_expectf console option
+ */
+
+public final class PhptExpectFMatcher {
+	// state types
+	protected static final byte OP_CHAR = 0;
+	protected static final byte OP_CLASS = 1;
+	protected static final byte OP_SPLIT = 2;
+	protected static final byte OP_MATCH = 3;
+	// character classes
+	/** [^\r\n] */
+	protected static final char CLASS_NOT_CRLF = 0;
+	/** . (any character except a newline) */
+	protected static final char CLASS_DOT = 1;
+	/** \s */
+	protected static final char CLASS_SPACE = 3;
+	/** \d */
+	protected static final char CLASS_DIGIT = 4;
+	/** [0-9a-fA-F] */
+	protected static final char CLASS_HEX = 5;
+	/** [+-] */
+	protected static final char CLASS_SIGN = 6;
+	/** [Ee] */
+	protected static final char CLASS_EXP = 7;
+	/** [\\|/] */
+	protected static final char CLASS_DIR_SEP = 8;
+
+	protected final byte[] op;
+	/** character or character class */
+	protected final char[] arg;
+	/** next state (or first alternative for OP_SPLIT) */
+	protected final int[] next;
+	/** second alternative for OP_SPLIT */
+	protected final int[] alt;
+	protected final int state_count;
+	/** first state of each segment */
+	protected final int[] segment_start;
+	/** minimum number of characters between end of previous segment and start of segment (1 for %a, 0 for %A) */
+	protected final int[] segment_gap;
+
+	protected PhptExpectFMatcher(Builder b) {
+		this.state_count = b.count;
+		this.op = b.op;
+		this.arg = b.arg;
+		this.next = b.next;
+		this.alt = b.alt;
+		this.segment_start = new int[b.segment_count];
+		System.arraycopy(b.segment_start, 0, segment_start, 0, b.segment_count);
+		this.segment_gap = new int[b.segment_count];
+		System.arraycopy(b.segment_gap, 0, segment_gap, 0, b.segment_count);
+	}
+
+	/** compiles the EXPECTF section
+	 *
+	 * @param expectf - EXPECTF section (trimmed)
+	 * @return NULL if section can't be compiled (uses %r...%r)
+	 */
+	public static PhptExpectFMatcher compile(String expectf) {
+		if (expectf.contains("%r"))
+			// embedded regular expression: use RE
+			return null;
+		// @see PhptTestCase#prepareExpectF
+		expectf = expectf
+				.replace("%binary_string_optional%", "string")
+				.replace("%unicode_string_optional%", "string")
+				.replace("%unicode|string%", "string")
+				.replace("%string|unicode%", "string")
+				.replace("%u|b%", "")
+				.replace("%b|u%", "")
+				.replace("%c%c", "%c");
+
+		Builder b = new Builder(expectf.length() + 16);
+		final int len = expectf.length();
+		for ( int i=0 ; i < len ; i++ ) {
+			char c = expectf.charAt(i);
+			if (c=='%' && i+1 < len) {
+				switch(expectf.charAt(i+1)) {
+				case 's':
+					b.plus(CLASS_NOT_CRLF);
+					i++;
+					continue;
+				case 'S':
+					b.star(CLASS_NOT_CRLF);
+					i++;
+					continue;
+				case 'a':
+					b.anything(1);
+					i++;
+					continue;
+				case 'A':
+					b.anything(0);
+					i++;
+					continue;
+				case 'w':
+					b.star(CLASS_SPACE);
+					i++;
+					continue;
+				case 'i':
+					b.optional(CLASS_SIGN);
+					b.plus(CLASS_DIGIT);
+					i++;
+					continue;
+				case 'd':
+					b.plus(CLASS_DIGIT);
+					i++;
+					continue;
+				case 'x':
+					b.plus(CLASS_HEX);
+					i++;
+					continue;
+				case 'f':
+					// [+-]?\.?\d+\.?\d*(?:[Ee][+-]?\d+)?
+					b.optional(CLASS_SIGN);
+					b.optionalChar('.');
+					b.plus(CLASS_DIGIT);
+					b.optionalChar('.');
+					b.star(CLASS_DIGIT);
+					final int split = b.add(OP_SPLIT, (char)0);
+					b.one(CLASS_EXP);
+					b.optional(CLASS_SIGN);
+					b.plus(CLASS_DIGIT);
+					b.alt[split] = b.count;
+					i++;
+					continue;
+				case 'c':
+					b.one(CLASS_DOT);
+					i++;
+					continue;
+				case 'e':
+					b.one(CLASS_DIR_SEP);
+					i++;
+					continue;
+				default:
+					// not a special string: match % literally
+				}
+			} else if (c=='\r'||c=='\n') {
+				// each line may be followed by anything
+				b.star(CLASS_DOT);
+			}
+			b.add(OP_CHAR, c);
+		}
+		b.add(OP_MATCH, (char)0);
+		return new PhptExpectFMatcher(b);
+	} // end public static PhptExpectFMatcher compile
+
+	/** checks if the section matches anywhere in the output
+	 *
+	 * @param output
+	 * @return
+	 */
+	public boolean match(String output) {
+		int[] clist = new int[state_count];
+		int[] nlist = new int[state_count];
+		// generation each state was last added to a list in (avoids clearing an array for every character)
+		int[] added = new int[state_count];
+		int[] gen = new int[1];
+		
+		int pos = 0;
+		for ( int k=0 ; k < segment_start.length ; k++ ) {
+			pos += segment_gap[k];
+			if (pos > output.length())
+				return false;
+			pos = search(output, pos, segment_start[k], clist, nlist, added, gen);
+			if (pos < 0)
+				return false;
+		}
+		return true;
+	} // end public boolean match
+	
+	/** finds the first place the segment matches in the output, starting at #from
+	 * 
+	 * @return index in output where the match ends or -1 if segment doesn't match
+	 */
+	protected int search(String output, int from, int start, int[] clist, int[] nlist, int[] added, int[] gen) {
+		int csize, nsize;
+		
+		csize = addState(clist, 0, start, added, ++gen[0]);
+		if (csize < 0)
+			return from;
+		final int len = output.length();
+		for ( int i=from ; i < len ; i++ ) {
+			final char c = output.charAt(i);
+			final int g = ++gen[0];
+			nsize = 0;
+			for ( int j=0 ; j < csize ; j++ ) {
+				final int s = clist[j];
+				if (op[s]==OP_CHAR ? arg[s]==c : isInClass(arg[s], c)) {
+					nsize = addState(nlist, nsize, next[s], added, g);
+					if (nsize < 0)
+						return i + 1;
+				}
+			}
+			// segment may start at any character of output
+			nsize = addState(nlist, nsize, start, added, g);
+			if (nsize < 0)
+				return i + 1;
+			
+			int[] t = clist;
+			clist = nlist;
+			nlist = t;
+			csize = nsize;
+		}
+		return -1;
+	} // end protected int search
+
+	/** adds state and all states reachable from it without consuming a character
+	 *
+	 * @return new size of list or -1 if OP_MATCH was reached
+	 */
+	protected int addState(int[] list, int size, int s, int[] added, int gen) {
+		while (added[s]!=gen) {
+			added[s] = gen;
+			switch(op[s]) {
+			case OP_MATCH:
+				return -1;
+			case OP_SPLIT:
+				size = addState(list, size, alt[s], added, gen);
+				if (size < 0)
+					return -1;
+				s = next[s];
+				continue;
+			default:
+				list[size++] = s;
+				return size;
+			}
+		}
+		return size;
+	}
+
+	protected static boolean isInClass(char clazz, char c) {
+		switch(clazz) {
+		case CLASS_NOT_CRLF:
+			return c!='\r' && c!='\n';
+		case CLASS_DOT:
+			return !isNewline(c);
+		case CLASS_SPACE:
+			return Character.isWhitespace(c);
+		case CLASS_DIGIT:
+			return Character.isDigit(c);
+		case CLASS_HEX:
+			return (c>='0'&&c<='9') || (c>='a'&&c<='f') || (c>='A'&&c<='F');
+		case CLASS_SIGN:
+			return c=='+' || c=='-';
+		case CLASS_EXP:
+			return c=='E' || c=='e';
+		case CLASS_DIR_SEP:
+			return c=='\\' || c=='|' || c=='/';
+		default:
+			return false;
+		}
+	}
+
+	/** same characters RE treats as newlines */
+	protected static boolean isNewline(char c) {
+		return c=='\n' || c=='\r' || c=='\u0085' || c=='\u2028' || c=='\u2029';
+	}
+
+	protected static class Builder {
+		protected byte[] op;
+		protected char[] arg;
+		protected int[] next, alt;
+		protected int count;
+		protected int[] segment_start = new int[]{0}, segment_gap = new int[]{0};
+		protected int segment_count = 1;
+
+		protected Builder(int capacity) {
+			op = new byte[capacity];
+			arg = new char[capacity];
+			next = new int[capacity];
+			alt = new int[capacity];
+		}
+
+		/** adds a state that continues to the state added after it */
+		protected int add(byte o, char a) {
+			if (count==op.length) {
+				int cap = count * 2;
+				byte[] op2 = new byte[cap];
+				System.arraycopy(op, 0, op2, 0, count);
+				op = op2;
+				char[] arg2 = new char[cap];
+				System.arraycopy(arg, 0, arg2, 0, count);
+				arg = arg2;
+				int[] next2 = new int[cap];
+				System.arraycopy(next, 0, next2, 0, count);
+				next = next2;
+				int[] alt2 = new int[cap];
+				System.arraycopy(alt, 0, alt2, 0, count);
+				alt = alt2;
+			}
+			op[count] = o;
+			arg[count] = a;
+			next[count] = count + 1;
+			return count++;
+		}
+
+		protected void one(char clazz) {
+			add(OP_CLASS, clazz);
+		}
+
+		/** clazz? */
+		protected void optional(char clazz) {
+			int split = add(OP_SPLIT, (char)0);
+			add(OP_CLASS, clazz);
+			alt[split] = count;
+		}
+
+		protected void optionalChar(char c) {
+			int split = add(OP_SPLIT, (char)0);
+			add(OP_CHAR, c);
+			alt[split] = count;
+		}
+
+		/** %a or %A: ends the current segment and starts the next one */
+		protected void anything(int min_length) {
+			add(OP_MATCH, (char)0);
+			if (count-1==segment_start[segment_count-1]) {
+				// %a%A or %A at start of section: segment would be empty. just add to the gap
+				segment_gap[segment_count-1] += min_length;
+				count--;
+				return;
+			}
+			if (segment_count==segment_start.length) {
+				int[] a = new int[segment_count*2];
+				System.arraycopy(segment_start, 0, a, 0, segment_count);
+				segment_start = a;
+				a = new int[segment_count*2];
+				System.arraycopy(segment_gap, 0, a, 0, segment_count);
+				segment_gap = a;
+			}
+			segment_start[segment_count] = count;
+			segment_gap[segment_count] = min_length;
+			segment_count++;
+		}
+
+		/** clazz* */
+		protected void star(char clazz) {
+			int split = add(OP_SPLIT, (char)0);
+			int s = add(OP_CLASS, clazz);
+			next[s] = split;
+			alt[split] = count;
+		}
+
+		/** clazz+ */
+		protected void plus(char clazz) {
+			int s = add(OP_CLASS, clazz);
+			int split = add(OP_SPLIT, (char)0);
+			next[split] = s;
+			alt[split] = count;
+		}
+
+	} // end protected static class Builder
+
+} // end public final class PhptExpectFMatcher
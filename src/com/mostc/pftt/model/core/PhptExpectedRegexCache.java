@@ -0,0 +1,230 @@
+package com.mostc.pftt.model.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.mostc.pftt.host.LocalHost;
+import com.mostc.pftt.results.ConsoleManagerUtil;
+import com.mostc.pftt.util.apache.regexp.REProgram;
+
+/** Stores compiled EXPECTF and EXPECTREGEX sections so they don't have to be prepared and compiled again
+ * on every test run.
+ *
+ * Programs are keyed by a hash of the section's text (and everything else that changes the compiled regular expression).
+ * The cache is read from the PFTT cache directory the first time its used and written back when PFTT exits
+ * (only if any new programs were compiled).
+ *
+ * Only programs that compiled successfully are stored. Programs that haven't been used in the last MAX_UNUSED_RUNS runs
+ * aren't stored again (ex: test was changed or removed) and at most MAX_PROGRAMS (the most recently used) are stored.
+ *
+ * @see PhptTestCase#getExpectedCompiled
+ */
+
+public final class PhptExpectedRegexCache {
+	public static final String FILE_NAME = "phpt_expected_re.cache";
+	/** change this whenever RECompiler, #prepareExpectF or PhptOverrideManager change what they produce */
+	protected static final int VERSION = 2;
+	protected static final int MAGIC = 0x50524543; // PREC
+	protected static final int MAX_PROGRAMS = 32*1024;
+	protected static final int MAX_UNUSED_RUNS = 20;
+
+	private static final Map<String,CachedProgram> programs = new ConcurrentHashMap<String,CachedProgram>(4096);
+	/** loaded is only set after programs have been read */
+	private static volatile boolean loaded, dirty;
+	/** number of this run (incremented every time cache is loaded). set before #loaded */
+	private static int run;
+
+	protected static class CachedProgram {
+		protected final REProgram program;
+		/** last run this was used in */
+		protected volatile int last_run;
+
+		protected CachedProgram(REProgram program, int last_run) {
+			this.program = program;
+			this.last_run = last_run;
+		}
+	} // end protected static class CachedProgram
+
+	/** returns key for the section of a test case
+	 *
+	 * @param section - EXPECTF or EXPECTREGEX
+	 * @param remove_warning_and_error
+	 * @param regex_overrides - TRUE if PhptOverrideManager may replace anything in the regular expression
+	 * @param section_str - the section's text
+	 * @return
+	 */
+	public static String key(EPhptSection section, boolean remove_warning_and_error, boolean regex_overrides, String section_str) {
+		StringBuilder sb = new StringBuilder(44);
+		sb.append(section==EPhptSection.EXPECTF?'F':'R');
+		sb.append(remove_warning_and_error?'1':'0');
+		sb.append(regex_overrides?'1':'0');
+		// SHA-1 of UTF-8
+		sb.append(DigestUtils.shaHex(section_str));
+		return sb.toString();
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return NULL if not cached
+	 */
+	public static REProgram get(String key) {
+		ensureLoaded();
+		CachedProgram p = programs.get(key);
+		if (p==null)
+			return null;
+		if (p.last_run!=run) {
+			// store that its still used
+			p.last_run = run;
+			dirty = true;
+		}
+		return p.program;
+	}
+
+	public static void put(String key, REProgram program) {
+		ensureLoaded();
+		if (programs.put(key, new CachedProgram(program, run))==null)
+			dirty = true;
+	}
+
+	protected static File getFile() {
+		return new File(LocalHost.getInstance().getPfttCacheDir(), FILE_NAME);
+	}
+
+	private static void ensureLoaded() {
+		if (loaded)
+			return;
+		synchronized(PhptExpectedRegexCache.class) {
+			if (!loaded)
+				load();
+		}
+	}
+
+	private static void load() {
+		File file = getFile();
+		if (file.isFile()) {
+			try {
+				read(file);
+			} catch ( Exception ex ) {
+				// stale or corrupt... will be replaced when PFTT exits
+				ConsoleManagerUtil.printStackTrace(PhptExpectedRegexCache.class, ex);
+				programs.clear();
+				dirty = true;
+			}
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					save();
+				}
+			});
+		
+		loaded = true;
+	} // end private static void load
+
+	protected static void read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64*1024));
+		try {
+			if (in.readInt()!=MAGIC||in.readInt()!=VERSION) {
+				// from a different version of PFTT... recompile everything
+				dirty = true;
+				return;
+			}
+			run = in.readInt() + 1;
+			final int count = in.readInt();
+			for ( int i=0 ; i < count ; i++ ) {
+				String key = in.readUTF();
+				int last_run = in.readInt();
+				int parens = in.readInt();
+				char[] instruction = new char[in.readInt()];
+				for ( int j=0 ; j < instruction.length ; j++ )
+					instruction[j] = in.readChar();
+				programs.put(key, new CachedProgram(new REProgram(parens, instruction), last_run));
+			}
+		} catch ( EOFException ex ) {
+			// file truncated (PFTT killed while saving?). keep what was read
+			dirty = true;
+		} finally {
+			in.close();
+		}
+	} // end protected static void read
+
+	public static synchronized void save() {
+		if (!dirty)
+			return;
+		File file = getFile();
+		File tmp_file = new File(file.getPath()+".tmp");
+		try {
+			file.getParentFile().mkdirs();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp_file), 64*1024));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(run);
+				ArrayList<Map.Entry<String,CachedProgram>> entries = getEntriesToSave();
+				out.writeInt(entries.size());
+				for ( Map.Entry<String,CachedProgram> e : entries ) {
+					REProgram program = e.getValue().program;
+					char[] instruction = program.getInstructions();
+					if (instruction==null)
+						instruction = new char[0];
+					out.writeUTF(e.getKey());
+					out.writeInt(e.getValue().last_run);
+					out.writeInt(program.getMaxParens());
+					out.writeInt(instruction.length);
+					for ( char c : instruction )
+						out.writeChar(c);
+				}
+			} finally {
+				out.close();
+			}
+			// replace old cache only after new one is completely written
+			file.delete();
+			if (tmp_file.renameTo(file))
+				dirty = false;
+		} catch ( Exception ex ) {
+			ConsoleManagerUtil.printStackTrace(PhptExpectedRegexCache.class, ex);
+		}
+	} // end public static synchronized void save
+
+	/** returns programs used in the last MAX_UNUSED_RUNS runs, at most MAX_PROGRAMS (most recently used first) */
+	protected static ArrayList<Map.Entry<String,CachedProgram>> getEntriesToSave() {
+		// snapshot: programs may still be added by other threads
+		ArrayList<Map.Entry<String,CachedProgram>> entries = new ArrayList<Map.Entry<String,CachedProgram>>(programs.size());
+		for ( Map.Entry<String,CachedProgram> e : programs.entrySet() ) {
+			// copy: last_run may still be changed by other threads (while sorting)
+			CachedProgram p = new CachedProgram(e.getValue().program, e.getValue().last_run);
+			if (run - p.last_run <= MAX_UNUSED_RUNS)
+				entries.add(new AbstractMap.SimpleImmutableEntry<String,CachedProgram>(e.getKey(), p));
+		}
+		if (entries.size() > MAX_PROGRAMS) {
+			Collections.sort(entries, new Comparator<Map.Entry<String,CachedProgram>>() {
+					@Override
+					public int compare(Map.Entry<String,CachedProgram> a, Map.Entry<String,CachedProgram> b) {
+						return b.getValue().last_run - a.getValue().last_run;
+					}
+				});
+			entries.subList(MAX_PROGRAMS, entries.size()).clear();
+		}
+		return entries;
+	}
+
+	private PhptExpectedRegexCache() {}
+
+} // end public final class PhptExpectedRegexCache
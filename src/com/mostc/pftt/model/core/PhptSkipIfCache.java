@@ -0,0 +1,267 @@
+package com.mostc.pftt.model.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.mostc.pftt.host.LocalHost;
+import com.mostc.pftt.results.ConsoleManagerUtil;
+
+/** Stores the output of SKIPIF sections so the same SKIPIF code doesn't have to be run again (which
+ * requires starting a php process) for each test that has it, or on every test run.
+ *
+ * Many SKIPIF sections are the same boilerplate (ex: checking if an extension is loaded or checking the OS).
+ *
+ * Outputs are keyed by a hash of the SKIPIF code (with line endings normalized), the SAPI, the INI and the ENV
+ * vars (excluding ones that are different for every test). There is a cache for each build, stored in the PFTT
+ * cache directory (read the first time its used and written back when PFTT exits).
+ *
+ * SKIPIF sections that may give a different output even with the same INI and ENV are never cached
+ * (ex: ones that include other files, check files or directories, connect to a database or network, run
+ * programs or check the time) @see #isCacheable
+ *
+ * Thread-safe.
+ *
+ * @see -no_skipif_cache console option
+ * @see AbstractPhptTestCaseRunner#runTest
+ */
+
+public final class PhptSkipIfCache {
+	protected static final String DIR_NAME = "skipif";
+	protected static final int MAGIC = 0x50534B43; // PSKC
+	/** change this if the key or what is stored changes */
+	protected static final int VERSION = 1;
+	/** if SKIPIF code contains any of these (lowercase), it touches the file system, network, etc... */
+	protected static final String[] NOT_CACHEABLE = new String[] {
+			// other files (ex: skipif.inc which may connect to a database) and the file system
+			"include", "require", "file", "dir", "path", "glob", "stream", "touch", "unlink", "tmp", "temp", "disk", "is_writ", "is_read", "is_link", "symlink", "fopen", "chdir", "getcwd", "realpath",
+			// network, databases and other services
+			"socket", "connect", "curl", "http", "mysql", "pg_", "sqlite", "oci", "odbc", "ldap", "imap", "ftp", "snmp", "dns", "gethostby", "mail",
+			// other processes
+			"exec", "system", "passthru", "popen", "proc_", "`", "getmypid", "posix",
+			// anything else that may change between runs
+			"time", "date", "rand", "getenv", "$_env", "$_server", "memory", "sleep", "sys_", "uname"
+		};
+	/** ENV vars that are different for each test */
+	protected static final String[] PER_TEST_ENV = new String[] {"PATH_TRANSLATED", "SCRIPT_FILENAME", "TEMP", "TMP", "PFTT_SCENARIO_SET"};
+	private static final HashMap<String,PhptSkipIfCache> caches = new HashMap<String,PhptSkipIfCache>();
+	private static boolean hook_added;
+	private static volatile boolean enabled = true;
+
+	protected final String build_id;
+	protected final File file;
+	protected final Map<String,String> outputs;
+	protected volatile boolean dirty;
+
+	protected PhptSkipIfCache(String build_id, File file) {
+		this.build_id = build_id;
+		this.file = file;
+		outputs = new ConcurrentHashMap<String,String>(4096);
+	}
+
+	/** @see -no_skipif_cache console option */
+	public static void setEnabled(boolean _enabled) {
+		enabled = _enabled;
+	}
+
+	/** returns the cache for the build
+	 *
+	 * @param build
+	 * @return NULL if caching is disabled
+	 */
+	@Nullable
+	public static PhptSkipIfCache open(PhpBuild build) {
+		if (!enabled)
+			return null;
+		// if the build is replaced (ex: rebuilt or new snapshot extracted), php.exe will be different
+		final File php_exe = new File(build.getPhpExe());
+		final String build_id = php_exe.getAbsolutePath()+"|"+php_exe.length()+"|"+php_exe.lastModified();
+		synchronized(caches) {
+			PhptSkipIfCache cache = caches.get(build_id);
+			if (cache!=null)
+				return cache;
+			cache = new PhptSkipIfCache(build_id, new File(new File(LocalHost.getInstance().getPfttCacheDir(), DIR_NAME), DigestUtils.shaHex(build_id)+".cache"));
+			if (cache.file.isFile()) {
+				try {
+					cache.read();
+				} catch ( Exception ex ) {
+					// stale or corrupt... will be replaced when PFTT exits
+					ConsoleManagerUtil.printStackTrace(PhptSkipIfCache.class, ex);
+					cache.outputs.clear();
+					cache.dirty = true;
+				}
+			}
+			caches.put(build_id, cache);
+
+			if (!hook_added) {
+				hook_added = true;
+				Runtime.getRuntime().addShutdownHook(new Thread() {
+						@Override
+						public void run() {
+							saveAll();
+						}
+					});
+			}
+			return cache;
+		}
+	} // end public static PhptSkipIfCache open
+
+	public static void saveAll() {
+		PhptSkipIfCache[] a;
+		synchronized(caches) {
+			a = caches.values().toArray(new PhptSkipIfCache[caches.size()]);
+		}
+		for ( PhptSkipIfCache cache : a )
+			cache.save();
+	}
+
+	/** checks if the output of the test's SKIPIF section depends only on the build, INI and ENV
+	 *
+	 * @param test_case
+	 * @return
+	 */
+	public static boolean isCacheable(PhptTestCase test_case) {
+		String skipif = test_case.get(EPhptSection.SKIPIF);
+		if (skipif==null)
+			return false;
+		skipif = skipif.toLowerCase();
+		for ( String s : NOT_CACHEABLE ) {
+			if (skipif.contains(s))
+				return false;
+		}
+		return true;
+	}
+
+	/** returns key for the SKIPIF section of the test case
+	 *
+	 * @param test_case
+	 * @param sapi_type
+	 * @param ini - NULL for none
+	 * @param env - NULL for none
+	 * @return
+	 */
+	public static String key(PhptTestCase test_case, ESAPIType sapi_type, @Nullable PhpIni ini, @Nullable Map<String,String> env) {
+		StringBuilder sb = new StringBuilder(1024);
+		sb.append(test_case.getTrim(EPhptSection.SKIPIF).replace("\r\n", "\n"));
+		sb.append('\0');
+		sb.append(sapi_type);
+		sb.append('\0');
+		if (ini!=null)
+			sb.append(ini.toString());
+		sb.append('\0');
+		if (env!=null) {
+			ArrayList<String> names = new ArrayList<String>(env.keySet());
+			Collections.sort(names);
+			for ( String name : names ) {
+				if (isPerTestEnv(name))
+					continue;
+				sb.append(name);
+				sb.append('=');
+				sb.append(env.get(name));
+				sb.append('\n');
+			}
+		}
+		return DigestUtils.shaHex(sb.toString());
+	}
+
+	protected static boolean isPerTestEnv(String name) {
+		for ( String e : PER_TEST_ENV ) {
+			if (e.equals(name))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return NULL if not cached
+	 */
+	public String get(String key) {
+		return outputs.get(key);
+	}
+
+	public void put(String key, String output) {
+		if (output==null)
+			return;
+		if (!output.equals(outputs.put(key, output)))
+			dirty = true;
+	}
+
+	protected void read() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64*1024));
+		try {
+			if (in.readInt()!=MAGIC||in.readInt()!=VERSION||!build_id.equals(in.readUTF())) {
+				// from a different version of PFTT... run everything again
+				dirty = true;
+				return;
+			}
+			final int count = in.readInt();
+			for ( int i=0 ; i < count ; i++ ) {
+				String key = in.readUTF();
+				outputs.put(key, in.readUTF());
+			}
+		} catch ( EOFException ex ) {
+			// file truncated (PFTT killed while saving?). keep what was read
+			dirty = true;
+		} finally {
+			in.close();
+		}
+	} // end protected void read
+
+	public synchronized void save() {
+		if (!dirty)
+			return;
+		File tmp_file = new File(file.getPath()+".tmp");
+		try {
+			file.getParentFile().mkdirs();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp_file), 64*1024));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(build_id);
+				// snapshot: outputs may still be added by other threads
+				Map.Entry<?,?>[] entries = outputs.entrySet().toArray(new Map.Entry<?,?>[0]);
+				int count = 0;
+				for ( int i=0 ; i < entries.length ; i++ ) {
+					// writeUTF is limited to 64k (SKIPIF output is usually a few words)
+					if (((String)entries[i].getValue()).length() > 16*1024)
+						entries[i] = null;
+					else
+						count++;
+				}
+				out.writeInt(count);
+				for ( Map.Entry<?,?> e : entries ) {
+					if (e==null)
+						continue;
+					out.writeUTF((String) e.getKey());
+					out.writeUTF((String) e.getValue());
+				}
+			} finally {
+				out.close();
+			}
+			// replace old cache only after new one is completely written
+			file.delete();
+			if (tmp_file.renameTo(file))
+				dirty = false;
+		} catch ( Exception ex ) {
+			ConsoleManagerUtil.printStackTrace(PhptSkipIfCache.class, ex);
+		}
+	} // end public synchronized void save
+
+} // end public final class PhptSkipIfCache
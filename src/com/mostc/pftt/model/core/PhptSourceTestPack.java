@@ -1,9 +1,11 @@
 package com.mostc.pftt.model.core;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -11,12 +13,18 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.commons.codec.digest.DigestUtils;
 
 import com.github.mattficken.io.StringUtil;
 import com.mostc.pftt.host.AHost;
 import com.mostc.pftt.host.LocalHost;
 import com.mostc.pftt.main.Config;
 import com.mostc.pftt.model.SourceTestPack;
+import com.mostc.pftt.model.TestPackParseCache;
 import com.mostc.pftt.results.ConsoleManager;
 import com.mostc.pftt.results.ConsoleManagerUtil;
 import com.mostc.pftt.results.EPrintType;
@@ -42,13 +50,22 @@ public class PhptSourceTestPack extends SourceTestPack<PhptActiveTestPack, PhptT
 	protected FileSystemScenario fs;
 	protected final LinkedList<File> non_phpt_files;
 	protected final HashMap<String,PhptTestCase> test_cases_by_name;
-	protected SoftReference<ArrayList<PhptTestCase>> _ref_test_cases;
+	/** every test case in the test-pack. parsed once and then shared by every scenario set (and every
+	 * time the test-pack is read) for the rest of this PFTT run.
+	 * 
+	 * Test cases must not store anything specific to a scenario set @see com.mostc.pftt.runner.PhptTestPreparer.PreparedPhptTestCase */
+	protected ArrayList<PhptTestCase> all_test_cases;
+	/** test cases read for a list of names (-names or list files) */
+	protected final HashMap<List<String>,ArrayList<PhptTestCase>> test_cases_by_names;
+	/** parsed PHPT files and REDIRECTTEST targets from previous runs of PFTT */
+	protected TestPackParseCache parse_cache, redirect_cache;
 	
 	public PhptSourceTestPack(String test_pack) {
 		this.test_pack_file = new File(test_pack);
 		this.test_pack = this.test_pack_file.getAbsolutePath();
 		
 		test_cases_by_name = new HashMap<String,PhptTestCase>();
+		test_cases_by_names = new HashMap<List<String>,ArrayList<PhptTestCase>>();
 		non_phpt_files = new LinkedList<File>();
 	}
 	
@@ -254,15 +271,14 @@ public class PhptSourceTestPack extends SourceTestPack<PhptActiveTestPack, PhptT
 	}
 	
 	@Override
-	public void read(Config config, List<PhptTestCase> test_cases, List<String> names, ConsoleManager cm, PhpResultPackWriter twriter, PhpBuild build, boolean ignore_missing, SAPIScenario sapi_scenario) throws FileNotFoundException, IOException, Exception {
+	public synchronized void read(Config config, List<PhptTestCase> test_cases, List<String> names, ConsoleManager cm, PhpResultPackWriter twriter, PhpBuild build, boolean ignore_missing, SAPIScenario sapi_scenario) throws FileNotFoundException, IOException, Exception {
 		//
-		ArrayList<PhptTestCase> _test_cases;
-		if (_ref_test_cases!=null) {
-			_test_cases = _ref_test_cases.get();
-			if (_test_cases!=null) {
-				test_cases.addAll(_test_cases);
-				return;
-			}
+		// (each scenario set reads the test-pack)
+		final List<String> names_key = new ArrayList<String>(names);
+		ArrayList<PhptTestCase> _test_cases = test_cases_by_names.get(names_key);
+		if (_test_cases!=null) {
+			test_cases.addAll(_test_cases);
+			return;
 		}
 		//
 		config.processPHPTTestPack(this, twriter, build);
@@ -291,9 +307,12 @@ public class PhptSourceTestPack extends SourceTestPack<PhptActiveTestPack, PhptT
 				if (file.exists()) {
 					// String is exact name of test
 					
-					test_case = PhptTestCase.load(host, this, name, twriter);
-					
-					add_test_case(config, test_case, test_cases, names, cm, twriter, build, null, redirect_targets);
+					// don't parse it if -max_test_read_count tests have already been read
+					if (cm.getMaxTestReadCount() <= 0 || test_cases_by_name.size() < cm.getMaxTestReadCount()) {
+						test_case = loadTestCase(file, name, twriter, null);
+						
+						add_test_case(config, test_case, test_cases, names, cm, twriter, build, null, redirect_targets);
+					}
 					
 					// don't need to search for it
 					name_it.remove();
@@ -324,20 +343,17 @@ public class PhptSourceTestPack extends SourceTestPack<PhptActiveTestPack, PhptT
 		// cache for use next time
 		_test_cases = new ArrayList<PhptTestCase>(test_cases.size());
 		_test_cases.addAll(test_cases);
-		_ref_test_cases = new SoftReference<ArrayList<PhptTestCase>>(_test_cases);
+		test_cases_by_names.put(names_key, _test_cases);
 		//
 	} // end public void read
 
 	@Override
-	public void read(Config config, List<PhptTestCase> test_cases, ConsoleManager cm, ITestResultReceiver twriter, PhpBuild build, SAPIScenario sapi_scenario) throws FileNotFoundException, IOException, Exception {
+	public synchronized void read(Config config, List<PhptTestCase> test_cases, ConsoleManager cm, ITestResultReceiver twriter, PhpBuild build, SAPIScenario sapi_scenario) throws FileNotFoundException, IOException, Exception {
 		//
-		ArrayList<PhptTestCase> _test_cases;
-		if (_ref_test_cases!=null) {
-			_test_cases = _ref_test_cases.get();
-			if (_test_cases!=null) {
-				test_cases.addAll(_test_cases);
-				return;
-			}
+		// (each scenario set reads the test-pack)
+		if (all_test_cases!=null) {
+			test_cases.addAll(all_test_cases);
+			return;
 		}
 		//
 		
@@ -349,54 +365,298 @@ public class PhptSourceTestPack extends SourceTestPack<PhptActiveTestPack, PhptT
 		
 		//
 		// cache for use next time
-		_test_cases = new ArrayList<PhptTestCase>(test_cases.size());
-		_test_cases.addAll(test_cases);
-		_ref_test_cases = new SoftReference<ArrayList<PhptTestCase>>(_test_cases);
+		all_test_cases = new ArrayList<PhptTestCase>(test_cases.size());
+		all_test_cases.addAll(test_cases);
 	}
 	
 	private void add_test_files(Config config, File[] files, List<PhptTestCase> test_files, List<String> names, ConsoleManager cm, ITestResultReceiver twriter, PhpBuild build, PhptTestCase redirect_parent, List<PhptTestCase> redirect_targets) throws FileNotFoundException, IOException, Exception {
 		if (files==null)
 			return;
-		main_loop:
-		for ( File f : files ) {
-			if (f.getName().toLowerCase().endsWith(PhptTestCase.PHPT_FILE_EXTENSION)) {
-				if (names!=null) {
-					boolean match = false;
-					for(String name: names) {
-						if (PhptTestCase.normalizeTestCaseName(f.getPath()).contains(name)) {
-							match = true;
-							break;
-						}
-					}
-					// test doesn't match any name, ignore it
-					if (!match)
-						continue main_loop;
+		if (cm.getMaxTestReadCount() > 0) {
+			// only parse as many as needed
+			add_test_files_limited(config, files, test_files, names, cm, twriter, build, redirect_parent, redirect_targets);
+			return;
+		}
+		// load all the files in parallel, then add them here on 1 thread in the order they were found
+		// (Config#processPHPT, REDIRECTTEST and the max test read count depend on the order)
+		for ( LoadedFile lf : loadTestFiles(files, names, twriter, redirect_parent) ) {
+			if (lf.test_case!=null) {
+				try {
+					add_test_case(config, lf.test_case, test_files, names, cm, twriter, build, redirect_parent, redirect_targets);
+				} catch ( Exception ex ) {
+					ConsoleManagerUtil.printStackTrace(PhptSourceTestPack.class, cm, ex);
 				}
-					
-				String test_name = f.getAbsolutePath().substring(test_pack.length());
-				if (test_name.startsWith("/") || test_name.startsWith("\\"))
-					test_name = test_name.substring(1);
-				
+			} else if (lf.ex!=null) {
+				ConsoleManagerUtil.printStackTrace(PhptSourceTestPack.class, cm, lf.ex);
+			} else if (!non_phpt_files.contains(lf.file)) {
+				non_phpt_files.add(lf.file);
+			}
+		}
+	}
+	
+	/** walks the directory tree on this thread, loading PHPT files until -max_test_read_count tests have been read.
+	 * 
+	 * After that, PHPT files aren't parsed, but the rest of the tree is still walked to find the files the tests
+	 * that were read may need (ex: .inc files in another directory).
+	 * 
+	 * @see -max_test_read_count console option
+	 */
+	private void add_test_files_limited(Config config, File[] files, List<PhptTestCase> test_files, List<String> names, ConsoleManager cm, ITestResultReceiver twriter, PhpBuild build, PhptTestCase redirect_parent, List<PhptTestCase> redirect_targets) throws FileNotFoundException, IOException, Exception {
+		if (files==null)
+			return;
+		for ( File f : files ) {
+			if (isPhptFile(f)) {
+				if (test_cases_by_name.size() >= cm.getMaxTestReadCount() || !matchesNames(f, names))
+					continue;
 				try {
-					PhptTestCase test_case = PhptTestCase.load(host, this, false, test_name, twriter, redirect_parent);
-				
-					add_test_case(config, test_case, test_files, names, cm, twriter, build, redirect_parent, redirect_targets);
+					add_test_case(config, loadTestCase(f, toTestName(f), twriter, redirect_parent), test_files, names, cm, twriter, build, redirect_parent, redirect_targets);
 				} catch ( Exception ex ) {
 					ConsoleManagerUtil.printStackTrace(PhptSourceTestPack.class, cm, ex);
 				}
-			} else if (f.isFile()) {
-				String n = f.getName().toLowerCase();
-				if (!(n.endsWith(".sh") || n.endsWith(".php") || n.endsWith(".diff") || n.endsWith(".out") || n.endsWith(".exp") || n.endsWith(".cmd") || n.endsWith(".stdin"))) {
-					// ignore these files. they may be left over if the user ran run-test.php or PFTT and aren't actually used for testing
-					// 
-					// test files we need are usually .inc but may also be .db... may be others (especially in future)
-					// have to copy them all just in case they are needed
-					if (!non_phpt_files.contains(f))
-						non_phpt_files.add(f);
+			} else if (isNeededFile(f)) {
+				if (!non_phpt_files.contains(f))
+					non_phpt_files.add(f);
+			}
+			add_test_files_limited(config, f.listFiles(), test_files, names, cm, twriter, build, redirect_parent, redirect_targets);
+		}
+	}
+	
+	protected static boolean isPhptFile(File f) {
+		return f.getName().toLowerCase().endsWith(PhptTestCase.PHPT_FILE_EXTENSION);
+	}
+	
+	/** returns TRUE if PHPT file matches any of the names (or there are no names) */
+	protected static boolean matchesNames(File f, List<String> names) {
+		if (names==null)
+			return true;
+		String normal_path = PhptTestCase.normalizeTestCaseName(f.getPath());
+		for(String name: names) {
+			if (normal_path.contains(name))
+				return true;
+		}
+		return false;
+	}
+	
+	protected String toTestName(File f) {
+		String test_name = f.getAbsolutePath().substring(test_pack.length());
+		if (test_name.startsWith("/") || test_name.startsWith("\\"))
+			test_name = test_name.substring(1);
+		return test_name;
+	}
+	
+	/** returns TRUE if file (that isn't a PHPT) may be needed by PHPT tests */
+	protected static boolean isNeededFile(File f) {
+		if (!f.isFile())
+			return false;
+		String n = f.getName().toLowerCase();
+		// ignore these files. they may be left over if the user ran run-test.php or PFTT and aren't actually used for testing
+		// 
+		// test files we need are usually .inc but may also be .db... may be others (especially in future)
+		// have to copy them all just in case they are needed
+		return !(n.endsWith(".sh") || n.endsWith(".php") || n.endsWith(".diff") || n.endsWith(".out") || n.endsWith(".exp") || n.endsWith(".cmd") || n.endsWith(".stdin"));
+	}
+	
+	/** walks the directory tree and loads the PHPT files in it using a ForkJoinPool
+	 * 
+	 * Each file or directory is its own task. The results are joined in the same order that walking the
+	 * tree on 1 thread would find them in (depth first, in File#listFiles order), so the order of the test cases
+	 * doesn't depend on which thread finished first.
+	 * 
+	 * @param files
+	 * @param names - NULL to load all PHPT files or name fragments to match
+	 * @param twriter
+	 * @param redirect_parent
+	 * @return
+	 */
+	protected List<LoadedFile> loadTestFiles(File[] files, List<String> names, ITestResultReceiver twriter, PhptTestCase redirect_parent) {
+		LoadTestFilesTask task = new LoadTestFilesTask(files, names, twriter, redirect_parent);
+		if (ForkJoinTask.inForkJoinPool())
+			// nested (ex: REDIRECTTEST loaded from a task): run in the pool that's already running
+			return task.invoke();
+		return getLoadPool().invoke(task);
+	}
+	
+	private static ForkJoinPool load_pool;
+	/** one pool shared by all test-packs and calls (its threads are daemon threads and stay idle between loads) */
+	protected static synchronized ForkJoinPool getLoadPool() {
+		if (load_pool==null)
+			load_pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+		return load_pool;
+	}
+	
+	/** a PHPT file that was loaded (or failed to load) or a file needed by PHPT tests (test_case and ex are NULL) */
+	protected static class LoadedFile {
+		protected final File file;
+		protected final PhptTestCase test_case;
+		protected final Exception ex;
+		
+		protected LoadedFile(File file, PhptTestCase test_case, Exception ex) {
+			this.file = file;
+			this.test_case = test_case;
+			this.ex = ex;
+		}
+	}
+	
+	@SuppressWarnings("serial")
+	protected class LoadTestFilesTask extends RecursiveTask<List<LoadedFile>> {
+		protected final File[] files;
+		protected final List<String> names;
+		protected final ITestResultReceiver twriter;
+		protected final PhptTestCase redirect_parent;
+		
+		protected LoadTestFilesTask(File[] files, List<String> names, ITestResultReceiver twriter, PhptTestCase redirect_parent) {
+			this.files = files;
+			this.names = names;
+			this.twriter = twriter;
+			this.redirect_parent = redirect_parent;
+		}
+		
+		@Override
+		protected List<LoadedFile> compute() {
+			if (files.length==1)
+				return visit(files[0]);
+			ArrayList<LoadTestFilesTask> tasks = new ArrayList<LoadTestFilesTask>(files.length);
+			for ( File f : files )
+				tasks.add(new LoadTestFilesTask(new File[]{f}, names, twriter, redirect_parent));
+			invokeAll(tasks);
+			// join in order
+			ArrayList<LoadedFile> out = new ArrayList<LoadedFile>(files.length);
+			for ( LoadTestFilesTask task : tasks )
+				out.addAll(task.join());
+			return out;
+		}
+		
+		protected List<LoadedFile> visit(File f) {
+			ArrayList<LoadedFile> out = new ArrayList<LoadedFile>(1);
+			if (isPhptFile(f)) {
+				// test doesn't match any name, ignore it
+				if (!matchesNames(f, names))
+					return out;
+				
+				// each load uses its own CharsetDeciderDecoder (@see PhptTestCase#newCharsetDeciderDecoder) so this is safe on any thread
+				try {
+					out.add(new LoadedFile(f, loadTestCase(f, toTestName(f), twriter, redirect_parent), null));
+				} catch ( Exception ex ) {
+					out.add(new LoadedFile(f, null, ex));
 				}
+			} else if (isNeededFile(f)) {
+				out.add(new LoadedFile(f, null, null));
+			}
+			File[] children = f.listFiles();
+			if (children!=null && children.length > 0) {
+				if (out.isEmpty())
+					return new LoadTestFilesTask(children, names, twriter, redirect_parent).compute();
+				out.addAll(new LoadTestFilesTask(children, names, twriter, redirect_parent).compute());
 			}
-			add_test_files(config, f.listFiles(), test_files, names, cm, twriter, build, redirect_parent, redirect_targets);
+			return out;
+		} // end protected List<LoadedFile> visit
+		
+	} // end protected class LoadTestFilesTask
+	
+	protected synchronized TestPackParseCache getParseCache() {
+		if (parse_cache==null)
+			parse_cache = TestPackParseCache.open("phpt", PhptTestCase.CACHE_VERSION, test_pack);
+		return parse_cache;
+	}
+	
+	/** loads the test from the parse cache if the file hasn't changed since it was cached, otherwise
+	 * loads (parses) it and caches it.
+	 * 
+	 * Thread-safe.
+	 * 
+	 * @param file
+	 * @param test_name
+	 * @param twriter
+	 * @param redirect_parent
+	 * @return
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	protected PhptTestCase loadTestCase(File file, String test_name, ITestResultReceiver twriter, PhptTestCase redirect_parent) throws FileNotFoundException, IOException {
+		// already loaded (ex: test-pack read for a different list of names)
+		PhptTestCase loaded = test_cases_by_name.get(test_name);
+		if (loaded!=null && loaded.getRedirectParent()==redirect_parent)
+			return loaded;
+		if (host.isRemote())
+			// cache checks the local file system
+			return PhptTestCase.load(host, this, false, test_name, twriter, redirect_parent);
+		TestPackParseCache cache = getParseCache();
+		final String cache_name = PhptTestCase.normalizeTestCaseName(test_name);
+		DataInputStream in = cache.get(cache_name, file);
+		if (in!=null) {
+			try {
+				return PhptTestCase.loadFromCache(this, test_name, redirect_parent, in);
+			} catch ( Exception ex ) {
+				// corrupt entry: parse it again (and replace entry)
+				ConsoleManagerUtil.printStackTrace(PhptSourceTestPack.class, ex);
+			}
+		}
+		PhptTestCase test_case = PhptTestCase.load(host, this, false, test_name, twriter, redirect_parent);
+		if (test_case.isCacheable()) {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream(4096);
+			DataOutputStream out = new DataOutputStream(buf);
+			test_case.writeCache(out);
+			out.close();
+			cache.put(cache_name, file, buf.toByteArray());
 		}
+		return test_case;
+	} // end protected PhptTestCase loadTestCase
+	
+	/** @see PhptTestCase#readRedirectTestNames - executes php code, so the names are cached (until the test changes).
+	 * 
+	 * REDIRECTTEST code may depend on the build and ENV (ex: getenv() for the database to test), so the names are only used
+	 * if they were cached for the same build and ENV @see #getRedirectContext. No INI is used (@see PhpBuild#eval uses -n).
+	 */
+	protected String[] readRedirectTestNames(ConsoleManager cm, PhptTestCase test_case, PhpBuild build) throws Exception {
+		if (host.isRemote())
+			return test_case.readRedirectTestNames(cm, host, build);
+		synchronized(this) {
+			if (redirect_cache==null)
+				redirect_cache = TestPackParseCache.open("phpt_redirect", 2, test_pack);
+		}
+		final String context = getRedirectContext(build);
+		File file = new File(test_pack_file, test_case.getName());
+		DataInputStream in = redirect_cache.get(test_case.getName(), file);
+		if (in!=null && context.equals(in.readUTF())) {
+			String[] names = new String[in.readInt()];
+			for ( int i=0 ; i < names.length ; i++ )
+				names[i] = in.readUTF();
+			return names;
+		}
+		String[] names = test_case.readRedirectTestNames(cm, host, build);
+		if (names.length > 0) {
+			// if no names, PHP may have failed: try again next time
+			//
+			// replaces names cached for a different build or ENV
+			ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+			DataOutputStream out = new DataOutputStream(buf);
+			out.writeUTF(context);
+			out.writeInt(names.length);
+			for ( String name : names )
+				out.writeUTF(name);
+			out.close();
+			redirect_cache.put(test_case.getName(), file, buf.toByteArray());
+		}
+		return names;
+	} // end protected String[] readRedirectTestNames
+	
+	/** returns hash of what REDIRECTTEST code is run with: the build (path and php executable, in case its rebuilt in
+	 * the same place) and the ENV (PHP inherits PFTT's environment)
+	 * 
+	 * @param build
+	 * @return
+	 */
+	protected static String getRedirectContext(PhpBuild build) {
+		StringBuilder sb = new StringBuilder(4096);
+		sb.append(build.getBuildPath());
+		File php_exe = new File(build.getPhpExe());
+		sb.append('|').append(php_exe.lastModified()).append('|').append(php_exe.length());
+		// sort: order of System#getenv isn't defined
+		ArrayList<String> names = new ArrayList<String>(System.getenv().keySet());
+		Collections.sort(names);
+		for ( String name : names )
+			sb.append('\n').append(name).append('=').append(System.getenv(name));
+		return DigestUtils.shaHex(sb.toString());
 	}
 	
 	private void add_test_case(Config config, PhptTestCase test_case, List<PhptTestCase> test_cases, List<String> names, ConsoleManager cm, ITestResultReceiver twriter, PhpBuild build, PhptTestCase redirect_parent, List<PhptTestCase> redirect_targets) throws FileNotFoundException, IOException, Exception {
@@ -410,7 +670,7 @@ public class PhptSourceTestPack extends SourceTestPack<PhptActiveTestPack, PhptT
 				// ignore the test
 			} else {
 				// execute php code in the REDIRECTTEST section to get the test(s) to load
-				for ( String target_test_name : test_case.readRedirectTestNames(cm, host, build) ) {
+				for ( String target_test_name : readRedirectTestNames(cm, test_case, build) ) {
 					
 					// test may actually be a directory => load all the PHPT tests from that directory
 					File dir = new File(test_pack+fs.dirSeparator()+target_test_name);
@@ -421,7 +681,7 @@ public class PhptSourceTestPack extends SourceTestPack<PhptActiveTestPack, PhptT
 					} else {
 						// test refers to a specific test, load it
 						try {
-							test_case = PhptTestCase.load(host, this, false, target_test_name, twriter, redirect_parent);
+							test_case = loadTestCase(new File(test_pack_file, target_test_name), target_test_name, twriter, redirect_parent);
 						} catch ( Exception ex ) {
 							ConsoleManagerUtil.printStackTrace(PhptSourceTestPack.class, cm, ex);
 							continue; // TODO
@@ -1,5 +1,7 @@
 package com.mostc.pftt.model.core;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -9,7 +11,9 @@ import java.lang.ref.WeakReference;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -125,15 +129,18 @@ public class PhptTestCase extends TestCase {
 	private String ext_name;
 	private String bork_info, unsupported_info;
 	private PhptTestCase parent;
-	private WeakReference<PhpIni> ini;
-	private WeakReference<String> ini_pwd, ini_tmp, contents;
-	private SoftReference<RE> expected_re;
+	/** PWD, TMP and INI are replaced together, so another thread (ex: concurrent scenario set with its own copy of
+	 * the test-pack) never gets an INI for a different PWD */
+	private volatile CachedIni ini;
+	private WeakReference<String> contents;
+	/** RE keeps the state of the last match, so only the (immutable) program is shared by threads/scenario sets.
+	 * only for !remove_warning_and_error (@see #getExpectedCompiled) */
+	private volatile SoftReference<REProgram> expected_re_prog;
+	private volatile boolean expected_re_invalid;
+	private SoftReference<PhptExpectFMatcher> expectf_matcher, expectf_matcher_no_warning;
 	private PhptSourceTestPack test_pack;
 	private CharsetICU common_charset;
-	private CharsetEncoder ce;
 	public boolean redo = false; // TODO temp
-	public PreparedPhptTestCase prep; // TODO temp
-	public boolean skipifAsXfail = false;
 	
 	/** loads the named PHPT test from the given PhptSourceTestPack
 	 * 
@@ -168,7 +175,37 @@ public class PhptTestCase extends TestCase {
 		return load(host, test_pack, keep_all, test_name, twriter, null);
 	}
 		
-	static final Pattern PATTERN_AZ = Pattern.compile("^--([_A-Z]+)--");
+	/** returns the name of the section if line is a section header (ex: --FILE--)
+	 * 
+	 * same as matching the whole trimmed line against ^--([_A-Z]+)-- without trimming or a regular expression (this is done for every line of every test)
+	 * 
+	 * @param line
+	 * @return NULL if line is not a section header
+	 */
+	@Nullable
+	public static String parseSectionHeader(String line) {
+		final int len = line.length();
+		int i = 0;
+		// skip leading whitespace (like String#trim)
+		while (i < len && line.charAt(i) <= ' ')
+			i++;
+		if (i+2 >= len || line.charAt(i)!='-' || line.charAt(i+1)!='-')
+			return null;
+		final int start = i + 2;
+		int end = start;
+		char c;
+		while (end < len && ( (c = line.charAt(end))=='_' || (c>='A' && c<='Z') ))
+			end++;
+		if (end==start || end+1 >= len || line.charAt(end)!='-' || line.charAt(end+1)!='-')
+			return null;
+		// only trailing whitespace allowed after header
+		for ( i=end+2 ; i < len ; i++ ) {
+			if (line.charAt(i) > ' ')
+				return null;
+		}
+		return line.substring(start, end);
+	}
+	
 	public static PhptTestCase load(AHost host, PhptSourceTestPack test_pack, boolean keep_all, String test_name, ITestResultReceiver twriter, PhptTestCase parent) throws FileNotFoundException, IOException {
 		String file = host.fixPath(test_pack.getSourceDirectory()+host.mDirSeparator()+test_name); 
 		
@@ -186,8 +223,11 @@ public class PhptTestCase extends TestCase {
 				
 		EPhptSection section = EPhptSection.TEST;
 		String section_str = section.toString();
+		EPhptSection str_section = section; // section named by section_str (can differ from section for duplicated sections)
 		boolean secfile = false;
 		boolean secdone = false;
+		// build each section in its own buffer. copying the whole section for each line is O(n^2) for big sections
+		EnumMap<EPhptSection,StringBuilder> section_sb = new EnumMap<EPhptSection,StringBuilder>(EPhptSection.class);
 	
 		while (reader.hasMoreLines()) {
 			line = reader.readLine();
@@ -197,37 +237,41 @@ public class PhptTestCase extends TestCase {
 			// Match the beginning of a section.
 			// important to require all uppercase letters only
 			// some sections(POST_RAW) on some PHPTs will have some text like --BVoyv--
-			String[] r = StringUtil.getMatches(PATTERN_AZ, line.trim());
-			if (StringUtil.isNotEmpty(r)) {
-				section_str = r[0];
+			String r = parseSectionHeader(line);
+			if (r!=null) {
+				section_str = r;
+				str_section = EPhptSection.valueOfEx(section_str);
 				// BN: some tests (ex: Zend/tests/019.phpt) will have lines that start and end with "--" but are not sections, they"re part of the EXPECT* section
-				if (test_case.containsSection(section_str)) {
+				if (str_section!=null && section_sb.containsKey(str_section)) {
 					test_case.bork_info =  "duplicated "+section_str+" section";
 					continue;
 				}
 				
-				section = EPhptSection.valueOfEx(section_str);
+				section = str_section;
 				if (section==null) {
 					test_case.unsupported_info = section_str;
 					continue;
 				}
 				
-				test_case.section_text.put(section, "");
-				secfile = section.equals(EPhptSection.FILE) || section_str.equals(EPhptSection.FILEEOF) || section_str.equals(EPhptSection.FILE_EXTERNAL) || section_str.equals(EPhptSection.EXPECTREGEX_EXTERNAL);
+				section_sb.put(section, new StringBuilder(256));
+				secfile = section.equals(EPhptSection.FILE);
 				secdone = false;
 				continue;
 			}
 			
 			// Add to the section text.
-			if (!secdone) {
-				try {
-					String a = test_case.get(section_str);
-					if (a==null)
-						a = "";
-					test_case.section_text.put(section, a+line+"\n");
-				} catch ( IllegalArgumentException ex ) {
-					
+			if (!secdone && str_section!=null && section!=null) {
+				StringBuilder sb = section_sb.get(str_section);
+				if (str_section!=section) {
+					// section was duplicated: (same as before) replace current section with duplicated section's text + line
+					sb = sb == null ? new StringBuilder(256) : new StringBuilder(sb);
+					section_sb.put(section, sb);
+				} else if (sb==null) {
+					sb = new StringBuilder(256);
+					section_sb.put(section, sb);
 				}
+				sb.append(line);
+				sb.append('\n');
 			}
 	
 			// End of actual test?
@@ -235,6 +279,8 @@ public class PhptTestCase extends TestCase {
 				secdone = true;
 			}
 		} // end while
+		for ( Map.Entry<EPhptSection,StringBuilder> e : section_sb.entrySet() )
+			test_case.section_text.put(e.getKey(), e.getValue().toString());
 		
 		// validate all sections
 		for ( EPhptSection v : test_case.getSections() ) {
@@ -341,13 +387,95 @@ public class PhptTestCase extends TestCase {
 		
 		if (reader instanceof AbstractDetectingCharsetReader) {
 			test_case.common_charset = (CharsetICU) ((AbstractDetectingCharsetReader)reader).cs;//cdd.getCommonCharset();
-			test_case.ce = ((AbstractDetectingCharsetReader)reader).ce;
 		}
 		
 		return test_case;
 	} // end public static PhptTestCase load
 	static final Pattern RE_EOF = Pattern.compile("[\r\n]+\\\\$");
 	
+	/** change whenever #load or EPhptSection#prepareSection change what they produce, or #writeCache changes
+	 * 
+	 * @see com.mostc.pftt.model.TestPackParseCache
+	 */
+	public static final int CACHE_VERSION = 1;
+	
+	/** checks if #writeCache can store everything #load produced for this test
+	 * 
+	 * Tests with *_EXTERNAL sections aren't cacheable because they depend on another file.
+	 * 
+	 * @return
+	 */
+	public boolean isCacheable() {
+		return !containsSection(EPhptSection.EXPECT_EXTERNAL)
+				&& !containsSection(EPhptSection.EXPECTF_EXTERNAL)
+				&& !containsSection(EPhptSection.EXPECTREGEX_EXTERNAL);
+	}
+	
+	/** writes everything #load read from the test's file, so #loadFromCache can recreate this test case
+	 * without reading or parsing the file.
+	 * 
+	 * Must be called right after #load (before Config or anything else modifies the sections).
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeCache(DataOutputStream out) throws IOException {
+		writeCacheString(out, bork_info);
+		writeCacheString(out, unsupported_info);
+		writeCacheString(out, common_charset==null?null:common_charset.name());
+		out.writeInt(section_text.size());
+		for ( Map.Entry<EPhptSection,String> e : section_text.entrySet() ) {
+			out.writeUTF(e.getKey().name());
+			writeCacheString(out, e.getValue());
+		}
+	}
+	
+	/** recreates a test case stored by #writeCache (same as #load with keep_all=false)
+	 * 
+	 * @param test_pack
+	 * @param test_name
+	 * @param parent
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static PhptTestCase loadFromCache(PhptSourceTestPack test_pack, String test_name, PhptTestCase parent, DataInputStream in) throws IOException {
+		PhptTestCase test_case = new PhptTestCase(test_pack, test_name);
+		test_case.parent = parent;
+		test_case.bork_info = readCacheString(in);
+		test_case.unsupported_info = readCacheString(in);
+		String charset = readCacheString(in);
+		final int count = in.readInt();
+		for ( int i=0 ; i < count ; i++ ) {
+			EPhptSection section = EPhptSection.valueOf(in.readUTF());
+			test_case.section_text.put(section, readCacheString(in));
+		}
+		if (charset!=null) {
+			test_case.common_charset = (CharsetICU) CharsetICU.forNameICU(charset);
+		}
+		return test_case;
+	}
+	
+	/** writes String exactly (sections may be longer than DataOutputStream#writeUTF allows) */
+	protected static void writeCacheString(DataOutputStream out, String str) throws IOException {
+		if (str==null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(str.length());
+		out.writeChars(str);
+	}
+	
+	protected static String readCacheString(DataInputStream in) throws IOException {
+		final int len = in.readInt();
+		if (len < 0)
+			return null;
+		char[] c = new char[len];
+		for ( int i=0 ; i < len ; i++ )
+			c[i] = in.readChar();
+		return new String(c);
+	}
+	
 	public PhptTestCase(PhptSourceTestPack test_pack, String name) {
 		this.test_pack = test_pack;
 		this.name = normalizeTestCaseName(name);
@@ -396,49 +524,54 @@ public class PhptTestCase extends TestCase {
 	 */
 	public PhpIni getINI(PhptActiveTestPack active_test_pack, AHost host) {
 		PhpIni this_ini;
-		String this_ini_pwd;
-		String this_ini_tmp;
 		String dirName = FileSystemScenario.osDirName(name);
 		String ini_pwd = active_test_pack.getStorageDirectory()+File.separator+dirName;
 		String ini_tmp = host.getTempDir();
-		if (this.ini_pwd!=null && this.ini_tmp != null) {
-			this_ini_pwd = this.ini_pwd.get();
-			this_ini_tmp = this.ini_tmp.get();
-			if (this_ini_pwd != null && this_ini_pwd.equals(ini_pwd)
-				&& this_ini_tmp !=null && this_ini_tmp.equals(ini_tmp)) {
-				// cache ini (speed), but replace it in case the PWD changes
-				if (this.ini!=null) {
-					this_ini = this.ini.get();
-					if (this_ini!=null)
-						return this_ini;
-				}
-			}
+		CachedIni cached = this.ini;
+		if (cached!=null && cached.pwd.equals(ini_pwd) && cached.tmp.equals(ini_tmp)) {
+			// cache ini (speed), but replace it in case the PWD changes
+			this_ini = cached.ini.get();
+			if (this_ini!=null)
+				return this_ini;
 		}
 		
-		this_ini_pwd = ini_pwd;
-		this_ini_tmp = ini_tmp;
-		this.ini_pwd = new WeakReference<String>(this_ini_pwd);
-		this.ini_tmp = new WeakReference<String>(this_ini_tmp);
-		
 		String ini_str = section_text.get(EPhptSection.INI);
-		if (StringUtil.isEmpty(ini_str)) {
+		if (StringUtil.isEmpty(ini_str))
 			this_ini = new PhpIni();
-			this.ini = new WeakReference<PhpIni>(this_ini);
-			return this_ini;
-		}
-		
-		this_ini = new PhpIni(ini_str, ini_pwd, ini_tmp);
-		this.ini = new WeakReference<PhpIni>(this_ini);
+		else
+			this_ini = new PhpIni(ini_str, ini_pwd, ini_tmp);
+		this.ini = new CachedIni(ini_pwd, ini_tmp, this_ini);
 		return this_ini;
 	}
 	
+	private static class CachedIni {
+		private final String pwd, tmp;
+		private final WeakReference<PhpIni> ini;
+		
+		private CachedIni(String pwd, String tmp, PhpIni ini) {
+			this.pwd = pwd;
+			this.tmp = tmp;
+			this.ini = new WeakReference<PhpIni>(ini);
+		}
+	} // end private static class CachedIni
+	
+	/** returns the test that redirected to this test (REDIRECTTEST section)
+	 * 
+	 * @return NULL if test wasn't loaded by a redirect
+	 */
+	@Nullable
+	public PhptTestCase getRedirectParent() {
+		return parent;
+	}
+	
 	/** returns if test is expected to fail (that is Pass is counted as XFAIL_WORKS (bad) and Fail is counted as XFAIL)
+	 * 
+	 * Note: SKIPIF may also mark test as expected to fail @see PreparedPhptTestCase#isXFail
 	 * 
 	 * @return
 	 */
 	public boolean isXFail() {
-		return containsSection(EPhptSection.XFAIL)
-				|| (containsSection(EPhptSection.SKIPIF) && this.skipifAsXfail);
+		return containsSection(EPhptSection.XFAIL);
 	}
 		
 	/** returns the expected output as a string
@@ -502,26 +635,45 @@ public class PhptTestCase extends TestCase {
 	}
 	
 	public RE getExpectedCompiled(AHost host, ScenarioSetSetup scenario_set, ITestResultReceiver twriter, boolean remove_warning_and_error) {
-		RE expected_re;
-		if (!remove_warning_and_error && this.expected_re!=null) {
-			expected_re = this.expected_re.get();
-			if (expected_re!=null)
-				return expected_re;
+		REProgram wanted_re_prog;
+		if (!remove_warning_and_error) {
+			if (expected_re_invalid)
+				return new RE(); // already failed to compile
+			SoftReference<REProgram> ref = this.expected_re_prog;
+			if (ref!=null) {
+				wanted_re_prog = ref.get();
+				if (wanted_re_prog!=null)
+					return new RE(wanted_re_prog);
+			}
 		}
 		
-		String expected_str, oexpected_str;		
+		String expected_str, oexpected_str;
+		EPhptSection section;
 		if (containsSection(EPhptSection.EXPECTREGEX)) {
+			section = EPhptSection.EXPECTREGEX;
 			expected_str = oexpected_str = remove_warning_and_error ? removeWarningAndFatalError(get(EPhptSection.EXPECTREGEX)) : getTrim(EPhptSection.EXPECTREGEX);
 		} else if (containsSection(EPhptSection.EXPECTF)) {
+			section = EPhptSection.EXPECTF;
+			expected_str = oexpected_str = remove_warning_and_error ? removeWarningAndFatalError(get(EPhptSection.EXPECTF)) : getTrim(EPhptSection.EXPECTF);
+		} else {
+			return null;
+		}
+		
+		// check if this was compiled on a previous test run (or by another scenario set)
+		final String cache_key = PhptExpectedRegexCache.key(section, remove_warning_and_error, host.isVistaExact(), oexpected_str);
+		wanted_re_prog = PhptExpectedRegexCache.get(cache_key);
+		if (wanted_re_prog!=null) {
+			if (!remove_warning_and_error)
+				this.expected_re_prog = new SoftReference<REProgram>(wanted_re_prog);
+			return new RE(wanted_re_prog);
+		}
+		
+		if (section==EPhptSection.EXPECTF) {
 			//
 			// EXPECTF has special strings (ex: %s) that are replaced by builtin regular expressions
 			// after that replacement, it is treated just like EXPECTREGEX
 			//
-			expected_str = oexpected_str = remove_warning_and_error ? removeWarningAndFatalError(get(EPhptSection.EXPECTF)) : getTrim(EPhptSection.EXPECTF);
-			
 			expected_str = prepareExpectF(expected_str);
-		} else {
-			return null;
 		}
 				
 		{
@@ -532,23 +684,52 @@ public class PhptTestCase extends TestCase {
 		}
 		
 		try {
-			REProgram wanted_re_prog = new RECompiler().compile(expected_str);
+			wanted_re_prog = new RECompiler().compile(expected_str);
+			PhptExpectedRegexCache.put(cache_key, wanted_re_prog);
 			
-			expected_re = new RE(wanted_re_prog);
-			this.expected_re = new SoftReference<RE>(expected_re);
-			return expected_re;
+			if (!remove_warning_and_error)
+				this.expected_re_prog = new SoftReference<REProgram>(wanted_re_prog);
+			return new RE(wanted_re_prog);
 		} catch ( Throwable ex ) {
 			// log exception
 			
 			// provide the regular expression and the original section from the PHPT test
 			
 			twriter.addTestException(host, scenario_set, this, ex, expected_str, oexpected_str);
-			expected_re = new RE(); // marker to avoid trying again
-			this.expected_re = new SoftReference<RE>(expected_re);
-			return expected_re;
+			if (!remove_warning_and_error)
+				expected_re_invalid = true; // marker to avoid trying again
+			return new RE();
 		}
 	} // end public RE getExpectedCompiled
 
+	/** returns a linear-time matcher for the EXPECTF section, if it can be used for this test
+	 * 
+	 * @param host
+	 * @param remove_warning_and_error
+	 * @return NULL if test doesn't have an EXPECTF section, or it can't be compiled (uses %r...%r),
+	 * or there are regular expression overrides for the host. use #getExpectedCompiled instead
+	 * @see PhptExpectFMatcher
+	 */
+	@Nullable
+	public PhptExpectFMatcher getExpectFMatcher(AHost host, boolean remove_warning_and_error) {
+		if (!containsSection(EPhptSection.EXPECTF) || containsSection(EPhptSection.EXPECTREGEX) || host.isVistaExact())
+			return null;
+		SoftReference<PhptExpectFMatcher> ref = remove_warning_and_error ? expectf_matcher_no_warning : expectf_matcher;
+		PhptExpectFMatcher m = ref == null ? null : ref.get();
+		if (m!=null)
+			return m;
+		
+		m = PhptExpectFMatcher.compile(remove_warning_and_error ? removeWarningAndFatalError(get(EPhptSection.EXPECTF)) : getTrim(EPhptSection.EXPECTF));
+		if (m==null)
+			return null;
+		ref = new SoftReference<PhptExpectFMatcher>(m);
+		if (remove_warning_and_error)
+			expectf_matcher_no_warning = ref;
+		else
+			expectf_matcher = ref;
+		return m;
+	}
+	
 	/** tries matching actual output String against EXPECTF or EXPECTREGEX section and
 	 * writes debugging information and output to the given PrintWriters.
 	 * 
@@ -1348,8 +1529,14 @@ public class PhptTestCase extends TestCase {
 		return common_charset;
 	}
 	
+	/** returns a new encoder for the common charset (CharsetEncoders aren't thread-safe and a PHPT
+	 * may be prepared by several threads/scenario sets at the same time)
+	 * 
+	 * @return NULL if there is no common charset
+	 */
+	@Nullable
 	public CharsetEncoder getCommonCharsetEncoder() {
-		return ce;
+		return common_charset == null ? null : common_charset.newEncoder();
 	}
 
 	public void serialize(XmlSerializer serial) throws IllegalArgumentException, IllegalStateException, IOException {
@@ -0,0 +1,15 @@
+package com.mostc.pftt.model.performance;
+
+public class DrupalPerformanceTest extends PerformanceTest {
+
+	@Override
+	public String getName() {
+		return "Drupal";
+	}
+
+	@Override
+	public String getRequestPath() {
+		return "/drupal/index.php";
+	}
+
+}
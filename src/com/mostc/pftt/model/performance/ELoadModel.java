@@ -0,0 +1,16 @@
+package com.mostc.pftt.model.performance;
+
+/** How HttpLoadGenerator decides when to send requests
+ *
+ * @see HttpLoadGenerator
+ */
+
+public enum ELoadModel {
+	/** each virtual client sends its next request as soon as it gets the response to its last one (like WCAT).
+	 * measures the most TPS the web server can handle with that many clients. */
+	CLOSED,
+	/** requests are sent at a fixed rate, no matter how fast the web server responds. virtual clients limit
+	 * how many requests can be waiting for a response. latency includes time requests waited to be sent
+	 * (so a slow response doesn't hide the latency of the requests that should've been sent during it). */
+	OPEN
+}
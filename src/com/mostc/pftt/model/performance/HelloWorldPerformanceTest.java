@@ -0,0 +1,15 @@
+package com.mostc.pftt.model.performance;
+
+public class HelloWorldPerformanceTest extends PerformanceTest {
+
+	@Override
+	public String getName() {
+		return "HelloWorld";
+	}
+
+	@Override
+	public String getRequestPath() {
+		return "/helloworld.php";
+	}
+
+}
@@ -0,0 +1,328 @@
+package com.mostc.pftt.model.performance;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mostc.pftt.results.PerformanceTestResult;
+
+/** Sends HTTP requests to a web server from many virtual clients (threads) and measures throughput (TPS) and
+ * latency. Replaces WCAT (which only runs on Windows).
+ *
+ * Each virtual client has its own keep-alive HTTP/1.1 connection.
+ *
+ * A test run has 3 parts (like WCAT): warmup, duration and cooldown. Requests are sent during all 3, but
+ * only requests sent during the duration are counted.
+ *
+ * Before the test run, the page is downloaded once to get its size. A response with status 200 but a
+ * different size is counted as an error (an application can return an error page with status 200, ex: if
+ * it can't connect to its database, which would otherwise look like a big performance gain).
+ *
+ * @see ELoadModel
+ * @see PerformanceTest
+ */
+
+public class HttpLoadGenerator {
+	/** WCAT tests are run with these numbers of virtual clients */
+	public static final int[] DEFAULT_VIRTUAL_CLIENTS = new int[] {4, 8, 16, 32};
+	/** responses may be this much bigger or smaller than the expected size (some pages have a little dynamic content) */
+	public static final float DEFAULT_SIZE_TOLERANCE = 0.05f;
+	protected static final int SOCKET_TIMEOUT_MILLIS = 60000;
+	protected final String hostname;
+	protected final int port;
+	protected final String request_path;
+	protected final ELoadModel model;
+	protected final int virtual_clients;
+	protected final double target_rps;
+	protected float size_tolerance = DEFAULT_SIZE_TOLERANCE;
+
+	/**
+	 *
+	 * @param hostname - web server
+	 * @param port
+	 * @param request_path - ex: /wordpress/
+	 * @param model
+	 * @param virtual_clients
+	 * @param target_rps - for ELoadModel#OPEN: requests per second to send. ignored for CLOSED
+	 */
+	public HttpLoadGenerator(String hostname, int port, String request_path, ELoadModel model, int virtual_clients, double target_rps) {
+		this.hostname = hostname;
+		this.port = port;
+		this.request_path = request_path;
+		this.model = model;
+		this.virtual_clients = Math.max(1, virtual_clients);
+		this.target_rps = model == ELoadModel.OPEN ? Math.max(1d, target_rps) : 0d;
+	}
+
+	public void setSizeTolerance(float size_tolerance) {
+		this.size_tolerance = size_tolerance;
+	}
+
+	/** downloads the page once and returns its size
+	 *
+	 * @return
+	 * @throws IOException - if page can't be downloaded or status isn't 200
+	 */
+	public long fetchExpectedSize() throws IOException {
+		Connection conn = new Connection();
+		try {
+			int status = conn.get();
+			if (status != 200)
+				throw new IOException("http://"+hostname+":"+port+request_path+" returned status "+status);
+			return conn.body_size;
+		} finally {
+			conn.close();
+		}
+	}
+
+	/** runs the load
+	 *
+	 * @param test_name
+	 * @param warmup_seconds
+	 * @param duration_seconds
+	 * @param cooldown_seconds
+	 * @return
+	 * @throws IOException - if the page can't be downloaded at all
+	 * @throws InterruptedException
+	 */
+	public PerformanceTestResult run(String test_name, int warmup_seconds, int duration_seconds, int cooldown_seconds) throws IOException, InterruptedException {
+		final long expected_size = fetchExpectedSize();
+
+		final long start_nanos = System.nanoTime();
+		final long measure_start_nanos = start_nanos + warmup_seconds * 1000000000L;
+		final long measure_end_nanos = measure_start_nanos + duration_seconds * 1000000000L;
+		final long end_nanos = measure_end_nanos + cooldown_seconds * 1000000000L;
+		final AtomicLong next_request = new AtomicLong();
+
+		VirtualClient[] clients = new VirtualClient[virtual_clients];
+		for ( int i=0 ; i < clients.length ; i++ ) {
+			clients[i] = new VirtualClient(expected_size, start_nanos, measure_start_nanos, measure_end_nanos, end_nanos, next_request);
+			clients[i].setName("VirtualClient"+i);
+			clients[i].setDaemon(true);
+			clients[i].start();
+		}
+		LatencyHistogram latency = new LatencyHistogram();
+		long request_count = 0, error_count = 0, size_error_count = 0, byte_count = 0;
+		for ( VirtualClient c : clients ) {
+			c.join();
+			latency.add(c.latency);
+			request_count += c.request_count;
+			error_count += c.error_count;
+			size_error_count += c.size_error_count;
+			byte_count += c.byte_count;
+		}
+		return new PerformanceTestResult(test_name, model, virtual_clients, target_rps, duration_seconds, request_count, error_count, size_error_count, expected_size, byte_count, latency);
+	} // end public PerformanceTestResult run
+
+	protected boolean isExpectedSize(long expected_size, long size) {
+		return Math.abs(size - expected_size) <= expected_size * size_tolerance;
+	}
+
+	protected class VirtualClient extends Thread {
+		protected final long expected_size, start_nanos, measure_start_nanos, measure_end_nanos, end_nanos;
+		protected final AtomicLong next_request;
+		protected final LatencyHistogram latency;
+		protected long request_count, error_count, size_error_count, byte_count;
+
+		protected VirtualClient(long expected_size, long start_nanos, long measure_start_nanos, long measure_end_nanos, long end_nanos, AtomicLong next_request) {
+			this.expected_size = expected_size;
+			this.start_nanos = start_nanos;
+			this.measure_start_nanos = measure_start_nanos;
+			this.measure_end_nanos = measure_end_nanos;
+			this.end_nanos = end_nanos;
+			this.next_request = next_request;
+			latency = new LatencyHistogram();
+		}
+
+		@Override
+		public void run() {
+			final long interval_nanos = model == ELoadModel.OPEN ? (long) (1000000000d / target_rps) : 0L;
+			Connection conn = new Connection();
+			try {
+				for (;;) {
+					long send_nanos;
+					if (model == ELoadModel.OPEN) {
+						// when this request should be sent
+						send_nanos = start_nanos + next_request.getAndIncrement() * interval_nanos;
+						if (send_nanos >= end_nanos)
+							break;
+						long wait_nanos = send_nanos - System.nanoTime();
+						if (wait_nanos > 0)
+							Thread.sleep(wait_nanos / 1000000L, (int) (wait_nanos % 1000000L));
+					} else {
+						send_nanos = System.nanoTime();
+						if (send_nanos >= end_nanos)
+							break;
+					}
+					int status;
+					try {
+						status = conn.get();
+					} catch ( Exception ex ) {
+						// connection reset, timeout, bad response, etc...
+						conn.close();
+						status = -1;
+					}
+					if (send_nanos < measure_start_nanos || send_nanos >= measure_end_nanos)
+						// warmup or cooldown
+						continue;
+					if (status != 200) {
+						error_count++;
+					} else if (!isExpectedSize(expected_size, conn.body_size)) {
+						size_error_count++;
+					} else {
+						request_count++;
+						byte_count += conn.body_size;
+						latency.record((System.nanoTime() - send_nanos) / 1000L);
+					}
+				}
+			} catch ( InterruptedException ex ) {
+			} finally {
+				conn.close();
+			}
+		} // end public void run
+	} // end protected class VirtualClient
+
+	/** minimal HTTP/1.1 client: GETs the same page over and over on a keep-alive connection */
+	protected class Connection {
+		protected final byte[] request;
+		protected final byte[] buf;
+		protected Socket socket;
+		protected InputStream in;
+		protected OutputStream out;
+		protected long body_size;
+
+		protected Connection() {
+			request = ("GET "+request_path+" HTTP/1.1\r\nHost: "+hostname+":"+port+"\r\nConnection: keep-alive\r\nUser-Agent: PFTT\r\n\r\n").getBytes();
+			buf = new byte[16*1024];
+		}
+
+		protected void connect() throws IOException {
+			socket = new Socket();
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+			socket.connect(new InetSocketAddress(hostname, port), SOCKET_TIMEOUT_MILLIS);
+			in = new BufferedInputStream(socket.getInputStream(), buf.length);
+			out = socket.getOutputStream();
+		}
+
+		/** @return HTTP status code */
+		protected int get() throws IOException {
+			if (socket==null) {
+				connect();
+				return doGet();
+			}
+			try {
+				return doGet();
+			} catch ( IOException ex ) {
+				// server may have closed the keep-alive connection while it was idle. try once on a new connection
+				close();
+				connect();
+				return doGet();
+			}
+		}
+		
+		protected int doGet() throws IOException {
+			out.write(request);
+			out.flush();
+
+			String status_line = readLine();
+			if (status_line==null)
+				throw new IOException("connection closed");
+			// HTTP/1.1 200 OK
+			int i = status_line.indexOf(' ');
+			if (i==-1 || status_line.length() < i+4)
+				throw new IOException("bad status line: "+status_line);
+			final int status = Integer.parseInt(status_line.substring(i+1, i+4));
+
+			long content_length = -1;
+			boolean chunked = false, close = status_line.startsWith("HTTP/1.0");
+			String line;
+			while ((line = readLine())!=null && line.length() > 0) {
+				int c = line.indexOf(':');
+				if (c==-1)
+					continue;
+				String name = line.substring(0, c).trim();
+				String value = line.substring(c+1).trim();
+				if (name.equalsIgnoreCase("Content-Length"))
+					content_length = Long.parseLong(value);
+				else if (name.equalsIgnoreCase("Transfer-Encoding"))
+					chunked = value.equalsIgnoreCase("chunked");
+				else if (name.equalsIgnoreCase("Connection"))
+					close = value.equalsIgnoreCase("close");
+			}
+
+			if (chunked) {
+				body_size = 0;
+				for (;;) {
+					line = readLine();
+					if (line==null)
+						throw new IOException("connection closed");
+					int semi = line.indexOf(';');
+					long chunk_size = Long.parseLong((semi==-1?line:line.substring(0, semi)).trim(), 16);
+					if (chunk_size==0)
+						break;
+					skip(chunk_size);
+					body_size += chunk_size;
+					readLine(); // CRLF after chunk
+				}
+				// trailers
+				while ((line = readLine())!=null && line.length() > 0) {}
+			} else if (content_length >= 0) {
+				skip(content_length);
+				body_size = content_length;
+			} else {
+				// body ends when server closes connection
+				body_size = 0;
+				int len;
+				while ((len = in.read(buf))!=-1)
+					body_size += len;
+				close = true;
+			}
+			if (close)
+				close();
+			return status;
+		} // end protected int doGet
+
+		protected void skip(long len) throws IOException {
+			while (len > 0) {
+				int r = in.read(buf, 0, (int) Math.min(buf.length, len));
+				if (r==-1)
+					throw new IOException("connection closed");
+				len -= r;
+			}
+		}
+
+		protected String readLine() throws IOException {
+			StringBuilder sb = new StringBuilder(64);
+			int b;
+			while ((b = in.read())!=-1) {
+				if (b=='\n') {
+					int len = sb.length();
+					if (len > 0 && sb.charAt(len-1)=='\r')
+						sb.setLength(len-1);
+					return sb.toString();
+				}
+				sb.append((char)b);
+			}
+			return sb.length()==0 ? null : sb.toString();
+		}
+
+		protected void close() {
+			if (socket==null)
+				return;
+			try {
+				socket.close();
+			} catch ( IOException ex ) {
+			}
+			socket = null;
+			in = null;
+			out = null;
+		}
+
+	} // end protected class Connection
+
+} // end public class HttpLoadGenerator
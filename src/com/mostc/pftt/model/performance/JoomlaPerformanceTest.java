@@ -0,0 +1,15 @@
+package com.mostc.pftt.model.performance;
+
+public class JoomlaPerformanceTest extends PerformanceTest {
+
+	@Override
+	public String getName() {
+		return "Joomla";
+	}
+
+	@Override
+	public String getRequestPath() {
+		return "/joomla/index.php";
+	}
+
+}
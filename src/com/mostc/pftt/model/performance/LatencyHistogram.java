@@ -0,0 +1,136 @@
+package com.mostc.pftt.model.performance;
+
+import java.io.PrintWriter;
+
+/** Records latencies (in microseconds) with a fixed amount of memory and a fixed relative error, so
+ * percentiles (median, 99th, 99.9th...) can be computed for millions of requests.
+ *
+ * Values are counted in buckets. Values below #SUB_BUCKET_COUNT each get their own bucket. Above that, each
+ * power of 2 is split into #SUB_BUCKET_COUNT/2 buckets (like HdrHistogram), so a value's bucket is always
+ * within 1/128 (<1%) of the value.
+ *
+ * Not thread-safe: each load generator thread records into its own histogram and they're #add'ed together after.
+ *
+ * @see HttpLoadGenerator
+ */
+
+public class LatencyHistogram {
+	protected static final int SUB_BUCKET_BITS = 8;
+	protected static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	protected static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+	/** larger values are counted as this (~19 hours) */
+	public static final long MAX_MICROS = (1L << 36) - 1;
+	protected final long[] counts;
+	protected long total_count, total_micros, min_micros = Long.MAX_VALUE, max_micros;
+
+	public LatencyHistogram() {
+		counts = new long[bucketIndex(MAX_MICROS)+1];
+	}
+
+	protected static int bucketIndex(long micros) {
+		if (micros < SUB_BUCKET_COUNT)
+			return (int) micros;
+		// keep the highest SUB_BUCKET_BITS bits of the value
+		final int shift = (63 - Long.numberOfLeadingZeros(micros)) - (SUB_BUCKET_BITS - 1);
+		return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) ((micros >>> shift) - SUB_BUCKET_HALF);
+	}
+
+	/** @return lowest value counted in the bucket */
+	protected static long bucketLowest(int index) {
+		if (index < SUB_BUCKET_COUNT)
+			return index;
+		final int i = index - SUB_BUCKET_COUNT;
+		final int shift = i / SUB_BUCKET_HALF + 1;
+		return ((long)(i % SUB_BUCKET_HALF + SUB_BUCKET_HALF)) << shift;
+	}
+
+	/** @return highest value counted in the bucket */
+	protected static long bucketHighest(int index) {
+		if (index < SUB_BUCKET_COUNT)
+			return index;
+		final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+		return bucketLowest(index) + (1L << shift) - 1;
+	}
+
+	public void record(long micros) {
+		if (micros < 0)
+			micros = 0;
+		else if (micros > MAX_MICROS)
+			micros = MAX_MICROS;
+		counts[bucketIndex(micros)]++;
+		total_count++;
+		total_micros += micros;
+		if (micros < min_micros)
+			min_micros = micros;
+		if (micros > max_micros)
+			max_micros = micros;
+	}
+
+	/** adds all the values recorded in another histogram to this one */
+	public void add(LatencyHistogram o) {
+		for ( int i=0 ; i < counts.length ; i++ )
+			counts[i] += o.counts[i];
+		total_count += o.total_count;
+		total_micros += o.total_micros;
+		if (o.min_micros < min_micros)
+			min_micros = o.min_micros;
+		if (o.max_micros > max_micros)
+			max_micros = o.max_micros;
+	}
+
+	public long getCount() {
+		return total_count;
+	}
+
+	public double getMeanMicros() {
+		return total_count == 0 ? 0d : (double) total_micros / total_count;
+	}
+
+	public long getMinMicros() {
+		return total_count == 0 ? 0 : min_micros;
+	}
+
+	public long getMaxMicros() {
+		return max_micros;
+	}
+
+	/** returns the value that the given percent of recorded values are less than or equal to
+	 *
+	 * @param percentile - 0.0 to 100.0 (ex: 99.9)
+	 * @return microseconds (highest value of the bucket, never more than the largest value recorded)
+	 */
+	public long getPercentileMicros(double percentile) {
+		if (total_count == 0)
+			return 0;
+		long target = (long) Math.ceil(Math.min(100d, Math.max(0d, percentile)) / 100d * total_count);
+		if (target < 1)
+			target = 1;
+		long seen = 0;
+		for ( int i=0 ; i < counts.length ; i++ ) {
+			seen += counts[i];
+			if (seen >= target)
+				return Math.min(bucketHighest(i), max_micros);
+		}
+		return max_micros;
+	}
+
+	/** writes the distribution as CSV: percentile,micros,count
+	 *
+	 * @param pw
+	 */
+	public void writeDistribution(PrintWriter pw) {
+		pw.println("percentile,micros,count");
+		long seen = 0;
+		for ( int i=0 ; i < counts.length ; i++ ) {
+			if (counts[i] == 0)
+				continue;
+			seen += counts[i];
+			pw.print(100d * seen / total_count);
+			pw.print(',');
+			pw.print(Math.min(bucketHighest(i), max_micros));
+			pw.print(',');
+			pw.println(counts[i]);
+		}
+	}
+
+} // end public class LatencyHistogram
@@ -0,0 +1,15 @@
+package com.mostc.pftt.model.performance;
+
+public class MediaWikiPerformanceTest extends PerformanceTest {
+
+	@Override
+	public String getName() {
+		return "MediaWiki";
+	}
+
+	@Override
+	public String getRequestPath() {
+		return "/mediawiki/index.php?title=Main_Page";
+	}
+
+}
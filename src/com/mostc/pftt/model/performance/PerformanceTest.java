@@ -1,7 +1,54 @@
 package com.mostc.pftt.model.performance;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.mostc.pftt.model.TestCase;
 
-public abstract class PerformanceTest extends TestCase {
+/** Measures how many requests for a page of a PHP application a web server can handle (TPS) and how long
+ * they take (latency), with a PHP build.
+ * 
+ * Based on AutoCAT (Powershell and WCAT) @see https://github.com/OSTC/php-perf
+ * 
+ * The application must already be installed in the web server's docroot.
+ * 
+ * @see HttpLoadGenerator
+ * @see com.mostc.pftt.runner.PerformanceTestRunner
+ */
 
-}
+public abstract class PerformanceTest extends TestCase {
+	
+	/** returns the page to request
+	 * 
+	 * @return ex: /wordpress/
+	 */
+	public abstract String getRequestPath();
+	
+	public int getWarmupSeconds() {
+		return 20;
+	}
+	
+	public int getDurationSeconds() {
+		return 120;
+	}
+	
+	public int getCooldownSeconds() {
+		return 10;
+	}
+	
+	@Override
+	public String toString() {
+		return getName();
+	}
+	
+	public static List<PerformanceTest> getAll() {
+		ArrayList<PerformanceTest> tests = new ArrayList<PerformanceTest>(5);
+		tests.add(new HelloWorldPerformanceTest());
+		tests.add(new DrupalPerformanceTest());
+		tests.add(new MediaWikiPerformanceTest());
+		tests.add(new WordpressPerformanceTest());
+		tests.add(new JoomlaPerformanceTest());
+		return tests;
+	}
+	
+} // end public abstract class PerformanceTest
@@ -0,0 +1,15 @@
+package com.mostc.pftt.model.performance;
+
+public class WordpressPerformanceTest extends PerformanceTest {
+
+	@Override
+	public String getName() {
+		return "Wordpress";
+	}
+
+	@Override
+	public String getRequestPath() {
+		return "/wordpress/";
+	}
+
+}
@@ -3,14 +3,18 @@ package com.mostc.pftt.model.sapi;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.Nullable;
+
 import com.github.mattficken.Overridable;
 import com.mostc.pftt.host.AHost;
 import com.mostc.pftt.host.LocalHost;
@@ -74,60 +78,118 @@ public abstract class AbstractManagedProcessesWebServerManager extends WebServer
 	 * @return
 	 */
 	public static CouldConnect canConnect(String listen_address, int port, boolean double_sure) {
-		Socket sock = null;
+		return canConnect(listen_address, port, double_sure, null);
+	}
+	
+	/** makes sure the web server is running and accepting connections.
+	 * 
+	 * first waits for the web server to listen on the port (@see #waitForListen) then, if double_sure, sends an HTTP request.
+	 * 
+	 * @param listen_address
+	 * @param port
+	 * @param double_sure - if TRUE, sends HTTP request, if FALSE just does TCP socket.
+	 * 	                TCP (!double_sure) is much faster, HTTP is much slower (only use HTTP when you think it might not work)
+	 * @param handle - web server process. if it exits, stops waiting for it right away
+	 * @return
+	 */
+	public static CouldConnect canConnect(String listen_address, int port, boolean double_sure, @Nullable ExecHandle handle) {
 		CouldConnect could = new CouldConnect();
 		could.start_time = System.currentTimeMillis();
 		
-		if (double_sure) {
-			for ( could.attempts=0 ; could.attempts < 10 ; could.attempts++ ) {
-				could.connect = false;
+		could.connect = waitForListen(could, listen_address, port, handle, LISTEN_TIMEOUT_MILLIS);
+		if (!could.connect || !double_sure)
+			return could;
+		
+		// web server is listening, now check that it responds to HTTP
+		for ( int i=0 ; i < 10 ; i++ ) {
+			could.attempts++;
+			could.connect = false;
+			
+			try {
+				final int timeout = Math.max(200, Math.min(60000, 100*((int)(Math.pow(i+1, i+1)))));
 				
-				try {
-					final int timeout = Math.max(200, Math.min(60000, 100*((int)(Math.pow(could.attempts+1, could.attempts+1)))));
+				URL url = new URL("http://"+listen_address+":"+port+"/");
+				URLConnection uc = url.openConnection();
+				uc.setConnectTimeout(timeout);
+				uc.setReadTimeout(timeout);
+				uc.connect();
+				uc.getInputStream();
 					
-					URL url = new URL("http://"+listen_address+":"+port+"/");
-					URLConnection uc = url.openConnection();
-					uc.setConnectTimeout(timeout);
-					uc.setReadTimeout(timeout);
-					uc.connect();
-					uc.getInputStream();
-						
-					could.connect = true;
-					return could;
-				} catch ( FileNotFoundException ex ) {
-					// got HTTP 404 response from web server - which means its up and responding to HTTP requests
-					// (regardless of whether or not that page actually exists)
-					could.connect = true;
-					return could;
-				} catch ( IOException ex ) {
-					// did not get HTTP response (may not have been able to do TCP connect/accept even)
-				}
-			}
-		} else {
-			// builtin web server needs many attempts and large timeouts
-			for ( could.attempts=0 ; could.attempts < 10 ; could.attempts++ ) {
-				could.connect = false;
-				try {
-					sock = new Socket();
-					sock.setSoTimeout(Math.max(200, Math.min(60000, 100*((int)(Math.pow(could.attempts+1, could.attempts+1))))));
-					sock.connect(new InetSocketAddress(listen_address, port));
-					if (sock.isConnected()) {
-						could.connect = true;
-						return could;
-					}
-				} catch ( IOException ex ) {
-				} finally {
-					try {
-						sock.close();
-					} catch (IOException e) {
-					}
-				}
+				could.connect = true;
+				return could;
+			} catch ( FileNotFoundException ex ) {
+				// got HTTP 404 response from web server - which means its up and responding to HTTP requests
+				// (regardless of whether or not that page actually exists)
+				could.connect = true;
+				return could;
+			} catch ( IOException ex ) {
+				// did not get HTTP response (may not have been able to do TCP connect/accept even)
 			}
 		}
 		could.connect = false; // ensure
 		return could;
 	} // end public static CouldConnect canConnect
 	
+	/** waits for web server to listen on port.
+	 * 
+	 * each attempt is a non-blocking TCP connect. while the web server is starting up, the connection is refused right away,
+	 * so attempts are repeated quickly (with a short, increasing delay) instead of waiting for a long timeout each time.
+	 * 
+	 * builtin web server needs many attempts (its startup is slow, especially on Windows)
+	 * 
+	 * @param could
+	 * @param listen_address
+	 * @param port
+	 * @param handle - if process exits, it will never listen, so returns FALSE right away
+	 * @param timeout_millis
+	 * @return
+	 */
+	protected static boolean waitForListen(CouldConnect could, String listen_address, int port, @Nullable ExecHandle handle, long timeout_millis) {
+		final long deadline = System.currentTimeMillis() + timeout_millis;
+		final InetSocketAddress address = new InetSocketAddress(listen_address, port);
+		long delay = 10;
+		for (;;) {
+			could.attempts++;
+			SocketChannel channel = null;
+			Selector selector = null;
+			try {
+				channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				if (channel.connect(address))
+					return true;
+				selector = Selector.open();
+				channel.register(selector, SelectionKey.OP_CONNECT);
+				if (selector.select(Math.max(1, Math.min(1000, deadline - System.currentTimeMillis()))) > 0 && channel.finishConnect())
+					return true;
+			} catch ( IOException ex ) {
+				// connection refused: not listening yet
+			} finally {
+				try {
+					if (selector!=null)
+						selector.close();
+				} catch ( IOException ex ) {}
+				try {
+					if (channel!=null)
+						channel.close();
+				} catch ( IOException ex ) {}
+			}
+			if (handle!=null && !handle.isRunning())
+				// process exited (crashed, bad config, port taken, etc...)
+				return false;
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0)
+				return false;
+			try {
+				Thread.sleep(Math.min(delay, remaining));
+			} catch ( InterruptedException ex ) {
+				return false;
+			}
+			delay = Math.min(delay * 2, 250);
+		}
+	} // end protected static boolean waitForListen
+	
+	/** how long to wait for web server to listen on its port (@see #waitForListen) */
+	protected static final long LISTEN_TIMEOUT_MILLIS = 30000;
 	static final int MAX_TOTAL_ATTEMPTS = 3;
 	@Override
 	protected WebServerInstance createWebServerInstance(ConsoleManager cm, FileSystemScenario fs, AHost host, ScenarioSet scenario_set, PhpBuild build, PhpIni ini, Map<String,String> env, final String docroot, final boolean debugger_attached, final Object server_name, boolean is_replacement) {
@@ -150,7 +212,8 @@ public abstract class AbstractManagedProcessesWebServerManager extends WebServer
 					// start over and hope ports at start of range are free
 					last_port.set(PORT_RANGE_START);
 					port_attempts++;
-				} else if (!isLocalhostTCPPortUsed(port)) {
+				} else if (isLocalhostTCPPortFree(port)) {
+					// ServerSocket could be bound to port => its free
 					found_port = true;
 					break;
 				}
@@ -183,7 +246,7 @@ public abstract class AbstractManagedProcessesWebServerManager extends WebServer
 				// this makes a real difference in test speed: use TCP only for the first web server
 				//    (since most of the time it will work, web servers that have to be replaced are the ones
 				//     to likely have a problem)
-				CouldConnect could = _canConnect(listen_address, port, is_replacement); 
+				CouldConnect could = _canConnect(listen_address, port, is_replacement, handle); 
 				if (!could.connect) {
 					// kill server and try again
 					throw new IOException("Could not socket to web server after it was started. Web server did not respond to socket. Tried "+could.attempts+" times, waiting "+(System.currentTimeMillis()-could.start_time)+" millis total.");
@@ -254,8 +317,8 @@ public abstract class AbstractManagedProcessesWebServerManager extends WebServer
 	} // end protected WebServerInstance createWebServerInstance
 	
 	@Overridable
-	protected CouldConnect _canConnect(String listen_address, int port, boolean is_replacement) {
-		return canConnect(listen_address, port, is_replacement);
+	protected CouldConnect _canConnect(String listen_address, int port, boolean is_replacement, ExecHandle handle) {
+		return canConnect(listen_address, port, is_replacement, handle);
 	}
 
 	protected abstract ManagedProcessWebServerInstance createManagedProcessWebServerInstance(ConsoleManager cm, FileSystemScenario fs, AHost host, ScenarioSet scenario_set, PhpBuild build, PhpIni ini, Map<String, String> env, String docroot, String listen_address, int port);
@@ -35,15 +35,15 @@ public class BuiltinWebServerManager extends AbstractManagedProcessesWebServerMa
 	}
 	
 	@Override
-	protected CouldConnect _canConnect(String listen_address, int port, boolean is_replacement) {
+	protected CouldConnect _canConnect(String listen_address, int port, boolean is_replacement, ExecHandle handle) {
 		// process startup is slow (especially on Windows)
 		// and builtin_web is kind of buggy
 		// 
 		// give it extra time before we have to give up and try again (kill process and start another)start another process)
-		CouldConnect c = super._canConnect(listen_address, port, is_replacement);
+		CouldConnect c = super._canConnect(listen_address, port, is_replacement, handle);
 		if (c.connect)
 			return c;
-		CouldConnect c2 = super._canConnect(listen_address, port, is_replacement);
+		CouldConnect c2 = super._canConnect(listen_address, port, is_replacement, handle);
 		if (c2.connect)
 			return c2;
 		c.attempts += c2.attempts; // merge time and number of attempts from both for result-pack
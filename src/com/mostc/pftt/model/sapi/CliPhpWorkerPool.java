@@ -0,0 +1,393 @@
+package com.mostc.pftt.model.sapi;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import com.github.mattficken.io.IOUtil;
+import com.github.mattficken.io.NoCharsetByLineReader;
+import com.mostc.pftt.host.ExecOutput;
+import com.mostc.pftt.results.ConsoleManagerUtil;
+import com.mostc.pftt.util.TimerUtil;
+
+/** Keeps php processes (workers) running so each test doesn't have to start a new php process (which
+ * parses the INI and loads all the extensions, which is most of the CPU time of running a PHPT test).
+ *
+ * Each worker runs a small driver script that reads requests from its STDIN. For each request, the
+ * driver forks (pcntl_fork) and the child sets the ENV vars and working directory, redirects
+ * STDOUT and STDERR to a file and includes the PHP file. The driver waits for the child to exit and tells
+ * PFTT how it exited. Each test still runs in its own process, it just doesn't have to start from scratch.
+ *
+ * Requires the pcntl extension (so not on Windows). If php doesn't have it, the pool disables itself and
+ * everything runs the normal way.
+ *
+ * A PHP file that does anything that would be different in a worker than in a new php process (ex: uses
+ * STDIN/STDOUT, output buffering, backtraces, its own process) should not be run in a worker @see #canRun
+ *
+ * There is one pool for each CliSAPIInstance (each TestCaseGroupKey) so all workers have the same INI.
+ *
+ * Thread-safe.
+ *
+ * @see -php_workers console option
+ * @see com.mostc.pftt.runner.CliPhptTestCaseRunner
+ */
+
+public class CliPhpWorkerPool {
+	protected static final String READY = "PFTT_WORKER READY", EXIT = "PFTT_WORKER EXIT ", SIGNAL = "PFTT_WORKER SIGNAL ";
+	protected static final int SIGALRM = 14;
+	/** how long to wait for a worker to start or to exit after its timeout before killing it */
+	protected static final int KILL_SECONDS = 10;
+	/** if PHP code contains any of these (lowercase), it may act differently in a worker than in a new php process */
+	protected static final String[] NOT_WORKER_SAFE = new String[] {
+			// STDIN/STDOUT/STDERR are replaced and the driver uses STDIN
+			"stdin", "stdout", "stderr", "php://",
+			// output buffering, backtraces and included files are different
+			"ob_", "backtrace", "gettrace", "get_included_files", "get_required_files",
+			// driver's globals and process
+			"get_defined_vars", "$globals", "$_env", "argv", "argc", "pcntl", "posix_", "getmypid", "memory_get", "getrusage", "gc_", "declare(ticks", "register_tick"
+		};
+	protected static final String DRIVER =
+			"<?php\n" +
+			"// PFTT worker: runs each request in a child process forked from this one\n" +
+			"// @see com.mostc.pftt.model.sapi.CliPhpWorkerPool\n" +
+			"if (!function_exists('pcntl_fork')) {\n" +
+			"	echo \"PFTT_WORKER NO_FORK\\n\";\n" +
+			"	exit(1);\n" +
+			"}\n" +
+			"echo \"PFTT_WORKER READY\\n\";\n" +
+			"// request: number of fields, then each field's length and the field: php file, working directory, output file, timeout, ENV names and values\n" +
+			"while (($__pftt_n = fgets(STDIN))!==false) {\n" +
+			"	$__pftt_r = array();\n" +
+			"	for ( $__pftt_i=(int)$__pftt_n ; $__pftt_i > 0 ; $__pftt_i-- ) {\n" +
+			"		$__pftt_len = (int)fgets(STDIN);\n" +
+			"		$__pftt_s = '';\n" +
+			"		while (strlen($__pftt_s) < $__pftt_len) {\n" +
+			"			$__pftt_c = fread(STDIN, $__pftt_len - strlen($__pftt_s));\n" +
+			"			if ($__pftt_c===false||$__pftt_c==='')\n" +
+			"				exit(1);\n" +
+			"			$__pftt_s .= $__pftt_c;\n" +
+			"		}\n" +
+			"		$__pftt_r[] = $__pftt_s;\n" +
+			"	}\n" +
+			"	$__pftt_pid = pcntl_fork();\n" +
+			"	if ($__pftt_pid===0) {\n" +
+			"		// child: files opened right after closing STDOUT and STDERR get their file descriptors (1 and 2)\n" +
+			"		fclose(STDOUT);\n" +
+			"		fclose(STDERR);\n" +
+			"		fclose(fopen($__pftt_r[2], 'wb'));\n" +
+			"		$__pftt_out = fopen($__pftt_r[2], 'ab');\n" +
+			"		$__pftt_err = fopen($__pftt_r[2], 'ab');\n" +
+			"		fclose(STDIN);\n" +
+			"		chdir($__pftt_r[1]);\n" +
+			"		for ( $__pftt_i=4 ; $__pftt_i+1 < count($__pftt_r) ; $__pftt_i+=2 ) {\n" +
+			"			putenv($__pftt_r[$__pftt_i].'='.$__pftt_r[$__pftt_i+1]);\n" +
+			"			$_SERVER[$__pftt_r[$__pftt_i]] = $__pftt_r[$__pftt_i+1];\n" +
+			"		}\n" +
+			"		$_SERVER['argv'] = $argv = array($__pftt_r[0]);\n" +
+			"		$_SERVER['argc'] = $argc = 1;\n" +
+			"		$_SERVER['PHP_SELF'] = $_SERVER['SCRIPT_NAME'] = $_SERVER['SCRIPT_FILENAME'] = $_SERVER['PATH_TRANSLATED'] = $__pftt_r[0];\n" +
+			"		$_SERVER['REQUEST_TIME'] = time();\n" +
+			"		$_SERVER['REQUEST_TIME_FLOAT'] = microtime(true);\n" +
+			"		// timers aren't inherited by a forked process\n" +
+			"		set_time_limit((int)ini_get('max_execution_time'));\n" +
+			"		pcntl_alarm((int)$__pftt_r[3]);\n" +
+			"		$__pftt_f = $__pftt_r[0];\n" +
+			"		unset($__pftt_n, $__pftt_r, $__pftt_i, $__pftt_len, $__pftt_s, $__pftt_c, $__pftt_pid);\n" +
+			"		include $__pftt_f;\n" +
+			"		exit(0);\n" +
+			"	} else if ($__pftt_pid===-1 || pcntl_waitpid($__pftt_pid, $__pftt_status)!==$__pftt_pid) {\n" +
+			"		echo \"PFTT_WORKER SIGNAL 0\\n\";\n" +
+			"	} else if (pcntl_wifexited($__pftt_status)) {\n" +
+			"		echo 'PFTT_WORKER EXIT '.pcntl_wexitstatus($__pftt_status).\"\\n\";\n" +
+			"	} else {\n" +
+			"		echo 'PFTT_WORKER SIGNAL '.pcntl_wtermsig($__pftt_status).\"\\n\";\n" +
+			"	}\n" +
+			"}\n";
+	private static volatile boolean enabled;
+	protected final String php_exe, ini_dir;
+	protected final File driver_file;
+	protected final LinkedList<Worker> idle_workers;
+	protected final ArrayList<Worker> all_workers;
+	protected final AtomicInteger worker_counter;
+	protected volatile boolean disabled, closed;
+
+	/**
+	 *
+	 * @param php_exe
+	 * @param ini_dir - directory with php.ini all workers will use
+	 */
+	public CliPhpWorkerPool(String php_exe, String ini_dir) {
+		this.php_exe = php_exe;
+		this.ini_dir = ini_dir;
+		driver_file = new File(ini_dir, "pftt_worker.php");
+		idle_workers = new LinkedList<Worker>();
+		all_workers = new ArrayList<Worker>();
+		worker_counter = new AtomicInteger();
+	}
+
+	/** @see -php_workers console option */
+	public static void setEnabled(boolean _enabled) {
+		enabled = _enabled;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/** checks if PHP code can be run in a worker and get the same result as in a new php process
+	 *
+	 * @param php_code
+	 * @return
+	 */
+	public static boolean canRun(@Nullable String php_code) {
+		if (php_code==null)
+			return true;
+		php_code = php_code.toLowerCase();
+		for ( String s : NOT_WORKER_SAFE ) {
+			if (php_code.contains(s))
+				return false;
+		}
+		return true;
+	}
+
+	/** @return FALSE if php can't run workers (no pcntl) or pool is closed */
+	public boolean isAvailable() {
+		return !disabled && !closed;
+	}
+
+	/** runs the PHP file in a worker
+	 *
+	 * @param php_filename
+	 * @param chdir - working directory
+	 * @param env - ENV vars (in addition to PFTT's ENV)
+	 * @param timeout_sec
+	 * @return NULL if the PHP file couldn't be run in a worker or crashed (caller should run it the normal way)
+	 */
+	@Nullable
+	public WorkerOutput execute(String php_filename, String chdir, @Nullable Map<String,String> env, int timeout_sec) {
+		if (!isAvailable())
+			return null;
+		Worker w = takeWorker();
+		if (w==null)
+			return null;
+		boolean broken = true;
+		try {
+			WorkerOutput out = w.execute(php_filename, chdir, env, timeout_sec);
+			broken = false;
+			return out;
+		} catch ( IOException ex ) {
+			// worker exited or was killed
+			return null;
+		} finally {
+			if (broken)
+				w.close();
+			else
+				releaseWorker(w);
+		}
+	} // end public WorkerOutput execute
+
+	protected Worker takeWorker() {
+		synchronized(idle_workers) {
+			if (!idle_workers.isEmpty())
+				return idle_workers.removeFirst();
+		}
+		Worker w = new Worker(worker_counter.incrementAndGet());
+		try {
+			if (w.start())
+				return w;
+			// php doesn't have pcntl... no point trying again
+			disabled = true;
+		} catch ( Exception ex ) {
+			ConsoleManagerUtil.printStackTrace(CliPhpWorkerPool.class, ex);
+			disabled = true;
+		}
+		w.close();
+		return null;
+	}
+
+	protected void releaseWorker(Worker w) {
+		synchronized(idle_workers) {
+			if (!closed) {
+				idle_workers.addFirst(w);
+				return;
+			}
+		}
+		w.close();
+	}
+
+	public void close() {
+		Worker[] a;
+		synchronized(idle_workers) {
+			closed = true;
+			idle_workers.clear();
+			a = all_workers.toArray(new Worker[all_workers.size()]);
+		}
+		for ( Worker w : a )
+			w.close();
+	}
+
+	protected void writeDriver() throws IOException {
+		synchronized(driver_file) {
+			if (driver_file.isFile())
+				return;
+			FileOutputStream out = new FileOutputStream(driver_file);
+			try {
+				out.write(DRIVER.getBytes("UTF-8"));
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	public static class WorkerOutput extends ExecOutput {
+		/** TRUE if killed after timeout */
+		public boolean timed_out;
+	}
+
+	protected class Worker {
+		protected final File out_file;
+		protected Process process;
+		protected OutputStream stdin;
+		protected BufferedReader stdout;
+
+		protected Worker(int id) {
+			out_file = new File(ini_dir, "pftt_worker_"+id+".out");
+		}
+
+		/** @return FALSE if php can't fork */
+		protected boolean start() throws Exception {
+			writeDriver();
+			ProcessBuilder builder = new ProcessBuilder(php_exe, "-c", ini_dir, "-f", driver_file.getPath());
+			builder.redirectErrorStream(true);
+			process = builder.start();
+			synchronized(idle_workers) {
+				all_workers.add(this);
+			}
+			stdin = process.getOutputStream();
+			stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+
+			ScheduledFuture<?> kill = scheduleKill(KILL_SECONDS);
+			try {
+				String line;
+				while ((line = stdout.readLine())!=null) {
+					if (line.equals(READY))
+						return true;
+					else if (line.startsWith("PFTT_WORKER"))
+						break;
+				}
+				return false;
+			} finally {
+				kill.cancel(false);
+			}
+		}
+
+		protected WorkerOutput execute(String php_filename, String chdir, @Nullable Map<String,String> env, int timeout_sec) throws IOException {
+			ArrayList<String> fields = new ArrayList<String>(64);
+			fields.add(php_filename);
+			fields.add(chdir);
+			fields.add(out_file.getAbsolutePath());
+			fields.add(Integer.toString(timeout_sec));
+			if (env!=null) {
+				for ( Map.Entry<String,String> e : env.entrySet() ) {
+					if (e.getValue()==null)
+						continue;
+					fields.add(e.getKey());
+					// same as LocalHost#exec_impl: PATH is added to PFTT's PATH
+					fields.add(e.getKey().equals("PATH") && System.getenv("PATH")!=null ? System.getenv("PATH")+File.pathSeparator+e.getValue() : e.getValue());
+				}
+			}
+			ByteArrayOutputStream req = new ByteArrayOutputStream(4096);
+			req.write((fields.size()+"\n").getBytes("UTF-8"));
+			for ( String field : fields ) {
+				byte[] b = field.getBytes("UTF-8");
+				req.write((b.length+"\n").getBytes("UTF-8"));
+				req.write(b);
+			}
+
+			ScheduledFuture<?> kill = scheduleKill(timeout_sec+KILL_SECONDS);
+			String line;
+			try {
+				stdin.write(req.toByteArray());
+				stdin.flush();
+
+				while ((line = stdout.readLine())!=null) {
+					if (line.startsWith(EXIT)||line.startsWith(SIGNAL))
+						break;
+					// otherwise a warning from the driver... ignore
+				}
+			} finally {
+				kill.cancel(false);
+			}
+			if (line==null)
+				throw new IOException("worker exited");
+
+			WorkerOutput out = new WorkerOutput();
+			if (line.startsWith(SIGNAL)) {
+				if (Integer.parseInt(line.substring(SIGNAL.length()).trim())!=SIGALRM)
+					// crashed. run again in a new process to get its crash info
+					return null;
+				out.timed_out = true;
+				out.exit_code = -1;
+			} else {
+				out.exit_code = Integer.parseInt(line.substring(EXIT.length()).trim());
+			}
+			out.cmd = php_exe+" -c "+ini_dir+" -f "+php_filename;
+			out.output = readOutput();
+			return out;
+		} // end protected WorkerOutput execute
+
+		/** reads output the same way as LocalHost does (line endings normalized) */
+		protected String readOutput() throws IOException {
+			if (!out_file.isFile())
+				return "";
+			StringBuilder sb = new StringBuilder(1024);
+			NoCharsetByLineReader reader = new NoCharsetByLineReader(new FileInputStream(out_file));
+			try {
+				String line;
+				while (reader.hasMoreLines() && sb.length() < IOUtil.HALF_MEGABYTE) {
+					line = reader.readLine();
+					if (line==null)
+						break;
+					sb.append(line);
+					sb.append('\n');
+				}
+			} finally {
+				reader.close();
+			}
+			return sb.toString();
+		}
+
+		protected ScheduledFuture<?> scheduleKill(int seconds) {
+			return TimerUtil.scheduleSeconds(seconds, new Runnable() {
+					@Override
+					public void run() {
+						// stuck. closing makes #execute or #start throw/return
+						close();
+					}
+				});
+		}
+
+		protected void close() {
+			synchronized(idle_workers) {
+				all_workers.remove(this);
+			}
+			if (process!=null)
+				process.destroy();
+			out_file.delete();
+		}
+
+	} // end protected class Worker
+
+} // end public class CliPhpWorkerPool
@@ -2,9 +2,12 @@ package com.mostc.pftt.model.sapi;
 
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 import com.mostc.pftt.host.AHost;
 import com.mostc.pftt.host.AHost.ExecHandle;
 import com.mostc.pftt.host.ExecOutput;
+import com.mostc.pftt.host.LocalHost;
 import com.mostc.pftt.host.LocalHost.LocalExecHandle;
 import com.mostc.pftt.model.core.EExecutableType;
 import com.mostc.pftt.model.core.PhpBuild;
@@ -21,6 +24,7 @@ public class CliSAPIInstance extends SAPIInstance {
 	protected String ini_dir;
 	protected DebuggerManager db_mgr;
 	protected Debugger dbg;
+	protected CliPhpWorkerPool worker_pool;
 	
 	public CliSAPIInstance(ConsoleManager cm, FileSystemScenario fs, AHost host, ScenarioSet scenario_set, PhpBuild build, PhpIni ini) {
 		super(fs, host, ini);
@@ -48,6 +52,29 @@ public class CliSAPIInstance extends SAPIInstance {
 		
 		// now store the entire INI php should be using
 		fs.saveTextFile(host.joinIntoOnePath(ini_dir, "php.ini"), ini.toString());
+		
+		// workers need pcntl (not on Windows) and are started on this host
+		if (CliPhpWorkerPool.isEnabled() && dbg==null && host instanceof LocalHost && !host.isWindows() && !fs.isRemote())
+			worker_pool = new CliPhpWorkerPool(build.getPhpExe(), ini_dir);
+	}
+	
+	/** @return TRUE if #executeInWorker can be used */
+	public boolean hasWorkers() {
+		return worker_pool!=null && worker_pool.isAvailable();
+	}
+	
+	/** executes PHP file in a php process that was already started
+	 * 
+	 * @see CliPhpWorkerPool
+	 * @param php_filename
+	 * @param chdir
+	 * @param env
+	 * @param timeout_sec
+	 * @return NULL if can't be executed in a worker (execute it the normal way)
+	 */
+	@Nullable
+	public CliPhpWorkerPool.WorkerOutput executeInWorker(String php_filename, String chdir, Map<String,String> env, int timeout_sec) {
+		return worker_pool==null ? null : worker_pool.execute(fs.fixPath(php_filename), chdir, env, timeout_sec);
 	}
 	
 	public ExecOutput execute(EExecutableType exe_type, String name, String php_filename, String extra_args, Map<String,String> env, int timeout_sec, boolean debugger_attached) throws Exception {
@@ -93,6 +120,8 @@ public class CliSAPIInstance extends SAPIInstance {
 	
 	@Override
 	public void close(ConsoleManager cm) {
+		if (worker_pool!=null)
+			worker_pool.close();
 		try {
 			fs.delete(ini_dir);
 		} catch ( Exception ex ) {
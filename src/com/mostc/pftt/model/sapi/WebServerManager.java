@@ -1,6 +1,8 @@
 package com.mostc.pftt.model.sapi;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -31,9 +33,11 @@ public abstract class WebServerManager extends SAPIManager {
 	public static final String LOCALHOST = "localhost";
 	//
 	protected final ArrayList<WebServerInstance> instances;
+	protected final WebServerSparePool spares;
 	
 	public WebServerManager() {
 		instances = new ArrayList<WebServerInstance>(100);
+		spares = new WebServerSparePool(this);
 	}
 	
 	/** sets up the web server
@@ -54,6 +58,7 @@ public abstract class WebServerManager extends SAPIManager {
 	 * @param debug - TRUE if you might want to debug a web server that has crashed
 	 */
 	public void close(ConsoleManager cm, boolean debug) {
+		spares.close(cm);
 		synchronized(instances) {
 			for ( WebServerInstance wsi : instances ) {
 				if (debug && wsi.isCrashedOrDebuggedAndClosed())
@@ -148,12 +153,23 @@ public abstract class WebServerManager extends SAPIManager {
 				}
 			}
 			
-			assigned.replacement = sapi = createWebServerInstance(cm, fs, host, scenario_set, build, ini, env, docroot, debugger_attached, server_name, true);
+			sapi = debugger_attached ? null : spares.take(cm, fs, host, scenario_set, build, ini, env, docroot);
+			if (sapi==null) {
+				sapi = createWebServerInstance(cm, fs, host, scenario_set, build, ini, env, docroot, debugger_attached, server_name, true);
+				
+				// web servers with this INI and ENV are being replaced: keep spares running to replace the next one faster
+				if (!debugger_attached)
+					spares.fill(cm, fs, host, scenario_set, build, ini, env, docroot);
+			}
+			assigned.replacement = sapi;
 			synchronized(assigned.active_test_cases) {
 				sapi.active_test_cases.addAll(assigned.active_test_cases);
 			}
 		} else {
-			sapi = createWebServerInstance(cm, fs, host, scenario_set, build, ini, env, docroot, debugger_attached, server_name, false);
+			// use spare if one was started already (ex: web server was closed to restart it before a test expected to crash it)
+			sapi = debugger_attached ? null : spares.take(cm, fs, host, scenario_set, build, ini, env, docroot);
+			if (sapi==null)
+				sapi = createWebServerInstance(cm, fs, host, scenario_set, build, ini, env, docroot, debugger_attached, server_name, false);
 		}
 		if (sapi.isRunning()) {
 			synchronized(instances) {
@@ -205,12 +221,46 @@ public abstract class WebServerManager extends SAPIManager {
 	}
 	
 	public static final boolean isTCPPortUsed(String hostname, int port) {
+		Socket sock = null;
 		try {
-			Socket sock = new Socket(hostname, port);
+			sock = new Socket(hostname, port);
 			
 			return sock.isConnected();
 		} catch ( IOException ex ) {
 			return false;
+		} finally {
+			if (sock!=null) {
+				try {
+					sock.close();
+				} catch ( IOException ex ) {}
+			}
+		}
+	}
+	
+	/** checks if a web server could listen on the given port on localhost, by binding a ServerSocket to it.
+	 * 
+	 * faster than #isLocalhostTCPPortUsed (doesn't have to wait for a connection to be accepted or refused) and
+	 * also finds ports that another process has bound but isn't accepting connections on yet (ex: another web server
+	 * that is still starting up).
+	 * 
+	 * @param port
+	 * @return
+	 */
+	public static final boolean isLocalhostTCPPortFree(int port) {
+		ServerSocket ss = null;
+		try {
+			ss = new ServerSocket();
+			// bind to all addresses: port is not free if its used on any of them
+			ss.bind(new InetSocketAddress(port));
+			return true;
+		} catch ( IOException ex ) {
+			return false;
+		} finally {
+			if (ss!=null) {
+				try {
+					ss.close();
+				} catch ( IOException ex ) {}
+			}
 		}
 	}
 	
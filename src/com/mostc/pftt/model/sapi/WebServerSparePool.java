@@ -0,0 +1,299 @@
+package com.mostc.pftt.model.sapi;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import com.github.mattficken.io.StringUtil;
+import com.mostc.pftt.host.AHost;
+import com.mostc.pftt.model.core.PhpBuild;
+import com.mostc.pftt.model.core.PhpIni;
+import com.mostc.pftt.model.core.PhptTestCase;
+import com.mostc.pftt.results.ConsoleManager;
+import com.mostc.pftt.results.ConsoleManagerUtil;
+import com.mostc.pftt.scenario.FileSystemScenario;
+import com.mostc.pftt.scenario.ScenarioSet;
+import com.mostc.pftt.util.TimerUtil;
+
+/** Keeps spare WebServerInstances running so a web server that crashed (or has to be restarted) can be replaced
+ * right away instead of the test thread waiting for a new web server to start (Apache especially can take seconds
+ * to start and check).
+ *
+ * Spares are started in the background. Spares for a PhpIni and ENV (a TestCaseGroupKey) are only started after a web
+ * server with that PhpIni and ENV has been replaced once, so scenario sets/test groups that don't crash web servers
+ * don't pay for extra web server processes. Every time a spare is used, another one is started to replace it.
+ *
+ * Spares are never started with a debugger (tests that need a debugger get a new web server like before).
+ *
+ * The number of spares (running or starting) for all pools is limited to MAX_LIVE_SPARES. If the limit is reached,
+ * the spare of this pool that has been waiting longest is stopped to make room (usually it was for a PhpIni and ENV
+ * that isn't being tested anymore). Spares that aren't used for IDLE_SPARE_MILLIS are stopped too.
+ *
+ * @see -web_spares console option
+ * @see WebServerManager#getWebServerInstance
+ */
+
+public class WebServerSparePool {
+	private static volatile int spare_count = 1;
+	/** most spare web servers (running or starting) for all pools */
+	public static final int MAX_LIVE_SPARES = 16;
+	/** spares not used for this long are stopped */
+	public static final long IDLE_SPARE_MILLIS = 5 * 60 * 1000;
+	/** number of spares (running or starting) for all pools @see #MAX_LIVE_SPARES */
+	private static final AtomicInteger live_spares = new AtomicInteger();
+	protected final WebServerManager smgr;
+	protected final LinkedList<Spare> spares, starting;
+	/** incremented by #close so spares that finish starting after #close are stopped */
+	protected int generation;
+
+	public WebServerSparePool(WebServerManager smgr) {
+		this.smgr = smgr;
+		spares = new LinkedList<Spare>();
+		starting = new LinkedList<Spare>();
+	}
+
+	/** sets number of spare web servers to keep running for each PhpIni and ENV. 0 to disable.
+	 *
+	 * @see -web_spares console option
+	 * @param _spare_count
+	 */
+	public static void setSpareCount(int _spare_count) {
+		spare_count = Math.max(0, _spare_count);
+	}
+
+	public static int getSpareCount() {
+		return spare_count;
+	}
+
+	/** what a spare web server was started for */
+	protected static class Spare {
+		protected final FileSystemScenario fs;
+		protected final AHost host;
+		protected final ScenarioSet scenario_set;
+		protected final PhpBuild build;
+		protected final PhpIni ini;
+		protected final Map<String,String> env;
+		protected final String docroot;
+		protected final int generation;
+		protected WebServerInstance instance;
+		/** when spare was added to #spares */
+		protected long ready_millis;
+
+		protected Spare(int generation, FileSystemScenario fs, AHost host, ScenarioSet scenario_set, PhpBuild build, PhpIni ini, @Nullable Map<String,String> env, String docroot) {
+			this.generation = generation;
+			this.fs = fs;
+			this.host = host;
+			this.scenario_set = scenario_set;
+			this.build = build;
+			this.ini = ini;
+			// IMPORTANT: copy. caller may change it after this
+			this.env = env==null ? null : new HashMap<String,String>(env);
+			this.docroot = docroot;
+		}
+
+		protected boolean matches(AHost host, ScenarioSet scenario_set, PhpBuild build, PhpIni ini, @Nullable Map<String,String> env, String docroot) {
+			return this.host==host
+					&& this.scenario_set==scenario_set
+					&& this.build==build
+					&& StringUtil.equalsCS(this.docroot, docroot)
+					&& PhptTestCase.isEquivalentForTestCase(this.ini, ini)
+					&& WebServerManager.equalsOrCommonValues(this.env, env);
+		}
+	} // end protected static class Spare
+
+	/** returns TRUE if this pool can start spares for its WebServerManager */
+	public boolean isEnabled() {
+		return spare_count > 0 && smgr.allowConcurrentWebServerSAPIInstances();
+	}
+
+	/** returns a running spare web server that was started with the same PhpIni, ENV, etc... or NULL if none.
+	 *
+	 * starts another spare in the background to replace it.
+	 *
+	 * @param cm
+	 * @param fs
+	 * @param host
+	 * @param scenario_set
+	 * @param build
+	 * @param ini
+	 * @param env
+	 * @param docroot
+	 * @return
+	 */
+	@Nullable
+	public WebServerInstance take(ConsoleManager cm, FileSystemScenario fs, AHost host, ScenarioSet scenario_set, PhpBuild build, PhpIni ini, @Nullable Map<String,String> env, String docroot) {
+		if (!isEnabled())
+			return null;
+		WebServerInstance found = null;
+		LinkedList<WebServerInstance> dead;
+		synchronized(spares) {
+			dead = evictIdle(null);
+			Iterator<Spare> it = spares.iterator();
+			while (it.hasNext()) {
+				Spare s = it.next();
+				if (!s.matches(host, scenario_set, build, ini, env, docroot))
+					continue;
+				it.remove();
+				live_spares.decrementAndGet();
+				if (s.instance.isRunning()) {
+					found = s.instance;
+					break;
+				}
+				// spare crashed or exited while waiting
+				if (dead==null)
+					dead = new LinkedList<WebServerInstance>();
+				dead.add(s.instance);
+			}
+		}
+		if (dead!=null) {
+			for ( WebServerInstance w : dead )
+				w.close(cm);
+		}
+		if (found!=null)
+			// replace the spare that was just used
+			fill(cm, fs, host, scenario_set, build, ini, env, docroot);
+		return found;
+	} // end public WebServerInstance take
+
+	/** starts spare web servers in the background (if there aren't enough for this PhpIni and ENV already)
+	 *
+	 * @param cm
+	 * @param fs
+	 * @param host
+	 * @param scenario_set
+	 * @param build
+	 * @param ini
+	 * @param env
+	 * @param docroot
+	 */
+	public void fill(final ConsoleManager cm, FileSystemScenario fs, AHost host, ScenarioSet scenario_set, PhpBuild build, PhpIni ini, @Nullable Map<String,String> env, String docroot) {
+		if (!isEnabled())
+			return;
+		LinkedList<WebServerInstance> evicted;
+		LinkedList<Spare> to_start = null;
+		synchronized(spares) {
+			evicted = evictIdle(null);
+			int need = spare_count - count(spares, host, scenario_set, build, ini, env, docroot) - count(starting, host, scenario_set, build, ini, env, docroot);
+			for ( ; need > 0 ; need-- ) {
+				if (!reserve()) {
+					// make room by stopping the spare that has been waiting longest (oldest is first)
+					if (spares.isEmpty())
+						break;
+					Spare old = spares.removeFirst();
+					live_spares.decrementAndGet();
+					if (evicted==null)
+						evicted = new LinkedList<WebServerInstance>();
+					evicted.add(old.instance);
+					if (!reserve())
+						break;
+				}
+				Spare s = new Spare(generation, fs, host, scenario_set, build, ini, env, docroot);
+				starting.add(s);
+				if (to_start==null)
+					to_start = new LinkedList<Spare>();
+				to_start.add(s);
+			}
+		}
+		if (evicted!=null) {
+			for ( WebServerInstance w : evicted )
+				w.close(cm);
+		}
+		if (to_start==null)
+			return;
+		for ( final Spare s : to_start ) {
+			TimerUtil.runThread("WebServerSpare", new Runnable() {
+					public void run() {
+						start(cm, s);
+					}
+				});
+		}
+	} // end public void fill
+	
+	/** counts another spare towards #MAX_LIVE_SPARES
+	 * 
+	 * @return FALSE if there are already MAX_LIVE_SPARES
+	 */
+	protected static boolean reserve() {
+		while (true) {
+			int c = live_spares.get();
+			if (c >= MAX_LIVE_SPARES)
+				return false;
+			if (live_spares.compareAndSet(c, c+1))
+				return true;
+		}
+	}
+	
+	/** removes spares that haven't been used for IDLE_SPARE_MILLIS. must hold lock on #spares
+	 * 
+	 * @param evicted - list to add evicted web servers to (to be closed without holding the lock) or NULL
+	 * @return evicted (or a new list if any were evicted)
+	 */
+	protected LinkedList<WebServerInstance> evictIdle(LinkedList<WebServerInstance> evicted) {
+		final long cutoff = System.currentTimeMillis() - IDLE_SPARE_MILLIS;
+		Iterator<Spare> it = spares.iterator();
+		while (it.hasNext()) {
+			Spare s = it.next();
+			if (s.ready_millis > cutoff)
+				continue;
+			it.remove();
+			live_spares.decrementAndGet();
+			if (evicted==null)
+				evicted = new LinkedList<WebServerInstance>();
+			evicted.add(s.instance);
+		}
+		return evicted;
+	}
+
+	protected void start(ConsoleManager cm, Spare s) {
+		WebServerInstance w = null;
+		try {
+			// start like a replacement web server (checks that it responds to HTTP, not just TCP)
+			//
+			// IMPORTANT: give it a copy. WebServerManager#prepareENV adds to the ENV (then it wouldn't match anymore)
+			w = smgr.createWebServerInstance(cm, s.fs, s.host, s.scenario_set, s.build, s.ini, s.env==null?null:new HashMap<String,String>(s.env), s.docroot, false, "Spare", true);
+		} catch ( Throwable t ) {
+			ConsoleManagerUtil.printStackTrace(WebServerSparePool.class, cm, t);
+		}
+		boolean keep = false;
+		synchronized(spares) {
+			starting.remove(s);
+			if (w!=null && s.generation==generation && w.isRunning()) {
+				s.instance = w;
+				s.ready_millis = System.currentTimeMillis();
+				spares.add(s);
+				keep = true;
+			} else {
+				live_spares.decrementAndGet();
+			}
+		}
+		if (!keep && w!=null)
+			w.close(cm);
+	} // end protected void start
+
+	protected static int count(LinkedList<Spare> list, AHost host, ScenarioSet scenario_set, PhpBuild build, PhpIni ini, @Nullable Map<String,String> env, String docroot) {
+		int c = 0;
+		for ( Spare s : list ) {
+			if (s.matches(host, scenario_set, build, ini, env, docroot))
+				c++;
+		}
+		return c;
+	}
+
+	/** stops all spare web servers. any spares still starting will be stopped once they've started */
+	public void close(ConsoleManager cm) {
+		LinkedList<Spare> to_close;
+		synchronized(spares) {
+			generation++;
+			to_close = new LinkedList<Spare>(spares);
+			spares.clear();
+			live_spares.addAndGet(-to_close.size());
+		}
+		for ( Spare s : to_close )
+			s.instance.close(cm);
+	}
+
+} // end public class WebServerSparePool
@@ -1,5 +1,6 @@
 package com.mostc.pftt.results;
 
+import java.util.BitSet;
 import java.util.List;
 
 import com.mostc.pftt.model.app.EPhpUnitTestStatus;
@@ -37,5 +38,15 @@ public abstract class AbstractPhpUnitRW extends AbstractTestResultRW {
 	public boolean isTestStatus(String test_name, EPhpUnitTestStatus status) {
 		return getTestNames(status).contains(test_name);
 	}
+	public boolean isTestStatus(TestNameIndex index, String test_name, EPhpUnitTestStatus status) {
+		// creating the BitSet adds all the test names to the index, so do that before looking up the ID
+		BitSet bits = getTestNames(index, status);
+		int id = index.findId(test_name);
+		return id != -1 && bits.get(id);
+	}
+	/** returns BitSet of tests with the given status @see TestNameIndex */
+	public BitSet getTestNames(TestNameIndex index, EPhpUnitTestStatus status) {
+		return getTestNameBitSet(index, status, getTestNames(status));
+	}
 	
 } // end public abstract class AbstractPhpUnitRW
@@ -1,5 +1,6 @@
 package com.mostc.pftt.results;
 
+import java.util.BitSet;
 import java.util.List;
 
 import com.mostc.pftt.model.core.EBuildBranch;
@@ -25,6 +26,16 @@ public abstract class AbstractPhptRW extends AbstractTestResultRW {
 	public boolean isTestStatus(String test_name, EPhptTestStatus status) {
 		return getTestNames(status).contains(test_name);
 	}
+	public boolean isTestStatus(TestNameIndex index, String test_name, EPhptTestStatus status) {
+		// creating the BitSet adds all the test names to the index, so do that before looking up the ID
+		BitSet bits = getTestNames(index, status);
+		int id = index.findId(test_name);
+		return id != -1 && bits.get(id);
+	}
+	/** returns BitSet of tests with the given status @see TestNameIndex */
+	public BitSet getTestNames(TestNameIndex index, EPhptTestStatus status) {
+		return getTestNameBitSet(index, status, getTestNames(status));
+	}
 	
 	protected void check(EPhptTestStatus status, List<String> names) {
 		/*if (status==EPhptTestStatus.FAIL) {
@@ -1,14 +1,67 @@
 package com.mostc.pftt.results;
 
 import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
 
 import com.mostc.pftt.model.core.PhpBuildInfo;
 
 public abstract class AbstractTestResultRW {
+	/** status -> BitSet of test names with that status @see #getTestNameBitSet */
+	protected final HashMap<Object,CachedBitSet> bitset_map = new HashMap<Object,CachedBitSet>();
+	protected TestNameIndex bitset_index;
+	
+	protected static class CachedBitSet {
+		protected final BitSet bits;
+		protected final List<String> test_names;
+		protected final long mod_count;
+		
+		protected CachedBitSet(BitSet bits, List<String> test_names, long mod_count) {
+			this.bits = bits;
+			this.test_names = test_names;
+			this.mod_count = mod_count;
+		}
+	} // end protected static class CachedBitSet
+	
 	public abstract String getOSName();
 	public abstract String getScenarioSetNameWithVersionInfo();
 	public abstract PhpBuildInfo getBuildInfo();
 	public abstract void close() throws IOException;
 	public abstract float passRate();
 	public abstract String getPath();
+	
+	/** returns number of times the list of test names with the given status has been changed. Writers must
+	 * override this, since they add test names to the same list while tests are run.
+	 * 
+	 * @param status
+	 * @return
+	 */
+	protected long getTestNamesModCount(Object status) {
+		return 0;
+	}
+	
+	/** returns BitSet (from the TestNameIndex) of the given test names. BitSet is cached until list of test names changes
+	 * (@see #getTestNamesModCount) or a different TestNameIndex is used.
+	 * 
+	 * @param index
+	 * @param status
+	 * @param test_names
+	 * @return
+	 */
+	protected synchronized BitSet getTestNameBitSet(TestNameIndex index, Object status, List<String> test_names) {
+		if (bitset_index!=index) {
+			bitset_map.clear();
+			bitset_index = index;
+		}
+		// read before the list: if the list is changed while the BitSet is created, it'll be created again next time
+		final long mod_count = getTestNamesModCount(status);
+		CachedBitSet cached = bitset_map.get(status);
+		// if this is a writer, more tests may have been added to the list since
+		if (cached==null || cached.test_names!=test_names || cached.mod_count!=mod_count) {
+			cached = new CachedBitSet(index.toBitSet(test_names), test_names, mod_count);
+			bitset_map.put(status, cached);
+		}
+		return cached.bits;
+	}
 }
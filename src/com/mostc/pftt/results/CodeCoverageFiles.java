@@ -0,0 +1,106 @@
+package com.mostc.pftt.results;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.annotation.Nullable;
+
+import com.mostc.pftt.host.AHost;
+
+/** Gives each PHP file that code coverage was recorded for a small int ID, and shares the PHP code of those files.
+ *
+ * All TestCaseCodeCoverages use the same IDs, so code coverage of tests (or scenario sets) can be merged by ID
+ * (@see CodeCoverageSummary) and each filename String is stored only once for the whole test run.
+ *
+ * The PHP code of a file is only read when it is needed (@see TestCaseCodeCoverage#serial) and is then shared with
+ * all other tests that ran that file, instead of every test reading it again. The PHP code is only softly referenced,
+ * so the JVM can free it if memory is needed (it'll be read again if needed again).
+ *
+ * Thread-safe.
+ *
+ * @see TestCaseCodeCoverage
+ */
+
+public final class CodeCoverageFiles {
+	private static final HashMap<String,Integer> ids = new HashMap<String,Integer>(1024);
+	private static final ArrayList<String> names = new ArrayList<String>(1024);
+	private static final ArrayList<SourceRef> sources = new ArrayList<SourceRef>(1024);
+
+	private CodeCoverageFiles() {}
+
+	private static class SourceRef extends SoftReference<String> {
+		/** host the code was read from (same filename may have different code on a different host) */
+		private final AHost host;
+
+		private SourceRef(AHost host, String php_code) {
+			super(php_code);
+			this.host = host;
+		}
+	} // end private static class SourceRef
+
+	/** returns ID of file, adding it if needed
+	 *
+	 * @param filename
+	 * @return
+	 */
+	public static synchronized int getId(String filename) {
+		Integer id = ids.get(filename);
+		if (id==null) {
+			id = names.size();
+			names.add(filename);
+			sources.add(null);
+			ids.put(filename, id);
+		}
+		return id;
+	}
+
+	/** returns ID of file or -1 if no code coverage was recorded for it (doesn't add it)
+	 *
+	 * @param filename
+	 * @return
+	 */
+	public static synchronized int findId(String filename) {
+		Integer id = ids.get(filename);
+		return id == null ? -1 : id;
+	}
+
+	public static synchronized String getName(int id) {
+		return names.get(id);
+	}
+
+	public static synchronized int size() {
+		return names.size();
+	}
+
+	/** returns the PHP code of the file, reading it from the host if it hasn't been read already
+	 *
+	 * @param host
+	 * @param id
+	 * @return - NULL if file couldn't be read
+	 */
+	@Nullable
+	public static String getPhpCode(@Nullable AHost host, int id) {
+		String filename;
+		synchronized(CodeCoverageFiles.class) {
+			SourceRef ref = sources.get(id);
+			if (ref!=null && (ref.host==host||host==null)) {
+				String php_code = ref.get();
+				if (php_code!=null)
+					return php_code;
+			}
+			filename = names.get(id);
+		}
+		if (host==null)
+			return null;
+		// read without holding the lock (may be a remote host)
+		String php_code = host.mReadFileAsStringEx(filename);
+		if (php_code!=null) {
+			synchronized(CodeCoverageFiles.class) {
+				sources.set(id, new SourceRef(host, php_code));
+			}
+		}
+		return php_code;
+	}
+
+} // end public final class CodeCoverageFiles
@@ -3,13 +3,24 @@ package com.mostc.pftt.results;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 
+import javax.annotation.Nullable;
+
 import org.kxml2.io.KXmlSerializer;
 import org.xmlpull.v1.XmlSerializer;
 
 import com.mostc.pftt.scenario.ScenarioSet;
 
+/** Code coverage of all tests of each scenario set.
+ * 
+ * Line states of each file are merged (by CodeCoverageFiles ID) from all tests, so a line counts as executed once, if any
+ * test executed it (instead of adding up the line counts of each test, which counts the same lines again for each test).
+ * 
+ * @see TestCaseCodeCoverage
+ */
+
 public class CodeCoverageSummary implements ISerializer {
 	protected final HashMap<ScenarioSet,ScenarioSetCoverage> cov_map;
 	protected final String test_pack_name_and_version;
@@ -20,7 +31,13 @@ public class CodeCoverageSummary implements ISerializer {
 	}
 	
 	public class ScenarioSetCoverage {
-		protected int class_count, method_count, line_count, class_exe, method_exe, line_exe;
+		protected int class_count, method_count, class_exe, method_exe;
+		/** line states of each file, indexed by CodeCoverageFiles ID (NULL if file not run) */
+		protected final ArrayList<LineStateBitmap> file_lines;
+		
+		public ScenarioSetCoverage() {
+			file_lines = new ArrayList<LineStateBitmap>();
+		}
 		
 		public int getTotalClassCount() {
 			return class_count;
@@ -29,7 +46,12 @@ public class CodeCoverageSummary implements ISerializer {
 			return method_count;
 		}
 		public int getTotalLineCount() {
-			return line_count;
+			int c = 0;
+			for ( LineStateBitmap lines : file_lines ) {
+				if (lines!=null)
+					c += lines.countExecutable();
+			}
+			return c;
 		}
 		public int getExecutedClassCount() {
 			return class_exe;
@@ -38,7 +60,23 @@ public class CodeCoverageSummary implements ISerializer {
 			return method_exe;
 		}
 		public int getExecutedLineCount() {
-			return line_exe;
+			int c = 0;
+			for ( LineStateBitmap lines : file_lines ) {
+				if (lines!=null)
+					c += lines.countExecuted();
+			}
+			return c;
+		}
+		
+		protected void merge(int file_id, LineStateBitmap lines) {
+			while (file_lines.size() <= file_id)
+				file_lines.add(null);
+			LineStateBitmap these_lines = file_lines.get(file_id);
+			if (these_lines==null)
+				// copy: don't change the test's (or other scenario set's) bitmap when merging more into this one
+				file_lines.set(file_id, new LineStateBitmap(lines));
+			else
+				these_lines.merge(lines);
 		}
 		
 		public void add(TestCaseCodeCoverage cc) {
@@ -46,8 +84,20 @@ public class CodeCoverageSummary implements ISerializer {
 			class_exe += cc.getExecutedClassCount();
 			method_count += cc.getTotalMethodCount();
 			method_exe += cc.getExecutedMethodCount();
-			line_count += cc.getTotalLineCount();
-			line_exe += cc.getExecutedLineCount();
+			for ( int i=0 ; i < cc.getFileCount() ; i++ )
+				merge(cc.getFileId(i), cc.getLineStates(i));
+		}
+		
+		/** merges code coverage of another scenario set into this one */
+		public void add(ScenarioSetCoverage other) {
+			class_count += other.class_count;
+			class_exe += other.class_exe;
+			method_count += other.method_count;
+			method_exe += other.method_exe;
+			for ( int file_id=0 ; file_id < other.file_lines.size() ; file_id++ ) {
+				if (other.file_lines.get(file_id)!=null)
+					merge(file_id, other.file_lines.get(file_id));
+			}
 		}
 		
 		public float classCoverage() {
@@ -59,11 +109,14 @@ public class CodeCoverageSummary implements ISerializer {
 		}
 		
 		public float lineCoverage() {
-			return 100.0f * ((float)line_exe) / ((float)line_count);
+			return 100.0f * ((float)getExecutedLineCount()) / ((float)getTotalLineCount());
 		}
 	}
 	
-	public void addTestCase(ScenarioSet scenario_set, TestCaseCodeCoverage cc) {
+	public synchronized void addTestCase(ScenarioSet scenario_set, @Nullable TestCaseCodeCoverage cc) {
+		if (cc==null)
+			// test not run with code coverage
+			return;
 		ScenarioSetCoverage cov = cov_map.get(scenario_set);
 		if (cov==null) {
 			cov = new ScenarioSetCoverage();
@@ -73,29 +126,43 @@ public class CodeCoverageSummary implements ISerializer {
 		cov.add(cc);
 	}
 	
+	/** returns code coverage of all scenario sets merged together */
+	public synchronized ScenarioSetCoverage getAllScenarioSetsCoverage() {
+		ScenarioSetCoverage all = new ScenarioSetCoverage();
+		for ( ScenarioSetCoverage cov : cov_map.values() )
+			all.add(cov);
+		return all;
+	}
+	
 	@Override
-	public void serial(XmlSerializer serial) throws IllegalArgumentException, IllegalStateException, IOException {
-		ScenarioSetCoverage cov;
+	public synchronized void serial(XmlSerializer serial) throws IllegalArgumentException, IllegalStateException, IOException {
 		serial.startTag("pftt", "codeCoverageSummary");
 		for ( ScenarioSet scenario_set : cov_map.keySet() ) {
-			cov = cov_map.get(scenario_set);
-			
 			serial.startTag("pftt", "scenarioSetCoverage");
 			serial.attribute("pftt", "scenario_set", scenario_set.getName());
-			serial.attribute("pftt", "classCoveragePercent", Float.toString(cov.classCoverage()));
-			serial.attribute("pftt", "methodCoveragePercent", Float.toString(cov.methodCoverage()));
-			serial.attribute("pftt", "lineCoveragePercent", Float.toString(cov.lineCoverage()));
-			serial.attribute("pftt", "totalClassCount", Integer.toString(cov.getTotalClassCount()));
-			serial.attribute("pftt", "totalMethodCount", Integer.toString(cov.getTotalMethodCount()));
-			serial.attribute("pftt", "totalLineCount", Integer.toString(cov.getTotalLineCount()));
-			serial.attribute("pftt", "executedClassCount", Integer.toString(cov.getExecutedClassCount()));
-			serial.attribute("pftt", "executedMethodCount", Integer.toString(cov.getExecutedMethodCount()));
-			serial.attribute("pftt", "executedLineCount", Integer.toString(cov.getExecutedLineCount()));
+			serialAttributes(serial, cov_map.get(scenario_set));
 			serial.endTag("pftt", "scenarioSetCoverage");
 		}
+		if (cov_map.size() > 1) {
+			serial.startTag("pftt", "allScenarioSetsCoverage");
+			serialAttributes(serial, getAllScenarioSetsCoverage());
+			serial.endTag("pftt", "allScenarioSetsCoverage");
+		}
 		serial.endTag("pftt", "codeCoverageSummary");
 	} // end public void serial
 	
+	protected static void serialAttributes(XmlSerializer serial, ScenarioSetCoverage cov) throws IllegalArgumentException, IllegalStateException, IOException {
+		serial.attribute("pftt", "classCoveragePercent", Float.toString(cov.classCoverage()));
+		serial.attribute("pftt", "methodCoveragePercent", Float.toString(cov.methodCoverage()));
+		serial.attribute("pftt", "lineCoveragePercent", Float.toString(cov.lineCoverage()));
+		serial.attribute("pftt", "totalClassCount", Integer.toString(cov.getTotalClassCount()));
+		serial.attribute("pftt", "totalMethodCount", Integer.toString(cov.getTotalMethodCount()));
+		serial.attribute("pftt", "totalLineCount", Integer.toString(cov.getTotalLineCount()));
+		serial.attribute("pftt", "executedClassCount", Integer.toString(cov.getExecutedClassCount()));
+		serial.attribute("pftt", "executedMethodCount", Integer.toString(cov.getExecutedMethodCount()));
+		serial.attribute("pftt", "executedLineCount", Integer.toString(cov.getExecutedLineCount()));
+	}
+	
 	public void close(File dir) {
 		try {
 			KXmlSerializer serial = new KXmlSerializer();
@@ -106,5 +106,34 @@ public interface ConsoleManager {
 	public boolean isIgnoreOutput();
 	public String getDebuggerName();
 	public DebuggerManager getDebuggerManager();
+	/** number of threads to write results with (results for different scenario sets and test-packs
+	 * are written in parallel)
+	 * 
+	 * @see -result_writer_threads console option
+	 * @return
+	 */
+	@Nonnegative
+	public int getResultWriterThreadCount();
+	/** should results be written to one indexed segment file per scenario set instead of 1 file per result
+	 * 
+	 * @see -result_pack_segment console option
+	 * @see ResultPackSegment
+	 * @return
+	 */
+	public boolean isResultPackSegment();
+	/** should EXPECTF sections be matched with the linear-time matcher instead of the (backtracking) regular expression
+	 * 
+	 * @see -linear_expectf console option
+	 * @see PhptExpectFMatcher
+	 * @return
+	 */
+	public boolean isLinearExpectF();
+	/** number of scenario sets to run at the same time on each host (sharing the same number of test threads)
+	 * 
+	 * @see -concurrent_scenario_sets console option
+	 * @see TestThreadBudget
+	 * @return
+	 */
+	public int getConcurrentScenarioSets();
 	
 } // end public class ConsoleManager
@@ -0,0 +1,166 @@
+package com.mostc.pftt.results;
+
+import com.mostc.pftt.results.TestCaseCodeCoverage.ELineState;
+
+/** Stores the code coverage state of each line of 1 PHP file using 2 bits per line (32 lines per long).
+ *
+ * A file with 1000 lines uses 256 bytes, instead of a HashMap entry, boxed Integer and ELineState for each line.
+ *
+ * States are ordered UNKNOWN < NOT_EXECUTABLE < NOT_EXECUTED < EXECUTED. Merging 2 bitmaps (ex: coverage of 2 tests or
+ * of 2 scenario sets) keeps the highest state of each line, so a line is EXECUTED if it was executed by any test. Merging
+ * is done 32 lines at a time @see #max
+ *
+ * Not thread-safe.
+ *
+ * @see TestCaseCodeCoverage
+ * @see CodeCoverageSummary
+ */
+
+public class LineStateBitmap {
+	public static final int UNKNOWN = 0;
+	public static final int NOT_EXECUTABLE = 1;
+	public static final int NOT_EXECUTED = 2;
+	public static final int EXECUTED = 3;
+	/** low bit of each line's 2 bits */
+	protected static final long LO_MASK = 0x5555555555555555L;
+	/** high bit of each line's 2 bits. set for NOT_EXECUTED and EXECUTED (executable lines) */
+	protected static final long HI_MASK = 0xAAAAAAAAAAAAAAAAL;
+	protected long[] words;
+
+	public LineStateBitmap() {
+		// 128 lines. grows as needed
+		words = new long[4];
+	}
+
+	public LineStateBitmap(LineStateBitmap other) {
+		words = other.words.clone();
+	}
+
+	public static int toState(ELineState state) {
+		switch(state) {
+		case EXECUTED:
+			return EXECUTED;
+		case NOT_EXECUTED:
+			return NOT_EXECUTED;
+		case NOT_EXECUTABLE:
+			return NOT_EXECUTABLE;
+		default:
+			return UNKNOWN;
+		}
+	}
+
+	public static ELineState toLineState(int state) {
+		switch(state) {
+		case EXECUTED:
+			return ELineState.EXECUTED;
+		case NOT_EXECUTED:
+			return ELineState.NOT_EXECUTED;
+		case NOT_EXECUTABLE:
+			return ELineState.NOT_EXECUTABLE;
+		default:
+			return ELineState.UNKNOWN;
+		}
+	}
+
+	public int get(int line_num) {
+		final int w = line_num >>> 5;
+		if (line_num < 0 || w >= words.length)
+			return UNKNOWN;
+		return (int) ( ( words[w] >>> ((line_num & 31) << 1) ) & 3 );
+	}
+
+	/** sets state of line, unless the line already has a higher state (@see #merge)
+	 *
+	 * @param line_num
+	 * @param state
+	 */
+	public void set(int line_num, int state) {
+		if (line_num < 0)
+			return;
+		final int w = line_num >>> 5;
+		ensureWords(w + 1);
+		final int shift = (line_num & 31) << 1;
+		if (((words[w] >>> shift) & 3) < state)
+			words[w] = ( words[w] & ~(3L << shift) ) | ( ((long)(state & 3)) << shift );
+	}
+
+	protected void ensureWords(int len) {
+		if (words.length >= len)
+			return;
+		long[] n = new long[Math.max(len, words.length * 2)];
+		System.arraycopy(words, 0, n, 0, words.length);
+		words = n;
+	}
+
+	/** merges the other bitmap into this one, keeping the highest state of each line
+	 *
+	 * @param other
+	 */
+	public void merge(LineStateBitmap other) {
+		ensureWords(other.words.length);
+		for ( int i=0 ; i < other.words.length ; i++ )
+			words[i] = max(words[i], other.words[i]);
+	}
+
+	/** returns the highest state of each of the 32 lines in A and B */
+	protected static long max(long a, long b) {
+		final long a_hi = a & HI_MASK, b_hi = b & HI_MASK;
+		// lines where the high bit decides
+		final long a_wins = a_hi & ~b_hi, b_wins = b_hi & ~a_hi;
+		// lines where high bits are the same: low bit is set if set in either
+		final long same = ~( a_wins | b_wins ) & HI_MASK;
+		return ( a & spread(a_wins) ) | ( b & spread(b_wins) ) | ( (a | b) & spread(same) );
+	}
+
+	/** copies each high bit to the low bit of the same line */
+	protected static long spread(long hi_bits) {
+		return hi_bits | ( hi_bits >>> 1 );
+	}
+
+	/** returns number of lines that are NOT_EXECUTED or EXECUTED */
+	public int countExecutable() {
+		int c = 0;
+		for ( long w : words )
+			c += Long.bitCount(w & HI_MASK);
+		return c;
+	}
+
+	/** returns number of lines that are EXECUTED */
+	public int countExecuted() {
+		int c = 0;
+		for ( long w : words )
+			c += Long.bitCount(w & ( w >>> 1 ) & LO_MASK);
+		return c;
+	}
+
+	/** returns the first line number >= line_num that isn't UNKNOWN or -1 if none
+	 *
+	 * @param line_num
+	 * @return
+	 */
+	public int nextLine(int line_num) {
+		if (line_num < 0)
+			line_num = 0;
+		int w = line_num >>> 5;
+		if (w >= words.length)
+			return -1;
+		// 1 bit (low bit) for each line that isn't UNKNOWN, skipping lines before line_num
+		long known = ( words[w] | ( words[w] >>> 1 ) ) & LO_MASK & ( -1L << ((line_num & 31) << 1) );
+		while (true) {
+			if (known != 0)
+				return ( w << 5 ) + ( Long.numberOfTrailingZeros(known) >>> 1 );
+			if (++w >= words.length)
+				return -1;
+			known = ( words[w] | ( words[w] >>> 1 ) ) & LO_MASK;
+		}
+	}
+
+	public boolean isEmpty() {
+		for ( long w : words ) {
+			if (w != 0)
+				return false;
+		}
+		return true;
+	}
+
+} // end public class LineStateBitmap
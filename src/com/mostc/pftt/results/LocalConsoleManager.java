@@ -34,6 +34,10 @@ public class LocalConsoleManager implements ConsoleManager {
 	protected final int run_test_times_all, run_test_pack, run_test_times_list_times, run_group_times, run_group_times_list_times, max_test_read_count, thread_count, delay_between_ms, suspend_seconds, run_count;
 	protected final long max_run_time_millis;
 	protected final String debugger_name;
+	protected final int concurrent_scenario_sets;
+	protected final boolean linear_expectf;
+	protected final boolean result_pack_segment;
+	protected final int result_writer_threads;
 	protected final DebuggerManager db_mgr;
 	protected String source_pack;
 	protected PhpDebugPack debug_pack;
@@ -43,10 +47,10 @@ public class LocalConsoleManager implements ConsoleManager {
 	protected List<String> debug_list, run_test_times_list, run_group_times_list, skip_list;
 		
 	public LocalConsoleManager() {
-		this(null, null, false, false, false, false, true, false, true, false, true, false, 1, 1, true, 1, 1, 1, null, null, null, null, false, 0, 0, false, false, 0, 0, 0, false, 0, false, false, null);
+		this(null, null, false, false, false, false, true, false, true, false, true, false, 1, 1, true, 1, 1, 1, null, null, null, null, false, 0, 0, false, false, 0, 0, 0, false, 0, false, false, null, 1, false, false, 1);
 	}
 	
-	public LocalConsoleManager(String source_pack, PhpDebugPack debug_pack, boolean overwrite, boolean debug_all, boolean results_only, boolean show_gui, boolean disable_debug_prompt, boolean dont_cleanup_test_pack, boolean phpt_not_in_place, boolean pftt_debug, boolean no_result_file_for_pass_xskip_skip, boolean randomize_order, int run_test_times_all, int run_test_pack, boolean thread_safety, int run_test_times_list_times, int run_group_times, int run_group_times_list_times, List<String> debug_list, List<String> run_test_times_list, List<String> run_group_times_list, List<String> skip_list, boolean skip_smoke_tests, int max_test_read_count, int thread_count, boolean restart_each_test_all, boolean no_restart_all, int delay_between_ms, int run_count, int suspend_seconds, boolean ini_actual_all, long max_run_time_millis, boolean non_interactive, boolean ignore_output, String debugger_name) {
+	public LocalConsoleManager(String source_pack, PhpDebugPack debug_pack, boolean overwrite, boolean debug_all, boolean results_only, boolean show_gui, boolean disable_debug_prompt, boolean dont_cleanup_test_pack, boolean phpt_not_in_place, boolean pftt_debug, boolean no_result_file_for_pass_xskip_skip, boolean randomize_order, int run_test_times_all, int run_test_pack, boolean thread_safety, int run_test_times_list_times, int run_group_times, int run_group_times_list_times, List<String> debug_list, List<String> run_test_times_list, List<String> run_group_times_list, List<String> skip_list, boolean skip_smoke_tests, int max_test_read_count, int thread_count, boolean restart_each_test_all, boolean no_restart_all, int delay_between_ms, int run_count, int suspend_seconds, boolean ini_actual_all, long max_run_time_millis, boolean non_interactive, boolean ignore_output, String debugger_name, int result_writer_threads, boolean result_pack_segment, boolean linear_expectf, int concurrent_scenario_sets) {
 		this.source_pack = source_pack;
 		this.debug_pack = debug_pack;
 		this.overwrite = overwrite;
@@ -82,6 +86,10 @@ public class LocalConsoleManager implements ConsoleManager {
 		this.non_interactive = non_interactive;
 		this.ignore_output = ignore_output;
 		this.debugger_name = debugger_name;
+		this.result_writer_threads = result_writer_threads;
+		this.result_pack_segment = result_pack_segment;
+		this.linear_expectf = linear_expectf;
+		this.concurrent_scenario_sets = concurrent_scenario_sets;
 		
 		if (LocalHost.getInstance().isWindows()) {
 			if (debugger_name==null) {
@@ -485,4 +493,24 @@ public class LocalConsoleManager implements ConsoleManager {
 		return max_run_time_millis;
 	}
 	
+	@Override
+	public int getResultWriterThreadCount() {
+		return result_writer_threads;
+	}
+	
+	@Override
+	public boolean isResultPackSegment() {
+		return result_pack_segment;
+	}
+	
+	@Override
+	public boolean isLinearExpectF() {
+		return linear_expectf;
+	}
+	
+	@Override
+	public int getConcurrentScenarioSets() {
+		return concurrent_scenario_sets;
+	}
+	
 } // end public class ConsoleManager
@@ -0,0 +1,206 @@
+package com.mostc.pftt.results;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/** Read-only list of test names in a status list file (ex: PASS.txt) that is memory-mapped
+ * instead of read into memory.
+ *
+ * Only the offset of each line is stored. A test name is only decoded into a String when #get is called.
+ * #contains and #indexOf compare the bytes of the file without creating any Strings, using a hash table of
+ * the lines that is built the first time they're called.
+ *
+ * The mapping is released (when garbage collected) after #close. Java can't unmap it right away without risking a
+ * crash if another thread is still reading it.
+ *
+ * Like PfttMain#readStringListFromFile, empty lines and comments (;#) are ignored.
+ *
+ * @see PhptResultReader
+ */
+
+public class MappedStatusList extends AbstractList<String> implements RandomAccess {
+	/** status lists are written and read with the platform default encoding (FileWriter and FileReader)
+	 * @see PhptResultWriter
+	 * @see PfttMain#readStringListFromFile */
+	protected static final Charset CHARSET = Charset.defaultCharset();
+	/** NULL after #close */
+	protected volatile MappedByteBuffer buf;
+	protected int[] starts, lengths;
+	protected int size;
+	/** open-addressing hash table of (line index + 1), 0 for empty slot. NULL until first #indexOf */
+	protected volatile int[] hash_table;
+
+	public MappedStatusList(File file) throws IOException {
+		final MappedByteBuffer buf;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel fc = raf.getChannel();
+			buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+		} finally {
+			raf.close();
+		}
+		this.buf = buf;
+
+		starts = new int[256];
+		lengths = new int[256];
+
+		// find start and length of each line
+		final int limit = buf.limit();
+		int start = 0;
+		for ( int i=0 ; i <= limit ; i++ ) {
+			if (i==limit || buf.get(i)=='\n') {
+				int end = i;
+				if (end > start && buf.get(end-1)=='\r')
+					end--;
+				if (end > start) {
+					byte first = buf.get(start);
+					if (first!=';' && first!='#')
+						addLine(start, end - start);
+				}
+				start = i + 1;
+			}
+		}
+	}
+
+	protected void addLine(int start, int length) {
+		if (size==starts.length) {
+			int[] a = new int[size*2];
+			System.arraycopy(starts, 0, a, 0, size);
+			starts = a;
+			a = new int[size*2];
+			System.arraycopy(lengths, 0, a, 0, size);
+			lengths = a;
+		}
+		starts[size] = start;
+		lengths[size] = length;
+		size++;
+	}
+
+	@Override
+	public String get(int index) {
+		if (index<0||index>=size)
+			throw new IndexOutOfBoundsException("index="+index+" size="+size);
+		final ByteBuffer buf = getBuffer();
+		byte[] b = new byte[lengths[index]];
+		for ( int i=0 ; i < b.length ; i++ )
+			b[i] = buf.get(starts[index]+i);
+		return new String(b, CHARSET);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return indexOf(o) != -1;
+	}
+
+	@Override
+	public int indexOf(Object o) {
+		if (!(o instanceof String))
+			return -1;
+		final ByteBuffer buf = getBuffer();
+		byte[] b = ((String)o).getBytes(CHARSET);
+		final int[] table = getHashTable(buf);
+		final int mask = table.length - 1;
+		for ( int slot = hash(b) & mask ; table[slot] != 0 ; slot = (slot + 1) & mask ) {
+			if (lineEquals(buf, table[slot]-1, b))
+				return table[slot]-1;
+		}
+		return -1;
+	}
+
+	protected ByteBuffer getBuffer() {
+		final ByteBuffer b = buf;
+		if (b==null)
+			throw new IllegalStateException("status list closed");
+		return b;
+	}
+
+	protected int[] getHashTable(ByteBuffer buf) {
+		int[] table = hash_table;
+		if (table!=null)
+			return table;
+		synchronized(this) {
+			if (hash_table!=null)
+				return hash_table;
+			// at most half full
+			int n = 16;
+			while (n < size * 2)
+				n <<= 1;
+			table = new int[n];
+			final int mask = n - 1;
+			for ( int i=0 ; i < size ; i++ ) {
+				int slot = hash(buf, starts[i], lengths[i]) & mask;
+				while (table[slot] != 0) {
+					if (lineEquals(buf, table[slot]-1, i))
+						// duplicate line: #indexOf returns the first
+						break;
+					slot = (slot + 1) & mask;
+				}
+				if (table[slot]==0)
+					table[slot] = i + 1;
+			}
+			hash_table = table;
+			return table;
+		}
+	}
+
+	protected static int hash(byte[] b) {
+		int h = 0;
+		for ( int i=0 ; i < b.length ; i++ )
+			h = 31 * h + b[i];
+		return mix(h);
+	}
+
+	protected static int hash(ByteBuffer buf, int start, int length) {
+		int h = 0;
+		for ( int i=0 ; i < length ; i++ )
+			h = 31 * h + buf.get(start+i);
+		return mix(h);
+	}
+
+	/** spreads the bits, since the table is indexed by the low bits */
+	protected static int mix(int h) {
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		return h ^ (h >>> 13);
+	}
+
+	protected boolean lineEquals(ByteBuffer buf, int index, int other_index) {
+		if (lengths[index]!=lengths[other_index])
+			return false;
+		for ( int i=0 ; i < lengths[index] ; i++ ) {
+			if (buf.get(starts[index]+i)!=buf.get(starts[other_index]+i))
+				return false;
+		}
+		return true;
+	}
+
+	protected boolean lineEquals(ByteBuffer buf, int index, byte[] b) {
+		if (lengths[index]!=b.length)
+			return false;
+		final int start = starts[index];
+		for ( int i=0 ; i < b.length ; i++ ) {
+			if (buf.get(start+i)!=b[i])
+				return false;
+		}
+		return true;
+	}
+
+	/** releases the mapping (once garbage collected). #get, #contains and #indexOf throw IllegalStateException after this */
+	public void close() {
+		buf = null;
+		hash_table = null;
+	}
+
+} // end public class MappedStatusList
@@ -0,0 +1,295 @@
+package com.mostc.pftt.results;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.mostc.pftt.model.core.PhpBuildInfo;
+import com.mostc.pftt.results.PerformanceResultReader.Sample;
+
+/** Compares performance results of a Base build and a Test build for each scenario set (web server, code cache, etc...),
+ * application and number of virtual clients.
+ *
+ * Each value is compared using the mean of all the runs (@see -perf_runs console option) of the test. With 2+ runs
+ * of both builds, a 95% confidence interval of the difference is computed (Welch's t-test) and a change is only
+ * significant if the interval doesn't include 0. With only 1 run of either build, there is no way to tell noise from
+ * change, so only changes bigger than GAIN_LARGE are significant.
+ *
+ * Changes are classified like the AutoCAT reports (@see PBCReportGen): within +/-3% is none, 3-7% is small and over
+ * 7% is large.
+ *
+ * @see PerformanceResultReader
+ */
+
+public class PerformanceComparison {
+	public static final double GAIN_SMALL = 0.03d;
+	public static final double GAIN_LARGE = 0.07d;
+	/** 2-sided 97.5% t-distribution quantiles for 1 to 30 degrees of freedom (for 95% confidence intervals) */
+	protected static final double[] T_975 = new double[] {
+			12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+			2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+			2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+		};
+	protected static final double Z_975 = 1.960;
+
+	public enum EGainClass {
+		NONE("none"),
+		POS_SMALL("gainpossmall"),
+		POS("gainpos"),
+		NEG_SMALL("gainnegsmall"),
+		NEG("gainneg");
+
+		/** css class used in report */
+		public final String css_class;
+
+		private EGainClass(String css_class) {
+			this.css_class = css_class;
+		}
+
+		public boolean isNeg() {
+			return this==NEG||this==NEG_SMALL;
+		}
+
+		/**
+		 *
+		 * @param gain - improvement as a fraction (ex: 0.05 == 5% better)
+		 * @return
+		 */
+		public static EGainClass classify(double gain) {
+			if (Double.isNaN(gain))
+				return NONE;
+			else if (gain > GAIN_LARGE)
+				return POS;
+			else if (gain > GAIN_SMALL)
+				return POS_SMALL;
+			else if (gain < -GAIN_LARGE)
+				return NEG;
+			else if (gain < -GAIN_SMALL)
+				return NEG_SMALL;
+			else
+				return NONE;
+		}
+	} // end public enum EGainClass
+
+	/** change of 1 value (TPS, latency) between the Base and Test builds */
+	public static class Delta {
+		public final int base_count, test_count;
+		public final double base_mean, test_mean;
+		/** change relative to Base mean. positive is better (for latency, lower is better so the sign is flipped) */
+		public final double gain;
+		/** 95% confidence interval of gain. NaN if either build was only run once */
+		public final double gain_low, gain_high;
+		public final boolean significant;
+
+		public Delta(double[] base, double[] test, boolean higher_is_better) {
+			base_count = base.length;
+			test_count = test.length;
+			base_mean = mean(base);
+			test_mean = mean(test);
+			final double sign = higher_is_better ? 1d : -1d;
+			if (base_mean==0d) {
+				gain = gain_low = gain_high = Double.NaN;
+				significant = false;
+				return;
+			}
+			gain = sign * (test_mean - base_mean) / base_mean;
+			if (base.length < 2 || test.length < 2) {
+				gain_low = gain_high = Double.NaN;
+				significant = Math.abs(gain) > GAIN_LARGE;
+				return;
+			}
+			// Welch's t-test: doesn't assume both builds have the same variance
+			double vb = variance(base, base_mean) / base.length;
+			double vt = variance(test, test_mean) / test.length;
+			double se = Math.sqrt(vb + vt);
+			double df = (vb + vt) * (vb + vt) / ( (vb*vb)/(base.length-1) + (vt*vt)/(test.length-1) );
+			double half = t975(df) * se / base_mean;
+			if (Double.isNaN(half)) {
+				// no variance in either build
+				half = 0d;
+			}
+			double a = gain - half, b = gain + half;
+			gain_low = Math.min(a, b);
+			gain_high = Math.max(a, b);
+			significant = Math.abs(gain) > GAIN_SMALL && ( gain_low > 0d || gain_high < 0d );
+		}
+
+		public EGainClass getGainClass() {
+			return significant ? EGainClass.classify(gain) : EGainClass.NONE;
+		}
+
+		public boolean isRegression() {
+			return significant && gain < -GAIN_SMALL;
+		}
+
+		public boolean hasConfidenceInterval() {
+			return !Double.isNaN(gain_low);
+		}
+	} // end public static class Delta
+
+	/** 1 application with 1 number of virtual clients in 1 scenario set */
+	public static class Row {
+		public final String test_name, key;
+		public final int virtual_clients;
+		public final Delta tps, p99_millis;
+		public final long base_errors, test_errors;
+
+		protected Row(String key, List<Sample> base, List<Sample> test) {
+			this.key = key;
+			Sample first = test.get(0);
+			test_name = first.test_name;
+			virtual_clients = first.virtual_clients;
+			double[] base_tps = new double[base.size()], base_p99 = new double[base.size()];
+			double[] test_tps = new double[test.size()], test_p99 = new double[test.size()];
+			long be = 0, te = 0;
+			for ( int i=0 ; i < base_tps.length ; i++ ) {
+				base_tps[i] = base.get(i).tps;
+				base_p99[i] = base.get(i).p99_millis;
+				be += base.get(i).error_count;
+			}
+			for ( int i=0 ; i < test_tps.length ; i++ ) {
+				test_tps[i] = test.get(i).tps;
+				test_p99[i] = test.get(i).p99_millis;
+				te += test.get(i).error_count;
+			}
+			tps = new Delta(base_tps, test_tps, true);
+			p99_millis = new Delta(base_p99, test_p99, false);
+			base_errors = be;
+			test_errors = te;
+		}
+
+		/** TRUE if TPS or 99th percentile latency got significantly worse or if Test build has errors and Base didn't */
+		public boolean isRegression() {
+			return tps.isRegression() || p99_millis.isRegression() || ( base_errors==0 && test_errors > 0 );
+		}
+	} // end public static class Row
+
+	/** all rows for 1 scenario set (ex: Apache with Opcache) */
+	public static class ScenarioSetComparison {
+		public final String host_name, scenario_set_name;
+		public final List<Row> rows;
+
+		protected ScenarioSetComparison(PerformanceResultReader base, PerformanceResultReader test) {
+			host_name = test.getHostName();
+			scenario_set_name = test.getScenarioSetNameWithVersionInfo();
+			rows = new ArrayList<Row>();
+			for ( String key : test.getKeys() ) {
+				List<Sample> base_samples = base.getSamples(key);
+				if (base_samples.isEmpty())
+					continue;
+				rows.add(new Row(key, base_samples, test.getSamples(key)));
+			}
+		}
+
+		public int getRegressionCount() {
+			int count = 0;
+			for ( Row row : rows ) {
+				if (row.isRegression())
+					count++;
+			}
+			return count;
+		}
+	} // end public static class ScenarioSetComparison
+
+	protected final PhpBuildInfo base_build_info, test_build_info;
+	protected final List<ScenarioSetComparison> scenario_sets;
+
+	/**
+	 *
+	 * @param base_build_info
+	 * @param test_build_info
+	 * @param base
+	 * @param test
+	 * @param matcher - decides which Base scenario set to compare to each Test scenario set
+	 */
+	public PerformanceComparison(PhpBuildInfo base_build_info, PhpBuildInfo test_build_info, Collection<PerformanceResultReader> base, Collection<PerformanceResultReader> test, IScenarioSetMatcher matcher) {
+		this.base_build_info = base_build_info;
+		this.test_build_info = test_build_info;
+		scenario_sets = new ArrayList<ScenarioSetComparison>(test.size());
+		for ( PerformanceResultReader t : test ) {
+			for ( PerformanceResultReader b : base ) {
+				if (matcher.matches(b.getScenarioSetNameWithVersionInfo(), t.getScenarioSetNameWithVersionInfo())) {
+					ScenarioSetComparison c = new ScenarioSetComparison(b, t);
+					if (!c.rows.isEmpty())
+						scenario_sets.add(c);
+					break;
+				}
+			}
+		}
+	}
+
+	public interface IScenarioSetMatcher {
+		boolean matches(String base_scenario_set_name, String test_scenario_set_name);
+	}
+
+	public PhpBuildInfo getBaseBuildInfo() {
+		return base_build_info;
+	}
+
+	public PhpBuildInfo getTestBuildInfo() {
+		return test_build_info;
+	}
+
+	public List<ScenarioSetComparison> getScenarioSets() {
+		return scenario_sets;
+	}
+
+	public boolean isEmpty() {
+		return scenario_sets.isEmpty();
+	}
+
+	public int getRowCount() {
+		int count = 0;
+		for ( ScenarioSetComparison c : scenario_sets )
+			count += c.rows.size();
+		return count;
+	}
+
+	public int getRegressionCount() {
+		int count = 0;
+		for ( ScenarioSetComparison c : scenario_sets )
+			count += c.getRegressionCount();
+		return count;
+	}
+
+	/** if most of the results changed by a lot, the hardware or configuration probably changed, not PHP, so
+	 * a person should review the report before it is sent out.
+	 *
+	 * @return
+	 */
+	public boolean isTooMuchChange() {
+		int large = 0, count = 0;
+		for ( ScenarioSetComparison c : scenario_sets ) {
+			for ( Row row : c.rows ) {
+				count++;
+				if (Math.abs(row.tps.gain) > GAIN_LARGE)
+					large++;
+			}
+		}
+		return count > 3 && large * 2 > count;
+	}
+
+	protected static double mean(double[] values) {
+		if (values.length==0)
+			return 0d;
+		double sum = 0d;
+		for ( double v : values )
+			sum += v;
+		return sum / values.length;
+	}
+
+	protected static double variance(double[] values, double mean) {
+		double sum = 0d;
+		for ( double v : values )
+			sum += (v - mean) * (v - mean);
+		return sum / (values.length - 1);
+	}
+
+	protected static double t975(double df) {
+		if (Double.isNaN(df) || df < 1d)
+			return T_975[0];
+		int i = (int) Math.floor(df);
+		return i > T_975.length ? Z_975 : T_975[i-1];
+	}
+
+} // end public class PerformanceComparison
@@ -0,0 +1,136 @@
+package com.mostc.pftt.results;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import com.mostc.pftt.model.core.PhpBuildInfo;
+import com.mostc.pftt.model.performance.ELoadModel;
+
+/** Reads PerformanceTestResults for 1 host and scenario set from a result-pack
+ * (reads the ALL.csv file written by PerformanceResultWriter).
+ *
+ * If a test was run more than once with the same load model and number of virtual clients (ex: -perf_runs),
+ * each run is a separate Sample with the same key.
+ *
+ * @see PerformanceResultWriter
+ */
+
+public class PerformanceResultReader {
+	protected final String host_name, scenario_set_name;
+	protected final PhpBuildInfo build_info;
+	/** key (@see #createKey) -> samples (in the order they were run) */
+	protected final LinkedHashMap<String,List<Sample>> samples;
+
+	public PerformanceResultReader(String host_name, String scenario_set_name, PhpBuildInfo build_info) {
+		this.host_name = host_name;
+		this.scenario_set_name = scenario_set_name;
+		this.build_info = build_info;
+		samples = new LinkedHashMap<String,List<Sample>>();
+	}
+
+	/** 1 row from ALL.csv @see PerformanceTestResult#CSV_HEADER */
+	public static class Sample {
+		public String test_name;
+		public ELoadModel model;
+		public int virtual_clients;
+		public long request_count, error_count;
+		public double tps, mean_millis, p50_millis, p90_millis, p99_millis, p999_millis, max_millis;
+
+		public String getKey() {
+			return createKey(test_name, model, virtual_clients);
+		}
+	}
+
+	public static String createKey(String test_name, ELoadModel model, int virtual_clients) {
+		return test_name+"-"+model+"-"+virtual_clients;
+	}
+
+	public void open(ConsoleManager cm, File dir) {
+		File all_file = new File(dir, PerformanceResultWriter.ALL_CSV);
+		if (!all_file.isFile())
+			return;
+		try {
+			BufferedReader r = new BufferedReader(new FileReader(all_file));
+			try {
+				String line = r.readLine(); // header
+				while ((line = r.readLine())!=null) {
+					Sample s = parse(line);
+					if (s==null)
+						continue;
+					List<Sample> list = samples.get(s.getKey());
+					if (list==null) {
+						list = new ArrayList<Sample>(3);
+						samples.put(s.getKey(), list);
+					}
+					list.add(s);
+				}
+			} finally {
+				r.close();
+			}
+		} catch ( IOException ex ) {
+			cm.addGlobalException(EPrintType.WARNING, getClass(), "open", ex, "unable to read performance results: "+all_file);
+		}
+	} // end public void open
+
+	protected static Sample parse(String line) {
+		String[] parts = line.split(",");
+		if (parts.length < 17)
+			return null;
+		try {
+			Sample s = new Sample();
+			s.test_name = parts[0];
+			s.model = ELoadModel.valueOf(parts[1]);
+			s.virtual_clients = Integer.parseInt(parts[2]);
+			s.request_count = Long.parseLong(parts[5]);
+			s.error_count = Long.parseLong(parts[6]) + Long.parseLong(parts[7]);
+			s.tps = Double.parseDouble(parts[10]);
+			s.mean_millis = Double.parseDouble(parts[11]);
+			s.p50_millis = Double.parseDouble(parts[12]);
+			s.p90_millis = Double.parseDouble(parts[13]);
+			s.p99_millis = Double.parseDouble(parts[14]);
+			s.p999_millis = Double.parseDouble(parts[15]);
+			s.max_millis = Double.parseDouble(parts[16]);
+			return s;
+		} catch ( IllegalArgumentException ex ) {
+			// partially written line (ex: test run was stopped)
+			return null;
+		}
+	}
+
+	public String getHostName() {
+		return host_name;
+	}
+
+	public String getScenarioSetNameWithVersionInfo() {
+		return scenario_set_name;
+	}
+
+	public PhpBuildInfo getBuildInfo() {
+		return build_info;
+	}
+
+	public List<String> getKeys() {
+		return new ArrayList<String>(samples.keySet());
+	}
+
+	public List<Sample> getSamples(String key) {
+		List<Sample> list = samples.get(key);
+		return list == null ? Collections.<Sample>emptyList() : list;
+	}
+
+	public boolean isEmpty() {
+		return samples.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return host_name+" "+scenario_set_name;
+	}
+
+} // end public class PerformanceResultReader
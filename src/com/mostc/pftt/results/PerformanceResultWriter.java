@@ -0,0 +1,53 @@
+package com.mostc.pftt.results;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/** Writes PerformanceTestResults for 1 host and scenario set into the result-pack.
+ *
+ * Layout: [result-pack]/[host]/Performance/[scenario set]/
+ *   ALL.csv - 1 row for each test and number of virtual clients @see PerformanceTestResult#CSV_HEADER
+ *   [test]-[model]-[virtual clients].csv - distribution of latencies
+ *
+ * Each result is written (and the files closed) as soon as its added (tests take minutes each, so there
+ * aren't many results).
+ *
+ * @see PhpResultPackWriter#addResult
+ */
+
+public class PerformanceResultWriter {
+	public static final String ALL_CSV = "ALL.csv";
+	protected final File dir;
+
+	public PerformanceResultWriter(File dir) {
+		this.dir = dir;
+	}
+
+	public synchronized void addResult(PerformanceTestResult result) throws IOException {
+		dir.mkdirs();
+		File all_file = new File(dir, ALL_CSV);
+		boolean new_file = !all_file.exists();
+		PrintWriter pw = new PrintWriter(new FileWriter(all_file, true));
+		try {
+			if (new_file)
+				pw.println(PerformanceTestResult.CSV_HEADER);
+			result.writeCsvRow(pw);
+		} finally {
+			pw.close();
+		}
+
+		pw = new PrintWriter(new FileWriter(new File(dir, result.test_name+"-"+result.model+"-"+result.virtual_clients+".csv")));
+		try {
+			result.latency.writeDistribution(pw);
+		} finally {
+			pw.close();
+		}
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+} // end public class PerformanceResultWriter
@@ -0,0 +1,98 @@
+package com.mostc.pftt.results;
+
+import java.io.PrintWriter;
+
+import com.mostc.pftt.model.performance.ELoadModel;
+import com.mostc.pftt.model.performance.LatencyHistogram;
+
+/** Result of running 1 PerformanceTest with 1 number of virtual clients
+ *
+ * Only requests sent after the warmup and before the cooldown are counted.
+ *
+ * @see com.mostc.pftt.model.performance.HttpLoadGenerator
+ * @see PerformanceResultWriter
+ */
+
+public class PerformanceTestResult {
+	public static final String CSV_HEADER = "test,model,virtual_clients,target_rps,duration_seconds,requests,errors,size_errors,expected_size,bytes,tps,mean_millis,p50_millis,p90_millis,p99_millis,p999_millis,max_millis";
+	public final String test_name;
+	public final ELoadModel model;
+	public final int virtual_clients;
+	/** for ELoadModel#OPEN: requests per second that were supposed to be sent (0 for CLOSED) */
+	public final double target_rps;
+	public final int duration_seconds;
+	/** requests that got the expected response */
+	public final long request_count;
+	/** requests that failed (connection failed, not status 200, etc...) */
+	public final long error_count;
+	/** requests that got status 200 but a response that wasn't the expected size (ex: application error page) */
+	public final long size_error_count;
+	public final long expected_size, byte_count;
+	/** latency of requests that got the expected response */
+	public final LatencyHistogram latency;
+
+	public PerformanceTestResult(String test_name, ELoadModel model, int virtual_clients, double target_rps, int duration_seconds, long request_count, long error_count, long size_error_count, long expected_size, long byte_count, LatencyHistogram latency) {
+		this.test_name = test_name;
+		this.model = model;
+		this.virtual_clients = virtual_clients;
+		this.target_rps = target_rps;
+		this.duration_seconds = duration_seconds;
+		this.request_count = request_count;
+		this.error_count = error_count;
+		this.size_error_count = size_error_count;
+		this.expected_size = expected_size;
+		this.byte_count = byte_count;
+		this.latency = latency;
+	}
+
+	/** transactions (successful requests) per second */
+	public double getTPS() {
+		return duration_seconds < 1 ? 0d : (double) request_count / duration_seconds;
+	}
+
+	public long getTotalErrorCount() {
+		return error_count + size_error_count;
+	}
+
+	public void writeCsvRow(PrintWriter pw) {
+		pw.print(test_name);
+		pw.print(',');
+		pw.print(model);
+		pw.print(',');
+		pw.print(virtual_clients);
+		pw.print(',');
+		pw.print(target_rps);
+		pw.print(',');
+		pw.print(duration_seconds);
+		pw.print(',');
+		pw.print(request_count);
+		pw.print(',');
+		pw.print(error_count);
+		pw.print(',');
+		pw.print(size_error_count);
+		pw.print(',');
+		pw.print(expected_size);
+		pw.print(',');
+		pw.print(byte_count);
+		pw.print(',');
+		pw.print(getTPS());
+		pw.print(',');
+		pw.print(latency.getMeanMicros() / 1000d);
+		pw.print(',');
+		pw.print(latency.getPercentileMicros(50d) / 1000d);
+		pw.print(',');
+		pw.print(latency.getPercentileMicros(90d) / 1000d);
+		pw.print(',');
+		pw.print(latency.getPercentileMicros(99d) / 1000d);
+		pw.print(',');
+		pw.print(latency.getPercentileMicros(99.9d) / 1000d);
+		pw.print(',');
+		pw.println(latency.getMaxMicros() / 1000d);
+	}
+
+	@Override
+	public String toString() {
+		return test_name+" "+model+" clients="+virtual_clients+" tps="+getTPS()+" errors="+getTotalErrorCount()+" p50="+(latency.getPercentileMicros(50d)/1000d)+"ms p99="+(latency.getPercentileMicros(99d)/1000d)+"ms";
+	}
+
+} // end public class PerformanceTestResult
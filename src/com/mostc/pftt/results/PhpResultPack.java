@@ -2,6 +2,7 @@ package com.mostc.pftt.results;
 
 import java.io.File;
 import java.util.Collection;
+import java.util.LinkedList;
 
 import com.mostc.pftt.host.AHost;
 import com.mostc.pftt.model.app.PhpUnitSourceTestPack;
@@ -127,4 +128,31 @@ public abstract class PhpResultPack {
 	public abstract Collection<String> getPhpUnitTestPacks(AHost host);
 	public abstract Collection<ScenarioSet> getPhpUnitScenarioSets(AHost host, String phpunit_test_pack);
 	
+	/** reads performance results for all hosts and scenario sets
+	 * 
+	 * @see PerformanceResultWriter
+	 * @param cm
+	 * @return
+	 */
+	public Collection<PerformanceResultReader> getPerformance(ConsoleManager cm) {
+		LinkedList<PerformanceResultReader> out = new LinkedList<PerformanceResultReader>();
+		File[] host_dirs = getResultPackPath().listFiles();
+		if (host_dirs==null)
+			return out;
+		for ( File host_dir : host_dirs ) {
+			File[] scenario_dirs = new File(host_dir, "Performance").listFiles();
+			if (scenario_dirs==null)
+				continue;
+			for ( File scenario_dir : scenario_dirs ) {
+				if (!scenario_dir.isDirectory())
+					continue;
+				PerformanceResultReader reader = new PerformanceResultReader(host_dir.getName(), scenario_dir.getName(), getBuildInfo());
+				reader.open(cm, scenario_dir);
+				if (!reader.isEmpty())
+					out.add(reader);
+			}
+		}
+		return out;
+	}
+	
 } // end public abstract class PhpResultPack
@@ -30,7 +30,22 @@ public class PhpResultPackReader extends PhpResultPack {
 	 * @throws FileNotFoundException 
 	 */
 	public static PhpResultPackReader open(ConsoleManager cm, AHost host, File result_pack_dir) throws FileNotFoundException {
-		PhpResultPackReader reader = new PhpResultPackReader(host, result_pack_dir);
+		return open(cm, host, result_pack_dir, false);
+	}
+	
+	/** opens result-pack from completed test run for reading
+	 * 
+	 * @param cm
+	 * @param host
+	 * @param result_pack_dir
+	 * @param lazy - TRUE to read PHPT, PhpUnit and UI-Test directories only when they are first accessed
+	 *             and to only read lists of test names when they are needed (and then memory-map them). 
+	 *             Use this for huge result-packs (ex: comparing 2 full result-packs) to save a lot of memory.
+	 * @return
+	 * @throws FileNotFoundException
+	 */
+	public static PhpResultPackReader open(ConsoleManager cm, AHost host, File result_pack_dir, boolean lazy) throws FileNotFoundException {
+		PhpResultPackReader reader = new PhpResultPackReader(host, result_pack_dir, cm, lazy);
 		
 		//
 		try {
@@ -46,26 +61,11 @@ public class PhpResultPackReader extends PhpResultPack {
 		reader.test_pack_branch = reader.build_info.getBuildBranch(); // TODO
 		reader.test_pack_version = reader.build_info.getVersionRevision(); // TODO
 		
-		File[] files = result_pack_dir.listFiles();
-		if (files!=null) {
-			String host_name;
-			for ( File host_dir : files ) {
-				if (!host_dir.isDirectory())
-					continue;
-				
-				host_name = host_dir.getName().toLowerCase();
-				
-				//
-				readPhpt(cm, reader, host_name, host_dir, reader.build_info, reader.test_pack_branch);
-				
-				//
-				readPhpUnit(cm, reader, host_name, host_dir, reader.build_info, reader.test_pack_branch);
-				
-				//
-				readUITest(cm, reader, host_name, host_dir, reader.build_info, reader.test_pack_branch);
-				
-			} // end for
-		} // end if
+		if (!lazy) {
+			reader.phpt();
+			reader.phpUnit();
+			reader.uiTest();
+		}
 		
 		return reader;
 	} // end public static PhpResultPackReader open
@@ -96,7 +96,7 @@ public class PhpResultPackReader extends PhpResultPack {
 						continue;
 					String scenario_set_name = scenario_dir.getName();
 					
-					PhptResultReader phpt_reader = new PhptResultReader();
+					PhptResultReader phpt_reader = new PhptResultReader(reader.lazy);
 					try {
 						phpt_reader.open(cm, scenario_dir, scenario_set_name, reader.build_info, reader.test_pack_branch, reader.test_pack_version);
 					} catch ( Exception ex ) {
@@ -207,15 +207,62 @@ public class PhpResultPackReader extends PhpResultPack {
 	EBuildBranch test_pack_branch;
 	String test_pack_version; // TODO rename to phpt_test_pack_version
 	protected final File file;
+	protected final ConsoleManager cm;
+	protected final boolean lazy;
+	protected boolean phpt_read, php_unit_read, ui_test_read;
 	
 	public PhpResultPackReader(AHost host, File file) {
+		this(host, file, null, false);
+	}
+	
+	public PhpResultPackReader(AHost host, File file, ConsoleManager cm, boolean lazy) {
 		super(host);
 		this.file = file;
+		this.cm = cm;
+		this.lazy = lazy;
 		ui_test_reader_map = new HashMap<String,HashMap<String,HashMap<String,HashMap<String,UITestReader>>>>(3);
 		phpt_reader_map = new HashMap<String,HashMap<String,HashMap<String,AbstractPhptRW>>>(3);
 		php_unit_reader_map = new HashMap<String,HashMap<String,HashMap<String,AbstractPhpUnitRW>>>(3);
 	}
 
+	protected File[] listHostDirs() {
+		File[] files = file.listFiles();
+		return files == null ? new File[0] : files;
+	}
+	
+	protected synchronized HashMap<String,HashMap<String,HashMap<String,AbstractPhptRW>>> phpt() {
+		if (!phpt_read) {
+			phpt_read = true;
+			for ( File host_dir : listHostDirs() ) {
+				if (host_dir.isDirectory())
+					readPhpt(cm, this, host_dir.getName().toLowerCase(), host_dir, build_info, test_pack_branch);
+			}
+		}
+		return phpt_reader_map;
+	}
+	
+	protected synchronized HashMap<String,HashMap<String,HashMap<String,AbstractPhpUnitRW>>> phpUnit() {
+		if (!php_unit_read) {
+			php_unit_read = true;
+			for ( File host_dir : listHostDirs() ) {
+				if (host_dir.isDirectory())
+					readPhpUnit(cm, this, host_dir.getName().toLowerCase(), host_dir, build_info, test_pack_branch);
+			}
+		}
+		return php_unit_reader_map;
+	}
+	
+	protected synchronized HashMap<String,HashMap<String,HashMap<String,HashMap<String,UITestReader>>>> uiTest() {
+		if (!ui_test_read) {
+			ui_test_read = true;
+			for ( File host_dir : listHostDirs() ) {
+				if (host_dir.isDirectory())
+					readUITest(cm, this, host_dir.getName().toLowerCase(), host_dir, build_info, test_pack_branch);
+			}
+		}
+		return ui_test_reader_map;
+	}
+
 	@Override
 	public void close() {
 		// do nothing
@@ -228,7 +275,7 @@ public class PhpResultPackReader extends PhpResultPack {
 	
 	public AbstractPhptRW getPHPT(String host_name, ScenarioSetSetup scenario_set, String test_pack_name) {
 		host_name = host_name.toLowerCase();
-		HashMap<String,HashMap<String,AbstractPhptRW>> map_a = phpt_reader_map.get(host_name);
+		HashMap<String,HashMap<String,AbstractPhptRW>> map_a = phpt().get(host_name);
 		if (map_a==null)
 			return null;
 		String scenario_set_name = scenario_set.getNameWithVersionInfo().toLowerCase();
@@ -246,7 +293,7 @@ public class PhpResultPackReader extends PhpResultPack {
 	
 	public Collection<AbstractPhptRW> getPHPT(String host_name, String test_pack_name) {
 		host_name = host_name.toLowerCase();
-		HashMap<String,HashMap<String,AbstractPhptRW>> map_a = phpt_reader_map.get(host_name);
+		HashMap<String,HashMap<String,AbstractPhptRW>> map_a = phpt().get(host_name);
 		LinkedList<AbstractPhptRW> out = new LinkedList<AbstractPhptRW>();
 		if (map_a!=null) {
 			HashMap<String,AbstractPhptRW> map_b = map_a.get(test_pack_name);
@@ -265,7 +312,7 @@ public class PhpResultPackReader extends PhpResultPack {
 	
 	public Collection<AbstractPhptRW> getPHPT(String host_name) {
 		host_name = host_name.toLowerCase();
-		HashMap<String,HashMap<String,AbstractPhptRW>> map_a = phpt_reader_map.get(host_name);
+		HashMap<String,HashMap<String,AbstractPhptRW>> map_a = phpt().get(host_name);
 		LinkedList<AbstractPhptRW> out = new LinkedList<AbstractPhptRW>();
 		if (map_a!=null) {
 			for ( HashMap<String,AbstractPhptRW> b : map_a.values() )
@@ -277,10 +324,10 @@ public class PhpResultPackReader extends PhpResultPack {
 	@Override
 	public Collection<AbstractPhptRW> getPHPT() {
 		LinkedList<AbstractPhptRW> out = new LinkedList<AbstractPhptRW>();
-		for ( String host_name : phpt_reader_map.keySet() ) {
-			for ( String scenario_set_name : phpt_reader_map.get(host_name).keySet() ) {
-				for ( String test_pack_name : phpt_reader_map.get(host_name).get(scenario_set_name).keySet() )
-					out.add(phpt_reader_map.get(host_name).get(scenario_set_name).get(test_pack_name));
+		for ( String host_name : phpt().keySet() ) {
+			for ( String scenario_set_name : phpt().get(host_name).keySet() ) {
+				for ( String test_pack_name : phpt().get(host_name).get(scenario_set_name).keySet() )
+					out.add(phpt().get(host_name).get(scenario_set_name).get(test_pack_name));
 			}
 		}
 		return out;
@@ -293,7 +340,7 @@ public class PhpResultPackReader extends PhpResultPack {
 	
 	public Collection<AbstractPhpUnitRW> getPhpUnit(String host_name, ScenarioSetSetup scenario_set) {
 		host_name = host_name.toLowerCase();
-		HashMap<String,HashMap<String,AbstractPhpUnitRW>> map_a = php_unit_reader_map.get(host_name);
+		HashMap<String,HashMap<String,AbstractPhpUnitRW>> map_a = phpUnit().get(host_name);
 		LinkedList<AbstractPhpUnitRW> out = new LinkedList<AbstractPhpUnitRW>();
 		if (map_a==null)
 			return out;
@@ -313,9 +360,9 @@ public class PhpResultPackReader extends PhpResultPack {
 	
 	public Collection<AbstractPhpUnitRW> getPhpUnit(String host_name) {
 		host_name = host_name.toLowerCase();
-		if (php_unit_reader_map.size()>0)
-			host_name = php_unit_reader_map.keySet().iterator().next(); // TODO temp
-		HashMap<String,HashMap<String,AbstractPhpUnitRW>> map_a = php_unit_reader_map.get(host_name);
+		if (phpUnit().size()>0)
+			host_name = phpUnit().keySet().iterator().next(); // TODO temp
+		HashMap<String,HashMap<String,AbstractPhpUnitRW>> map_a = phpUnit().get(host_name);
 		LinkedList<AbstractPhpUnitRW> out = new LinkedList<AbstractPhpUnitRW>();
 		if (map_a!=null) {
 			for ( HashMap<String,AbstractPhpUnitRW> b : map_a.values() ) {
@@ -329,10 +376,10 @@ public class PhpResultPackReader extends PhpResultPack {
 	@Override
 	public Collection<AbstractPhpUnitRW> getPhpUnit() {
 		LinkedList<AbstractPhpUnitRW> out = new LinkedList<AbstractPhpUnitRW>();
-		for ( String host_name : php_unit_reader_map.keySet() ) {
-			for ( String test_pack_name : php_unit_reader_map.get(host_name).keySet() ) {
-				for ( String scenario_set_name : php_unit_reader_map.get(host_name).get(test_pack_name).keySet() ) {
-					out.add(php_unit_reader_map.get(host_name).get(test_pack_name).get(scenario_set_name));
+		for ( String host_name : phpUnit().keySet() ) {
+			for ( String test_pack_name : phpUnit().get(host_name).keySet() ) {
+				for ( String scenario_set_name : phpUnit().get(host_name).get(test_pack_name).keySet() ) {
+					out.add(phpUnit().get(host_name).get(test_pack_name).get(scenario_set_name));
 				}
 			}
 		}
@@ -346,7 +393,7 @@ public class PhpResultPackReader extends PhpResultPack {
 
 	@Override
 	public AbstractPhpUnitRW getPhpUnit(AHost host, String test_pack_name_and_version, ScenarioSetSetup scenario_set) {
-		 HashMap<String,HashMap<String,AbstractPhpUnitRW>> map_a = php_unit_reader_map.get(host.getName());
+		 HashMap<String,HashMap<String,AbstractPhpUnitRW>> map_a = phpUnit().get(host.getName());
 		 if (map_a==null)
 			 return null;
 		 HashMap<String,AbstractPhpUnitRW> map_b = map_a.get(test_pack_name_and_version);
@@ -359,9 +406,9 @@ public class PhpResultPackReader extends PhpResultPack {
 	public Collection<AbstractPhpUnitRW> getPhpUnit(AHost host, String test_pack_name_and_version) {
 		LinkedList<AbstractPhpUnitRW> out = new LinkedList<AbstractPhpUnitRW>();
 		String hostname = host.getName().toLowerCase();
-		if (php_unit_reader_map.size()>0)
-			hostname = php_unit_reader_map.keySet().iterator().next(); // TODO temp
-		HashMap<String,HashMap<String,AbstractPhpUnitRW>> map_a = php_unit_reader_map.get(hostname);
+		if (phpUnit().size()>0)
+			hostname = phpUnit().keySet().iterator().next(); // TODO temp
+		HashMap<String,HashMap<String,AbstractPhpUnitRW>> map_a = phpUnit().get(hostname);
 		if (map_a==null)
 			return out;
 		HashMap<String,AbstractPhpUnitRW> map_b = map_a.get(test_pack_name_and_version);
@@ -374,7 +421,7 @@ public class PhpResultPackReader extends PhpResultPack {
 
 	@Override
 	public AbstractUITestRW getUITest(AHost host, ScenarioSetSetup scenario_set) {
-		HashMap<String,HashMap<String,HashMap<String,UITestReader>>> a = ui_test_reader_map.get(host.getName());
+		HashMap<String,HashMap<String,HashMap<String,UITestReader>>> a = uiTest().get(host.getName());
 		if (a!=null) {
 			for ( HashMap<String,HashMap<String,UITestReader>> b : a.values() ) {
 				for ( HashMap<String,UITestReader> c : b.values() ) {
@@ -387,7 +434,7 @@ public class PhpResultPackReader extends PhpResultPack {
 	
 	@Override
 	public Collection<AbstractUITestRW> getUITest(AHost host) {
-		HashMap<String,HashMap<String,HashMap<String,UITestReader>>> a = ui_test_reader_map.get(host.getName());
+		HashMap<String,HashMap<String,HashMap<String,UITestReader>>> a = uiTest().get(host.getName());
 		LinkedList<AbstractUITestRW> out = new LinkedList<AbstractUITestRW>();
 		if (a==null)
 			return out;
@@ -403,7 +450,7 @@ public class PhpResultPackReader extends PhpResultPack {
 	@Override
 	public Collection<AbstractUITestRW> getUITest() {
 		LinkedList<AbstractUITestRW> out = new LinkedList<AbstractUITestRW>();
-		for ( HashMap<String,HashMap<String,HashMap<String,UITestReader>>> a : ui_test_reader_map.values() ) {
+		for ( HashMap<String,HashMap<String,HashMap<String,UITestReader>>> a : uiTest().values() ) {
 			for ( HashMap<String,HashMap<String,UITestReader>> b : a.values() ) {
 				for ( HashMap<String,UITestReader> c : b.values() ) {
 					for ( UITestReader w : c.values() )
@@ -417,7 +464,7 @@ public class PhpResultPackReader extends PhpResultPack {
 	@Override
 	public Collection<AbstractUITestRW> getUITest(AHost host, String test_pack_name_and_version, ScenarioSetSetup scenario_set) {
 		LinkedList<AbstractUITestRW> out = new LinkedList<AbstractUITestRW>();
-		HashMap<String,HashMap<String,HashMap<String,UITestReader>>> map_a = ui_test_reader_map.get(host.getName());
+		HashMap<String,HashMap<String,HashMap<String,UITestReader>>> map_a = uiTest().get(host.getName());
 		if (map_a==null)
 			return out;
 		HashMap<String,HashMap<String,UITestReader>> map_b = map_a.get(test_pack_name_and_version);
@@ -432,7 +479,7 @@ public class PhpResultPackReader extends PhpResultPack {
 	@Override
 	public Collection<AbstractUITestRW> getUITest(AHost host, String test_pack_name_and_version) {
 		LinkedList<AbstractUITestRW> out = new LinkedList<AbstractUITestRW>();
-		HashMap<String,HashMap<String,HashMap<String,UITestReader>>> map_a = ui_test_reader_map.get(host.getName());
+		HashMap<String,HashMap<String,HashMap<String,UITestReader>>> map_a = uiTest().get(host.getName());
 		if (map_a==null)
 			return out;
 		HashMap<String,HashMap<String,UITestReader>> map_b = map_a.get(test_pack_name_and_version);
@@ -448,7 +495,7 @@ public class PhpResultPackReader extends PhpResultPack {
 	@Override
 	public Collection<AbstractUITestRW> getUITest(String test_pack_name_and_version) {
 		LinkedList<AbstractUITestRW> out = new LinkedList<AbstractUITestRW>();
-		for ( HashMap<String,HashMap<String,HashMap<String,UITestReader>>> map_a : ui_test_reader_map.values() ) {
+		for ( HashMap<String,HashMap<String,HashMap<String,UITestReader>>> map_a : uiTest().values() ) {
 			HashMap<String,HashMap<String,UITestReader>> map_b = map_a.get(test_pack_name_and_version);
 			if (map_b==null)
 				continue;
@@ -513,9 +560,9 @@ public class PhpResultPackReader extends PhpResultPack {
 	}
 
 	public AbstractPhptRW getPHPT(AHost host, ScenarioSet scenario_set, String test_pack_name) {
-		HashMap<String,HashMap<String,AbstractPhptRW>> a = phpt_reader_map.get(host);
+		HashMap<String,HashMap<String,AbstractPhptRW>> a = phpt().get(host);
 		if (a==null)
-			a = phpt_reader_map.values().iterator().next();
+			a = phpt().values().iterator().next();
 		HashMap<String,AbstractPhptRW> b = a.get(test_pack_name);
 		if (b==null)
 			//return null;
@@ -526,9 +573,9 @@ public class PhpResultPackReader extends PhpResultPack {
 	}
 
 	public AbstractPhpUnitRW getPhpUnit(AHost host, String test_pack_name_and_version, ScenarioSet scenario_set) {
-		HashMap<String,HashMap<String,AbstractPhpUnitRW>> a = php_unit_reader_map.get(host);
+		HashMap<String,HashMap<String,AbstractPhpUnitRW>> a = phpUnit().get(host);
 		if (a==null)
-			a = php_unit_reader_map.values().iterator().next();
+			a = phpUnit().values().iterator().next();
 			// TODO return null;
 		HashMap<String,AbstractPhpUnitRW> b = a.get(test_pack_name_and_version);
 		if (b==null)
@@ -537,7 +584,7 @@ public class PhpResultPackReader extends PhpResultPack {
 	}
 	
 	public AbstractUITestRW getUITest(AHost host, String test_pack_name_and_version, ScenarioSet scenario_set, String web_browser_name_and_version) {
-		return ui_test_reader_map.get(host).get(test_pack_name_and_version).get(scenario_set).get(web_browser_name_and_version);
+		return uiTest().get(host).get(test_pack_name_and_version).get(scenario_set).get(web_browser_name_and_version);
 	}
 
 } // end public class PhpResultPackReader
@@ -9,6 +9,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
 
 import com.github.mattficken.io.StringUtil;
 import com.mostc.pftt.host.AHost;
@@ -28,7 +33,6 @@ import com.mostc.pftt.model.ui.EUITestStatus;
 import com.mostc.pftt.model.ui.UITestPack;
 import com.mostc.pftt.scenario.ScenarioSet;
 import com.mostc.pftt.scenario.ScenarioSetSetup;
-import com.mostc.pftt.util.TimerUtil;
 
 /** Writes the result-pack from a test run.
  * 
@@ -43,17 +47,33 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	protected final HashMap<AHost,HashMap<String,UITestScenarioSetGroup>> ui_test_writer_map;
 	protected final HashMap<AHost,HashMap<ScenarioSetSetup,HashMap<String,PhptResultWriter>>> phpt_writer_map;
 	protected final HashMap<AHost,HashMap<String,PhpUnitScenarioSetGroup>> phpunit_writer_map;
+	protected final HashMap<AHost,HashMap<ScenarioSetSetup,PerformanceResultWriter>> perf_writer_map;
 	protected PrintWriter global_exception_writer;
 	protected LocalConsoleManager cm;
 	protected PhpBuild build;
-	//protected LinkedBlockingQueue<ResultQueueEntry> results;
-	protected LinkedList<ResultQueueEntry> results;
-	protected boolean run_writer_thread = true;
+	/** writer threads. PHPT results are sharded across these by scenario set and test-pack (each
+	 * PhptResultWriter is only ever written by one shard). everything else is handled by the first shard.
+	 * 
+	 * @see -result_writer_threads console option
+	 */
+	protected final WriterShard[] shards;
+	/** number of entries that have been queued but not yet handled by a writer thread */
+	protected final AtomicInteger pending_count;
+	/** number of entries for each scenario set that have been queued but not yet handled @see #wait */
+	protected final ConcurrentHashMap<ScenarioSet,AtomicInteger> pending_by_set;
+	protected final Object pending_lock;
+	/** Config hooks and ConsoleManager#showResult are called from all writer threads. they aren't required
+	 * to be thread-safe, so calls are serialized with this lock */
+	protected final Object callback_lock = new Object();
+	protected volatile boolean run_writer_thread = true;
 	protected final PhpBuildInfo build_info;
 	protected final EBuildBranch test_pack_branch;
 	protected final String test_pack_version;
-	protected final Thread writer_thread;
 	protected final Config config;
+	/** max number of results that can be queued before test threads have to wait for the writer thread */
+	public static final int RESULT_QUEUE_CAPACITY = 8192;
+	/** max number of entries the writer thread will take from the queue at once */
+	public static final int RESULT_BATCH_SIZE = 256;
 	
 	protected class UITestScenarioSetGroup {
 		protected final HashMap<String,HashMap<ScenarioSetSetup,UITestWriter>> map;
@@ -114,6 +134,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 		ui_test_writer_map = new HashMap<AHost,HashMap<String,UITestScenarioSetGroup>>(16);
 		phpt_writer_map = new HashMap<AHost,HashMap<ScenarioSetSetup,HashMap<String,PhptResultWriter>>>(3);
 		phpunit_writer_map = new HashMap<AHost,HashMap<String,PhpUnitScenarioSetGroup>>(16);
+		perf_writer_map = new HashMap<AHost,HashMap<ScenarioSetSetup,PerformanceResultWriter>>(3);
 		
 		cm.w = this;
 		
@@ -144,43 +165,210 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 			ConsoleManagerUtil.printStackTrace(PhpResultPackWriter.class, cm, ex);
 		}
 		
-		results = new LinkedList<ResultQueueEntry>();//new LinkedBlockingQueue<ResultQueueEntry>();
+		pending_count = new AtomicInteger();
+		pending_by_set = new ConcurrentHashMap<ScenarioSet,AtomicInteger>();
+		pending_lock = new Object();
 		
 		global_exception_writer = new PrintWriter(new FileWriter(this.telem_dir+"/GLOBAL_EXCEPTIONS.txt"));
 		
-		writer_thread = new Thread() {
-				@Override
-				public void run() {
-					ResultQueueEntry q = null;
-					
-					while (run_writer_thread || !results.isEmpty()) {
-						try {
-							synchronized(results) {
-								q = results.isEmpty() ? null : results.removeFirst();
-							}
-						} catch ( Exception ex ) {
-						}
-						if (q==null) {
-							try {
-								Thread.sleep(500);
-							} catch (InterruptedException e) {
-							}
-							continue;
-						}
-						try {
-							q.handle();
-						} catch ( Exception ex ) {
-							ConsoleManagerUtil.printStackTrace(PhpResultPackWriter.class, ex);
-						}
-						q = null; // for gc
+		shards = new WriterShard[Math.max(1, cm==null?1:cm.getResultWriterThreadCount())];
+		for ( int i=0 ; i < shards.length ; i++ ) {
+			shards[i] = new WriterShard(i);
+			shards[i].start();
+		}
+	}
+	
+	/** a writer thread and its queue of results to write.
+	 * 
+	 * queue is bounded so that if the disk falls behind, test threads will block (back-pressure) instead
+	 * of queuing results (and their output) without limit.
+	 * 
+	 * @see #RESULT_QUEUE_CAPACITY
+	 */
+	protected class WriterShard extends Thread {
+		protected final LinkedBlockingQueue<ResultQueueEntry> results;
+		/** IMPORTANT: not the Thread's own monitor (Thread#join waits on that) */
+		protected final Object queue_lock;
+		/** set once an entry that stops this thread has been queued. guarded by queue_lock */
+		protected boolean stopped;
+		
+		protected WriterShard(int i) {
+			results = new LinkedBlockingQueue<ResultQueueEntry>(RESULT_QUEUE_CAPACITY);
+			queue_lock = new Object();
+			setName("ResultWriter"+i);
+		}
+		
+		@Override
+		public void run() {
+			ArrayList<ResultQueueEntry> batch = new ArrayList<ResultQueueEntry>(RESULT_BATCH_SIZE);
+			boolean closed = false;
+			
+			while (!closed) {
+				try {
+					// block until there is something to write (no polling)
+					batch.add(results.take());
+				} catch ( InterruptedException ex ) {
+					continue;
+				}
+				// take whatever else is already queued too, so it can be written together
+				results.drainTo(batch, RESULT_BATCH_SIZE-1);
+				
+				closed = handleBatch(batch);
+				
+				batch.clear(); // for gc
+			}
+		}
+		
+		/** queues entry unless an entry that stops this thread (CloseQueueEntry or StopShardQueueEntry) was already queued.
+		 * 
+		 * checked and queued while holding queue_lock, so nothing can be queued behind the entry that stops this thread
+		 * (nothing would ever take it and #wait would block forever).
+		 * 
+		 * @param e
+		 * @return FALSE if this thread is stopping or stopped (entry wasn't queued)
+		 */
+		protected boolean queue(ResultQueueEntry e) {
+			synchronized(queue_lock) {
+				if (stopped)
+					return false;
+				if (e instanceof CloseQueueEntry||e instanceof StopShardQueueEntry)
+					stopped = true;
+				pending_count.incrementAndGet();
+				ScenarioSet set = e.getScenarioSet();
+				if (set!=null)
+					getPendingForSet(set).incrementAndGet();
+				put(e);
+				return true;
+			}
+		}
+		
+		protected void put(ResultQueueEntry e) {
+			boolean interrupted = false;
+			for (;;) {
+				try {
+					results.put(e);
+					break;
+				} catch ( InterruptedException ex ) {
+					// don't lose the result. keep trying, but restore interrupt status after
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+		
+	} // end protected class WriterShard
+	
+	/** handles a batch of queued entries, in order.
+	 * 
+	 * consecutive results for the same host, scenario set and test-pack are written to the same
+	 * PhptResultWriter, so that writer only has to be looked up once for the whole run of results.
+	 * 
+	 * @param batch
+	 * @return TRUE if batch included a CloseQueueEntry or StopShardQueueEntry (writer thread should stop)
+	 */
+	protected boolean handleBatch(ArrayList<ResultQueueEntry> batch) {
+		boolean closed = false;
+		PhptResultQueueEntry last_phpt = null;
+		PhptResultWriter last_phpt_w = null;
+		for ( ResultQueueEntry q : batch ) {
+			try {
+				if (q instanceof PhptResultQueueEntry) {
+					PhptResultQueueEntry p = (PhptResultQueueEntry) q;
+					if (last_phpt_w==null||!p.isSameWriter(last_phpt)) {
+						last_phpt_w = getCreatePhptResultWriter(p.this_host, p.this_scenario_set_setup, p.src_test_pack);
 					}
+					last_phpt = p;
+					p.handle(last_phpt_w);
+				} else {
+					// anything else (ex: close a writer) may change the writer maps, so look it up again next time
+					last_phpt = null;
+					last_phpt_w = null;
+					
+					q.handle();
+					
+					if (q instanceof CloseQueueEntry||q instanceof StopShardQueueEntry)
+						closed = true;
 				}
-			};
-		writer_thread.start();
+			} catch ( Exception ex ) {
+				ConsoleManagerUtil.printStackTrace(PhpResultPackWriter.class, ex);
+			} finally {
+				decrementPending(q);
+			}
+		}
+		return closed;
+	} // end protected boolean handleBatch
+	
+	protected void decrementPending(ResultQueueEntry q) {
+		ScenarioSet set = q.getScenarioSet();
+		boolean notify = set!=null && getPendingForSet(set).decrementAndGet()==0;
+		if (pending_count.decrementAndGet()==0)
+			notify = true;
+		if (notify) {
+			synchronized(pending_lock) {
+				pending_lock.notifyAll();
+			}
+		}
+	}
+	
+	protected AtomicInteger getPendingForSet(ScenarioSet set) {
+		AtomicInteger c = pending_by_set.get(set);
+		if (c==null) {
+			AtomicInteger n = new AtomicInteger();
+			c = pending_by_set.putIfAbsent(set, n);
+			if (c==null)
+				c = n;
+		}
+		return c;
+	}
+	
+	/** queues entry to be handled by a writer thread.
+	 * 
+	 * if the queue is full, blocks until the writer thread catches up.
+	 * 
+	 * @param e
+	 */
+	protected void enqueue(ResultQueueEntry e) {
+		WriterShard shard = shards[e.getShardIndex(shards.length)];
+		if (shard.queue(e))
+			return;
+		// result-pack already closed: nothing will take it from the queue, handle it here instead
+		//
+		// first let writer thread finish what was queued before (unless this is a writer thread, which may be
+		// what's waiting for shard to finish)
+		if (!(Thread.currentThread() instanceof WriterShard)) {
+			try {
+				shard.join();
+			} catch ( InterruptedException ex ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			e.handle();
+		} catch ( Exception ex ) {
+			ConsoleManagerUtil.printStackTrace(PhpResultPackWriter.class, ex);
+		}
 	}
 
 	protected abstract class ResultQueueEntry {
 		public abstract void handle() throws IllegalArgumentException, IllegalStateException, IOException;
+		/** which writer thread should handle this entry. entries for the same shard are handled in
+		 * the order they were queued.
+		 * 
+		 * @param shard_count
+		 * @return
+		 */
+		protected int getShardIndex(int shard_count) {
+			return 0;
+		}
+		/** scenario set this entry is for @see #wait
+		 * 
+		 * @return NULL if not for a scenario set
+		 */
+		@Nullable
+		protected ScenarioSet getScenarioSet() {
+			return null;
+		}
 	}
 	
 	protected abstract class HSResultQueueEntry extends ResultQueueEntry {
@@ -192,6 +380,11 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 			this.this_scenario_set_setup = this_scenario_set_setup;
 		}
 		
+		@Override
+		protected ScenarioSet getScenarioSet() {
+			return this_scenario_set_setup == null ? null : this_scenario_set_setup.getScenarioSet();
+		}
+		
 	}
 	
 	protected abstract class PhptQueueEntry extends HSResultQueueEntry {
@@ -202,6 +395,19 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 			this.src_test_pack = src_test_pack;
 		}
 		
+		@Override
+		protected int getShardIndex(int shard_count) {
+			if (shard_count<2)
+				return 0;
+			// all entries for the same PhptResultWriter (same result-pack dir) must go to the same shard
+			//
+			// IMPORTANT: use the same keys as #getCreatePhptResultWriter (equal but different instances get the same writer)
+			int h = this_host.hashCode();
+			h = 31 * h + this_scenario_set_setup.hashCode();
+			h = 31 * h + src_test_pack.getNameAndVersionString().hashCode();
+			return (h & 0x7fffffff) % shard_count;
+		}
+		
 	}
 	
 	protected abstract class UIQueueEntry extends HSResultQueueEntry {
@@ -290,7 +496,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 		}
 	}
 	
-	protected UITestScenarioSetGroup getCreateUITestWriter(AHost this_host, ScenarioSetSetup this_scenario_set_setup, UITestPack test_pack, String web_browser_name_and_version) throws IllegalArgumentException, IllegalStateException, FileNotFoundException, IOException {
+	protected synchronized UITestScenarioSetGroup getCreateUITestWriter(AHost this_host, ScenarioSetSetup this_scenario_set_setup, UITestPack test_pack, String web_browser_name_and_version) throws IllegalArgumentException, IllegalStateException, FileNotFoundException, IOException {
 		String test_pack_name_and_version = test_pack.getNameAndVersionInfo().intern();
 		
 		HashMap<String,UITestScenarioSetGroup> a = ui_test_writer_map.get(this_host);
@@ -344,8 +550,17 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 
 		@Override
 		public void handle() throws IOException {
-			config.processPhptTestResult(cm, this_result);
-			PhptResultWriter w = getCreatePhptResultWriter(this_host, this_scenario_set_setup, src_test_pack);
+			handle(getCreatePhptResultWriter(this_host, this_scenario_set_setup, src_test_pack));
+		}
+		
+		protected boolean isSameWriter(PhptResultQueueEntry o) {
+			return o != null && o.this_host == this_host && o.this_scenario_set_setup == this_scenario_set_setup && o.src_test_pack == src_test_pack;
+		}
+		
+		protected void handle(PhptResultWriter w) throws IOException {
+			synchronized(callback_lock) {
+				config.processPhptTestResult(cm, this_result);
+			}
 			
 			w.writeResult(cm, this_host, this_scenario_set_setup, this_result);
 			this_result.extra = null;
@@ -359,7 +574,9 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 			if (cm!=null) {
 				// show in tui/gui (if open)
 				// TODO cm.showResult(host, getTotalCount(), completed++, this_result);
-				cm.showResult(host, 0, 0, this_result);
+				synchronized(callback_lock) {
+					cm.showResult(host, 0, 0, this_result);
+				}
 			}
 		}
 		
@@ -369,7 +586,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 		return getCreatePhptResultWriter(this_host, this_scenario_set_setup, test_pack.getNameAndVersionString());
 	}
 	
-	protected PhptResultWriter getCreatePhptResultWriter(AHost this_host, ScenarioSetSetup this_scenario_set_setup, String test_pack_name) throws IOException {
+	protected synchronized PhptResultWriter getCreatePhptResultWriter(AHost this_host, ScenarioSetSetup this_scenario_set_setup, String test_pack_name) throws IOException {
 		HashMap<ScenarioSetSetup,HashMap<String,PhptResultWriter>> a = phpt_writer_map.get(this_host);
 		HashMap<String,PhptResultWriter> b;
 		PhptResultWriter w = null;
@@ -378,7 +595,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 			b = new HashMap<String,PhptResultWriter>();
 			phpt_writer_map.put(this_host, a);
 			a.put(this_scenario_set_setup, b);
-			w = new PhptResultWriter(phpt_telem_dir(this_host, this_scenario_set_setup, test_pack_name), this_host, this_scenario_set_setup, build_info, test_pack_branch, test_pack_version);
+			w = new PhptResultWriter(phpt_telem_dir(this_host, this_scenario_set_setup, test_pack_name), this_host, this_scenario_set_setup, build_info, test_pack_branch, test_pack_version, isResultPackSegment());
 			b.put(test_pack_name, w);
 		} else {
 			b = a.get(this_scenario_set_setup);
@@ -387,7 +604,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 			else
 				w = b.get(test_pack_name);
 			if (w==null) {
-				w = new PhptResultWriter(phpt_telem_dir(this_host, this_scenario_set_setup, test_pack_name), this_host, this_scenario_set_setup, build_info, test_pack_branch, test_pack_version);
+				w = new PhptResultWriter(phpt_telem_dir(this_host, this_scenario_set_setup, test_pack_name), this_host, this_scenario_set_setup, build_info, test_pack_branch, test_pack_version, isResultPackSegment());
 				b.put(test_pack_name, w);
 			}
 		}
@@ -404,7 +621,9 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 
 		@Override
 		public void handle() throws IllegalArgumentException, IllegalStateException, IOException {
-			config.processPhpUnitTestResult(cm, this_result);
+			synchronized(callback_lock) {
+				config.processPhpUnitTestResult(cm, this_result);
+			}
 			PhpUnitScenarioSetGroup sg = getCreatePhpUnitResultWriter(
 					this_host,
 					this_scenario_set_setup,
@@ -423,13 +642,19 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 			System.out.println(w.count+" "+_toString(this_result.status)+" "+this_result.test_case);
 			
 			if (cm!=null) {
-				cm.showResult(this_host, 0, w.count, this_result);
+				synchronized(callback_lock) {
+					cm.showResult(this_host, 0, w.count, this_result);
+				}
 			}
 		}
 		
 	} // end protected class PhpUnitResultQueueEntry
 	
-	protected PhpUnitScenarioSetGroup getCreatePhpUnitResultWriter(AHost this_host, ScenarioSetSetup this_scenario_set_setup, PhpUnitSourceTestPack src_test_pack) throws FileNotFoundException, IOException {
+	protected boolean isResultPackSegment() {
+		return cm!=null && cm.isResultPackSegment();
+	}
+	
+	protected synchronized PhpUnitScenarioSetGroup getCreatePhpUnitResultWriter(AHost this_host, ScenarioSetSetup this_scenario_set_setup, PhpUnitSourceTestPack src_test_pack) throws FileNotFoundException, IOException {
 		String test_pack_name_and_version = src_test_pack.getNameAndVersionString().intern();
 		
 		HashMap<String,PhpUnitScenarioSetGroup> a = phpunit_writer_map.get(this_host);
@@ -441,7 +666,8 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 					build_info,
 					this_host, 
 					this_scenario_set_setup,
-					src_test_pack
+					src_test_pack,
+					isResultPackSegment()
 				);
 			
 			a = new HashMap<String,PhpUnitScenarioSetGroup>();
@@ -457,7 +683,8 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 						build_info,
 						this_host, 
 						this_scenario_set_setup,
-						src_test_pack
+						src_test_pack,
+						isResultPackSegment()
 					);
 				
 				b = new PhpUnitScenarioSetGroup(this_host, src_test_pack);
@@ -472,7 +699,8 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 							build_info,
 							this_host, 
 							this_scenario_set_setup,
-							src_test_pack
+							src_test_pack,
+							isResultPackSegment()
 						);
 					
 					b.map.put(this_scenario_set_setup, w);
@@ -544,25 +772,19 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	@Override
 	public void notifyStart(AHost host, ScenarioSetSetup scenario_set_setup, PhptSourceTestPack src_test_pack, PhptTestCase test_case) {
 		PhptTestStartQueueEntry e = new PhptTestStartQueueEntry(host, scenario_set_setup, src_test_pack, test_case.getName());
-		synchronized(results) {
-			results.add(e);
-		}
+		enqueue(e);
 	}
 	
 	@Override
 	public void notifyStart(AHost host, ScenarioSetSetup scenario_set_setup, PhpUnitSourceTestPack src_test_pack, PhpUnitTestCase test_case) {
 		PhpUnitTestStartQueueEntry e = new PhpUnitTestStartQueueEntry(host, scenario_set_setup, src_test_pack, test_case.getName());
-		synchronized(results) {
-			results.add(e);
-		}
+		enqueue(e);
 	}
 	
 	@Override
 	public void notifyStart(AHost host, ScenarioSetSetup scenario_set_setup, UITestPack test_pack, String web_browser_name_and_version, String test_name) {
 		UITestStartQueueEntry e = new UITestStartQueueEntry(host, scenario_set_setup, test_pack, web_browser_name_and_version, test_name);
-		synchronized(e) {
-			results.add(e);
-		}
+		enqueue(e);
 	}
 	
 	public File getResultPackPath() {
@@ -575,9 +797,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	
 	public void addResult(AHost this_host, ScenarioSetSetup this_scenario_set_setup, String test_name, String comment, EUITestStatus status, String verified_html, byte[] screenshot_png, UITestPack test_pack, String web_browser_name_and_version, String sapi_output, String sapi_config) {
 		UIResultQueueEntry e = new UIResultQueueEntry(this_host, this_scenario_set_setup, test_name, comment, status, verified_html, screenshot_png, test_pack, web_browser_name_and_version, sapi_output, sapi_config);
-		synchronized(e) {
-			results.add(e);
-		}
+		enqueue(e);
 	}
 	
 	public void addTestException(AHost this_host, ScenarioSetSetup this_scenario_set_setup, PhptTestCase test_file, Throwable ex, Object a) {
@@ -609,9 +829,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	public void addResult(AHost this_host, ScenarioSetSetup this_scenario_set_setup, PhptSourceTestPack src_test_pack, PhptTestResult result) {
 		// enqueue result to be handled by another thread to avoid delaying every phpt thread
 		PhptResultQueueEntry e = new PhptResultQueueEntry(this_host, this_scenario_set_setup, src_test_pack, result);
-		synchronized(results) {
-			results.add(e);
-		}
+		enqueue(e);
 	}
 	
 	// TODO rename these
@@ -629,6 +847,10 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 			return new File(this_host.joinIntoOnePath(telem_dir.getAbsolutePath(), this_host.getName(), "PhpUnit", test_pack.getNameAndVersionString().intern(), StringUtil.max(this_scenario_set_setup.getNameWithVersionInfo(), 70)));
 	}
 	
+	protected File perf_telem_dir(AHost this_host, ScenarioSetSetup this_scenario_set_setup) {
+		return new File(this_host.joinIntoOnePath(telem_dir.getAbsolutePath(), this_host.getName(), "Performance", StringUtil.max(this_scenario_set_setup.getNameWithVersionInfo(), 70)));
+	}
+	
 	protected File phpt_telem_dir(AHost this_host, ScenarioSetSetup this_scenario_set_setup, String test_pack_name) {
 		return new File(this_host.joinIntoOnePath(
 				telem_dir.getAbsolutePath(), 
@@ -651,8 +873,33 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	@Override
 	public void addResult(AHost host, ScenarioSetSetup scenario_set_setup, PhpUnitTestResult result) {
 		PhpUnitResultQueueEntry e = new PhpUnitResultQueueEntry(host, scenario_set_setup, result);
-		synchronized(results) {
-			results.add(e);
+		enqueue(e);
+	}
+	
+	/** performance results are written right away (not queued). there are only a few and tests take minutes
+	 * 
+	 * @param host
+	 * @param scenario_set_setup
+	 * @param result
+	 */
+	public void addResult(AHost host, ScenarioSetSetup scenario_set_setup, PerformanceTestResult result) {
+		PerformanceResultWriter pw;
+		synchronized(perf_writer_map) {
+			HashMap<ScenarioSetSetup,PerformanceResultWriter> map = perf_writer_map.get(host);
+			if (map==null) {
+				map = new HashMap<ScenarioSetSetup,PerformanceResultWriter>();
+				perf_writer_map.put(host, map);
+			}
+			pw = map.get(scenario_set_setup);
+			if (pw==null) {
+				pw = new PerformanceResultWriter(perf_telem_dir(host, scenario_set_setup));
+				map.put(scenario_set_setup, pw);
+			}
+		}
+		try {
+			pw.addResult(result);
+		} catch ( IOException ex ) {
+			ConsoleManagerUtil.printStackTrace(PhpResultPackWriter.class, cm, ex);
 		}
 	}
 	
@@ -671,9 +918,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	
 	public void notifyPhptFinished(AHost host, ScenarioSetSetup scenario_set, PhptSourceTestPack src_test_pack) {
 		NotifyPhptFinishedEntry e = new NotifyPhptFinishedEntry(host, scenario_set, src_test_pack);
-		synchronized(e) {
-			results.add(e);
-		}
+		enqueue(e);
 	}
 	
 	protected class NotifyPhpUnitFinishedEntry extends PhpUnitQueueEntry {
@@ -693,9 +938,7 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	
 	public void notifyPhpUnitFinished(AHost host, ScenarioSetSetup scenario_set_setup, PhpUnitSourceTestPack src_test_pack) {
 		NotifyPhpUnitFinishedEntry e = new NotifyPhpUnitFinishedEntry(host, scenario_set_setup, src_test_pack);
-		synchronized(results) {
-			results.add(e);
-		}
+		enqueue(e);
 	}
 	
 	protected class NotifyUITestFinishedEntry extends UIQueueEntry {
@@ -714,20 +957,41 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 	
 	public void notifyUITestFinished(AHost host, ScenarioSetSetup scenario_set_setup, UITestPack test_pack, String web_browser_name_and_version) {
 		NotifyUITestFinishedEntry e = new NotifyUITestFinishedEntry(host, scenario_set_setup, test_pack, web_browser_name_and_version);
-		synchronized(results) {
-			results.add(e);
-		}
+		enqueue(e);
 	}
 	
 	protected class CloseQueueEntry extends ResultQueueEntry {
 
 		@Override
 		public void handle() throws IllegalArgumentException, IllegalStateException, IOException {
+			// (this is the first shard) wait for other shards to finish writing their results first
+			for ( int i=1 ; i < shards.length ; i++ )
+				shards[i].queue(new StopShardQueueEntry());
+			for ( int i=1 ; i < shards.length ; i++ ) {
+				try {
+					shards[i].join();
+				} catch ( InterruptedException ex ) {
+				}
+			}
 			doClose();
 		}
 		
 	}
 	
+	/** stops a writer thread (other than the first) after everything queued before it was written */
+	protected class StopShardQueueEntry extends ResultQueueEntry {
+
+		@Override
+		public void handle() {
+		}
+		
+		@Override
+		protected int getShardIndex(int shard_count) {
+			throw new IllegalStateException("only queued directly to a shard");
+		}
+		
+	}
+	
 	@Override
 	public void close() {
 		close(false);
@@ -737,13 +1001,11 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 		if (run_writer_thread) {
 			run_writer_thread = false;
 			CloseQueueEntry e = new CloseQueueEntry();
-			synchronized(results) {
-				results.add(e);
-			}
+			enqueue(e);
 			if (block) {
-				while (!results.isEmpty()) {
-					if (!TimerUtil.trySleepMillis(100))
-						break;
+				try {
+					shards[0].join();
+				} catch ( InterruptedException ex ) {
 				}
 			}
 		} else {
@@ -751,11 +1013,22 @@ public class PhpResultPackWriter extends PhpResultPack implements ITestResultRec
 		}
 	}
 	
-	public void wait(AHost host, ScenarioSet scenario_set) {
-		// TODO
-		while (!results.isEmpty()) {
-			if (!TimerUtil.trySleepMillis(100))
-				break;
+	/** blocks until all results queued so far for the scenario set have been written (doesn't wait for
+	 * results of other scenario sets, which may be running at the same time @see -concurrent_scenario_sets)
+	 * 
+	 * @param host
+	 * @param scenario_set - NULL to wait for all results
+	 */
+	public void wait(AHost host, @Nullable ScenarioSet scenario_set) {
+		final AtomicInteger pending = scenario_set == null ? pending_count : getPendingForSet(scenario_set);
+		synchronized(pending_lock) {
+			while (pending.get()>0) {
+				try {
+					pending_lock.wait();
+				} catch ( InterruptedException ex ) {
+					break;
+				}
+			}
 		}
 	}
 	
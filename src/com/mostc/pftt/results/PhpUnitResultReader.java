@@ -3,6 +3,7 @@ package com.mostc.pftt.results;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -22,6 +23,8 @@ public class PhpUnitResultReader extends AbstractPhpUnitRW {
 	protected String test_pack_name_and_version, os_name, scenario_set_name;
 	protected PhpIni ini;
 	protected File dir;
+	/** NULL unless result-pack was stored with -result_pack_segment */
+	protected ResultPackSegmentReader segment;
 	protected int test_count, percent_total;
 	protected float pass_percent, failure_percent, error_percent, crash_percent; // TODO read
 	
@@ -41,6 +44,14 @@ public class PhpUnitResultReader extends AbstractPhpUnitRW {
 			cm.addGlobalException(EPrintType.WARNING, getClass(), "open", ex, "unable to read PhpUnit tally file");
 		}
 		
+		if (ResultPackSegmentReader.exists(dir)) {
+			try {
+				segment = new ResultPackSegmentReader(dir);
+			} catch ( Exception ex ) {
+				cm.addGlobalException(EPrintType.SKIP_OPTIONAL, getClass(), "open", ex, "unable to read result-pack segment");
+			}
+		}
+		
 		// read test names
 		for ( EPhpUnitTestStatus status : status_list_map.keySet() ) {
 			StatusListEntry e = status_list_map.get(status);
@@ -155,7 +166,38 @@ public class PhpUnitResultReader extends AbstractPhpUnitRW {
 	
 	@Override
 	public String getTestOutput(String test_name) {
-		return ""; // TODO
+		if (segment==null)
+			return ""; // TODO
+		try {
+			String xml = segment.getRecordXml(test_name);
+			return xml==null ? "" : readOutput(xml);
+		} catch ( Exception ex ) {
+			ConsoleManagerUtil.printStackTrace(PhpUnitResultReader.class, ex);
+			return "";
+		}
+	}
+	
+	/** @see PhpUnitTestResult#serial */
+	protected static String readOutput(String xml) throws XmlPullParserException, IOException {
+		KXmlParser parser = new KXmlParser();
+		parser.setInput(new StringReader(xml));
+		String tag_name = "";
+		while (parser.next()!=XmlPullParser.END_DOCUMENT) {
+			switch(parser.getEventType()) {
+			case XmlPullParser.START_TAG:
+				tag_name = parser.getName();
+				break;
+			case XmlPullParser.END_TAG:
+				tag_name = "";
+				break;
+			case XmlPullParser.TEXT:
+				if (tag_name.equals("failure")||tag_name.equals("error")||tag_name.endsWith(":output")||tag_name.endsWith(":testException"))
+					return parser.getText();
+				break;
+			default:
+			}
+		}
+		return "";
 	}
 	
 	@Override
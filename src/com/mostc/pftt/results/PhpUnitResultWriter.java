@@ -48,17 +48,24 @@ public class PhpUnitResultWriter extends AbstractPhpUnitRW {
 	protected final OutputStream out;
 	protected final PrintWriter all_csv_pw, started_pw;
 	protected final HashMap<EPhpUnitTestStatus,StatusListEntry> status_list_map;
-	protected HashMap<String,String> output_by_name;
+	/** output of tests that didn't pass (or of all tests if store_output). kept in memory up to a limit, then written to a file */
+	protected TestOutputStore output_by_name;
 	protected final ScenarioSetSetup scenario_set_setup;
 	protected final AHost host;
 	protected final PhpBuildInfo build_info;
 	protected final String test_pack_name_and_version;
 	protected PhpIni ini;
+	/** if not NULL, extra info for results is written here instead of to 1 file per result */
+	protected final ResultPackSegmentWriter segment;
 	private boolean is_first_result = true;
 	private String last_test_suite_name;
 	protected int test_count;
 	
 	public PhpUnitResultWriter(File dir, PhpBuildInfo build_info, AHost host, ScenarioSetSetup scenario_set_setup, PhpUnitSourceTestPack test_pack) throws FileNotFoundException, IOException {
+		this(dir, build_info, host, scenario_set_setup, test_pack, false);
+	}
+	
+	public PhpUnitResultWriter(File dir, PhpBuildInfo build_info, AHost host, ScenarioSetSetup scenario_set_setup, PhpUnitSourceTestPack test_pack, boolean use_segment) throws FileNotFoundException, IOException {
 		this.build_info = build_info;
 		this.host = host;
 		this.scenario_set_setup = scenario_set_setup;
@@ -70,7 +77,7 @@ public class PhpUnitResultWriter extends AbstractPhpUnitRW {
 		all_csv_pw = new PrintWriter(new FileWriter(new File(dir, "ALL.csv")));
 		started_pw = new PrintWriter(new FileWriter(new File(dir, "STARTED.txt")));
 		
-		output_by_name = new HashMap<String,String>(800);
+		output_by_name = new TestOutputStore();
 		
 		// include scenario-set in file name to make it easier to view a bunch of them in Notepad++ or other MDIs
 		File file = new File(dir+"/"+StringUtil.max("phpunit_"+test_pack.getName()+"_"+scenario_set_setup.getNameWithVersionInfo(), 40)+".xml");
@@ -89,6 +96,8 @@ public class PhpUnitResultWriter extends AbstractPhpUnitRW {
 		for ( EPhpUnitTestStatus status : EPhpUnitTestStatus.values() ) {
 			status_list_map.put(status, new StatusListEntry(status));
 		}
+		
+		segment = use_segment ? new ResultPackSegmentWriter(dir) : null;
 	}
 	
 	protected class StatusListEntry {
@@ -96,6 +105,8 @@ public class PhpUnitResultWriter extends AbstractPhpUnitRW {
 		protected final File journal_file;
 		protected PrintWriter journal_writer;
 		protected final LinkedList<String> test_names;
+		/** @see AbstractTestResultRW#getTestNamesModCount */
+		protected volatile long mod_count;
 		
 		public StatusListEntry(EPhpUnitTestStatus status) throws IOException {
 			this.status = status;
@@ -109,6 +120,7 @@ public class PhpUnitResultWriter extends AbstractPhpUnitRW {
 			journal_writer.println(test_name);
 			
 			test_names.add(test_name);
+			mod_count++;
 		}
 		public void close() throws IOException {
 			if (journal_writer==null)
@@ -180,7 +192,13 @@ public class PhpUnitResultWriter extends AbstractPhpUnitRW {
 		result.serial(main_serial);
 		
 		//
-		if ((result.code_coverage!=null||result.extra!=null)&&PhpUnitTestResult.shouldStoreAllInfo(result.status)) {
+		if (segment!=null) {
+			if (((result.code_coverage!=null||result.extra!=null)&&PhpUnitTestResult.shouldStoreAllInfo(result.status))
+					|| output_by_name.containsKey(test_name)) {
+				// 1 record instead of a separate file
+				segment.write(result);
+			}
+		} else if ((result.code_coverage!=null||result.extra!=null)&&PhpUnitTestResult.shouldStoreAllInfo(result.status)) {
 			// store this data in a separate file
 			File f = new File(dir, result.getName().replace("::", "_").replace("(", "_").replace(")", "").replace(".php", "")+".xml");
 			f.getParentFile().mkdirs(); // ensure directory exists
@@ -246,6 +264,9 @@ public class PhpUnitResultWriter extends AbstractPhpUnitRW {
 		main_serial.flush();
 		out.close();
 		
+		if (segment!=null)
+			segment.close();
+		
 		// @see PhpUnitReader#readTally
 		{
 			FileWriter fw = new FileWriter(new File(dir.getAbsolutePath()+"/tally.xml"));
@@ -260,8 +281,10 @@ public class PhpUnitResultWriter extends AbstractPhpUnitRW {
 		for ( StatusListEntry e : status_list_map.values() )
 			e.close();
 		
-		if (!store_output)
+		if (!store_output) {
+			output_by_name.close();
 			output_by_name = null;
+		}
 	} // end public void close
 	
 	private void writeTally() throws IllegalArgumentException, IllegalStateException, IOException {
@@ -326,6 +349,11 @@ public class PhpUnitResultWriter extends AbstractPhpUnitRW {
 		return status_list_map.get(status).test_names.size();
 	}
 	@Override
+	protected long getTestNamesModCount(Object status) {
+		StatusListEntry e = status_list_map.get(status);
+		return e == null ? 0 : e.mod_count;
+	}
+	@Override
 	public List<String> getTestNames(EPhpUnitTestStatus status) {
 		return status_list_map.get(status).test_names;
 	}
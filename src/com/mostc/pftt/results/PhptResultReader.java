@@ -2,10 +2,13 @@ package com.mostc.pftt.results;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
+import org.kxml2.io.KXmlParser;
+
 import com.mostc.pftt.main.PfttMain;
 import com.mostc.pftt.model.core.EBuildBranch;
 import com.mostc.pftt.model.core.EPhptTestStatus;
@@ -17,13 +20,28 @@ public class PhptResultReader extends AbstractPhptRW {
 	protected EBuildBranch test_pack_branch;
 	protected String test_pack_version, os_name, scenario_set_name;
 	protected File dir;
+	/** NULL unless result-pack was stored with -result_pack_segment */
+	protected ResultPackSegmentReader segment;
+	protected ConsoleManager cm;
+	protected boolean lazy, segment_checked;
 	
 	public PhptResultReader() {
+		this(false);
+	}
+	
+	/**
+	 * 
+	 * @param lazy - TRUE to only read the tally file when opened. status lists are read (memory-mapped)
+	 * only when they are first used. Results are only read from a segment when they are asked for.
+	 */
+	public PhptResultReader(boolean lazy) {
+		this.lazy = lazy;
 		status_list_map = new HashMap<EPhptTestStatus,StatusListEntry>();
 	}
 	
 	// TODO rewrite for when comparing same exact test run (ex: report included in result-pack)
 	public void open(ConsoleManager cm, File dir, String scenario_set_name, PhpBuildInfo build_info, EBuildBranch test_pack_branch, String test_pack_version) {
+		this.cm = cm;
 		this.dir = dir;
 		this.scenario_set_name = scenario_set_name;
 		this.build_info = build_info;
@@ -33,52 +51,90 @@ public class PhptResultReader extends AbstractPhptRW {
 		// read tally file 
 		PhptTallyFile tally = PhptTallyFile.open(new File(dir+"/tally.xml"));
 		this.os_name = tally.os_name; 
-		status_list_map.put(EPhptTestStatus.PASS, new StatusListEntry(tally.pass));
-		status_list_map.put(EPhptTestStatus.TIMEOUT, new StatusListEntry(tally.timeout));
-		status_list_map.put(EPhptTestStatus.FAIL, new StatusListEntry(tally.fail));
-		status_list_map.put(EPhptTestStatus.CRASH, new StatusListEntry(tally.crash));
-		status_list_map.put(EPhptTestStatus.SKIP, new StatusListEntry(tally.skip));
-		status_list_map.put(EPhptTestStatus.XSKIP, new StatusListEntry(tally.xskip));
-		status_list_map.put(EPhptTestStatus.XFAIL, new StatusListEntry(tally.xfail));
-		status_list_map.put(EPhptTestStatus.XFAIL_WORKS, new StatusListEntry(tally.xfail_works));
-		status_list_map.put(EPhptTestStatus.UNSUPPORTED, new StatusListEntry(tally.unsupported));
-		status_list_map.put(EPhptTestStatus.BORK, new StatusListEntry(tally.bork));
-		status_list_map.put(EPhptTestStatus.TEST_EXCEPTION, new StatusListEntry(tally.exception));
+		status_list_map.put(EPhptTestStatus.PASS, new StatusListEntry(EPhptTestStatus.PASS, tally.pass));
+		status_list_map.put(EPhptTestStatus.TIMEOUT, new StatusListEntry(EPhptTestStatus.TIMEOUT, tally.timeout));
+		status_list_map.put(EPhptTestStatus.FAIL, new StatusListEntry(EPhptTestStatus.FAIL, tally.fail));
+		status_list_map.put(EPhptTestStatus.CRASH, new StatusListEntry(EPhptTestStatus.CRASH, tally.crash));
+		status_list_map.put(EPhptTestStatus.SKIP, new StatusListEntry(EPhptTestStatus.SKIP, tally.skip));
+		status_list_map.put(EPhptTestStatus.XSKIP, new StatusListEntry(EPhptTestStatus.XSKIP, tally.xskip));
+		status_list_map.put(EPhptTestStatus.XFAIL, new StatusListEntry(EPhptTestStatus.XFAIL, tally.xfail));
+		status_list_map.put(EPhptTestStatus.XFAIL_WORKS, new StatusListEntry(EPhptTestStatus.XFAIL_WORKS, tally.xfail_works));
+		status_list_map.put(EPhptTestStatus.UNSUPPORTED, new StatusListEntry(EPhptTestStatus.UNSUPPORTED, tally.unsupported));
+		status_list_map.put(EPhptTestStatus.BORK, new StatusListEntry(EPhptTestStatus.BORK, tally.bork));
+		status_list_map.put(EPhptTestStatus.TEST_EXCEPTION, new StatusListEntry(EPhptTestStatus.TEST_EXCEPTION, tally.exception));
 		//
-		for ( EPhptTestStatus status : status_list_map.keySet() ) {
+		if (lazy)
+			// read the rest when its needed
+			return;
+		getSegment();
+		for ( StatusListEntry e : status_list_map.values() ) {
 			//if (status==EPhptTestStatus.FAIL)
 				//continue; // TODO temp
-			StatusListEntry e = status_list_map.get(status);
-			
+			e.ensureLoaded();
+		}
+	} // end public void open
+	
+	protected synchronized ResultPackSegmentReader getSegment() {
+		if (segment_checked)
+			return segment;
+		segment_checked = true;
+		if (ResultPackSegmentReader.exists(dir)) {
 			try {
-				e.readTestNames(cm, new File(dir+"/"+status+".txt"), new File(dir+"/"+status+".journal.txt"));
+				segment = new ResultPackSegmentReader(dir);
 			} catch ( Exception ex ) {
-				cm.addGlobalException(EPrintType.SKIP_OPERATION, getClass(), "open", ex, "error reading tests for status: "+status);
+				cm.addGlobalException(EPrintType.SKIP_OPTIONAL, getClass(), "open", ex, "unable to read result-pack segment");
 			}
-			
-			e.doWarning(cm);
 		}
-	} // end public void open
+		return segment;
+	}
 	
 	protected class StatusListEntry {
+		protected final EPhptTestStatus status;
 		/** count reported in tally file. should match test_names#size */
 		protected final int count;
-		/** list of tests... test_names#size should == count */
-		protected final ArrayList<String> test_names;
+		/** list of tests... test_names#size should == count. NULL until #ensureLoaded */
+		protected List<String> test_names;
 		
-		public StatusListEntry(int count) {
+		public StatusListEntry(EPhptTestStatus status, int count) {
+			this.status = status;
 			this.count = count;
-			test_names = new ArrayList<String>(count);
 		}
-		public void readTestNames(ConsoleManager cm, File list_file, File journal_file) throws IOException {
+		
+		public synchronized List<String> ensureLoaded() {
+			if (test_names!=null)
+				return test_names;
+			try {
+				test_names = readTestNames(cm, new File(dir+"/"+status+".txt"), new File(dir+"/"+status+".journal.txt"));
+				if (test_names.isEmpty() && getSegment()!=null) {
+					// lists weren't written (interrupted?) but the segment has the status of every test
+					test_names = segment.getTestNames(ResultPackSegment.KIND_PHPT, status.ordinal());
+				}
+			} catch ( Exception ex ) {
+				cm.addGlobalException(EPrintType.SKIP_OPERATION, getClass(), "open", ex, "error reading tests for status: "+status);
+				if (test_names==null)
+					test_names = new ArrayList<String>(0);
+			}
+			
+			doWarning(cm);
+			return test_names;
+		}
+		
+		protected List<String> readTestNames(ConsoleManager cm, File list_file, File journal_file) throws IOException {
 			if (list_file.exists()) {
-				
+				if (lazy)
+					// don't create a String for every test (PASS list can have 10,000s of tests)
+					return new MappedStatusList(list_file);
+				ArrayList<String> test_names = new ArrayList<String>(count);
 				PfttMain.readStringListFromFile(test_names, list_file);
+				return test_names;
 			} else if (journal_file.exists()) {
 				cm.println(EPrintType.CLUE, getClass(), "Previous test run interrupted? Found only backup journal: "+journal_file.getName());
 				
+				ArrayList<String> test_names = new ArrayList<String>(count);
 				PfttMain.readStringListFromFile(test_names, journal_file);
+				return test_names;
 			}
+			return new ArrayList<String>(0);
 		}
 		
 		public void doWarning(ConsoleManager cm) {
@@ -125,8 +181,9 @@ public class PhptResultReader extends AbstractPhptRW {
 			return 0;
 		else if (status==EPhptTestStatus.TIMEOUT||status==EPhptTestStatus.PASS)
 			return e.count;
-		check(status, e.test_names);
-		return e.test_names.size();
+		List<String> test_names = e.ensureLoaded();
+		check(status, test_names);
+		return test_names.size();
 	}
 
 	@Override
@@ -134,12 +191,41 @@ public class PhptResultReader extends AbstractPhptRW {
 		StatusListEntry e = status_list_map.get(status); 
 		if (e==null)
 			return new java.util.ArrayList<String>(0);
-		check(status, e.test_names);
-		return e.test_names;
+		List<String> test_names = e.ensureLoaded();
+		check(status, test_names);
+		return test_names;
+	}
+
+	/** reads the stored result of a test. only available if result-pack was stored with -result_pack_segment
+	 * 
+	 * @param test_name
+	 * @return NULL if result not stored (ex: PASS, SKIP or XSKIP results)
+	 */
+	public PhptTestResult getTestResult(String test_name) {
+		ResultPackSegmentReader segment = getSegment();
+		if (segment==null)
+			return null;
+		try {
+			String xml = segment.getRecordXml(test_name);
+			if (xml==null)
+				return null;
+			KXmlParser parser = new KXmlParser();
+			parser.setInput(new StringReader(xml));
+			return PhptTestResult.parse(parser);
+		} catch ( Exception ex ) {
+			ConsoleManagerUtil.printStackTrace(PhptResultReader.class, ex);
+			return null;
+		}
 	}
 
 	@Override
 	public void close() {
+		for ( StatusListEntry e : status_list_map.values() ) {
+			synchronized(e) {
+				if (e.test_names instanceof MappedStatusList)
+					((MappedStatusList)e.test_names).close();
+			}
+		}
 	}
 
 	@Override
@@ -41,8 +41,14 @@ public class PhptResultWriter extends AbstractPhptRW {
 	protected final PhpBuildInfo build_info;
 	protected final EBuildBranch test_pack_branch;
 	protected final String test_pack_version;
+	/** if not NULL, results are written here instead of to 1 file per result */
+	protected final ResultPackSegmentWriter segment;
 	
 	public PhptResultWriter(File dir, AHost host, ScenarioSetSetup scenario_set_setup, PhpBuildInfo build_info, EBuildBranch test_pack_branch, String test_pack_version) throws IOException {
+		this(dir, host, scenario_set_setup, build_info, test_pack_branch, test_pack_version, false);
+	}
+	
+	public PhptResultWriter(File dir, AHost host, ScenarioSetSetup scenario_set_setup, PhpBuildInfo build_info, EBuildBranch test_pack_branch, String test_pack_version, boolean use_segment) throws IOException {
 		this.dir = dir;
 		this.host = host;
 		this.scenario_set_setup = scenario_set_setup;
@@ -63,12 +69,16 @@ public class PhptResultWriter extends AbstractPhptRW {
 		
 		for(EPhptTestStatus status:EPhptTestStatus.values())
 			status_list_map.put(status, new StatusListEntry(status));
+		
+		segment = use_segment ? new ResultPackSegmentWriter(dir) : null;
 	}
 	protected class StatusListEntry {
 		protected final EPhptTestStatus status;
 		protected final File journal_file;
 		protected PrintWriter journal_writer;
 		protected final LinkedList<String> test_names;
+		/** @see AbstractTestResultRW#getTestNamesModCount */
+		protected volatile long mod_count;
 		
 		public StatusListEntry(EPhptTestStatus status) throws IOException {
 			this.status = status;
@@ -86,6 +96,7 @@ public class PhptResultWriter extends AbstractPhptRW {
 				journal_writer.println(test_name);
 			
 			test_names.add(test_name);
+			mod_count++;
 		}
 		public void close() throws IOException {
 			if (journal_writer==null)
@@ -130,6 +141,15 @@ public class PhptResultWriter extends AbstractPhptRW {
 		started_pw.close();
 		all_csv_pw.close();
 		
+		if (segment!=null) {
+			// write index
+			try {
+				segment.close();
+			} catch ( Exception ex ) {
+				ConsoleManagerUtil.printStackTrace(PhptResultWriter.class, ex);
+			}
+		}
+		
 		// write tally file
 		try {
 			PhptTallyFile tally = new PhptTallyFile();
@@ -214,7 +234,18 @@ public class PhptResultWriter extends AbstractPhptRW {
 		
 		
 		//
-		if (store_all || !cm.isNoResultFileForPassSkipXSkip()) {
+		if (segment!=null) {
+			try {
+				if (store_all || !cm.isNoResultFileForPassSkipXSkip())
+					segment.write(result, store_all);
+				else
+					// still index it, so the segment has the status of every test
+					segment.writeIndexOnly(result);
+				result.extra = null;
+			} catch ( Exception ex ) {
+				ConsoleManagerUtil.printStackTrace(EPrintType.OPERATION_FAILED_CONTINUING, getClass(), cm, "handleResult", ex, "", dir, test_case_base_name);
+			}
+		} else if (store_all || !cm.isNoResultFileForPassSkipXSkip()) {
 			// may want to skip storing result files for PASS, SKIP or XSKIP tests
 			try {
 				File result_file = new File(dir, test_case_base_name+".xml");
@@ -242,8 +273,9 @@ public class PhptResultWriter extends AbstractPhptRW {
 		//
 		
 		//
-		if (store_all && StringUtil.isNotEmpty(result.shell_script)) {
+		if (store_all && segment==null && StringUtil.isNotEmpty(result.shell_script)) {
 			// store .cmd|.sh and .php file
+			// (segment record already includes the shell script and test case)
 			// (if no .cmd|.sh don't need a .php file; .php file needed for .cmd|.sh)
 			String file_str = result.test_case.get(EPhptSection.FILE);
 			if (StringUtil.isNotEmpty(file_str)) {
@@ -315,6 +347,11 @@ public class PhptResultWriter extends AbstractPhptRW {
 		return e.test_names.size();
 	}
 	@Override
+	protected long getTestNamesModCount(Object status) {
+		StatusListEntry e = status_list_map.get(status);
+		return e == null ? 0 : e.mod_count;
+	}
+	@Override
 	public List<String> getTestNames(EPhptTestStatus status) {
 		StatusListEntry e = status_list_map.get(status);
 		if (e==null)
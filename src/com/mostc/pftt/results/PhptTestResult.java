@@ -5,6 +5,7 @@ import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.UnsupportedCharsetException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -3141,9 +3142,11 @@ public class PhptTestResult implements ISerializer {
 		} else if (b==null) {
 			return a == null ? new ArrayList<String>(0) : a;
 		}
+		// hash lookup: List#contains would make this O(n*m) @see TestNameIndex to compare many lists
+		HashSet<String> b_set = new HashSet<String>(b);
 		ArrayList<String> c = new ArrayList<String>(a.size());
 		for ( String d : a ) {
-			if (!b.contains(d))
+			if (!b_set.contains(d))
 				c.add(d);
 		}
 		return c;
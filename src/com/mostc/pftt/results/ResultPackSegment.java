@@ -0,0 +1,57 @@
+package com.mostc.pftt.results;
+
+/** Compact, single-file format for storing the results of one scenario set of a result-pack.
+ *
+ * Instead of 1 XML file per test result, results are appended to one segment file as
+ * length-prefixed records (optionally compressed). When the segment is closed, an index of all
+ * records (by test name and status) is appended to the end of the file, so the segment can be opened
+ * without reading all the records.
+ *
+ * Format:
+ * <pre>
+ * header:  MAGIC (8 bytes)
+ * record:  int length (of rest of record)
+ *          byte kind (KIND_PHPT or KIND_PHPUNIT)
+ *          byte flags (FLAG_DEFLATED)
+ *          short status (ordinal of EPhptTestStatus or EPhpUnitTestStatus)
+ *          UTF test name
+ *          int payload length
+ *          payload (result XML as UTF-8, deflated if FLAG_DEFLATED)
+ * index:   for each record: UTF test name, byte kind, short status, long record offset
+ * trailer: long index offset, int record count, INDEX_MAGIC (8 bytes)
+ * </pre>
+ *
+ * If the test run was interrupted (no index), the records can still be read by scanning them.
+ *
+ * @see -result_pack_segment console option
+ * @see ResultPackSegmentWriter
+ * @see ResultPackSegmentReader
+ */
+
+public abstract class ResultPackSegment {
+	public static final String FILE_NAME = "RESULTS.segment";
+	public static final byte[] MAGIC = new byte[]{'P', 'F', 'T', 'T', 'S', 'E', 'G', '1'};
+	public static final byte[] INDEX_MAGIC = new byte[]{'P', 'F', 'T', 'T', 'I', 'D', 'X', '1'};
+	public static final int TRAILER_LENGTH = 8 + 4 + 8;
+	public static final byte KIND_PHPT = 0;
+	public static final byte KIND_PHPUNIT = 1;
+	public static final byte FLAG_DEFLATED = 1;
+	/** payloads smaller than this aren't worth compressing */
+	public static final int MIN_DEFLATE_LENGTH = 256;
+
+	/** an entry in the index of a segment */
+	public static class IndexEntry {
+		public final String test_name;
+		public final byte kind;
+		public final short status;
+		public final long offset;
+
+		public IndexEntry(String test_name, byte kind, short status, long offset) {
+			this.test_name = test_name;
+			this.kind = kind;
+			this.status = status;
+			this.offset = offset;
+		}
+	}
+
+} // end public abstract class ResultPackSegment
@@ -0,0 +1,293 @@
+package com.mostc.pftt.results;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/** Reads a segment file by memory-mapping it (in windows, so segments of any size can be read).
+ *
+ * Only the index is read when the segment is opened. Records are only read (and decompressed)
+ * when asked for. If the segment has no index (test run was interrupted), the index is rebuilt by
+ * scanning the records.
+ *
+ * @see ResultPackSegment
+ */
+
+public class ResultPackSegmentReader extends ResultPackSegment {
+	/** segment is mapped in windows of this size, so segments bigger than 2GB can be read (a MappedByteBuffer
+	 * can't be bigger than 2GB) and only the parts of the segment that are used are mapped */
+	protected static final long WINDOW_SIZE = 64L*1024*1024;
+	protected final File file;
+	protected final long size;
+	/** NULL until a record in that window is read */
+	protected final MappedByteBuffer[] windows;
+	protected final ArrayList<IndexEntry> index;
+	protected final HashMap<String,IndexEntry> by_name;
+	protected final boolean complete;
+
+	public static boolean exists(File dir) {
+		return new File(dir, FILE_NAME).isFile();
+	}
+
+	public ResultPackSegmentReader(File dir) throws IOException {
+		this.file = new File(dir, FILE_NAME);
+		this.size = file.length();
+		windows = new MappedByteBuffer[(int) ((size + WINDOW_SIZE - 1) / WINDOW_SIZE)];
+
+		if (size < MAGIC.length)
+			throw new IOException("not a result-pack segment (too short): "+file);
+		byte[] magic = new byte[MAGIC.length];
+		map(0, MAGIC.length).get(magic);
+		if (!java.util.Arrays.equals(magic, MAGIC))
+			throw new IOException("not a result-pack segment: "+file);
+
+		index = new ArrayList<IndexEntry>();
+		complete = readIndex();
+		if (!complete) {
+			// test run was interrupted before segment was closed. rebuild index from the records
+			scanRecords();
+		}
+		by_name = new HashMap<String,IndexEntry>(index.size()*2);
+		for ( IndexEntry e : index )
+			by_name.put(e.test_name, e);
+	}
+
+	/** returns a buffer for the given part of the segment (position 0 is offset)
+	 *
+	 * @param offset
+	 * @param length
+	 * @return
+	 * @throws IOException
+	 */
+	protected ByteBuffer map(long offset, long length) throws IOException {
+		if (offset < 0 || length < 0 || offset + length > size || length > Integer.MAX_VALUE)
+			throw new IOException("outside of segment (corrupt?): offset="+offset+" length="+length+" "+file);
+		final int w = (int) (offset / WINDOW_SIZE);
+		final long w_start = w * WINDOW_SIZE;
+		if (offset + length > w_start + WINDOW_SIZE)
+			// crosses into the next window (or bigger than a window): map just this part
+			return mapRegion(offset, length);
+		ByteBuffer b = getWindow(w).duplicate();
+		b.position((int) (offset - w_start));
+		b.limit((int) (offset - w_start + length));
+		return b.slice();
+	}
+
+	protected synchronized MappedByteBuffer getWindow(int w) throws IOException {
+		if (windows[w]==null)
+			windows[w] = mapRegion(w * WINDOW_SIZE, Math.min(WINDOW_SIZE, size - w * WINDOW_SIZE));
+		return windows[w];
+	}
+
+	protected MappedByteBuffer mapRegion(long offset, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			// mapping stays valid after the file is closed
+			return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+		} finally {
+			raf.close();
+		}
+	}
+
+	protected boolean readIndex() {
+		if (size < MAGIC.length + TRAILER_LENGTH)
+			return false;
+		try {
+			ByteBuffer b = map(size - TRAILER_LENGTH, TRAILER_LENGTH);
+			long index_offset = b.getLong();
+			int record_count = b.getInt();
+			byte[] magic = new byte[INDEX_MAGIC.length];
+			b.get(magic);
+			if (!java.util.Arrays.equals(magic, INDEX_MAGIC))
+				return false;
+			if (index_offset < MAGIC.length || index_offset > size - TRAILER_LENGTH || record_count < 0)
+				return false;
+
+			DataInputStream in = new DataInputStream(new ByteBufferInputStream(mapRegion(index_offset, size - TRAILER_LENGTH - index_offset)));
+			index.ensureCapacity(record_count);
+			for ( int i=0 ; i < record_count ; i++ ) {
+				String test_name = in.readUTF();
+				byte kind = in.readByte();
+				short status = in.readShort();
+				long offset = in.readLong();
+				index.add(new IndexEntry(test_name, kind, status, offset));
+			}
+		} catch ( IOException ex ) {
+			index.clear();
+			return false;
+		} catch ( BufferUnderflowException ex ) {
+			index.clear();
+			return false;
+		}
+		return true;
+	}
+
+	/** reads the records in order, without mapping them (any size of segment) */
+	protected void scanRecords() {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64*1024));
+			in.skipBytes(MAGIC.length);
+			long offset = MAGIC.length;
+			while (offset + 4 < size) {
+				int length = in.readInt();
+				if (length < 4 || offset + 4 + length > size)
+					break; // last record is incomplete
+				byte kind = in.readByte();
+				in.readByte(); // flags
+				short status = in.readShort();
+				// read name as bytes first, to know how much of the record is left
+				int utf_len = in.readUnsignedShort();
+				byte[] utf = new byte[2 + utf_len];
+				utf[0] = (byte) (utf_len >>> 8);
+				utf[1] = (byte) utf_len;
+				in.readFully(utf, 2, utf_len);
+				String test_name = new DataInputStream(new ByteArrayInputStream(utf)).readUTF();
+				index.add(new IndexEntry(test_name, kind, status, offset));
+				// skip payload (the rest of the record)
+				long skip = length - 4 - 2 - utf_len;
+				while (skip > 0) {
+					long n = in.skip(skip);
+					if (n < 1)
+						throw new EOFException();
+					skip -= n;
+				}
+				offset += 4 + length;
+			}
+		} catch ( IOException ex ) {
+			// incomplete record (segment was being written when PFTT was stopped)
+		} finally {
+			if (in!=null) {
+				try {
+					in.close();
+				} catch ( IOException ex ) {}
+			}
+		}
+	}
+
+	/** @return FALSE if segment was not closed (test run interrupted) */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public ArrayList<IndexEntry> getIndex() {
+		return index;
+	}
+
+	/** returns names of tests that have the given status, in the order they were written
+	 *
+	 * @param kind
+	 * @param status
+	 * @return
+	 */
+	public ArrayList<String> getTestNames(byte kind, int status) {
+		ArrayList<String> out = new ArrayList<String>();
+		for ( IndexEntry e : index ) {
+			if (e.kind==kind && e.status==status)
+				out.add(e.test_name);
+		}
+		return out;
+	}
+
+	public int count(byte kind, int status) {
+		int count = 0;
+		for ( IndexEntry e : index ) {
+			if (e.kind==kind && e.status==status)
+				count++;
+		}
+		return count;
+	}
+
+	public boolean hasRecord(String test_name) {
+		return by_name.containsKey(test_name);
+	}
+
+	/** reads result XML for test
+	 *
+	 * @param test_name
+	 * @return NULL if no result for test in segment (or only its status was recorded)
+	 * @throws IOException
+	 */
+	public String getRecordXml(String test_name) throws IOException {
+		IndexEntry e = by_name.get(test_name);
+		if (e==null)
+			return null;
+		int length = map(e.offset, 4).getInt();
+		ByteBuffer b = map(e.offset + 4, length);
+		b.get(); // kind
+		byte flags = b.get();
+		b.getShort(); // status
+		new DataInputStream(new ByteBufferInputStream(b)).readUTF();
+		int payload_len = b.getInt();
+		if (payload_len==0)
+			return null;
+		byte[] payload = new byte[payload_len];
+		b.get(payload);
+		if ((flags & FLAG_DEFLATED) != 0)
+			payload = inflate(payload);
+		return new String(payload, "UTF-8");
+	}
+
+	protected static byte[] inflate(byte[] payload) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(payload);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length * 4);
+			byte[] tmp = new byte[8*1024];
+			while (!inflater.finished()) {
+				int n = inflater.inflate(tmp);
+				if (n==0 && (inflater.needsInput()||inflater.needsDictionary()))
+					throw new IOException("truncated record");
+				out.write(tmp, 0, n);
+			}
+			return out.toByteArray();
+		} catch ( DataFormatException ex ) {
+			throw new IOException(ex);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	protected static class ByteBufferInputStream extends InputStream {
+		protected final ByteBuffer b;
+
+		protected ByteBufferInputStream(ByteBuffer b) {
+			this.b = b;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return b.hasRemaining() ? b.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int off, int len) throws IOException {
+			if (!b.hasRemaining())
+				return -1;
+			len = Math.min(len, b.remaining());
+			b.get(bytes, off, len);
+			return len;
+		}
+
+	} // end protected static class ByteBufferInputStream
+
+} // end public class ResultPackSegmentReader
@@ -0,0 +1,173 @@
+package com.mostc.pftt.results;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.zip.Deflater;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.kxml2.io.KXmlSerializer;
+
+/** Appends results to a segment file.
+ *
+ * @see ResultPackSegment
+ */
+
+@NotThreadSafe
+public class ResultPackSegmentWriter extends ResultPackSegment {
+	/** records are flushed to the file at least this often, so if PFTT is stopped or crashes, the results written
+	 * so far can still be read (@see ResultPackSegmentReader#scanRecords) */
+	protected static final int FLUSH_RECORDS = 64;
+	protected static final long FLUSH_MILLIS = 5000;
+	protected final File file;
+	protected final DataOutputStream out;
+	protected final ArrayList<IndexEntry> index;
+	protected final KXmlSerializer serial;
+	protected final ByteArrayOutputStream xml_buf;
+	protected final Deflater deflater;
+	protected final byte[] deflate_buf;
+	protected long offset, last_flush_millis;
+	protected int unflushed_count;
+	protected boolean closed;
+
+	public ResultPackSegmentWriter(File dir) throws IOException {
+		this.file = new File(dir, FILE_NAME);
+
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64*1024));
+		out.write(MAGIC);
+		out.flush();
+		offset = MAGIC.length;
+		last_flush_millis = System.currentTimeMillis();
+
+		index = new ArrayList<IndexEntry>(1024);
+		// records are read back by PFTT, not people, so no indenting (smaller)
+		serial = new KXmlSerializer();
+		xml_buf = new ByteArrayOutputStream(8*1024);
+		deflater = new Deflater(Deflater.BEST_SPEED);
+		deflate_buf = new byte[8*1024];
+	}
+
+	public void write(PhptTestResult result, boolean store_all) throws IllegalArgumentException, IllegalStateException, IOException {
+		xml_buf.reset();
+		serial.setOutput(xml_buf, "utf-8");
+		serial.startDocument("utf-8", null);
+		result.serial(serial, store_all, null);
+		serial.endDocument();
+		serial.flush();
+
+		append(KIND_PHPT, result.test_case.getName(), (short) result.status.ordinal(), xml_buf.toByteArray());
+	}
+
+	/** records just the test's name and status, without the result
+	 * 
+	 * @param result
+	 * @throws IOException
+	 */
+	public void writeIndexOnly(PhptTestResult result) throws IOException {
+		append(KIND_PHPT, result.test_case.getName(), (short) result.status.ordinal(), new byte[0]);
+	}
+
+	public void write(PhpUnitTestResult result) throws IllegalArgumentException, IllegalStateException, IOException {
+		xml_buf.reset();
+		serial.setOutput(xml_buf, "utf-8");
+		serial.startDocument("utf-8", null);
+		serial.setPrefix("pftt", "pftt");
+		serial.startTag("pftt", "phpUnitTestResult");
+		result.serial(serial);
+		if (result.extra!=null)
+			result.extra.serial(serial);
+		if (result.code_coverage!=null)
+			result.code_coverage.serial(serial);
+		serial.endTag("pftt", "phpUnitTestResult");
+		serial.endDocument();
+		serial.flush();
+
+		append(KIND_PHPUNIT, result.getName(), (short) result.status.ordinal(), xml_buf.toByteArray());
+	}
+
+	protected void append(byte kind, String test_name, short status, byte[] payload) throws IOException {
+		if (closed)
+			throw new IllegalStateException("can not write to closed segment");
+
+		byte flags = 0;
+		int payload_len = payload.length;
+		if (payload_len >= MIN_DEFLATE_LENGTH) {
+			byte[] deflated = deflate(payload);
+			if (deflated.length < payload_len) {
+				payload = deflated;
+				payload_len = deflated.length;
+				flags |= FLAG_DEFLATED;
+			}
+		}
+
+		// write record to a buffer first, so its length can be written before it
+		ByteArrayOutputStream rec_buf = new ByteArrayOutputStream(payload_len + test_name.length() + 16);
+		DataOutputStream rec = new DataOutputStream(rec_buf);
+		rec.writeByte(kind);
+		rec.writeByte(flags);
+		rec.writeShort(status);
+		rec.writeUTF(test_name);
+		rec.writeInt(payload_len);
+		rec.write(payload, 0, payload_len);
+		rec.flush();
+
+		index.add(new IndexEntry(test_name, kind, status, offset));
+
+		out.writeInt(rec_buf.size());
+		rec_buf.writeTo(out);
+		offset += 4 + rec_buf.size();
+		
+		if (++unflushed_count >= FLUSH_RECORDS || System.currentTimeMillis() - last_flush_millis >= FLUSH_MILLIS) {
+			out.flush();
+			unflushed_count = 0;
+			last_flush_millis = System.currentTimeMillis();
+		}
+	}
+
+	protected byte[] deflate(byte[] payload) {
+		deflater.reset();
+		deflater.setInput(payload);
+		deflater.finish();
+		ByteArrayOutputStream bout = new ByteArrayOutputStream(payload.length / 2);
+		while (!deflater.finished()) {
+			int n = deflater.deflate(deflate_buf);
+			bout.write(deflate_buf, 0, n);
+		}
+		return bout.toByteArray();
+	}
+
+	/** writes the index and closes the segment file */
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		final long index_offset = offset;
+		for ( IndexEntry e : index ) {
+			out.writeUTF(e.test_name);
+			out.writeByte(e.kind);
+			out.writeShort(e.status);
+			out.writeLong(e.offset);
+		}
+		out.writeLong(index_offset);
+		out.writeInt(index.size());
+		out.write(INDEX_MAGIC);
+		out.close();
+
+		deflater.end();
+	}
+
+	public int getRecordCount() {
+		return index.size();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+} // end public class ResultPackSegmentWriter
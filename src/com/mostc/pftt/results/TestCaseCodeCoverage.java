@@ -1,17 +1,23 @@
 package com.mostc.pftt.results;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 import org.xmlpull.v1.XmlSerializer;
 
 import com.github.mattficken.io.StringUtil;
 import com.mostc.pftt.host.AHost;
 
 /** Stores information about what parts of the code were executed, etc...
+ * 
+ * Line states of each file are stored in a LineStateBitmap and files are identified by their CodeCoverageFiles ID. The
+ * PHP code of files is only read when serialized and is shared with other tests (@see CodeCoverageFiles).
  * 
  * @see PhpParser
+ * @see CodeCoverageSummary
  * 
  * @author Matt Ficken
  *
@@ -26,23 +32,57 @@ public class TestCaseCodeCoverage implements ISerializer {
 			UNKNOWN
 		};
 		
-	protected final HashMap<String,FileInfo> file_map;
 	protected final AHost host;
 	protected final String file_root;
-	protected int class_count, method_count, line_count, class_exe, method_exe, line_exe;
+	protected int class_count, method_count, class_exe, method_exe;
+	/** IDs of files (@see CodeCoverageFiles) and line states of each file. tests only run a few files each, so these
+	 * are just searched in order */
+	protected int[] file_ids;
+	protected LineStateBitmap[] file_lines;
+	protected int file_count;
+	/** index of file last used. lines of a file are all reported together @see #parseOutput */
+	protected int last_index;
 	
 	public TestCaseCodeCoverage(AHost host, String file_root) {
 		this.host = host;
 		this.file_root = file_root;
-		file_map = new HashMap<String,FileInfo>();
+		file_ids = new int[2];
+		file_lines = new LineStateBitmap[2];
 	}
 	
 	public TestCaseCodeCoverage(AHost host) {
 		this(host, null);
 	}
 	
+	/** returns names of files (relative to file_root if given) */
 	public Set<String> getFileNames() {
-		return file_map.keySet();
+		LinkedHashSet<String> names = new LinkedHashSet<String>();
+		for ( int i=0 ; i < file_count ; i++ )
+			names.add(getDisplayName(file_ids[i]));
+		return names;
+	}
+	
+	protected String getDisplayName(int file_id) {
+		String filename = CodeCoverageFiles.getName(file_id);
+		return file_root == null ? filename : AHost.pathFrom(file_root, filename);
+	}
+	
+	public int getFileCount() {
+		return file_count;
+	}
+	
+	/** returns ID of the i'th file @see CodeCoverageFiles */
+	public int getFileId(int i) {
+		return file_ids[i];
+	}
+	
+	/** returns line states of the i'th file */
+	public LineStateBitmap getLineStates(int i) {
+		return file_lines[i];
+	}
+	
+	public boolean isEmpty() {
+		return file_count == 0;
 	}
 	
 	public int getTotalClassCount() {
@@ -52,7 +92,10 @@ public class TestCaseCodeCoverage implements ISerializer {
 		return method_count;
 	}
 	public int getTotalLineCount() {
-		return line_count;
+		int c = 0;
+		for ( int i=0 ; i < file_count ; i++ )
+			c += file_lines[i].countExecutable();
+		return c;
 	}
 	public int getExecutedClassCount() {
 		return class_exe;
@@ -61,45 +104,72 @@ public class TestCaseCodeCoverage implements ISerializer {
 		return method_exe;
 	}
 	public int getExecutedLineCount() {
-		return line_exe;
+		int c = 0;
+		for ( int i=0 ; i < file_count ; i++ )
+			c += file_lines[i].countExecuted();
+		return c;
 	}
 	
-	protected static class FileInfo {
-		protected final HashMap<Integer,ELineState> line_map;
-		protected final String php_code;
-		
-		public FileInfo(String php_code) {
-			this.php_code = php_code;
-			line_map = new HashMap<Integer,ELineState>();
+	/** returns index of file or -1 if none */
+	protected int indexOf(int file_id) {
+		if (last_index < file_count && file_ids[last_index]==file_id)
+			return last_index;
+		for ( int i=0 ; i < file_count ; i++ ) {
+			if (file_ids[i]==file_id) {
+				last_index = i;
+				return i;
+			}
 		}
+		return -1;
 	}
 	
-	public void setLineState(String filename, int line_num, ELineState stat) {
-		FileInfo file_info = file_map.get(filename);
-		if (file_info==null) {
-			file_info = new FileInfo(host == null ? null : host.mReadFileAsStringEx(filename));
-			
-			file_map.put(file_root == null ? filename : AHost.pathFrom(file_root, filename), file_info);
-		} else {
-			file_info.line_map.put(line_num, stat);
+	protected LineStateBitmap getCreateLineStates(int file_id) {
+		int i = indexOf(file_id);
+		if (i!=-1)
+			return file_lines[i];
+		if (file_count==file_ids.length) {
+			int[] ids = new int[file_count*2];
+			System.arraycopy(file_ids, 0, ids, 0, file_count);
+			file_ids = ids;
+			LineStateBitmap[] lines = new LineStateBitmap[file_count*2];
+			System.arraycopy(file_lines, 0, lines, 0, file_count);
+			file_lines = lines;
 		}
+		file_ids[file_count] = file_id;
+		LineStateBitmap lines = file_lines[file_count] = new LineStateBitmap();
+		last_index = file_count++;
+		return lines;
+	}
+	
+	@Nullable
+	protected LineStateBitmap getLineStates(String filename) {
+		int file_id = CodeCoverageFiles.findId(filename);
+		if (file_id==-1)
+			return null;
+		int i = indexOf(file_id);
+		return i == -1 ? null : file_lines[i];
+	}
+	
+	public void setLineState(String filename, int line_num, ELineState stat) {
+		getCreateLineStates(CodeCoverageFiles.getId(filename)).set(line_num, LineStateBitmap.toState(stat));
 	}
 	
 	public ELineState getLineState(String filename, int line_num) {
-		FileInfo file_info = file_map.get(filename);
-		if (file_info==null)
-			return ELineState.UNKNOWN;
-		ELineState state = file_info.line_map.get(line_num);
-		return state == null ? ELineState.UNKNOWN : state;
+		LineStateBitmap lines = getLineStates(filename);
+		return lines == null ? ELineState.UNKNOWN : LineStateBitmap.toLineState(lines.get(line_num));
 	}
 	
 	public boolean isExecuted(String filename, int line_num) {
-		return getLineState(filename, line_num) == ELineState.EXECUTED;
+		LineStateBitmap lines = getLineStates(filename);
+		return lines != null && lines.get(line_num) == LineStateBitmap.EXECUTED;
 	}
 	
+	/** returns PHP code of file (shared with other tests that ran it) or NULL if not in this code coverage */
+	@Nullable
 	public String getPhpCode(String filename) {
-		FileInfo file_info = file_map.get(filename);
-		return file_info == null ? null : file_info.php_code;
+		if (getLineStates(filename)==null)
+			return null;
+		return CodeCoverageFiles.getPhpCode(host, CodeCoverageFiles.findId(filename));
 	}
 
 	public void addExecutedLine(String filename, int line_num) {
@@ -113,6 +183,107 @@ public class TestCaseCodeCoverage implements ISerializer {
 	public void addNonExecutableLine(String filename, int line_num) {
 		setLineState(filename, line_num, ELineState.NOT_EXECUTABLE);
 	}
+	
+	/** merges code coverage of another test into this one. a line is EXECUTED if either test executed it.
+	 * 
+	 * @param other
+	 */
+	public void merge(TestCaseCodeCoverage other) {
+		for ( int i=0 ; i < other.file_count ; i++ )
+			getCreateLineStates(other.file_ids[i]).merge(other.file_lines[i]);
+		class_count += other.class_count;
+		class_exe += other.class_exe;
+		method_count += other.method_count;
+		method_exe += other.method_exe;
+	}
+	
+	/** reads code coverage lines from the output of a test and returns the output without them.
+	 * 
+	 * SPEC: xdebug template prints, mixed in with the test's own output:
+	 * file=<filename>
+	 * exe=<line num>
+	 * didnt_exe=<line num>
+	 * no_exe=<line num>
+	 * 
+	 * Scans the output in place (doesn't split it into a String for each line). Other lines are kept as they are
+	 * (including their line endings). If there are no code coverage lines, the same String is returned.
+	 * 
+	 * @see PhpUnitTemplate#renderXDebugPhptTemplate
+	 * @see PhpUnitTemplate#renderTemplate
+	 * @param output
+	 * @param filename - file that lines are for until the first file= line (NULL if none)
+	 * @return
+	 */
+	public String parseOutput(String output, @Nullable String filename) {
+		if (output==null)
+			return null;
+		final int len = output.length();
+		int file_id = filename == null ? -1 : CodeCoverageFiles.getId(filename);
+		StringBuilder sb = null;
+		// start of output that hasn't been copied to sb yet
+		int keep_start = 0;
+		int start = 0, end, next, state, line_num;
+		while (start < len) {
+			next = output.indexOf('\n', start);
+			if (next==-1) {
+				end = next = len;
+			} else {
+				end = next++;
+			}
+			if (end > start && output.charAt(end-1)=='\r')
+				end--;
+			
+			state = -1;
+			line_num = -1;
+			if (output.startsWith("exe=", start)) {
+				state = LineStateBitmap.EXECUTED;
+				line_num = parseLineNum(output, start + 4, end);
+			} else if (output.startsWith("didnt_exe=", start)) {
+				state = LineStateBitmap.NOT_EXECUTED;
+				line_num = parseLineNum(output, start + 10, end);
+			} else if (output.startsWith("no_exe=", start)) {
+				state = LineStateBitmap.NOT_EXECUTABLE;
+				line_num = parseLineNum(output, start + 7, end);
+			} else if (output.startsWith("file=", start)) {
+				file_id = CodeCoverageFiles.getId(output.substring(start + 5, end));
+				state = LineStateBitmap.UNKNOWN;
+			}
+			if (state==-1 || (state!=LineStateBitmap.UNKNOWN && line_num==-1)) {
+				// not a code coverage line: keep in output
+				start = next;
+				continue;
+			}
+			if (state!=LineStateBitmap.UNKNOWN && file_id!=-1)
+				getCreateLineStates(file_id).set(line_num, state);
+			
+			// remove line from output
+			if (sb==null)
+				sb = new StringBuilder(len);
+			sb.append(output, keep_start, start);
+			keep_start = start = next;
+		}
+		if (sb==null)
+			return output;
+		sb.append(output, keep_start, len);
+		return sb.toString();
+	} // end public String parseOutput
+	
+	/** returns line number or -1 if not a number */
+	protected static int parseLineNum(String output, int start, int end) {
+		while (end > start && Character.isWhitespace(output.charAt(end-1)))
+			end--;
+		if (start >= end || end - start > 9)
+			return -1;
+		int n = 0;
+		char c;
+		for ( int i=start ; i < end ; i++ ) {
+			c = output.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			n = n * 10 + ( c - '0' );
+		}
+		return n;
+	}
 
 	@Override
 	public void serial(XmlSerializer serial) throws IllegalArgumentException, IllegalStateException, IOException {
@@ -126,21 +297,21 @@ public class TestCaseCodeCoverage implements ISerializer {
 		serial.attribute("pftt", "countExecutedLines", Integer.toString(getExecutedLineCount()));
 		
 		
-		for ( String filename : file_map.keySet() ) {
-			FileInfo file_info = file_map.get(filename);
+		for ( int i=0 ; i < file_count ; i++ ) {
+			LineStateBitmap line_states = file_lines[i];
 			serial.startTag("pftt", "file");
-			serial.attribute("pftt", "filename", filename);
-			String[] lines = StringUtil.splitLines(file_info.php_code);
-			for ( int line_num : file_info.line_map.keySet() ) {
+			serial.attribute("pftt", "filename", getDisplayName(file_ids[i]));
+			String[] lines = StringUtil.splitLines(CodeCoverageFiles.getPhpCode(host, file_ids[i]));
+			for ( int line_num = line_states.nextLine(0) ; line_num != -1 ; line_num = line_states.nextLine(line_num+1) ) {
 				String line_tag;
-				switch(file_info.line_map.get(line_num)) {
-				case EXECUTED:
+				switch(line_states.get(line_num)) {
+				case LineStateBitmap.EXECUTED:
 					line_tag = "exeLine";
 					break;
-				case NOT_EXECUTED:
+				case LineStateBitmap.NOT_EXECUTED:
 					line_tag = "notExeLine";
 					break;
-				case NOT_EXECUTABLE:
+				case LineStateBitmap.NOT_EXECUTABLE:
 					line_tag = "notExecutable";
 					break;
 				default:
@@ -149,8 +320,9 @@ public class TestCaseCodeCoverage implements ISerializer {
 				}
 				serial.startTag("pftt", line_tag);
 				serial.attribute("pftt", "line_num", Integer.toString(line_num));
-				if (line_num < lines.length)
-					serial.text(lines[line_num]);
+				// line numbers start at 1
+				if (line_num > 0 && line_num <= lines.length)
+					serial.text(lines[line_num-1]);
 				serial.endTag("pftt", line_tag);
 			}
 			serial.endTag("pftt", "file");
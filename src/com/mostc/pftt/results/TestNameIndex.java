@@ -0,0 +1,125 @@
+package com.mostc.pftt.results;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/** Gives each test name a small int ID so lists of test names (ex: all FAILs of a scenario set) can be stored
+ * as BitSets and compared with set operations (difference, intersection, union) in O(number of tests / 64)
+ * instead of comparing lists of strings (which is O(n*m)).
+ *
+ * BitSets from different TestNameIndexes can't be compared. Use 1 TestNameIndex for everything being compared
+ * (ex: both result-packs of a report).
+ *
+ * @see AbstractTestResultRW#getTestNameBitSet
+ */
+
+public class TestNameIndex {
+	protected final HashMap<String,Integer> ids;
+	protected final ArrayList<String> names;
+
+	public TestNameIndex() {
+		ids = new HashMap<String,Integer>(16384);
+		names = new ArrayList<String>(16384);
+	}
+
+	/** returns ID of test name, adding it to this index if needed
+	 *
+	 * @param test_name
+	 * @return
+	 */
+	public synchronized int getId(String test_name) {
+		Integer id = ids.get(test_name);
+		if (id==null) {
+			id = names.size();
+			// intern: same name from each result-pack is stored only once
+			names.add(test_name);
+			ids.put(test_name, id);
+		}
+		return id;
+	}
+
+	/** returns ID of test name or -1 if test name isn't in this index (doesn't add it)
+	 *
+	 * @param test_name
+	 * @return
+	 */
+	public synchronized int findId(String test_name) {
+		Integer id = ids.get(test_name);
+		return id == null ? -1 : id;
+	}
+
+	public synchronized String getName(int id) {
+		return names.get(id);
+	}
+
+	public synchronized int size() {
+		return names.size();
+	}
+
+	public BitSet toBitSet(Collection<String> test_names) {
+		BitSet bits = new BitSet(size());
+		if (test_names!=null) {
+			synchronized(this) {
+				for ( String test_name : test_names )
+					bits.set(getId(test_name));
+			}
+		}
+		return bits;
+	}
+
+	/** returns names of the tests in the BitSet (in the order they were added to this index)
+	 *
+	 * @param bits
+	 * @return
+	 */
+	public List<String> toNames(BitSet bits) {
+		ArrayList<String> out = new ArrayList<String>(bits.cardinality());
+		synchronized(this) {
+			for ( int i = bits.nextSetBit(0) ; i >= 0 ; i = bits.nextSetBit(i+1) )
+				out.add(names.get(i));
+		}
+		return out;
+	}
+
+	public List<String> toSortedNames(BitSet bits) {
+		List<String> out = toNames(bits);
+		Collections.sort(out);
+		return out;
+	}
+
+	/** returns a new BitSet of tests in A that aren't in B (doesn't change A or B) */
+	public static BitSet andNot(BitSet a, BitSet b) {
+		BitSet c = (BitSet) a.clone();
+		c.andNot(b);
+		return c;
+	}
+
+	/** returns a new BitSet of tests in both A and B (doesn't change A or B) */
+	public static BitSet and(BitSet a, BitSet b) {
+		BitSet c = (BitSet) a.clone();
+		c.and(b);
+		return c;
+	}
+
+	/** returns a new BitSet of tests in A or B (doesn't change A or B) */
+	public static BitSet or(BitSet a, BitSet b) {
+		BitSet c = (BitSet) a.clone();
+		c.or(b);
+		return c;
+	}
+
+	/** returns names of tests in A that aren't in B
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public List<String> listANotInB(Collection<String> a, Collection<String> b) {
+		return toNames(andNot(toBitSet(a), toBitSet(b)));
+	}
+
+} // end public class TestNameIndex
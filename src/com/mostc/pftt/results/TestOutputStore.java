@@ -0,0 +1,230 @@
+package com.mostc.pftt.results;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nullable;
+
+import com.mostc.pftt.host.LocalHost;
+
+/** Stores the output of tests (by test name) using a limited amount of memory.
+ *
+ * The most recently stored/used outputs are kept in memory. When they use more than the memory budget, the least recently
+ * used outputs are compressed and moved to a file (spill file). #get reads them back from the file when needed.
+ *
+ * Large application test-packs (Symfony, WordPress, MediaWiki, etc...) can have thousands of failures with long outputs,
+ * which would use up the heap if all kept in memory until the end of the test run.
+ *
+ * The spill file is only an overflow for this store (the index is only in memory), its deleted when this is closed.
+ * Its created in the local host's temp dir (not the result-pack) so it never gets zipped or uploaded with the results,
+ * even if the store is kept open until PFTT exits (@see PhpUnitResultWriter store_output).
+ *
+ * Thread-safe.
+ *
+ * @see PhpUnitResultWriter
+ */
+
+public class TestOutputStore {
+	/** outputs shorter than this aren't compressed */
+	protected static final int MIN_DEFLATE_LENGTH = 256;
+	/** NULL until first output is spilled */
+	protected File spill_file;
+	protected final long max_memory_bytes;
+	/** access-ordered: first entry is least recently used */
+	protected final LinkedHashMap<String,String> memory;
+	/** test name -> where output is in spill file */
+	protected final HashMap<String,SpillEntry> spilled;
+	protected long memory_bytes;
+	protected RandomAccessFile spill;
+	protected boolean spill_failed, closed;
+	protected Deflater deflater;
+	protected byte[] deflate_buf;
+
+	public TestOutputStore() {
+		this(getDefaultMaxMemoryBytes());
+	}
+
+	/**
+	 *
+	 * @param max_memory_bytes - approximate most memory to use for outputs kept in memory
+	 */
+	public TestOutputStore(long max_memory_bytes) {
+		this.max_memory_bytes = max_memory_bytes;
+		memory = new LinkedHashMap<String,String>(800, 0.75f, true);
+		spilled = new HashMap<String,SpillEntry>();
+	}
+
+	/** 1/32 of max heap, up to 64MB (there is a store for each scenario set and host being tested) */
+	public static long getDefaultMaxMemoryBytes() {
+		return Math.max(4*1024*1024, Math.min(64*1024*1024, Runtime.getRuntime().maxMemory() / 32));
+	}
+
+	protected static class SpillEntry {
+		protected final long offset;
+		protected final int length, raw_length;
+		protected final boolean deflated;
+
+		protected SpillEntry(long offset, int length, int raw_length, boolean deflated) {
+			this.offset = offset;
+			this.length = length;
+			this.raw_length = raw_length;
+			this.deflated = deflated;
+		}
+	} // end protected static class SpillEntry
+
+	/** approximate memory used by a String (chars are 2 bytes) */
+	protected static long sizeOf(String test_name, String output) {
+		return 2L * ( test_name.length() + output.length() ) + 64;
+	}
+
+	public synchronized void put(String test_name, String output) {
+		if (closed)
+			return;
+		String old = memory.put(test_name, output);
+		if (old!=null)
+			memory_bytes -= sizeOf(test_name, old);
+		// old copy in spill file (if any) is left there, but won't be found anymore
+		spilled.remove(test_name);
+		memory_bytes += sizeOf(test_name, output);
+
+		if (memory_bytes > max_memory_bytes)
+			spillLeastRecentlyUsed();
+	}
+
+	/** returns output of test or NULL if not stored */
+	@Nullable
+	public synchronized String get(String test_name) {
+		String output = memory.get(test_name);
+		if (output!=null)
+			return output;
+		SpillEntry e = spilled.get(test_name);
+		if (e==null)
+			return null;
+		try {
+			return read(e);
+		} catch ( Exception ex ) {
+			ConsoleManagerUtil.printStackTrace(TestOutputStore.class, ex);
+			return null;
+		}
+	}
+
+	public synchronized boolean containsKey(String test_name) {
+		return memory.containsKey(test_name) || spilled.containsKey(test_name);
+	}
+
+	public synchronized int size() {
+		return memory.size() + spilled.size();
+	}
+
+	/** returns number of outputs that have been moved to the spill file */
+	public synchronized int getSpilledCount() {
+		return spilled.size();
+	}
+
+	protected void spillLeastRecentlyUsed() {
+		if (spill_failed)
+			// keep everything in memory (like before)
+			return;
+		// spill until well under budget so this doesn't happen again on the next #put
+		final long target = max_memory_bytes * 3 / 4;
+		Iterator<Map.Entry<String,String>> it = memory.entrySet().iterator();
+		while (memory_bytes > target && it.hasNext()) {
+			Map.Entry<String,String> e = it.next();
+			try {
+				spilled.put(e.getKey(), write(e.getValue()));
+			} catch ( IOException ex ) {
+				ConsoleManagerUtil.printStackTrace(TestOutputStore.class, ex);
+				spill_failed = true;
+				return;
+			}
+			memory_bytes -= sizeOf(e.getKey(), e.getValue());
+			it.remove();
+		}
+	}
+
+	protected SpillEntry write(String output) throws IOException {
+		if (spill==null) {
+			spill_file = new File(LocalHost.getInstance().mCreateTempName(TestOutputStore.class, ".bin"));
+			spill_file.getParentFile().mkdirs();
+			spill = new RandomAccessFile(spill_file, "rw");
+			spill.setLength(0);
+			// in case #close isn't called (ex: outputs kept until PFTT exits)
+			spill_file.deleteOnExit();
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			deflate_buf = new byte[8*1024];
+		}
+		byte[] raw = output.getBytes("UTF-8");
+		byte[] data = raw;
+		boolean deflated = false;
+		if (raw.length >= MIN_DEFLATE_LENGTH) {
+			deflater.reset();
+			deflater.setInput(raw);
+			deflater.finish();
+			ByteArrayOutputStream bout = new ByteArrayOutputStream(raw.length / 4);
+			while (!deflater.finished()) {
+				int n = deflater.deflate(deflate_buf);
+				bout.write(deflate_buf, 0, n);
+			}
+			if (bout.size() < raw.length) {
+				data = bout.toByteArray();
+				deflated = true;
+			}
+		}
+		final long offset = spill.length();
+		spill.seek(offset);
+		spill.write(data);
+		return new SpillEntry(offset, data.length, raw.length, deflated);
+	}
+
+	protected String read(SpillEntry e) throws IOException, DataFormatException {
+		byte[] data = new byte[e.length];
+		spill.seek(e.offset);
+		spill.readFully(data);
+		if (!e.deflated)
+			return new String(data, "UTF-8");
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+			byte[] raw = new byte[e.raw_length];
+			int off = 0;
+			while (off < raw.length && !inflater.finished()) {
+				int n = inflater.inflate(raw, off, raw.length - off);
+				if (n==0 && (inflater.needsInput()||inflater.needsDictionary()))
+					throw new DataFormatException("truncated output in spill file");
+				off += n;
+			}
+			return new String(raw, 0, off, "UTF-8");
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/** frees memory and deletes spill file. #get will return NULL after this */
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		memory.clear();
+		spilled.clear();
+		memory_bytes = 0;
+		if (deflater!=null)
+			deflater.end();
+		if (spill!=null) {
+			try {
+				spill.close();
+			} catch ( IOException ex ) {}
+			spill = null;
+			spill_file.delete();
+		}
+	}
+
+} // end public class TestOutputStore
@@ -11,6 +11,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -47,11 +48,16 @@ import com.mostc.pftt.scenario.WebServerScenario;
 import com.mostc.pftt.scenario.ScenarioSet;
 import com.mostc.pftt.scenario.FileSystemScenario.ITestPackStorageDir;
 import com.mostc.pftt.scenario.ScenarioSetSetup;
+import com.mostc.pftt.util.TimerUtil;
 
 /**
  * 
  * Dynamic Thread Pooling: dynamically increases and decreases the number of threads used to run tests
- * as slower or faster test are encountered to maximize cpu utilization.
+ * as slower tests are encountered and as the host gets more or less busy, to maximize cpu utilization
+ * without oversubscribing the host (@see HostLoadMonitor).
+ * 
+ * Threads that finish their own group share (steal) tests from groups other threads are running. Stuck tests
+ * are found by a deadline scheduled for each test instead of scanning all threads.
  * 
  */
 
@@ -66,6 +72,13 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 	protected AtomicReference<ETestPackRunnerState> runner_state;
 	protected final AtomicInteger test_count;
 	protected LinkedBlockingQueue<TestPackThread<T>> threads; 
+	/** NULL unless running several scenario sets at the same time */
+	protected TestThreadBudget thread_budget;
+	/** FALSE if caller already cleaned up the test-pack @see #runAllTests */
+	protected boolean cleanup_test_pack = true;
+	/** notified whenever a thread is removed from #threads */
+	protected final Object threads_lock = new Object();
+	protected HostLoadMonitor load_monitor;
 	protected HashMap<TestCaseGroupKey,TestCaseGroup<T>> thread_safe_tests = new HashMap<TestCaseGroupKey,TestCaseGroup<T>>();
 	protected HashMap<String[],NonThreadSafeExt<T>> non_thread_safe_tests = new HashMap<String[],NonThreadSafeExt<T>>();
 	protected ScenarioSetSetup scenario_set_setup;
@@ -97,6 +110,10 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 	public static class TestCaseGroup<T extends TestCase> {
 		public TestCaseGroupKey group_key;
 		public LinkedBlockingQueue<T> test_cases;
+		/** predicted run time of all tests in group (0 if unknown) @see TestRunTimeHistory */
+		public float predicted_micros;
+		/** number of threads running tests from this group */
+		protected final AtomicInteger thread_count = new AtomicInteger();
 		
 		protected TestCaseGroup(TestCaseGroupKey group_key) {
 			this.group_key = group_key;
@@ -106,6 +123,7 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 		public TestCaseGroup<T> clone() {
 			TestCaseGroup<T> c = new TestCaseGroup<T>(this.group_key);
 			c.test_cases.addAll(this.test_cases);
+			c.predicted_micros = this.predicted_micros;
 			return c;
 		}
 
@@ -564,6 +582,11 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 			init_thread_count = max_thread_count = cm.getThreadCount();
 		} 
 		checkThreadCountLimit();
+		if (thread_budget!=null) {
+			// start with an equal share of the threads. scale up later if other scenario sets leave threads idle
+			init_thread_count = Math.max(1, Math.min(init_thread_count, thread_budget.getShare()));
+			max_thread_count = Math.max(init_thread_count, Math.min(max_thread_count, thread_budget.getTotalThreads()));
+		}
 	} // end protected void decideThreadCount
 	
 	protected void checkThreadCountLimit() {
@@ -579,60 +602,42 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 	
 	protected void executeTestCases(boolean parallel) throws InterruptedException, IllegalStateException, IOException {
 		decideThreadCount();
+		load_monitor = new HostLoadMonitor(runner_host.getCPUCount());
 		cm.println(EPrintType.IN_PROGRESS, getClass(), "Starting up Test Threads: thread_count="+init_thread_count+" max="+max_thread_count+" runner_host="+runner_host+" sapi_scenario="+sapi_scenario);
 			
 		test_count.set(0);
 		
 		for ( int i=0 ; i < init_thread_count ; i++ ) { 
-			start_thread(parallel);
+			// always start at least 1 thread
+			if (start_thread(parallel, i==0)==null)
+				break;
 		}
 		
 		// block until done
+		//
+		// threads remove themselves from #threads when they're done (or are removed by TestDeadlineTask if they get stuck)
 		{
-			boolean not_running;
-			Iterator<TestPackThread<T>> thread_it;
-			TestPackThread<T> thread;
-			long test_run_start_time;
 			for (;;) {
-				not_running = threads.isEmpty();
-				thread_it = threads.iterator();
-				while(thread_it.hasNext()) {
-					thread = thread_it.next();
-					test_run_start_time = thread.test_run_start_time.get();
-					// TODO 120 seconds => don't hard code it here
-					//
-					// sometimes, some tests can get stuck - this is really bad. it totally blocks everything up
-					// this is another safety mechanism to prevent that:
-					//
-					// run a timer task while the test is running to kill the test if it takes too long
-					//
-					// wait a while before killing it (double the max runtime for the test)
-					if (!thread.shouldRun()||(test_run_start_time>0&&Math.abs(System.currentTimeMillis()-test_run_start_time)>PhptTestCase.MAX_TEST_TIME_SECONDS*2000)) {
-						// thread running too long
-						if (thread.isDebuggerAttached()) {
-							not_running = false; // keep running
-							break;
-						} else if ((thread.jobs!=null&&!thread.jobs.isEmpty())||(thread.ext!=null&&!thread.ext.test_groups.isEmpty())) {
-							thread.replaceThisThread();
-							threads.remove(thread);
-						} else {
-							// thread not doing anything... kill it
-							thread.stopThisThread();
-							threads.remove(thread);
-						}
-						continue;
-					} else if (Math.abs(System.currentTimeMillis()-test_run_start_time)>=sapi_scenario.getSlowTestTimeSeconds()*1000) {
-						if (thread.canCreateNewThread()) {
-							thread.createNewThread();
+				LinkedList<TestPackThread<T>> stopped = null;
+				synchronized(threads_lock) {
+					if (threads.isEmpty())
+						break;
+					// wakes up when a thread is removed or runner is stopped (@see #setState), or to check -max_run_time_millis
+					threads_lock.wait(1000);
+					for ( TestPackThread<T> t : threads ) {
+						if (!t.shouldRun() && !t.isDebuggerAttached()) {
+							if (stopped==null)
+								stopped = new LinkedList<TestPackThread<T>>();
+							stopped.add(t);
 						}
 					}
 				}
-				if (not_running) {
-					// no threads have jobs left to do, stop waiting
-					break;
-				} else {
-					// wait a while before checking again
-					Thread.sleep(threads.size()>3?1000:50);
+				if (stopped!=null) {
+					// stopping: don't wait for stuck tests to reach their TestDeadlineTask
+					for ( TestPackThread<T> t : stopped ) {
+						t.stopThisThread();
+						removeThread(t);
+					}
 				}
 			}
 			// wait for queued results to be written before returning
@@ -643,8 +648,64 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 		}
 	} // end protected void executeTestCases
 		
+	protected void removeThread(TestPackThread<?> t) {
+		synchronized(threads_lock) {
+			while (threads.remove(t)) {}
+			threads_lock.notifyAll();
+		}
+		if (t.holds_budget.compareAndSet(true, false))
+			thread_budget.release();
+	}
+	
+	/** shares threads with runners for other scenario sets running at the same time
+	 * 
+	 * @see -concurrent_scenario_sets console option
+	 * @param thread_budget
+	 */
+	public void setThreadBudget(@Nullable TestThreadBudget thread_budget) {
+		this.thread_budget = thread_budget;
+	}
+	
+	/** if FALSE, #runAllTests won't cleanup the test-pack. caller should cleanup once before running scenario sets
+	 * at the same time, otherwise one scenario set may cleanup while another is installing from the test-pack
+	 * 
+	 * @see -concurrent_scenario_sets console option
+	 * @param cleanup_test_pack
+	 */
+	public void setCleanupTestPack(boolean cleanup_test_pack) {
+		this.cleanup_test_pack = cleanup_test_pack;
+	}
+	
 	protected TestPackThread<T> start_thread(boolean parallel) throws IllegalStateException, IOException {
-		TestPackThread<T> t = createTestPackThread(parallel);
+		return start_thread(parallel, true);
+	}
+	
+	/**
+	 * 
+	 * @param parallel
+	 * @param force - TRUE to start thread even if other scenario sets are using all the threads @see TestThreadBudget
+	 * @return NULL if thread not started
+	 * @throws IllegalStateException
+	 * @throws IOException
+	 */
+	@Nullable
+	protected TestPackThread<T> start_thread(boolean parallel, boolean force) throws IllegalStateException, IOException {
+		final TestThreadBudget thread_budget = this.thread_budget;
+		if (thread_budget!=null && !thread_budget.acquire(force))
+			return null;
+		TestPackThread<T> t;
+		try {
+			t = createTestPackThread(parallel);
+		} catch ( IOException ex ) {
+			if (thread_budget!=null)
+				thread_budget.release();
+			throw ex;
+		} catch ( RuntimeException ex ) {
+			if (thread_budget!=null)
+				thread_budget.release();
+			throw ex;
+		}
+		t.holds_budget.set(thread_budget!=null);
 		threads.add(t);
 		// if running Swing UI, run thread minimum priority in favor of Swing EDT
 		t.setPriority(Thread.MIN_PRIORITY);
@@ -659,7 +720,10 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 		protected final boolean parallel;
 		protected final int run_test_times_all;
 		protected final AtomicLong test_run_start_time;
-		protected final LinkedList<TestPackThread<T>> scale_up_threads = new LinkedList<TestPackThread<T>>();
+		/** TRUE if thread was added to handle slow tests or a lightly loaded host (can be removed if host gets too busy) */
+		protected boolean scale_up;
+		/** TRUE if thread counts against #thread_budget */
+		protected final AtomicBoolean holds_budget = new AtomicBoolean();
 		protected TestCaseGroupKey group_key;
 		protected NonThreadSafeExt<T> ext;
 		protected TestCaseGroup<T> group;
@@ -719,8 +783,6 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 					}
 				}
 			} finally {
-				threads.remove(Thread.currentThread());
-				
 				if (thread_wsi!=null) {
 					if (thread_wsi.isCrashedAndDebugged()||thread_wsi.isDebuggerAttached()) {
 						// let it keep running
@@ -730,10 +792,12 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 					}
 				}
 				
-				if (threads.size()==0&&shouldRun()&&(!thread_safe_groups.isEmpty()||!non_thread_safe_exts.isEmpty())) {
+				if (threads.size()<=1&&shouldRun()&&(!thread_safe_groups.isEmpty()||!non_thread_safe_exts.isEmpty())) {
 					//// TODO temp azure test 
+					// replace before removing this thread so #executeTestCases doesn't see an empty pool and return early
 					createNewThread();
 				}
+				removeThread(this);
 				
 				cm.println(EPrintType.CLUE, getClass(), "Thread Pool: THREAD FINISHED. pool size="+threads.size());
 			}
@@ -796,17 +860,50 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 			while (shouldRun()) {
 				// thread-safe can share groups between threads
 				// (this allows larger groups to be distributed  between threads)
-				group = thread_safe_groups.peek();
+				group = pickThreadSafeGroup();
 				if (group==null) {
 					break;
 				} else if (group.test_cases.isEmpty()) {
 					while (thread_safe_groups.remove(group)) {}
 				} else {
-					exec_jobs(false, group.group_key, group.test_cases);
+					group.thread_count.incrementAndGet();
+					try {
+						exec_jobs(false, group.group_key, group.test_cases);
+					} finally {
+						group.thread_count.decrementAndGet();
+					}
 				}
 			}
 		} // end protected void runThreadSafe
 		
+		/** picks the first group (groups are in the order they should be started in @see #postGroup) that
+		 * no other thread is running. if every group is already being run, shares (steals tests from) the
+		 * group with the most tests left.
+		 * 
+		 * Threads stay on their own group as long as possible (fewer group changes, which may
+		 * require web server restarts) and help with other groups only when they'd otherwise be idle.
+		 * 
+		 * @return NULL if no thread-safe tests left
+		 */
+		protected TestCaseGroup<T> pickThreadSafeGroup() {
+			TestCaseGroup<T> steal = null;
+			int steal_size = 0, size;
+			for ( TestCaseGroup<T> g : thread_safe_groups ) {
+				size = g.test_cases.size();
+				if (size==0) {
+					// done (or last tests being run by other threads)
+					thread_safe_groups.remove(g);
+					continue;
+				} else if (g.thread_count.get()==0) {
+					return g;
+				} else if (size > steal_size) {
+					steal = g;
+					steal_size = size;
+				}
+			}
+			return steal;
+		} // end protected TestCaseGroup<T> pickThreadSafeGroup
+		
 		@Override
 		public UncaughtExceptionHandler getUncaughtExceptionHandler() {
 			return this;
@@ -848,6 +945,13 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 				}
 				completed_tests.add(test_case);
 				test_run_start_time.set(System.currentTimeMillis());
+				// sometimes, some tests can get stuck - this is really bad. it totally blocks everything up
+				// this is another safety mechanism to prevent that:
+				//
+				// wait a while before killing it (double the max runtime for the test)
+				ScheduledFuture<?> deadline = TimerUtil.scheduleSeconds(PhptTestCase.MAX_TEST_TIME_SECONDS*2, new TestDeadlineTask(test_case));
+				// if test is slow, add another thread so other tests keep running
+				ScheduledFuture<?> slow_deadline = TimerUtil.scheduleSeconds(sapi_scenario.getSlowTestTimeSeconds(), new SlowTestTask(test_case));
 				//
 				
 				int a = run_test_times_all;
@@ -917,17 +1021,6 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 					
 						// finally: create the test case runner and run the actual test
 						runTest(group_key, test_case, debugger_attached);
-						
-						// if test took too long OR tests are running fast now
-						if (
-								ext==null
-								&&Math.abs(System.currentTimeMillis() - test_run_start_time.get()) < 4*sapi_scenario.getFastTestTimeSeconds()*1000
-								&&threads.size()>1
-								&&scale_up_threads.contains(Thread.currentThread())) {
-							cm.println(EPrintType.CLUE, getClass(), "Thread Pool: SCALE DOWN");
-							this.stopThisThread();
-							break;
-						}
 					} catch ( InterruptedException ex ) {
 						ConsoleManagerUtil.printStackTraceDebug(AbstractLocalTestPackRunner.class, cm, ex);
 						
@@ -950,6 +1043,9 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 						ConsoleManagerUtil.printStackTraceDebug(AbstractLocalTestPackRunner.class, cm, ex);
 					}
 				} // end for
+				// (exceptions from the test are caught above, so these always get cancelled)
+				deadline.cancel(false);
+				slow_deadline.cancel(false);
 				
 				test_run_start_time.set(0);
 				if (test_count.incrementAndGet() > cm.getRunCount() && cm.getRunCount() > 0 ) {
@@ -957,22 +1053,107 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 					forceClose();
 					break;
 				}
-				Thread.yield();
+				if (!checkLoad())
+					break;
 			} // end while
 		} // end protected void exec_jobs
 		
+		/** adds or removes threads depending on how busy the host is. called between tests.
+		 * 
+		 * @see HostLoadMonitor
+		 * @return FALSE if this thread was stopped
+		 */
+		protected boolean checkLoad() {
+			if (load_monitor==null)
+				return true;
+			if (scale_up && ext==null && threads.size()>1 && load_monitor.shouldScaleDown()) {
+				// only remove threads that were added (not NTS threads: their extension's tests must be run by 1 thread)
+				cm.println(EPrintType.CLUE, getClass(), "Thread Pool: SCALE DOWN cpu="+load_monitor.getCpuLoad()+" processes="+load_monitor.getProcessCount());
+				this.stopThisThread();
+				return false;
+			} else if (canCreateNewThread() && hasUnclaimedWork() && load_monitor.shouldScaleUp()) {
+				scaleUp();
+			}
+			return true;
+		}
+		
+		/** @return TRUE if there are tests that no thread has started on yet */
+		protected boolean hasUnclaimedWork() {
+			if (!non_thread_safe_exts.isEmpty())
+				return true;
+			for ( TestCaseGroup<T> g : thread_safe_groups ) {
+				if (g.thread_count.get()==0 && !g.test_cases.isEmpty())
+					return true;
+			}
+			return false;
+		}
+		
+		/** stops or replaces the thread if a test takes much longer than it should (test stuck) */
+		protected class TestDeadlineTask implements Runnable {
+			protected final T deadline_test_case;
+			
+			protected TestDeadlineTask(T deadline_test_case) {
+				this.deadline_test_case = deadline_test_case;
+			}
+			
+			@Override
+			public void run() {
+				if (test_case!=deadline_test_case || !isAlive())
+					// test finished
+					return;
+				if (isDebuggerAttached()) {
+					// keep running, check again later
+					TimerUtil.scheduleSeconds(PhptTestCase.MAX_TEST_TIME_SECONDS*2, this);
+				} else if ((jobs!=null&&!jobs.isEmpty())||(ext!=null&&!ext.test_groups.isEmpty())) {
+					replaceThisThread();
+					removeThread(TestPackThread.this);
+				} else {
+					// thread not doing anything else... kill it
+					stopThisThread();
+					removeThread(TestPackThread.this);
+				}
+			}
+		} // end protected class TestDeadlineTask
+		
+		protected class SlowTestTask implements Runnable {
+			protected final T slow_test_case;
+			
+			protected SlowTestTask(T slow_test_case) {
+				this.slow_test_case = slow_test_case;
+			}
+			
+			@Override
+			public void run() {
+				if (test_case==slow_test_case && isAlive() && canCreateNewThread())
+					scaleUp();
+			}
+		} // end protected class SlowTestTask
+		
 		protected abstract void runTest(TestCaseGroupKey group_key, T test_case, boolean debugger_attached) throws IOException, Exception, Throwable;
 
 		@Override
 		protected boolean canCreateNewThread() {
-			return threads.size() < max_thread_count;
+			return !single_threaded && threads.size() < max_thread_count && (thread_budget==null || thread_budget.isAvailable());
+		}
+		
+		/** adds a thread if other scenario sets aren't using all the threads */
+		protected void scaleUp() {
+			try {
+				TestPackThread<T> t = start_thread(parallel, false);
+				if (t==null)
+					return;
+				t.scale_up = true;
+			} catch ( Throwable t ) {
+				twriter.addGlobalException(runner_host, ConsoleManagerUtil.toString(t));
+			}
+			cm.println(EPrintType.CLUE, getClass(), "Thread Pool: SCALE UP. pool size="+threads.size());
 		}
 
 		@Override
 		protected void createNewThread() {
 			// scale up to handle cluster of slower test cases
 			try {
-				scale_up_threads.add(start_thread(parallel));
+				start_thread(parallel).scale_up = true;
 			} catch ( Throwable t ) {
 				twriter.addGlobalException(runner_host, ConsoleManagerUtil.toString(t));
 			}
@@ -1012,6 +1193,10 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 	@Override
 	public void setState(ETestPackRunnerState state) throws IllegalStateException {
 		this.runner_state.set(state);
+		// stop threads now if not RUNNING (@see #executeTestCases)
+		synchronized(threads_lock) {
+			threads_lock.notifyAll();
+		}
 	}
 
 	@Override
@@ -1027,7 +1212,8 @@ public abstract class AbstractLocalTestPackRunner<A extends ActiveTestPack, S ex
 		
 		ArrayList<T> test_cases = new ArrayList<T>(13000);
 			
-		test_pack.cleanup(cm);
+		if (cleanup_test_pack)
+			test_pack.cleanup(cm);
 		
 		// PhpUnit test-packs have their storage setup FIRST, then they are read from storage SECOND
 		//    -PhpUnit sets up storage with this call to #doSetupStorageAndTestPack
@@ -234,38 +234,20 @@ System.out.println("187");
 			//
 			// @see PhpUnitTemplate#renderTemplate for the PHP script
 			//
-			TestCaseCodeCoverage code_coverage = null;
+			TestCaseCodeCoverage code_coverage = new TestCaseCodeCoverage(host);
+			// read and remove code coverage lines first (most of the lines if code coverage is used)
+			output = code_coverage.parseOutput(output, null);
+			if (code_coverage.isEmpty())
+				code_coverage = null;
 			String output_str, output_lc;
 			{
 				List<String> lines = ArrayUtil.toList(StringUtil.splitLines(output));
 				Iterator<String> line_it = lines.iterator();
-				String line, file = null;
+				String line;
 				while (line_it.hasNext()) {
 					line = line_it.next();
 					System.out.println("["+line+"]");
-					if (line.startsWith("file=")) {
-						file = line.substring("file=".length());
-						
-						line_it.remove(); // remove this line from output_str
-					} else if (line.startsWith("exe=")) {
-						if (code_coverage==null)
-							code_coverage = new TestCaseCodeCoverage(host);
-						code_coverage.addExecutedLine(file, Integer.parseInt(line.substring("exe=".length())));
-						
-						line_it.remove(); // remove this line from output_str
-					} else if (line.startsWith("didnt_exe=")) {
-						if (code_coverage==null)
-							code_coverage = new TestCaseCodeCoverage(host);
-						code_coverage.addNotExecutedLine(file, Integer.parseInt(line.substring("didnt_exe=".length())));
-						
-						line_it.remove(); // remove this line from output_str
-					} else if (line.startsWith("no_exe=")) {
-						if (code_coverage==null)
-							code_coverage = new TestCaseCodeCoverage(host);
-						code_coverage.addNonExecutableLine(file, Integer.parseInt(line.substring("no_exe=".length())));
-						
-						line_it.remove(); // remove this line from output_str
-					} else if (line.startsWith("status=")) {
+					if (line.startsWith("status=")) {
 						status = EPhpUnitTestStatus.fromString(line.substring("status=".length()).trim());
 						System.out.println("status "+status);
 						if (status==null) {
@@ -21,7 +21,9 @@ import com.mostc.pftt.model.core.EPhptTestStatus;
 import com.mostc.pftt.model.core.PhpBuild;
 import com.mostc.pftt.model.core.PhpIni;
 import com.mostc.pftt.model.core.PhptActiveTestPack;
+import com.mostc.pftt.model.core.PhptExpectFMatcher;
 import com.mostc.pftt.model.core.PhptOverrideManager;
+import com.mostc.pftt.model.core.PhptSkipIfCache;
 import com.mostc.pftt.model.core.PhptSourceTestPack;
 import com.mostc.pftt.model.core.PhptTestCase;
 import com.mostc.pftt.results.ConsoleManager;
@@ -130,7 +132,7 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 		
 		if (prep.skipif_file!=null) {
 			current_section = EPhptSection.SKIPIF; // @see #getSAPIOutput
-			if ( evalSkipIf(executeSkipIf()) ) {
+			if ( evalSkipIf(getSkipIfOutput()) ) {
 				return;
 			}
 		}
@@ -145,24 +147,9 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 		if (xdebug) {
 			// read and filter code coverage data from the output
 			// @see PhpUnitTemplate#renderXDebugPhptTemplate
-			StringBuilder sb = new StringBuilder(4096);
 			code_coverage = new TestCaseCodeCoverage(host, prep.test_file);
-			String filename = prep.test_file; // can assume it starts here
-			for ( String line : StringUtil.splitLines(test_output)) {
-				if (line.startsWith("exe=")) {
-					code_coverage.addExecutedLine(filename, Integer.parseInt(line.substring("exe=".length())));
-				} else if (line.startsWith("didnt_exe=")) {
-					code_coverage.addNotExecutedLine(filename, Integer.parseInt(line.substring("didnt_exe=".length())));
-				} else if (line.startsWith("no_exe=")) {
-					code_coverage.addNonExecutableLine(filename, Integer.parseInt(line.substring("no_exe=".length())));
-				} else if (line.startsWith("file=")) {
-					filename = line.substring("file=".length());
-				} else {
-					sb.append(line);
-					sb.append('\n');
-				}
-			}
-			test_output = sb.toString();
+			// can assume it starts in test file
+			test_output = code_coverage.parseOutput(test_output, prep.test_file);
 		}
 		//
 		if (not_crashed) {
@@ -179,7 +166,7 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 			}
 
 			// if test passed, remove files created to run the test
-			if(result.status.name() == EPhptTestStatus.PASS.toString()) {
+			if(result!=null && result.status == EPhptTestStatus.PASS) {
 				removeTempFiles();
 			}
 		}
@@ -218,6 +205,31 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 		return true;
 	} // end boolean prepare
 	
+	/** returns output of SKIPIF section, from PhptSkipIfCache if the same SKIPIF was already run with the
+	 * same build, INI and ENV (otherwise executes it)
+	 * 
+	 * @return
+	 * @throws Exception
+	 */
+	protected String getSkipIfOutput() throws Exception {
+		final PhptSkipIfCache cache = host.isRemote() || !PhptSkipIfCache.isCacheable(prep.test_case) ? null : PhptSkipIfCache.open(build);
+		if (cache==null)
+			return executeSkipIf();
+		final String key = PhptSkipIfCache.key(prep.test_case, sapi_scenario.getSAPIType(), ini, env);
+		String output = cache.get(key);
+		if (output!=null)
+			return output;
+		output = executeSkipIf();
+		if (isSkipIfOutputCacheable())
+			cache.put(key, output);
+		return output;
+	} // end protected String getSkipIfOutput
+	
+	/** @return FALSE if SKIPIF didn't run normally (crashed, timed out...) and its output shouldn't be stored */
+	protected boolean isSkipIfOutputCacheable() {
+		return !is_timeout && not_crashed;
+	}
+	
 	/** executes SKIPIF section and returns output
 	 * 
 	 * @return
@@ -238,7 +250,7 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 		// Support xfail in SKIPIF sections
 		if(lc_output.contains("xfail"))
 		{
-			prep.test_case.skipifAsXfail = true;
+			prep.skipif_xfail = true;
 			return false;
 		}
 		
@@ -440,6 +452,23 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 	 */
 	protected abstract void executeClean() throws Exception;
 	
+	/** matches output against the EXPECTF or EXPECTREGEX section
+	 * 
+	 * @param output_trim
+	 * @param remove_warning_and_error
+	 * @return
+	 * @see ConsoleManager#isLinearExpectF
+	 */
+	protected boolean matchExpected(String output_trim, boolean remove_warning_and_error) {
+		if (cm.isLinearExpectF()) {
+			PhptExpectFMatcher m = prep.test_case.getExpectFMatcher(host, remove_warning_and_error);
+			if (m!=null)
+				return m.match(output_trim);
+			// fallback: EXPECTREGEX or %r...%r
+		}
+		return prep.test_case.getExpectedCompiled(host, scenario_set, twriter, remove_warning_and_error).match(output_trim);
+	}
+	
 	/** evaluates the output of the executed test and reports the result
 	 * 
 	 * @param output
@@ -463,24 +492,24 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 			String output_trim = output.trim();
 			
 			try {
-				expected_re_match = prep.test_case.getExpectedCompiled(host, scenario_set, twriter, false).match(output_trim); 
+				expected_re_match = matchExpected(output_trim, false);
 			} catch (Throwable ex) {
 				twriter.addResult(host, scenario_set, src_test_pack, new PhptTestResult(host, EPhptTestStatus.BORK, prep.test_case, ConsoleManagerUtil.toString(ex), null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 				throw ex;
 			}
 			if (expected_re_match) {
 
-				return notifyPassOrXFail(new PhptTestResult(host, prep.test_case.isXFail()?EPhptTestStatus.XFAIL:EPhptTestStatus.PASS, prep.test_case, output, null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
+				return notifyPassOrXFail(new PhptTestResult(host, prep.isXFail()?EPhptTestStatus.XFAIL:EPhptTestStatus.PASS, prep.test_case, output, null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 			} 
 			if (prep.test_case.expectsWarningOrFatalError()) {
 				try {
-					expected_re_match = prep.test_case.getExpectedCompiled(host, scenario_set, twriter, true).match(output_trim); 
+					expected_re_match = matchExpected(output_trim, true);
 				} catch (Throwable ex) {
 					twriter.addResult(host, scenario_set, src_test_pack, new PhptTestResult(host, EPhptTestStatus.BORK, prep.test_case, ConsoleManagerUtil.toString(ex), null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 					throw ex;
 				}
 				if (expected_re_match) {
-					return notifyPassOrXFail(new PhptTestResult(host, prep.test_case.isXFail()?EPhptTestStatus.XFAIL:EPhptTestStatus.PASS, prep.test_case, output, null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
+					return notifyPassOrXFail(new PhptTestResult(host, prep.isXFail()?EPhptTestStatus.XFAIL:EPhptTestStatus.PASS, prep.test_case, output, null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 				}
 			}
 			preoverride_actual = output;
@@ -494,23 +523,23 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 			} else {
 				// compare again
 				try {
-					expected_re_match = prep.test_case.getExpectedCompiled(host, scenario_set, twriter, false).match(output_trim); 
+					expected_re_match = matchExpected(output_trim, false);
 				} catch (Throwable ex) {
 					twriter.addResult(host, scenario_set, src_test_pack, new PhptTestResult(host, EPhptTestStatus.BORK, prep.test_case, ConsoleManagerUtil.toString(ex), null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 					throw ex;
 				}
 				if (expected_re_match) {
-					return notifyPassOrXFail(new PhptTestResult(host, prep.test_case.isXFail()?EPhptTestStatus.XFAIL:EPhptTestStatus.PASS, prep.test_case, output, null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
+					return notifyPassOrXFail(new PhptTestResult(host, prep.isXFail()?EPhptTestStatus.XFAIL:EPhptTestStatus.PASS, prep.test_case, output, null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 				}
 				if (prep.test_case.expectsWarningOrFatalError()) {
 					try {
-						expected_re_match = prep.test_case.getExpectedCompiled(host, scenario_set, twriter, true).match(output_trim); 
+						expected_re_match = matchExpected(output_trim, true);
 					} catch (Throwable ex) {
 						twriter.addResult(host, scenario_set, src_test_pack, new PhptTestResult(host, EPhptTestStatus.BORK, prep.test_case, ConsoleManagerUtil.toString(ex), null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 						throw ex;
 					}
 					if (expected_re_match) {
-						return notifyPassOrXFail(new PhptTestResult(host, prep.test_case.isXFail()?EPhptTestStatus.XFAIL:EPhptTestStatus.PASS, prep.test_case, output, null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
+						return notifyPassOrXFail(new PhptTestResult(host, prep.isXFail()?EPhptTestStatus.XFAIL:EPhptTestStatus.PASS, prep.test_case, output, null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 					}
 				}
 			}
@@ -525,7 +554,7 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 					||(output.contains("<html>")&&!output.contains("404"))
 					||(prep.test_case.isNamed("ext/phar/tests/zip/phar_commitwrite.phpt")&&expected.contains(output.substring(50, 60)))||(prep.test_case.isNamed("ext/phar/tests/tar/phar_commitwrite.phpt")&&expected.contains(output.substring(60, 70)))
 					) {
-				return notifyPassOrXFail(new PhptTestResult(host, prep.test_case.isXFail()?EPhptTestStatus.XFAIL:EPhptTestStatus.PASS, prep.test_case, output, null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, null, code_coverage));
+				return notifyPassOrXFail(new PhptTestResult(host, prep.isXFail()?EPhptTestStatus.XFAIL:EPhptTestStatus.PASS, prep.test_case, output, null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, null, code_coverage));
 			}
 				
 			preoverride_actual = output;
@@ -539,7 +568,7 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 			} else {
 				// compare again
 				if (equalsNoWS(output, expected)) {
-					return notifyPassOrXFail(new PhptTestResult(host, prep.test_case.isXFail()?EPhptTestStatus.XFAIL:EPhptTestStatus.PASS, prep.test_case, output, null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
+					return notifyPassOrXFail(new PhptTestResult(host, prep.isXFail()?EPhptTestStatus.XFAIL:EPhptTestStatus.PASS, prep.test_case, output, null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 				} // end if
 			}
 		} else if (prep.test_case.containsSection(EPhptSection.EXPECTHEADERS)) {
@@ -547,7 +576,7 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 			String output_trim = output.trim();
 			
 			if (StringUtil.isEmpty(output_trim)||(this instanceof HttpPhptTestCaseRunner&&output.contains("<html>")&&!output.contains("404"))) {
-				return notifyPassOrXFail(new PhptTestResult(host, prep.test_case.isXFail()?EPhptTestStatus.XFAIL:EPhptTestStatus.PASS, prep.test_case, output, null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
+				return notifyPassOrXFail(new PhptTestResult(host, prep.isXFail()?EPhptTestStatus.XFAIL:EPhptTestStatus.PASS, prep.test_case, output, null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 			}
 		}
 		
@@ -567,7 +596,7 @@ public abstract class AbstractPhptTestCaseRunner extends AbstractTestCaseRunner<
 		}
 
 		PhptTestResult result;
-		if (prep.test_case.isXFail()) {
+		if (prep.isXFail()) {
 			result = notifyNotPass(new PhptTestResult(host, is_timeout?EPhptTestStatus.TIMEOUT:EPhptTestStatus.XFAIL_WORKS, prep.test_case, output, null, null, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), null, null, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage));
 		} else {
 			result = notifyNotPass(notifyFail(new PhptTestResult(host, is_timeout?EPhptTestStatus.TIMEOUT:EPhptTestStatus.FAIL, prep.test_case, output, actual_lines, expected_lines, charset, ini, env, splitCmdString(), stdin_post, getShellScript(), diff, expectf, preoverride_actual, getSAPIOutput(), getSAPIConfig(), code_coverage)));
@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.Charset;
 
 import com.github.mattficken.io.IOUtil;
 import com.github.mattficken.io.StringUtil;
@@ -20,6 +21,7 @@ import com.mostc.pftt.model.core.PhpIni;
 import com.mostc.pftt.model.core.PhptActiveTestPack;
 import com.mostc.pftt.model.core.PhptSourceTestPack;
 import com.mostc.pftt.model.core.PhptTestCase;
+import com.mostc.pftt.model.sapi.CliPhpWorkerPool;
 import com.mostc.pftt.model.sapi.CliSAPIInstance;
 import com.mostc.pftt.results.ConsoleManager;
 import com.mostc.pftt.results.ITestResultReceiver;
@@ -45,6 +47,8 @@ public class CliPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 	protected EExecutableType exe_type = EExecutableType.CLI;
 	protected ExecOutput output;
 	protected String query_string, shell_script, test_cmd, shell_file;
+	/** @see CliPhpWorkerPool */
+	protected boolean use_worker, worker_output;
 	
 	public CliPhptTestCaseRunner(boolean xdebug, FileSystemScenario fs, CliScenario sapi_scenario, CliSAPIInstance sapi, PhpIni ini, PhptThread thread, PreparedPhptTestCase prep, ConsoleManager cm, ITestResultReceiver twriter, AHost host, ScenarioSetSetup scenario_set_setup, PhpBuild build, PhptSourceTestPack src_test_pack, PhptActiveTestPack active_test_pack, boolean debugger_attached) {
 		super(xdebug, fs, sapi_scenario, ini, thread, prep, cm, twriter, host, scenario_set_setup, build, src_test_pack, active_test_pack);
@@ -68,11 +72,31 @@ public class CliPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 			
 			env = generateENVForTestCase(cm, host, build, scenario_set, prep.test_case);
 			
+			use_worker = sapi.hasWorkers() && canRunInWorker();
+			
 			return true;
 		}
 		return false;
 	}
 		
+	/** checks if test can be run by a php worker instead of in its own new php process
+	 * 
+	 * @see CliPhpWorkerPool
+	 * @return
+	 */
+	protected boolean canRunInWorker() {
+		if (exe_type!=EExecutableType.CLI || debugger_attached || xdebug || cm.getSuspendSeconds() > 0 || prep.test_case.isNon8BitCharset())
+			return false;
+		// INI is read when php starts. ENV, STDIN and ARGS are given to each process
+		if (prep.test_case.containsAnySection(EPhptSection.INI, EPhptSection.ENV, EPhptSection.STDIN, EPhptSection.ARGS))
+			return false;
+		// backtraces would include the worker's driver script
+		String expected = prep.test_case.getExpected();
+		if (expected!=null && (expected.contains("{main}") || expected.contains("Stack trace")))
+			return false;
+		return CliPhpWorkerPool.canRun(prep.test_case.get(EPhptSection.FILE));
+	}
+	
 	@Override
 	public String getIniActual() throws Exception {
 		return sapi.getIniActual();
@@ -202,15 +226,27 @@ public class CliPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 		
 		
 		// execute SKIPIF (5 second timeout since its a little bit of PHP code that doesn't do much)
+		if (use_worker && CliPhpWorkerPool.canRun(prep.test_case.get(EPhptSection.SKIPIF))) {
+			output = sapi.executeInWorker(prep.skipif_file, active_test_pack.getStorageDirectory(), env, 5);
+			if (output!=null)
+				return output.output;
+		}
 		output = sapi.execute(exe_type, prep.base_file_name, prep.skipif_file, null, 5, env, active_test_pack.getStorageDirectory(), debugger_attached);
 					
 		return output.output; 
 	} // end String executeSkipIf
 	
+	@Override
+	protected boolean isSkipIfOutputCacheable() {
+		// crashed or killed (timeout)
+		return super.isSkipIfOutputCacheable() && output!=null && output.exit_code >= 0;
+	}
+	
 	@Override
 	protected void redoCrashedTest() throws Exception {
 		test_cmd = sapi.createPhpCommand(exe_type, prep.test_file, query_string, debugger_attached);
 		((CliPhptTestCaseRunner)this).debugger_attached = true;
+		use_worker = false;
 		executeTest();
 	}
 	
@@ -247,13 +283,31 @@ public class CliPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 				sapi_scenario.getSlowTestTimeSeconds(), cm.getSuspendSeconds(), 
 				IOUtil.HALF_MEGABYTE
 			);
-		String output_str;
+		return filterOutput(output_sb.toString());
+	}
+	
+	/** runs test in a worker
+	 * 
+	 * @see CliPhpWorkerPool
+	 * @return NULL if test crashed or worker not available (run test the normal way)
+	 * @throws Exception
+	 */
+	private String doExecuteTestInWorker() throws Exception {
+		CliPhpWorkerPool.WorkerOutput out = sapi.executeInWorker(prep.test_file, active_test_pack.getStorageDirectory(), env, PhptTestCase.MAX_TEST_TIME_SECONDS);
+		if (out==null)
+			return null;
+		worker_output = true;
+		if (out.timed_out)
+			is_timeout = true;
+		return filterOutput(out.output);
+	}
+	
+	protected String filterOutput(String output_str) {
 		if (cm.isIgnoreOutput()) {
 			output_str = "";
 		} else {
-			output_str = output_sb.toString();
 			if (output_str.contains("PHP Warning:  Module")) {
-				output_sb = new StringBuilder(1024);
+				StringBuilder output_sb = new StringBuilder(1024);
 				for ( String line : StringUtil.splitLines(output_str) ) {
 					if (!line.startsWith("PHP Warning:  Module")) {
 						output_sb.append(line);
@@ -268,6 +322,12 @@ public class CliPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 
 	@Override
 	protected String executeTest() throws Exception { 
+		if (use_worker) {
+			String output_str = doExecuteTestInWorker();
+			if (output_str!=null)
+				return output_str;
+			// crashed or worker not available: run again the normal way to get crash info
+		}
 		String output_str = doExecuteTest();
 		if (running_test_handle!=null&&(running_test_handle.isTimedOut() || (running_test_handle.getExitCode()==-1 && exe_type==EExecutableType.CGI))) {
 			// if test took longer than 1 minute, OR
@@ -292,9 +352,33 @@ public class CliPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 		return output_str;
 	} // end String executeTest
 	
+	@Override
+	protected PhptTestResult evalTest(String output, Charset charset) throws Throwable {
+		PhptTestResult result = super.evalTest(output, charset);
+		if (worker_output && result!=null && result.status!=EPhptTestStatus.PASS) {
+			// may have failed (or XFAILed) only because it was run by a worker. only count the result of running it the normal way
+			worker_output = use_worker = false;
+			is_timeout = false;
+			if (prep.test_clean!=null) {
+				// remove files/dirs the worker run created, they could make the normal run fail
+				current_section = EPhptSection.CLEAN; // @see #getSAPIOutput
+				executeClean();
+			}
+			current_section = EPhptSection.TEST; // @see #getSAPIOutput
+			output = executeTest();
+			if (!not_crashed)
+				// CRASH already reported
+				return null;
+			result = super.evalTest(output, charset);
+		}
+		return result;
+	}
+	
 	@Override
 	protected void executeClean() throws Exception {
 		// execute cleanup script
+		if (use_worker && CliPhpWorkerPool.canRun(prep.test_case.get(EPhptSection.CLEAN)) && sapi.executeInWorker(prep.test_clean, active_test_pack.getStorageDirectory(), env, AHost.ONE_MINUTE)!=null)
+			return;
 		sapi.execute(exe_type, prep.base_file_name, prep.test_clean, query_string, AHost.ONE_MINUTE, env, active_test_pack.getStorageDirectory(), debugger_attached);
 		
 	} // end void executeClean
@@ -1,6 +1,5 @@
 package com.mostc.pftt.runner;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -18,17 +17,52 @@ import org.apache.http.io.SessionOutputBuffer;
 import org.apache.http.params.HttpParams;
 
 public class DebuggingHttpClientConnection extends DefaultHttpClientConnection {
-	protected final ByteArrayOutputStream response, request;
+	protected HttpCaptureBuffer response, request;
+	protected DebuggingInputStream din;
+	protected DebuggingOutputStream dout;
 	
-	public DebuggingHttpClientConnection(@Nullable ByteArrayOutputStream request, ByteArrayOutputStream response) {
+	/**
+	 * 
+	 * @param request - copy of request(s) sent is stored here
+	 * @param response - copy of response(s) received is stored here
+	 */
+	public DebuggingHttpClientConnection(@Nullable HttpCaptureBuffer request, @Nullable HttpCaptureBuffer response) {
 		this.request = request;
 		this.response = response;
 	}
 	
+	/** changes where the request and response are copied to. used when a (keep-alive) connection is reused
+	 * by another test so each test only records its own request(s) and response(s)
+	 * 
+	 * @see HttpConnectionPool
+	 * @param request
+	 * @param response
+	 */
+	public void setCapture(@Nullable HttpCaptureBuffer request, @Nullable HttpCaptureBuffer response) {
+		this.request = request;
+		this.response = response;
+		if (din!=null)
+			din.bin = response;
+		if (dout!=null)
+			dout.bout = request;
+	}
+	
+	/** returns number of bytes written to the socket so far (request(s) sent) */
+	public long getBytesWritten() {
+		final DebuggingOutputStream d = dout;
+		return d == null ? 0 : d.bytes_written;
+	}
+	
+	/** returns the socket this connection is bound to or NULL if not bound */
+	@Nullable
+	public Socket getBoundSocket() {
+		return getSocket();
+	}
+	
 	@Override
 	protected SessionInputBuffer createSessionInputBuffer(final Socket socket, int buffersize, final HttpParams params) throws IOException {
 		InputStream in = socket.getInputStream();
-		DebuggingInputStream din = new DebuggingInputStream(response, in);
+		din = new DebuggingInputStream(response, in);
 		
 		return new DebugSocketInputBuffer(socket, din, buffersize, params);
 	}
@@ -36,16 +70,16 @@ public class DebuggingHttpClientConnection extends DefaultHttpClientConnection {
 	@Override
 	protected SessionOutputBuffer createSessionOutputBuffer(final Socket socket, int buffersize, final HttpParams params) throws IOException {
 		OutputStream out = socket.getOutputStream();
-		DebuggingOutputStream dout = new DebuggingOutputStream(request, out);
+		dout = new DebuggingOutputStream(request, out);
 		
 		return new DebugSocketOutputBuffer(socket, dout, buffersize, params);
 	}
 	
 	protected static class DebuggingInputStream extends InputStream {
-		protected final ByteArrayOutputStream bin;
+		protected volatile HttpCaptureBuffer bin;
 		protected final InputStream real;
 
-		public DebuggingInputStream(ByteArrayOutputStream bin, InputStream real) {
+		public DebuggingInputStream(HttpCaptureBuffer bin, InputStream real) {
 			this.bin = bin;
 			this.real = real;
 		}
@@ -53,39 +87,44 @@ public class DebuggingHttpClientConnection extends DefaultHttpClientConnection {
 		@Override
 		public int read(byte[] buf, int off, int len) throws IOException {
 			len = real.read(buf, off, len);
-			if (len!=-1)
-				bin.write(buf, off, len);
+			final HttpCaptureBuffer b = bin;
+			if (len>0 && b!=null)
+				b.write(buf, off, len);
 			return len;
 		}
 		
 		@Override
 		public int read(byte[] buf) throws IOException {
 			int len = real.read(buf);
-			if (len!=-1)
-				bin.write(buf, 0, len);
+			final HttpCaptureBuffer b = bin;
+			if (len>0 && b!=null)
+				b.write(buf, 0, len);
 			return len;
 		}
 		
 		@Override
 		public int read() throws IOException {
 			int i = real.read();
-			bin.write(i);
+			final HttpCaptureBuffer b = bin;
+			if (i!=-1 && b!=null)
+				b.write(i);
 			return i;
 		}
 		
 		@Override
 		public void close() throws IOException {
-			bin.close();
 			real.close();
 		}
 		
 	} // end protected static class DebuggingInputStream
 	
 	protected static class DebuggingOutputStream extends OutputStream {
-		protected final ByteArrayOutputStream bout;
+		protected volatile HttpCaptureBuffer bout;
 		protected final OutputStream real;
+		/** only counts bytes the socket accepted @see #getBytesWritten */
+		protected volatile long bytes_written;
 
-		public DebuggingOutputStream(ByteArrayOutputStream bout, OutputStream real) {
+		public DebuggingOutputStream(HttpCaptureBuffer bout, OutputStream real) {
 			this.bout = bout;
 			this.real = real;
 		}
@@ -93,6 +132,7 @@ public class DebuggingHttpClientConnection extends DefaultHttpClientConnection {
 		@Override
 		public void write(byte[] buf, int off, int len) throws IOException {
 			real.write(buf, off, len);
+			bytes_written += len;
 			if (bout!=null)
 				bout.write(buf, off, len);
 		}
@@ -100,6 +140,7 @@ public class DebuggingHttpClientConnection extends DefaultHttpClientConnection {
 		@Override
 		public void write(byte[] buf) throws IOException {
 			real.write(buf);
+			bytes_written += buf.length;
 			if (bout!=null)
 				bout.write(buf);
 		}
@@ -107,6 +148,7 @@ public class DebuggingHttpClientConnection extends DefaultHttpClientConnection {
 		@Override
 		public void write(int b) throws IOException {
 			real.write(b);
+			bytes_written++;
 			if (bout!=null)
 				bout.write(b);
 		}
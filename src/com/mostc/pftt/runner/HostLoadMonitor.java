@@ -0,0 +1,106 @@
+package com.mostc.pftt.runner;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mostc.pftt.host.LocalHost;
+
+/** Measures how busy the local host is (CPU usage and number of processes PFTT is running) and decides
+ * when the test thread pool should grow or shrink.
+ *
+ * Samples are taken only when a test thread asks (between tests), at most once every #SAMPLE_MILLIS, so no
+ * thread is needed to monitor the host.
+ *
+ * Only 1 thread is added or removed every #CHANGE_MILLIS so the pool doesn't swing back and forth when
+ * many threads finish tests at the same time.
+ *
+ * Thread-safe.
+ *
+ * @see AbstractLocalTestPackRunner.TestPackThread#checkLoad
+ */
+
+public class HostLoadMonitor {
+	protected static final long SAMPLE_MILLIS = 500;
+	protected static final long CHANGE_MILLIS = 1000;
+	/** add threads only while CPU usage is below this */
+	protected static final double SCALE_UP_CPU = 0.75d;
+	/** remove threads while CPU usage is above this (host oversubscribed) */
+	protected static final double SCALE_DOWN_CPU = 0.95d;
+	/** processes per CPU before the host is considered oversubscribed (each test runs at least 1 process) */
+	protected static final int PROCESSES_PER_CPU = 6;
+	protected final int cpu_count, max_process_count;
+	protected final OperatingSystemMXBean os;
+	protected final AtomicLong last_sample_time, last_change_time;
+	protected volatile double cpu_load;
+	protected volatile int process_count;
+
+	public HostLoadMonitor(int cpu_count) {
+		this.cpu_count = Math.max(1, cpu_count);
+		this.max_process_count = this.cpu_count * PROCESSES_PER_CPU;
+		os = ManagementFactory.getOperatingSystemMXBean();
+		last_sample_time = new AtomicLong();
+		last_change_time = new AtomicLong();
+		cpu_load = -1d;
+	}
+
+	/**
+	 *
+	 * @return TRUE if another thread should be added
+	 */
+	public boolean shouldScaleUp() {
+		sample();
+		if (process_count >= max_process_count)
+			return false;
+		// if CPU usage can't be measured, go by process count only
+		return (cpu_load < 0d || cpu_load < SCALE_UP_CPU) && claimChange();
+	}
+
+	/**
+	 *
+	 * @return TRUE if a thread should be removed
+	 */
+	public boolean shouldScaleDown() {
+		sample();
+		return (process_count > max_process_count || cpu_load > SCALE_DOWN_CPU) && claimChange();
+	}
+
+	/** only 1 thread gets to make a change every #CHANGE_MILLIS */
+	protected boolean claimChange() {
+		final long now = System.currentTimeMillis();
+		final long last = last_change_time.get();
+		return now - last >= CHANGE_MILLIS && last_change_time.compareAndSet(last, now);
+	}
+
+	protected void sample() {
+		final long now = System.currentTimeMillis();
+		final long last = last_sample_time.get();
+		if (now - last < SAMPLE_MILLIS || !last_sample_time.compareAndSet(last, now))
+			// sampled recently (or another thread is sampling now)
+			return;
+		process_count = LocalHost.getInstance().getActiveProcessCount();
+		cpu_load = readCpuLoad();
+	}
+
+	/** @return 0.0 to 1.0 or -1.0 if unknown */
+	@SuppressWarnings("deprecation") // getSystemCpuLoad is deprecated in newer JDKs (getCpuLoad), but needed for Java 6/7
+	protected double readCpuLoad() {
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			double load = ((com.sun.management.OperatingSystemMXBean)os).getSystemCpuLoad();
+			if (load >= 0d)
+				return load;
+		}
+		// fallback: not available on Windows
+		double avg = os.getSystemLoadAverage();
+		return avg < 0d ? -1d : Math.min(1d, avg / cpu_count);
+	}
+
+	public double getCpuLoad() {
+		return cpu_load;
+	}
+
+	public int getProcessCount() {
+		return process_count;
+	}
+
+} // end public class HostLoadMonitor
@@ -0,0 +1,148 @@
+package com.mostc.pftt.runner;
+
+import java.io.OutputStream;
+
+/** Stores a copy of an HTTP request or response to help diagnose a test that didn't pass.
+ *
+ * Only the first and last part of it are kept, so a large response (ex: phar, zip or gd tests) doesn't get copied in full
+ * for every test (almost all of which PASS, so the copy is never used). Storage is only allocated as bytes are written, so a
+ * small request or response only uses a small buffer.
+ *
+ * Only converted to a String (@see #toString) if the test result needs it (FAIL, CRASH, etc...).
+ *
+ * @see DebuggingHttpClientConnection
+ */
+
+public class HttpCaptureBuffer extends OutputStream {
+	/** status line and headers are always at the start. PHP errors and warnings are often at the end */
+	public static final int DEFAULT_HEAD_BYTES = 32*1024;
+	public static final int DEFAULT_TAIL_BYTES = 16*1024;
+	protected static final int INITIAL_BYTES = 512;
+	protected final int max_head, max_tail;
+	protected byte[] head, tail;
+	protected int head_len;
+	/** next position to write to in #tail (ring buffer) */
+	protected int tail_pos;
+	protected long total;
+
+	public HttpCaptureBuffer() {
+		this(DEFAULT_HEAD_BYTES, DEFAULT_TAIL_BYTES);
+	}
+
+	/**
+	 *
+	 * @param max_head - keep up to this many bytes from the start
+	 * @param max_tail - keep up to this many bytes from the end
+	 */
+	public HttpCaptureBuffer(int max_head, int max_tail) {
+		this.max_head = Math.max(0, max_head);
+		this.max_tail = Math.max(0, max_tail);
+	}
+
+	@Override
+	public synchronized void write(int b) {
+		total++;
+		if (head_len < max_head) {
+			ensureHead(head_len+1);
+			head[head_len++] = (byte) b;
+		} else if (max_tail > 0) {
+			ensureTail();
+			tail[tail_pos] = (byte) b;
+			tail_pos = (tail_pos + 1) % max_tail;
+		}
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len) {
+		total += len;
+		int n = Math.min(len, max_head - head_len);
+		if (n > 0) {
+			ensureHead(head_len+n);
+			System.arraycopy(b, off, head, head_len, n);
+			head_len += n;
+			off += n;
+			len -= n;
+		}
+		if (len < 1 || max_tail < 1)
+			return;
+		ensureTail();
+		if (len > max_tail) {
+			// only the last max_tail bytes will be kept anyway
+			off += len - max_tail;
+			len = max_tail;
+		}
+		n = Math.min(len, max_tail - tail_pos);
+		System.arraycopy(b, off, tail, tail_pos, n);
+		System.arraycopy(b, off+n, tail, 0, len-n);
+		tail_pos = (tail_pos + len) % max_tail;
+	}
+
+	protected void ensureHead(int len) {
+		if (head!=null && head.length >= len)
+			return;
+		int cap = head==null ? INITIAL_BYTES : head.length * 2;
+		cap = Math.min(max_head, Math.max(cap, len));
+		byte[] b = new byte[cap];
+		if (head!=null)
+			System.arraycopy(head, 0, b, 0, head_len);
+		head = b;
+	}
+
+	protected void ensureTail() {
+		if (tail==null)
+			tail = new byte[max_tail];
+	}
+
+	/** returns number of bytes in #tail */
+	protected int getTailLength() {
+		return (int) Math.min(total - head_len, max_tail);
+	}
+
+	/** returns number of bytes written (including bytes that weren't kept) */
+	public synchronized long size() {
+		return total;
+	}
+
+	/** returns TRUE if some bytes weren't kept */
+	public synchronized boolean isTruncated() {
+		return total > head_len + getTailLength();
+	}
+
+	public synchronized void reset() {
+		head_len = 0;
+		tail_pos = 0;
+		total = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		if (total==0)
+			return "";
+		final int tail_len = getTailLength();
+		if (tail_len < 1)
+			return head_len==0 ? "" : new String(head, 0, head_len);
+		StringBuilder sb = new StringBuilder(head_len + tail_len + 64);
+		if (head_len > 0)
+			sb.append(new String(head, 0, head_len));
+		long omitted = total - head_len - tail_len;
+		if (omitted > 0) {
+			sb.append("\n...PFTT: ");
+			sb.append(omitted);
+			sb.append(" bytes not stored...\n");
+		}
+		// copy ring buffer in order (oldest first)
+		byte[] b = new byte[tail_len];
+		int start = (tail_pos - tail_len + max_tail) % max_tail;
+		int n = Math.min(tail_len, max_tail - start);
+		System.arraycopy(tail, start, b, 0, n);
+		System.arraycopy(tail, 0, b, n, tail_len - n);
+		sb.append(new String(b));
+		return sb.toString();
+	}
+
+	@Override
+	public void close() {
+		// nothing to close (like ByteArrayOutputStream). still readable after close
+	}
+
+} // end public class HttpCaptureBuffer
@@ -0,0 +1,234 @@
+package com.mostc.pftt.runner;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.LinkedList;
+
+import javax.annotation.Nullable;
+
+import org.apache.http.ConnectionReuseStrategy;
+import org.apache.http.HttpResponse;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import com.mostc.pftt.model.sapi.WebServerInstance;
+
+/** Keeps HTTP connections to a web server open (keep-alive) so each PHPT test (and each of its SKIPIF, TEST and CLEAN
+ * sections) doesn't have to open a new TCP connection to the web server.
+ *
+ * There is one pool for each PhptThread. All connections in a pool are to the same WebServerInstance. If the thread
+ * starts using a different WebServerInstance (ex: web server crashed and was replaced or was restarted to change its
+ * INI), all the idle connections to the old one are closed.
+ *
+ * A connection is only returned to the pool if the whole response was read and the web server said it would keep the
+ * connection open (ex: builtin web server always closes the connection so this pool has no effect with it). Idle
+ * connections are checked before they are reused: if the web server closed it (ex: keep-alive timeout or crash) it is
+ * closed and a new connection is opened.
+ *
+ * Even after that check, the web server could close a connection just as a request is sent on it. A GET on a reused
+ * connection that failed before any of the request could be written is sent again on a new connection @see #isRetryable
+ * Once any of the request was written, it isn't retried: the web server may have crashed while handling it (Apache
+ * would just start a new child process, so a retry could PASS and hide the crash).
+ *
+ * Only 1 request is sent at a time on each connection (no HTTP pipelining). Tests are run 1 at a time per thread and each
+ * request depends on the result of the previous one (ex: TEST isn't run if SKIPIF says to skip).
+ *
+ * Thread-safe (tests with PFTT_RUN_PARALLEL section run in several threads using the same PhptThread).
+ *
+ * @see -no_http_keepalive console option
+ * @see HttpPhptTestCaseRunner
+ */
+
+public class HttpConnectionPool {
+	/** web servers close idle keep-alive connections (Apache's default KeepAliveTimeout is 5 seconds). close connections
+	 * that have been idle longer than this instead of checking them (connection could get closed while request is sent) */
+	protected static final long MAX_IDLE_MILLIS = 4000;
+	/** most connections to keep open. only more than 1 if PFTT_RUN_PARALLEL */
+	protected static final int MAX_IDLE_CONNECTIONS = 4;
+	protected static final int SOCKET_TIMEOUT_MILLIS = 60*1000;
+	private static volatile boolean enabled = true;
+	protected final ConnectionReuseStrategy reuse_strategy;
+	protected final LinkedList<IdleConnection> idle;
+	protected WebServerInstance web;
+
+	public HttpConnectionPool() {
+		reuse_strategy = new DefaultConnectionReuseStrategy();
+		idle = new LinkedList<IdleConnection>();
+	}
+
+	/** @see -no_http_keepalive console option */
+	public static void setEnabled(boolean _enabled) {
+		enabled = _enabled;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	protected static class IdleConnection {
+		protected final DebuggingHttpClientConnection conn;
+		protected final long idle_since;
+
+		protected IdleConnection(DebuggingHttpClientConnection conn) {
+			this.conn = conn;
+			this.idle_since = System.currentTimeMillis();
+		}
+	} // end protected static class IdleConnection
+
+	/** returns an open connection to the web server, reusing an idle one if possible.
+	 *
+	 * the request and response will be copied to the given streams (for the test result).
+	 *
+	 * @param web
+	 * @param params
+	 * @param request_bytes
+	 * @param response_bytes
+	 * @return
+	 * @throws IOException - if can't connect to web server
+	 */
+	public DebuggingHttpClientConnection lease(WebServerInstance web, HttpParams params, @Nullable HttpCaptureBuffer request_bytes, @Nullable HttpCaptureBuffer response_bytes) throws IOException {
+		DebuggingHttpClientConnection conn = takeIdle(web);
+		if (conn!=null) {
+			conn.setCapture(request_bytes, response_bytes);
+			return conn;
+		}
+		conn = new DebuggingHttpClientConnection(request_bytes, response_bytes);
+
+		Socket socket = new Socket();
+		try {
+			socket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+			socket.connect(new InetSocketAddress(web.getHostname(), web.getPort()));
+
+			conn.bind(socket, params);
+			conn.setSocketTimeout(SOCKET_TIMEOUT_MILLIS);
+		} catch ( IOException ex ) {
+			close(socket);
+			throw ex;
+		}
+		return conn;
+	} // end public DebuggingHttpClientConnection lease
+
+	/** returns TRUE if the connection was taken from the pool (not a new connection). must be checked before
+	 * sending the request on it.
+	 *
+	 * @param conn
+	 * @return
+	 */
+	public static boolean isReused(DebuggingHttpClientConnection conn) {
+		return conn.getMetrics().getRequestCount() > 0;
+	}
+
+	/** returns TRUE if request failed because a reused connection was closed by the web server before it
+	 * received the request (ex: keep-alive timeout), so it can be sent again on a new connection.
+	 *
+	 * only if none of the request was written (otherwise the web server may have crashed handling it) and the
+	 * web server isn't known to have crashed. only for requests that can be sent twice (GET, not POST).
+	 *
+	 * @param web
+	 * @param reused - @see #isReused
+	 * @param request_written - TRUE if any of the request was written to the socket @see DebuggingHttpClientConnection#getBytesWritten
+	 * @param ex
+	 * @return
+	 */
+	public static boolean isRetryable(WebServerInstance web, boolean reused, boolean request_written, IOException ex) {
+		// NoHttpResponseException or SocketException (connection reset, broken pipe)
+		return reused && !request_written && !web.isCrashedOrDebuggedAndClosed()
+				&& ( ex instanceof NoHttpResponseException || ex instanceof SocketException );
+	}
+
+	protected synchronized DebuggingHttpClientConnection takeIdle(WebServerInstance web) {
+		if (this.web!=web) {
+			// web server was replaced or restarted (IMPORTANT: compare identity, a replacement
+			// may be on the same host and port so WebServerInstance#equals would be TRUE)
+			closeAllIdle();
+			this.web = web;
+			return null;
+		}
+		if (web.isCrashedOrDebuggedAndClosed()) {
+			closeAllIdle();
+			return null;
+		}
+		final long now = System.currentTimeMillis();
+		IdleConnection ic;
+		while ((ic=idle.pollLast())!=null) {
+			// check: web server may have closed connection (half-closed) or reset it
+			if (now - ic.idle_since < MAX_IDLE_MILLIS && ic.conn.isOpen() && !ic.conn.isStale())
+				return ic.conn;
+			close(ic.conn);
+		}
+		return null;
+	}
+
+	/** returns connection to the pool (or closes it if it can't be reused).
+	 *
+	 * reads any of the response that wasn't read already. must be called after every #lease, even if the request
+	 * failed or timed out.
+	 *
+	 * @param web
+	 * @param conn
+	 * @param response - NULL if request failed
+	 * @param context
+	 * @param reusable - FALSE if test timed out, failed, etc... connection will be closed
+	 */
+	public void release(WebServerInstance web, @Nullable DebuggingHttpClientConnection conn, @Nullable HttpResponse response, HttpContext context, boolean reusable) {
+		if (conn==null)
+			return;
+		if (!enabled||!reusable||response==null||web==null||web.isCrashedOrDebuggedAndClosed()||!conn.isOpen()) {
+			close(conn);
+			return;
+		}
+		try {
+			if (!reuse_strategy.keepAlive(response, context)) {
+				// ex: `Connection: close` or HTTP/1.0 response with no Content-Length
+				close(conn);
+				return;
+			}
+			// read rest of response so next request on connection doesn't read it
+			EntityUtils.consume(response.getEntity());
+		} catch ( Exception ex ) {
+			close(conn);
+			return;
+		}
+		// don't copy anything more into this test's request/response
+		conn.setCapture(null, null);
+		synchronized(this) {
+			if (this.web!=web || idle.size() >= MAX_IDLE_CONNECTIONS) {
+				close(conn);
+				return;
+			}
+			idle.addLast(new IdleConnection(conn));
+		}
+	} // end public void release
+
+	/** closes all idle connections. call when web server crashes or is closed */
+	public synchronized void closeAllIdle() {
+		IdleConnection ic;
+		while ((ic=idle.pollFirst())!=null)
+			close(ic.conn);
+	}
+
+	public synchronized void close() {
+		closeAllIdle();
+		web = null;
+	}
+
+	protected static void close(@Nullable DebuggingHttpClientConnection conn) {
+		if (conn==null)
+			return;
+		try {
+			conn.shutdown();
+		} catch ( Throwable t ) {}
+	}
+
+	protected static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch ( Throwable t ) {}
+	}
+
+} // end public class HttpConnectionPool
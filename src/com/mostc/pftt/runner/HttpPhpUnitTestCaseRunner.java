@@ -1,6 +1,5 @@
 package com.mostc.pftt.runner;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
@@ -40,7 +39,7 @@ import com.mostc.pftt.util.TimerUtil.TimerThread;
 
 public class HttpPhpUnitTestCaseRunner extends AbstractPhpUnitTestCaseRunner {
 	protected final WebServerManager smgr;
-	protected final ByteArrayOutputStream response_bytes;
+	protected final HttpCaptureBuffer response_bytes;
 	protected WebServerInstance web = null;
 	protected boolean is_replacement = false;
 	protected String cookie_str;
@@ -64,7 +63,7 @@ public class HttpPhpUnitTestCaseRunner extends AbstractPhpUnitTestCaseRunner {
 		conn = new AtomicReference<DebuggingHttpClientConnection>();
 		
 		// don't need request_bytes, just doing a really basic HTTP GET
-		this.response_bytes = new ByteArrayOutputStream();
+		this.response_bytes = new HttpCaptureBuffer();
 	}
 	
 	@Override
@@ -366,7 +365,7 @@ public class HttpPhpUnitTestCaseRunner extends AbstractPhpUnitTestCaseRunner {
 		}
 	} // end protected String do_http_get
 	
-	/** returns entire HTTP response (including headers) for test case
+	/** returns HTTP response (including headers) for test case. middle of large responses is not stored @see HttpCaptureBuffer
 	 * 
 	 * @return
 	 */
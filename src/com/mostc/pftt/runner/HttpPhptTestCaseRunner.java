@@ -1,8 +1,6 @@
 package com.mostc.pftt.runner;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URLEncoder;
 import java.util.HashMap;
@@ -55,9 +53,11 @@ import com.mostc.pftt.util.TimerUtil.TimerThread;
 
 public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 	protected final WebServerManager smgr;
-	protected final ByteArrayOutputStream request_bytes, response_bytes;
+	protected final HttpCaptureBuffer request_bytes, response_bytes;
 	protected WebServerInstance web = null;
 	protected boolean is_replacement = false;
+	/** set by #stop: don't send the request again on a new connection */
+	protected volatile boolean is_stopped = false;
 	protected String cookie_str;
 	protected final AtomicReference<DebuggingHttpClientConnection> conn;
 	protected final HttpParams params;
@@ -87,8 +87,9 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 		
 		conn = new AtomicReference<DebuggingHttpClientConnection>();
 		
-		this.request_bytes = new ByteArrayOutputStream(256);
-		this.response_bytes = new ByteArrayOutputStream(4096);
+		// only keeps start and end of large requests/responses (only used if test doesn't pass)
+		this.request_bytes = new HttpCaptureBuffer();
+		this.response_bytes = new HttpCaptureBuffer();
 	}
 	
 	@Override
@@ -308,6 +309,7 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 	
 	@Override
 	protected void stop(boolean force) {
+		is_stopped = true;
 		if (force && is_replacement && web !=null && !web.isDebuggerAttached())
 			web.close(cm);
 		final Socket s = test_socket;
@@ -333,13 +335,7 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 		HttpContext context = new BasicHttpContext(null);
 		HttpHost http_host = new HttpHost(web.getHostname(), web.getPort());
 		
-		DebuggingHttpClientConnection conn = this.conn.get();
-		if (conn!=null) {
-			conn.close();
-			conn = null;
-		}
-		conn = new DebuggingHttpClientConnection(request_bytes, response_bytes);
-		this.conn.set(conn);
+		final HttpConnectionPool pool = thread.getHttpConnectionPool();
 		test_socket = null;
 		final TimerThread timeout_task = TimerUtil.waitSeconds(
 				sapi_scenario.getSlowTestTimeSeconds(), 
@@ -378,17 +374,20 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 					}
 			);
 		HttpGet request = null;
+		HttpResponse response = null;
+		DebuggingHttpClientConnection conn = null;
+		boolean reusable = false;
 		try {
+			// reuses keep-alive connection to web server if possible
+			conn = pool.lease(web, params, request_bytes, response_bytes);
+			this.conn.set(conn);
+			test_socket = conn.getBoundSocket();
+			final boolean reused = HttpConnectionPool.isReused(conn);
+			final long written = conn.getBytesWritten();
+			
 			context.setAttribute(ExecutionContext.HTTP_CONNECTION, conn);
 			context.setAttribute(ExecutionContext.HTTP_TARGET_HOST, http_host);
 			
-			test_socket = new Socket();
-			test_socket.setSoTimeout(60*1000);
-			test_socket.connect(new InetSocketAddress(http_host.getHostName(), web.getPort()));// TODO temp http_host.getPort()));
-			
-			conn.bind(test_socket, params);
-			conn.setSocketTimeout(60*1000);
-			
 			request = new HttpGet("/php-test-pack-5.4.38/"+path); // TODO temp 
 			if (cookie_str!=null)
 				request.setHeader("Cookie", cookie_str);
@@ -403,7 +402,19 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 			
 			httpexecutor.preProcess(request, httpproc, context);
 			
-			HttpResponse response = httpexecutor.execute(request, conn, context);
+			try {
+				response = httpexecutor.execute(request, conn, context);
+			} catch ( IOException ex ) {
+				// if test was stopped or timed out, the connection was closed on purpose: don't send again
+				if (is_stopped || is_timeout || !HttpConnectionPool.isRetryable(web, reused, conn.getBytesWritten()!=written, ex))
+					throw ex;
+				// web server closed idle keep-alive connection before it got request: send again on new connection
+				timeout_task.close();
+				// don't keep the partial request/response from the failed connection
+				request_bytes.reset();
+				response_bytes.reset();
+				return do_http_get(path, i);
+			}
 			
 			response.setParams(params);
 			httpexecutor.postProcess(response, httpproc, context);
@@ -465,6 +476,7 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 				break;
 			default:
 			}*/
+			reusable = true;
 			if (cm.isIgnoreOutput()) {
 				return "";
 			} else {
@@ -472,15 +484,10 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 			}
 		} finally {
 			if (request!=null)
-				request.releaseConnection();			
-			try {
-			if (test_socket!=null)
-				test_socket.close();
-			} catch ( Throwable t ) {}
-			try {
-			if (conn!=null)
-				conn.close();
-			} catch ( Throwable t ) {}
+				request.releaseConnection();
+			// keeps connection open for next request only if response was normal and completely read
+			pool.release(web, conn, response, context, reusable && !is_timeout);
+			test_socket = null;
 		}
 	} // end protected String do_http_get
 	
@@ -495,13 +502,8 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 		HttpContext context = new BasicHttpContext(null);
 		HttpHost http_host = new HttpHost(web.getHostname(), web.getPort());
 		
-		DebuggingHttpClientConnection conn = this.conn.get();
-		if (conn!=null) {
-			conn.close();
-			conn = null;
-		}
-		conn = new DebuggingHttpClientConnection(request_bytes, response_bytes);
-		this.conn.set(conn);
+		final HttpConnectionPool pool = thread.getHttpConnectionPool();
+		test_socket = null;
 		final TimerThread timeout_task = TimerUtil.waitSeconds(
 				sapi_scenario.getSlowTestTimeSeconds(), 
 				new Runnable() {
@@ -538,17 +540,18 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 				}
 			);
 		HttpPost request = null;
+		HttpResponse response = null;
+		DebuggingHttpClientConnection conn = null;
+		boolean reusable = false;
 		try {
+			// reuses keep-alive connection to web server if possible
+			conn = pool.lease(web, params, request_bytes, response_bytes);
+			this.conn.set(conn);
+			test_socket = conn.getBoundSocket();
+			
 			context.setAttribute(ExecutionContext.HTTP_CONNECTION, conn);
 			context.setAttribute(ExecutionContext.HTTP_TARGET_HOST, http_host);
 			
-			test_socket = new Socket();
-			test_socket.setSoTimeout(60*1000);
-			test_socket.connect(new InetSocketAddress(http_host.getHostName(), http_host.getPort()));
-			
-			conn.bind(test_socket, params);
-			conn.setSocketTimeout(60*1000);
-			
 			request = new HttpPost(path);
 			if (content_type!=null)
 				request.setHeader("Content-Type", content_type);
@@ -559,7 +562,8 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 			
 			httpexecutor.preProcess(request, httpproc, context);		
 			
-			HttpResponse response = httpexecutor.execute(request, conn, context);
+			// never sent again (POST isn't idempotent, test would run twice)
+			response = httpexecutor.execute(request, conn, context);
 			
 			response.setParams(params);
 			httpexecutor.postProcess(response, httpproc, context);
@@ -586,6 +590,7 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 				break;
 			default:
 			}
+			reusable = true;
 			if (cm.isIgnoreOutput()) {
 				return "";
 			} else {
@@ -594,14 +599,9 @@ public class HttpPhptTestCaseRunner extends AbstractPhptTestCaseRunner {
 		} finally {
 			if (request!=null)
 				request.releaseConnection();
-			try {
-			if (test_socket!=null)
-				test_socket.close();
-			} catch ( Throwable t ) {}
-			try {
-			if (conn!=null)
-				conn.close();
-			} catch ( Throwable t ) {}
+			// keeps connection open for next request only if response was normal and completely read
+			pool.release(web, conn, response, context, reusable && !is_timeout);
+			test_socket = null;
 		}
 	} // end protected String do_http_post
 	
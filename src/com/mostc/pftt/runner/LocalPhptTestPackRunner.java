@@ -9,9 +9,11 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nullable;
 
+import com.github.mattficken.io.StringUtil;
 import com.mostc.pftt.host.AHost;
 import com.mostc.pftt.main.Config;
 import com.mostc.pftt.main.IENVINIFilter;
@@ -32,6 +34,7 @@ import com.mostc.pftt.results.ITestResultReceiver;
 import com.mostc.pftt.results.PhpResultPackWriter;
 import com.mostc.pftt.results.PhptResultWriter;
 import com.mostc.pftt.results.PhptTestResult;
+import com.mostc.pftt.runner.PhptTestPreparer.PreparedPhptTestCase;
 import com.mostc.pftt.scenario.EScenarioSetPermutationLayer;
 import com.mostc.pftt.scenario.FileSystemScenario;
 import com.mostc.pftt.scenario.IScenarioSetup;
@@ -53,6 +56,9 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 	protected final IENVINIFilter filter;
 	protected final boolean xdebug;
 	protected final PhptTestPreparer preparer;
+	/** test cases are shared with other scenario sets, so prepared state for this scenario set is kept here */
+	protected final Map<PhptTestCase,PreparedPhptTestCase> prepared_test_cases = new ConcurrentHashMap<PhptTestCase,PreparedPhptTestCase>(16384);
+	private static final Object install_dir_lock = new Object();
 	
 	public LocalPhptTestPackRunner(ConsoleManager cm, ITestResultReceiver twriter, ScenarioSet scenario_set, PhpBuild build, AHost storage_host, AHost runner_host, IENVINIFilter filter) {
 		super(cm, twriter, scenario_set, build, storage_host, runner_host);
@@ -75,7 +81,8 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 	protected void setupStorageAndTestPack(ITestPackStorageDir storage_dir, List<PhptTestCase> test_cases) {
 		// generate name of directory on that storage to store the copy of the test-pack
 		String local_test_pack_dir = null, remote_test_pack_dir = null;
-		{
+		// scenario sets run at the same time (-concurrent_scenario_sets) must not pick the same directory
+		synchronized(install_dir_lock) {
 			String local_path = storage_dir.getLocalPath(storage_host);
 			String remote_path = storage_dir.getRemotePath(storage_host);
 			long millis = System.currentTimeMillis();
@@ -92,6 +99,16 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 				if (i%100==0)
 					millis = System.currentTimeMillis();
 			}
+			if (active_test_pack==null && (cm.isPhptNotInPlace() || !runner_fs.allowPhptInPlace())) {
+				// claim directory now, it won't exist until the test-pack is copied into it
+				try {
+					storage_host.mCreateDirs(remote_test_pack_dir);
+					if (runner_host!=storage_host)
+						runner_host.mCreateDirs(local_test_pack_dir);
+				} catch ( Exception ex ) {
+					cm.addGlobalException(EPrintType.OPERATION_FAILED_CONTINUING, getClass(), "setupStorageAndTestPack", ex, "", storage_host, remote_test_pack_dir);
+				}
+			}
 		}
 		//
 		
@@ -176,7 +193,7 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 			return null;
 		}
 		
-		test_case.prep = preparer.prepare(test_case, fs, runner_host, active_test_pack);
+		prepared_test_cases.put(test_case, preparer.prepare(test_case, fs, runner_host, active_test_pack));
 		
 		return group_key;
 	} // end protected TestCaseGroupKey createGroupKey
@@ -195,6 +212,13 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 	
 	@Override
 	protected void postGroup(LinkedList<TestCaseGroup<PhptTestCase>> thread_safe_list, List<PhptTestCase> test_cases) {
+		TestRunTimeHistory history = readRunTimeHistory();
+		if (history!=null && !history.isEmpty()) {
+			scheduleByRunTime(history, thread_safe_list);
+			return;
+		}
+		// no history: order by number of tests
+		//
 		// evenly mix up large and small groups
 		{
 			HashMap<Integer,LinkedList<TestCaseGroup<PhptTestCase>>> map = new HashMap<Integer,LinkedList<TestCaseGroup<PhptTestCase>>>();
@@ -252,6 +276,130 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 		non_thread_safe_exts.addAll(b);
 	} // end protected void postGroup
 	
+	/** @return NULL if result-pack isn't being written */
+	@Nullable
+	protected TestRunTimeHistory readRunTimeHistory() {
+		if (!(twriter instanceof PhpResultPackWriter))
+			return null;
+		TestRunTimeHistory history = TestRunTimeHistory.readPhpt(
+				((PhpResultPackWriter)twriter).getResultPackPath(),
+				src_test_pack.getNameAndVersionString(),
+				// @see PhpResultPackWriter#phpt_telem_dir
+				StringUtil.max(scenario_set_setup.getNameWithVersionInfo(), 70)
+			);
+		if (!history.isEmpty())
+			cm.println(EPrintType.CLUE, getClass(), "Scheduling tests using run times from previous result-packs");
+		return history;
+	}
+	
+	/** orders tests and groups by predicted run time, longest first, so the test run doesn't end with most threads
+	 * idle while a few run long tests or groups.
+	 * 
+	 * Thread-safe groups that would take longer than 1 thread's share of the run are split into chunks of
+	 * about the same predicted run time (chunks have the same TestCaseGroupKey, so they can be run by different
+	 * threads at the same time @see TestPackThread#pickThreadSafeGroup). NTS extensions can't be split (their
+	 * tests must be run one at a time), so the ones that will take longest are started first.
+	 * 
+	 * @param history
+	 * @param thread_safe_list
+	 */
+	protected void scheduleByRunTime(final TestRunTimeHistory history, LinkedList<TestCaseGroup<PhptTestCase>> thread_safe_list) {
+		Comparator<PhptTestCase> longest_first = new Comparator<PhptTestCase>() {
+				@Override
+				public int compare(PhptTestCase a, PhptTestCase b) {
+					return Float.compare(history.predictMicros(b.getName()), history.predictMicros(a.getName()));
+				}
+			};
+		Comparator<TestCaseGroup<PhptTestCase>> longest_group_first = new Comparator<TestCaseGroup<PhptTestCase>>() {
+				@Override
+				public int compare(TestCaseGroup<PhptTestCase> a, TestCaseGroup<PhptTestCase> b) {
+					return Float.compare(b.predicted_micros, a.predicted_micros);
+				}
+			};
+		
+		// thread-safe
+		float total_micros = 0f;
+		ArrayList<PhptTestCase> buf;
+		for ( TestCaseGroup<PhptTestCase> a : thread_safe_list ) {
+			buf = new ArrayList<PhptTestCase>(a.test_cases.size());
+			buf.addAll(a.test_cases);
+			// SAPI's order is kept for tests with the same predicted time (stable sort)
+			sapi_scenario.sortTestCases(buf);
+			Collections.sort(buf, longest_first);
+			a.test_cases.clear();
+			a.predicted_micros = 0f;
+			for ( PhptTestCase t : buf ) {
+				a.test_cases.add(t);
+				a.predicted_micros += history.predictMicros(t.getName());
+			}
+			total_micros += a.predicted_micros;
+		}
+		final int thread_count = cm.getThreadCount() > 0 ? cm.getThreadCount() : runner_host.getCPUCount();
+		final float share_micros = total_micros / Math.max(1, thread_count);
+		ArrayList<TestCaseGroup<PhptTestCase>> chunks = new ArrayList<TestCaseGroup<PhptTestCase>>(thread_safe_list.size());
+		for ( TestCaseGroup<PhptTestCase> a : thread_safe_list ) {
+			final int chunk_count = share_micros > 0f ? Math.min(a.test_cases.size(), (int) Math.ceil(a.predicted_micros / share_micros)) : 1;
+			if (chunk_count < 2) {
+				chunks.add(a);
+				continue;
+			}
+			@SuppressWarnings({"unchecked","rawtypes"})
+			TestCaseGroup<PhptTestCase>[] c = new TestCaseGroup[chunk_count];
+			for ( int i=0 ; i < chunk_count ; i++ )
+				c[i] = new TestCaseGroup<PhptTestCase>(a.group_key);
+			// longest test first: add each test to the chunk with the least predicted time so far
+			// (each chunk stays in longest first order)
+			for ( PhptTestCase t : a.test_cases ) {
+				TestCaseGroup<PhptTestCase> min = c[0];
+				for ( int i=1 ; i < chunk_count ; i++ ) {
+					if (c[i].predicted_micros < min.predicted_micros)
+						min = c[i];
+				}
+				min.test_cases.add(t);
+				min.predicted_micros += history.predictMicros(t.getName());
+			}
+			for ( TestCaseGroup<PhptTestCase> x : c )
+				chunks.add(x);
+		}
+		Collections.sort(chunks, longest_group_first);
+		thread_safe_list.clear();
+		thread_safe_list.addAll(chunks);
+		
+		// non-thread-safe
+		ArrayList<NonThreadSafeExt<PhptTestCase>> b = new ArrayList<NonThreadSafeExt<PhptTestCase>>(non_thread_safe_exts.size());
+		b.addAll(non_thread_safe_exts);
+		final HashMap<NonThreadSafeExt<PhptTestCase>,Float> ext_micros = new HashMap<NonThreadSafeExt<PhptTestCase>,Float>();
+		for ( NonThreadSafeExt<PhptTestCase> ext : b ) {
+			float micros = 0f;
+			ArrayList<TestCaseGroup<PhptTestCase>> groups = new ArrayList<TestCaseGroup<PhptTestCase>>(ext.test_groups.size());
+			groups.addAll(ext.test_groups);
+			for ( TestCaseGroup<PhptTestCase> g : groups ) {
+				buf = new ArrayList<PhptTestCase>(g.test_cases.size());
+				buf.addAll(g.test_cases);
+				Collections.sort(buf, longest_first);
+				g.test_cases.clear();
+				g.predicted_micros = 0f;
+				for ( PhptTestCase t : buf ) {
+					g.test_cases.add(t);
+					g.predicted_micros += history.predictMicros(t.getName());
+				}
+				micros += g.predicted_micros;
+			}
+			Collections.sort(groups, longest_group_first);
+			ext.test_groups.clear();
+			ext.test_groups.addAll(groups);
+			ext_micros.put(ext, micros);
+		}
+		Collections.sort(b, new Comparator<NonThreadSafeExt<PhptTestCase>>() {
+				@Override
+				public int compare(NonThreadSafeExt<PhptTestCase> x, NonThreadSafeExt<PhptTestCase> y) {
+					return Float.compare(ext_micros.get(y), ext_micros.get(x));
+				}
+			});
+		non_thread_safe_exts.clear();
+		non_thread_safe_exts.addAll(b);
+	} // end protected void scheduleByRunTime
+	
 	@Override
 	protected void reportGroups() {
 		PhptResultWriter phpt = (PhptResultWriter) ((PhpResultPackWriter)twriter).getPHPT(runner_host, scenario_set_setup, src_test_pack.getNameAndVersionString());
@@ -267,10 +415,26 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 	
 	public class PhptThread extends TestPackThread<PhptTestCase> {
 		protected final LinkedList<AbstractPhptTestCaseRunner> runners;
+		protected final HttpConnectionPool http_pool;
 		
 		protected PhptThread(boolean parallel) {
 			super(parallel);
 			runners = new LinkedList<AbstractPhptTestCaseRunner>();
+			http_pool = new HttpConnectionPool();
+		}
+		
+		/** keep-alive connections to this thread's web server (@see #getThreadWebServerInstance) */
+		public HttpConnectionPool getHttpConnectionPool() {
+			return http_pool;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				super.run();
+			} finally {
+				http_pool.close();
+			}
 		}
 
 		@Override
@@ -294,7 +458,7 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 				// PFTT_RUN_PARALLEL implementation
 				
 				for (int i=0;i<set.run_times;i++) {
-					runners.add( sapi_scenario.createPhptTestCaseRunner(this, group_key, test_case.prep, cm, twriter, runner_fs, runner_host, scenario_set_setup, build, src_test_pack, active_test_pack, xdebug, debugger_attached) );
+					runners.add( sapi_scenario.createPhptTestCaseRunner(this, group_key, prepared_test_cases.get(test_case), cm, twriter, runner_fs, runner_host, scenario_set_setup, build, src_test_pack, active_test_pack, xdebug, debugger_attached) );
 				}
 				
 				twriter.notifyStart(runner_host, scenario_set_setup, src_test_pack, test_case);
@@ -357,7 +521,7 @@ public class LocalPhptTestPackRunner extends AbstractLocalTestPackRunner<PhptAct
 			} else {
 			
 			
-				AbstractPhptTestCaseRunner r = sapi_scenario.createPhptTestCaseRunner(this, group_key, test_case.prep, cm, twriter, runner_fs, runner_host, scenario_set_setup, build, src_test_pack, active_test_pack, xdebug, debugger_attached);
+				AbstractPhptTestCaseRunner r = sapi_scenario.createPhptTestCaseRunner(this, group_key, prepared_test_cases.get(test_case), cm, twriter, runner_fs, runner_host, scenario_set_setup, build, src_test_pack, active_test_pack, xdebug, debugger_attached);
 				
 				if (runners.isEmpty()) {
 					runners.add(r);
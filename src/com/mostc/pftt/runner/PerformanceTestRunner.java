@@ -0,0 +1,123 @@
+package com.mostc.pftt.runner;
+
+import java.util.List;
+
+import com.mostc.pftt.host.AHost;
+import com.mostc.pftt.model.core.PhpBuild;
+import com.mostc.pftt.model.performance.ELoadModel;
+import com.mostc.pftt.model.performance.HttpLoadGenerator;
+import com.mostc.pftt.model.performance.PerformanceTest;
+import com.mostc.pftt.model.sapi.WebServerInstance;
+import com.mostc.pftt.model.smoke.RequiredExtensionsSmokeTest;
+import com.mostc.pftt.results.ConsoleManager;
+import com.mostc.pftt.results.EPrintType;
+import com.mostc.pftt.results.PerformanceTestResult;
+import com.mostc.pftt.results.PhpResultPackWriter;
+import com.mostc.pftt.scenario.FileSystemScenario;
+import com.mostc.pftt.scenario.ScenarioSetSetup;
+import com.mostc.pftt.scenario.WebServerScenario;
+
+/** Runs PerformanceTests against the web server of a scenario set (builtin, Apache, IIS...) with each number of
+ * virtual clients and writes the results into the result-pack.
+ *
+ * Tests are run one at a time (running them at the same time would change the results).
+ *
+ * @see HttpLoadGenerator
+ */
+
+public class PerformanceTestRunner {
+	protected final ConsoleManager cm;
+	protected final PhpResultPackWriter w;
+	protected final AHost host;
+	protected final ScenarioSetSetup scenario_set_setup;
+	protected final PhpBuild build;
+	protected final ELoadModel model;
+	protected final int[] virtual_clients;
+	protected final double target_rps;
+	protected int run_count = 1;
+
+	/**
+	 *
+	 * @param cm
+	 * @param w
+	 * @param host
+	 * @param scenario_set_setup
+	 * @param build
+	 * @param model
+	 * @param virtual_clients - run each test with each of these numbers of virtual clients
+	 * @param target_rps - for ELoadModel#OPEN
+	 */
+	public PerformanceTestRunner(ConsoleManager cm, PhpResultPackWriter w, AHost host, ScenarioSetSetup scenario_set_setup, PhpBuild build, ELoadModel model, int[] virtual_clients, double target_rps) {
+		this.cm = cm;
+		this.w = w;
+		this.host = host;
+		this.scenario_set_setup = scenario_set_setup;
+		this.build = build;
+		this.model = model;
+		this.virtual_clients = virtual_clients;
+		this.target_rps = target_rps;
+	}
+	
+	/** runs each test (with each number of virtual clients) this many times. reports can only tell
+	 * if a change is more than noise if there are at least 2 runs.
+	 * 
+	 * @param run_count
+	 */
+	public void setRunCount(int run_count) {
+		this.run_count = Math.max(1, run_count);
+	}
+
+	public void runTests(List<PerformanceTest> tests) {
+		WebServerScenario web_scenario = WebServerScenario.getWebServerScenario(scenario_set_setup.getScenarioSet());
+		if (web_scenario==null) {
+			cm.println(EPrintType.CANT_CONTINUE, getClass(), "Scenario set has no web server: "+scenario_set_setup.getNameWithVersionInfo());
+			return;
+		}
+		FileSystemScenario fs = FileSystemScenario.getFS(scenario_set_setup.getScenarioSet(), host);
+		WebServerInstance web = web_scenario.smgr.getWebServerInstance(
+				cm,
+				fs,
+				host,
+				scenario_set_setup.getScenarioSet(),
+				build,
+				RequiredExtensionsSmokeTest.createDefaultIniCopy(cm, fs, host, build),
+				scenario_set_setup.getENV(),
+				web_scenario.getDefaultDocroot(host, build),
+				null,
+				false,
+				"Performance"
+			);
+		try {
+			for ( int run=0 ; run < run_count ; run++ ) {
+				for ( PerformanceTest test : tests ) {
+					for ( int clients : virtual_clients ) {
+						if (web.isCrashedOrDebuggedAndClosed()) {
+							cm.println(EPrintType.CANT_CONTINUE, getClass(), "Web server crashed: "+web.getSAPIOutput());
+							return;
+						}
+						runTest(web, test, clients);
+					}
+				}
+			}
+		} finally {
+			web.close(cm);
+		}
+	} // end public void runTests
+
+	protected void runTest(WebServerInstance web, PerformanceTest test, int clients) {
+		cm.println(EPrintType.IN_PROGRESS, getClass(), "Running "+test.getName()+" with "+clients+" virtual clients ("+model+") for "+(test.getWarmupSeconds()+test.getDurationSeconds()+test.getCooldownSeconds())+" seconds");
+
+		HttpLoadGenerator gen = new HttpLoadGenerator(web.getHostname(), web.getPort(), test.getRequestPath(), model, clients, target_rps);
+		try {
+			PerformanceTestResult result = gen.run(test.getName(), test.getWarmupSeconds(), test.getDurationSeconds(), test.getCooldownSeconds());
+
+			w.addResult(host, scenario_set_setup, result);
+
+			cm.println(EPrintType.COMPLETED_OPERATION, getClass(), result.toString());
+		} catch ( Exception ex ) {
+			// ex: application not installed
+			cm.addGlobalException(EPrintType.CANT_CONTINUE, getClass(), "runTest", ex, test.getName()+" "+test.getRequestPath());
+		}
+	}
+
+} // end public class PerformanceTestRunner
@@ -72,13 +72,23 @@ public class PhptTestPreparer {
 			return php_code;
 	}
 	
+	/** state of a test case for 1 scenario set. PhptTestCase is shared by all scenario sets, so anything
+	 * that depends on the scenario set must be stored here instead.
+	 */
 	public class PreparedPhptTestCase extends TestCase {
 		public final PhptTestCase test_case;
 		public String base_file_name, skipif_file, test_dir, test_file, test_clean;
+		/** TRUE if SKIPIF section's output says test is expected to fail */
+		public boolean skipif_xfail;
 		
 		public PreparedPhptTestCase(PhptTestCase test_case) {
 			this.test_case = test_case;
 		}
+		
+		/** @see PhptTestCase#isXFail */
+		public boolean isXFail() {
+			return skipif_xfail || test_case.isXFail();
+		}
 
 		@Override
 		public String getName() {
@@ -0,0 +1,202 @@
+package com.mostc.pftt.runner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import com.mostc.pftt.results.ConsoleManagerUtil;
+
+/** Predicts how long each test will take to run, from how long it took in previous test runs.
+ *
+ * Reads run_time_micros from the ALL.csv files of the most recent result-packs in the same directory
+ * as the current result-pack. Results for the same scenario set are used if there are any, otherwise results
+ * from any scenario set of the same test-pack (or any test-pack if none are from this test-pack).
+ *
+ * Used to run the longest tests and groups first, so test runs don't end with 1 thread running a long
+ * test or group while the other threads are idle.
+ *
+ * @see com.mostc.pftt.results.PhptResultWriter - writes ALL.csv
+ * @see LocalPhptTestPackRunner#postGroup
+ */
+
+public class TestRunTimeHistory {
+	/** number of previous result-packs to read */
+	public static final int MAX_RESULT_PACKS = 3;
+	protected static final HashMap<String,TestRunTimeHistory> cache = new HashMap<String,TestRunTimeHistory>();
+	protected final HashMap<String,Float> run_time_micros;
+	protected final HashMap<String,Integer> run_count;
+	/** prediction for tests that weren't run before */
+	protected float default_micros;
+
+	protected TestRunTimeHistory() {
+		run_time_micros = new HashMap<String,Float>(16384);
+		run_count = new HashMap<String,Integer>(16384);
+	}
+
+	/** reads history of PHPT run times from the result-packs in the same directory as the current one
+	 *
+	 * @param current_result_pack - result-pack being written now (ignored)
+	 * @param test_pack_name
+	 * @param scenario_set_name - name of the scenario set's directory in the result-pack
+	 * @return history (empty if no result-packs found)
+	 */
+	public static TestRunTimeHistory readPhpt(File current_result_pack, String test_pack_name, String scenario_set_name) {
+		final String key = current_result_pack+"|"+test_pack_name+"|"+scenario_set_name;
+		synchronized(cache) {
+			TestRunTimeHistory h = cache.get(key);
+			if (h!=null)
+				return h;
+			h = new TestRunTimeHistory();
+			try {
+				File[] result_packs = findResultPacks(current_result_pack);
+				// prefer same test-pack and scenario set, then same test-pack, then anything
+				if (!h.readPhpt(result_packs, test_pack_name, scenario_set_name)
+						&& !h.readPhpt(result_packs, test_pack_name, null))
+					h.readPhpt(result_packs, null, null);
+			} catch ( Exception ex ) {
+				ConsoleManagerUtil.printStackTrace(TestRunTimeHistory.class, ex);
+			}
+			h.computeDefault();
+			cache.put(key, h);
+			return h;
+		}
+	} // end public static TestRunTimeHistory readPhpt
+
+	/** finds the most recent result-packs in the same directory */
+	protected static File[] findResultPacks(File current_result_pack) {
+		if (current_result_pack==null)
+			return new File[0];
+		File[] dirs = current_result_pack.getAbsoluteFile().getParentFile().listFiles();
+		if (dirs==null)
+			return new File[0];
+		final String current = current_result_pack.getAbsoluteFile().getName();
+		int n = 0;
+		for ( File d : dirs ) {
+			if (d.isDirectory() && d.getName().contains("-Result-Pack-") && !d.getName().equals(current))
+				dirs[n++] = d;
+		}
+		dirs = Arrays.copyOf(dirs, n);
+		// newest first
+		Arrays.sort(dirs, new Comparator<File>() {
+				@Override
+				public int compare(File a, File b) {
+					long x = a.lastModified(), y = b.lastModified();
+					return x < y ? 1 : x > y ? -1 : 0;
+				}
+			});
+		return dirs.length > MAX_RESULT_PACKS ? Arrays.copyOf(dirs, MAX_RESULT_PACKS) : dirs;
+	}
+
+	/** reads ALL.csv files from result-packs
+	 *
+	 * layout: [result-pack]/[host]/PHPT/[test-pack]/[scenario set]/ALL.csv
+	 *
+	 * @param result_packs
+	 * @param test_pack_name - NULL for any
+	 * @param scenario_set_name - NULL for any
+	 * @return TRUE if any ALL.csv was read
+	 * @throws IOException
+	 */
+	protected boolean readPhpt(File[] result_packs, String test_pack_name, String scenario_set_name) throws IOException {
+		boolean found = false;
+		for ( File result_pack : result_packs ) {
+			File[] hosts = result_pack.listFiles();
+			if (hosts==null)
+				continue;
+			for ( File host : hosts ) {
+				File[] test_packs = new File(host, "PHPT").listFiles();
+				if (test_packs==null)
+					continue;
+				for ( File test_pack : test_packs ) {
+					if (test_pack_name!=null && !test_pack.getName().equals(test_pack_name))
+						continue;
+					File[] scenario_sets = test_pack.listFiles();
+					if (scenario_sets==null)
+						continue;
+					for ( File scenario_set : scenario_sets ) {
+						if (scenario_set_name!=null && !scenario_set.getName().equals(scenario_set_name))
+							continue;
+						File csv = new File(scenario_set, "ALL.csv");
+						if (csv.isFile()) {
+							readCsv(csv);
+							found = true;
+						}
+					}
+				}
+			}
+		}
+		return found;
+	} // end protected boolean readPhpt
+
+	/** reads lines like: 'ext/standard/tests/file/bug1.phpt','PASS',1234.0 */
+	protected void readCsv(File csv) throws IOException {
+		BufferedReader r = new BufferedReader(new FileReader(csv));
+		try {
+			String line;
+			while ((line = r.readLine())!=null) {
+				if (line.length() < 2 || line.charAt(0)!='\'')
+					continue;
+				int i = line.indexOf("','", 1);
+				int j = line.lastIndexOf(',');
+				if (i==-1 || j <= i+2)
+					continue;
+				float micros;
+				try {
+					micros = Float.parseFloat(line.substring(j+1).trim());
+				} catch ( NumberFormatException ex ) {
+					continue;
+				}
+				if (micros <= 0f)
+					// not measured (ex: SKIP)
+					continue;
+				add(line.substring(1, i), micros);
+			}
+		} finally {
+			r.close();
+		}
+	}
+
+	protected void add(String test_name, float micros) {
+		Integer n = run_count.get(test_name);
+		if (n==null) {
+			run_count.put(test_name, 1);
+			run_time_micros.put(test_name, micros);
+		} else {
+			// running average
+			float avg = run_time_micros.get(test_name);
+			run_count.put(test_name, n+1);
+			run_time_micros.put(test_name, avg + ( micros - avg ) / ( n + 1 ));
+		}
+	}
+
+	protected void computeDefault() {
+		if (run_time_micros.isEmpty())
+			return;
+		// median: a few very slow tests shouldn't make every new test look slow
+		float[] a = new float[run_time_micros.size()];
+		int i=0;
+		for ( Float f : run_time_micros.values() )
+			a[i++] = f;
+		Arrays.sort(a);
+		default_micros = a[a.length/2];
+	}
+
+	public boolean isEmpty() {
+		return run_time_micros.isEmpty();
+	}
+
+	/** returns how long the test is expected to take
+	 *
+	 * @param test_name
+	 * @return microseconds (median of all tests if test wasn't run before)
+	 */
+	public float predictMicros(String test_name) {
+		Float f = run_time_micros.get(test_name);
+		return f==null ? default_micros : f;
+	}
+
+} // end public class TestRunTimeHistory
@@ -0,0 +1,72 @@
+package com.mostc.pftt.runner;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Limits the total number of test threads of several test-pack runners running at the same time on the
+ * same host (one for each scenario set).
+ *
+ * Each runner starts with an equal share of the threads. When a runner gets to the end of its scenario set
+ * and its threads finish, they're returned to the budget and the other runners can scale up to use them
+ * (so the end of one scenario set is filled with tests from the others).
+ *
+ * Every runner can always have at least 1 thread, even if the budget is used up, so every scenario set
+ * can finish.
+ *
+ * Thread-safe.
+ *
+ * @see -concurrent_scenario_sets console option
+ * @see AbstractLocalTestPackRunner#setThreadBudget
+ */
+
+public class TestThreadBudget {
+	protected final int total_threads, share;
+	protected final AtomicInteger used_threads;
+
+	/**
+	 *
+	 * @param total_threads - maximum number of threads for all runners
+	 * @param runner_count - number of runners sharing the threads
+	 */
+	public TestThreadBudget(int total_threads, int runner_count) {
+		this.total_threads = Math.max(1, total_threads);
+		this.share = Math.max(1, this.total_threads / Math.max(1, runner_count));
+		used_threads = new AtomicInteger();
+	}
+
+	/**
+	 *
+	 * @param force - TRUE to take a thread even if none are left (runner's only thread or a replacement for a stuck thread)
+	 * @return TRUE if thread can be started
+	 */
+	public boolean acquire(boolean force) {
+		if (force) {
+			used_threads.incrementAndGet();
+			return true;
+		}
+		for (;;) {
+			final int used = used_threads.get();
+			if (used >= total_threads)
+				return false;
+			else if (used_threads.compareAndSet(used, used+1))
+				return true;
+		}
+	}
+
+	public void release() {
+		used_threads.decrementAndGet();
+	}
+
+	public boolean isAvailable() {
+		return used_threads.get() < total_threads;
+	}
+
+	/** number of threads each runner should start with */
+	public int getShare() {
+		return share;
+	}
+
+	public int getTotalThreads() {
+		return total_threads;
+	}
+
+} // end public class TestThreadBudget
@@ -3,6 +3,10 @@ package com.mostc.pftt.util;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.LinkedList;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.mostc.pftt.host.LocalHost;
@@ -381,6 +385,45 @@ public final class TimerUtil {
 		
 	} // end public static abstract class TimerThread2S
 	
+	private static ScheduledThreadPoolExecutor timeout_service;
+	
+	/** runs the task on its own thread after the given number of seconds, unless cancelled first
+	 * 
+	 * Unlike #waitSeconds, this doesn't need a thread while its waiting. All the waiting is done by 1 shared
+	 * scheduler (this is meant for timeouts that are set for every test and usually cancelled).
+	 * 
+	 * Cancel with ScheduledFuture#cancel(false).
+	 * 
+	 * @param seconds
+	 * @param r - may block (runs on its own thread @see #runThread)
+	 * @return
+	 */
+	public static ScheduledFuture<?> scheduleSeconds(int seconds, final Runnable r) {
+		return getTimeoutService().schedule(new Runnable() {
+				@Override
+				public void run() {
+					// don't block the scheduler (ex: killing a process can take a while)
+					runThread("Timeout", r);
+				}
+			}, seconds, TimeUnit.SECONDS);
+	}
+	
+	protected static synchronized ScheduledThreadPoolExecutor getTimeoutService() {
+		if (timeout_service==null) {
+			timeout_service = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "TimeoutScheduler");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			// most timeouts are cancelled. don't keep them queued until they would've expired
+			timeout_service.setRemoveOnCancelPolicy(true);
+		}
+		return timeout_service;
+	}
+	
 	public static TimerThread1S waitSeconds(int seconds, Runnable ...runnables) {
 		TimerThread1S t;
 		if (runnables.length==1) {
@@ -179,4 +179,15 @@ public class REProgram implements Serializable
         }
         return null;
     }
+
+    /**
+     * Returns the count of parens in the program, or -1 if not known
+     * (ex: to store the program and later construct it again with
+     * <code>REProgram(int, char[])</code>).
+     * @return Count of parens
+     */
+    public int getMaxParens()
+    {
+        return maxParens;
+    }
 }